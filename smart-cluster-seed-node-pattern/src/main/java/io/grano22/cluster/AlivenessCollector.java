@@ -1,101 +1,469 @@
 package io.grano22.cluster;
 
+import lombok.Getter;
 import lombok.NonNull;
 import io.grano22.cluster.clustermanagement.Cluster;
+import io.grano22.cluster.clustermanagement.ClusterNode;
+import io.grano22.cluster.clustermanagement.MembershipDigest;
+import io.grano22.cluster.clustermanagement.NodeConfig;
 import io.grano22.cluster.clustermanagement.NodesMeshManager;
+import io.grano22.cluster.heartbeat.FragmentReassembler;
+import io.grano22.cluster.heartbeat.HeartbeatCodec;
+import io.grano22.cluster.heartbeat.HeartbeatCodecs;
+import io.grano22.cluster.heartbeat.HeartbeatFragments;
+import io.grano22.cluster.heartbeat.HeartbeatMessage;
+import io.grano22.cluster.heartbeat.HeartbeatTransport;
+import io.grano22.cluster.heartbeat.PhiAccrualFailureDetector;
+import io.grano22.cluster.optimizations.ByteBufferPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Marker;
 import org.slf4j.MarkerFactory;
-import tools.jackson.databind.json.JsonMapper;
 
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.SocketException;
-import java.nio.charset.StandardCharsets;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.LongStream;
 
+/**
+ * Heartbeat ingestion in three stages connected by bounded queues: receive into pooled buffers, decode on worker threads
+ * and apply decoded messages in batches, so membership mutations are coalesced per batch instead of per datagram.
+ */
 public class AlivenessCollector implements Runnable {
-    private static final int BUFFER_SIZE = 65535;
+    private static final long RECEIVE_TIMEOUT_MILLIS = 500;
+    private static final int ARRIVAL_WINDOW_SIZE = 100;
+    private static final int DECODE_WORKERS = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    private static final int RECEIVED_QUEUE_CAPACITY = 1024;
+    private static final int DECODED_QUEUE_CAPACITY = 1024;
+    private static final int MAX_APPLY_BATCH = 256;
+    // Most heartbeats fit a single ethernet frame, bigger datagrams get an exactly sized buffer
+    private static final int POOLED_DATAGRAM_SIZE = 2048;
+    private static final int MAX_PENDING_REASSEMBLIES = 64;
 
     private final static Marker contextMarker = MarkerFactory.getMarker("AlivenessCollector");
     private final static Logger logger = LoggerFactory.getLogger(AlivenessCollector.class);
 
-    private final JsonMapper mapper = JsonMapper.shared();
+    // Arrival is stamped when the datagram is read, time spent queued for a decode worker must not look like silence
+    private record ReceivedDatagram(ByteBuffer payload, SocketAddress source, long receivedAt) {}
+    private record DecodedMessage(HeartbeatMessage message, long receivedAt) {}
+    private record MembershipPull(ClusterNode peer, String clusterName) {}
 
-    private final @NonNull DatagramSocket socket;
+    private final @NonNull HeartbeatTransport transport;
     private final @NonNull ExecutorService executor;
     private final @NonNull NodesMeshManager meshManager;
+    private final @NonNull HeartbeatJob heartbeatJob;
+    private final double phiThreshold;
+    private final long probePeriodMillis;
+    @Getter
+    private final @NonNull PhiAccrualFailureDetector failureDetector;
+    @Getter
+    private final @NonNull FragmentReassembler reassembler;
+
+    private final ByteBufferPool datagramBuffers = new ByteBufferPool(POOLED_DATAGRAM_SIZE, RECEIVED_QUEUE_CAPACITY + DECODE_WORKERS, false);
+    private final BlockingQueue<ReceivedDatagram> received = new ArrayBlockingQueue<>(RECEIVED_QUEUE_CAPACITY);
+    private final BlockingQueue<DecodedMessage> decoded = new ArrayBlockingQueue<>(DECODED_QUEUE_CAPACITY);
+    private final LongAdder droppedReceived = new LongAdder();
+    private final LongAdder droppedDecoded = new LongAdder();
+    private final LongAdder decodeFailures = new LongAdder();
+
     private volatile boolean running = true;
+    private long lastEvaluationAt;
+    // Owned by the apply stage, a divergence that does not resolve is pulled again once per period instead of per message
+    private final Map<MembershipPull, Long> lastPulls = new HashMap<>();
 
     public AlivenessCollector(
-         int port,
+         final @NonNull HeartbeatTransport transport,
          final @NonNull ExecutorService executorService,
-         final @NonNull NodesMeshManager meshManager
-    ) throws SocketException {
-        this.socket = new DatagramSocket(port);
+         final @NonNull NodesMeshManager meshManager,
+         final @NonNull HeartbeatJob heartbeatJob,
+         final @NonNull NodeConfig.HeartbeatSettings settings
+    ) {
+        this.transport = transport;
         this.executor = executorService;
         this.meshManager = meshManager;
+        this.heartbeatJob = heartbeatJob;
+        this.phiThreshold = settings.phiThreshold();
+        this.probePeriodMillis = settings.probePeriodMillis();
+        this.failureDetector = new PhiAccrualFailureDetector(
+            ARRIVAL_WINDOW_SIZE,
+            Math.max(1, probePeriodMillis / 10),
+            expectedArrivalIntervalMillis(meshManager.getAllKnownNodes().size())
+        );
+        // Fragments of one message are sent back to back, anything older than a couple of periods is lost
+        this.reassembler = new FragmentReassembler(MAX_PENDING_REASSEMBLIES, Math.max(1000, settings.probePeriodMillis() * 2));
     }
 
+    /**
+     * Receive stage, the only reader of the transport.
+     */
     @Override
     public void run() {
-        byte[] buffer = new byte[BUFFER_SIZE];
-        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        ByteBuffer scratch = ByteBuffer.allocateDirect(HeartbeatTransport.MAX_DATAGRAM_SIZE);
 
         while (running && !Thread.currentThread().isInterrupted()) {
             try {
-                socket.receive(packet);
-                String rawJson = new String(packet.getData(), StandardCharsets.UTF_8);
-                String cleanJson = rawJson.replace("\u0000", "");
-                logger.trace("Received heartbeat from {}:{}, {}", packet.getAddress(), packet.getPort(), cleanJson);
-                HeartbeatJob.Heartbeat heartbeat = mapper.readValue(cleanJson, HeartbeatJob.Heartbeat.class);
-
-                if (heartbeat.clusters() != null) {
-                    Set<Cluster> commonClusters = new HashSet<>(heartbeat.clusters());
-                    commonClusters.retainAll(meshManager.getClusters());
-
-//                Set<Cluster> clustersMissing = new HashSet<>(heartbeat.clusters());
-//                clustersMissing.removeAll(commonClusters);
-
-                    for (var cluster : commonClusters) {
-                        for (var node : cluster.nodes()) {
-                            if (meshManager.hasInCluster(cluster, node)) {
-                                continue;
-                            }
-
-                            meshManager.setNodeDiscovered(node.hostname() + ":" + node.heartbeatPort());
-                            meshManager.addNodeToCluster(cluster, node);
-                            logger.info("Node {} discovered in cluster {}", node, cluster);
-                        }
+                scratch.clear();
+                SocketAddress source = transport.receive(scratch, RECEIVE_TIMEOUT_MILLIS);
+                if (source == null) {
+                    continue;
+                }
+
+                long receivedAt = System.currentTimeMillis();
+                scratch.flip();
+                if (HeartbeatFragments.isFragment(scratch)) {
+                    ByteBuffer message = reassembler.accept(source, scratch, receivedAt);
+
+                    if (message != null && !received.offer(new ReceivedDatagram(message, source, receivedAt))) {
+                        droppedReceived.increment();
                     }
+                    continue;
+                }
+
+                ByteBuffer payload = scratch.remaining() <= POOLED_DATAGRAM_SIZE
+                    ? datagramBuffers.acquire()
+                    : ByteBuffer.allocate(scratch.remaining())
+                ;
+                payload.put(scratch).flip();
+
+                if (!received.offer(new ReceivedDatagram(payload, source, receivedAt))) {
+                    droppedReceived.increment();
+                    datagramBuffers.release(payload);
+                }
+            } catch (Exception e) {
+                logger.atError()
+                    .addMarker(contextMarker)
+                    .setCause(e)
+                    .log("Failed to receive heartbeat");
+            }
+        }
+    }
+
+    private void decodeLoop() {
+        // Codecs keep scratch state, every worker owns its instances
+        List<HeartbeatCodec> codecs = HeartbeatCodecs.createAll();
+
+        while (running) {
+            ReceivedDatagram datagram;
+            try {
+                datagram = received.poll(RECEIVE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (datagram == null) {
+                continue;
+            }
 
-                    // TODO: Do we need to know about clusters that this server is not connected?
-                    //meshManager.addClusters(clustersMissing);
+            try {
+                HeartbeatCodec codec = HeartbeatCodecs.detect(codecs, datagram.payload());
+                logger.trace("Received {} heartbeat from {}, {} bytes", codec.name(), datagram.source(), datagram.payload().remaining());
 
-                    packet.setLength(buffer.length);
+                HeartbeatMessage message = codec.decode(datagram.payload());
+                if (!decoded.offer(new DecodedMessage(message, datagram.receivedAt()))) {
+                    droppedDecoded.increment();
                 }
             } catch (Exception e) {
+                decodeFailures.increment();
                 logger.atError()
                     .addMarker(contextMarker)
                     .setCause(e)
-                    .log("Failed to collect heartbeat");
+                    .log("Failed to decode heartbeat from {}", datagram.source());
+            } finally {
+                datagramBuffers.release(datagram.payload());
+            }
+        }
+    }
+
+    private void applyLoop() {
+        List<DecodedMessage> batch = new ArrayList<>(MAX_APPLY_BATCH);
+
+        while (running) {
+            try {
+                evaluateSuspicion();
+
+                DecodedMessage first = decoded.poll(RECEIVE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+                decoded.drainTo(batch, MAX_APPLY_BATCH - 1);
+                applyBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.atError()
+                    .addMarker(contextMarker)
+                    .setCause(e)
+                    .log("Failed to apply heartbeats");
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void applyBatch(List<DecodedMessage> batch) {
+        Map<String, Set<ClusterNode>> discovered = new HashMap<>();
+        Map<ClusterNode, Map<String, Long>> latestDigests = new LinkedHashMap<>();
+
+        for (var decodedMessage: batch) {
+            HeartbeatMessage message = decodedMessage.message();
+            failureDetector.heartbeat(message.sender(), decodedMessage.receivedAt());
+            if (message.telemetry() != null) {
+                meshManager.updateTelemetry(message.sender(), message.telemetry().withSampledAt(decodedMessage.receivedAt()));
+            }
+
+            switch (message) {
+                case HeartbeatMessage.Heartbeat heartbeat -> {
+                    if (heartbeat.clusters() != null) {
+                        collectDiscovered(discovered, heartbeat.sender(), heartbeat.clusters());
+                    }
+                    latestDigests.put(heartbeat.sender(), heartbeat.clusterDigests());
+                    if (heartbeat.ackRequested()) {
+                        heartbeatJob.getMembership().onAckRequested(heartbeat);
+                    }
+                }
+                case HeartbeatMessage.MembershipSyncRequest request -> handleSyncRequest(request, discovered);
+                case HeartbeatMessage.MembershipSyncResponse response -> collectDiscovered(discovered, response.sender(), response.clusters());
+                case HeartbeatMessage.Ping ping -> {
+                    heartbeatJob.getMembership().onPing(ping);
+                    latestDigests.put(ping.sender(), ping.clusterDigests());
+                }
+                case HeartbeatMessage.PingRequest request -> heartbeatJob.getMembership().onPingRequest(request);
+                case HeartbeatMessage.Ack ack -> heartbeatJob.getMembership().onAck(ack);
+                case HeartbeatMessage.Beacon beacon -> answerBeacon(beacon, discovered);
+            }
+        }
+
+        if (!discovered.isEmpty()) {
+            // The whole batch becomes visible as one membership version
+            meshManager.publish(membership -> discovered.forEach(membership::addNodes));
+            for (var clusterNodes: discovered.entrySet()) {
+                for (var node: clusterNodes.getValue()) {
+                    meshManager.setNodeDiscovered(node.hostname() + ":" + node.heartbeatPort());
+                    logger.info("Node {} discovered in cluster {}", node, clusterNodes.getKey());
+                }
+            }
+        }
+
+        // Digests are compared only after the batch is merged, otherwise the merge itself would look like a divergence
+        long now = System.currentTimeMillis();
+        for (var digests: latestDigests.entrySet()) {
+            pullDivergedMembership(digests.getKey(), digests.getValue(), now);
+        }
+    }
+
+    private void evaluateSuspicion() {
+        long now = System.currentTimeMillis();
+        if (now - lastEvaluationAt < RECEIVE_TIMEOUT_MILLIS) {
+            return;
+        }
+        lastEvaluationAt = now;
+        lastPulls.values().removeIf(pulledAt -> now - pulledAt >= probePeriodMillis);
+
+        var knownNodes = meshManager.getAllKnownNodes();
+        failureDetector.retainOnly(knownNodes);
+        failureDetector.setExpectedIntervalMillis(expectedArrivalIntervalMillis(knownNodes.size()));
+
+        for (var node: knownNodes) {
+            // Nodes we never heard from are left to the discovery and SWIM probing
+            if (!failureDetector.isTracked(node)) {
+                continue;
+            }
+
+            double phi = failureDetector.phi(node, now);
+            meshManager.updateSuspicionLevel(node, phi);
+
+            if (phi >= phiThreshold) {
+                if (meshManager.setNodeAsNotHealthy(node)) {
+                    logger.atWarn()
+                        .addMarker(contextMarker)
+                        .log("Node {} marked as not healthy, phi {}", node, phi)
+                    ;
+                }
+            } else if (meshManager.setNodeAsHealthy(node)) {
+                logger.info("Node {} is healthy again, phi {}", node, phi);
+            }
+        }
+    }
+
+    /**
+     * A peer probes one member per period in a shuffled round, so it reaches this node about once every round of
+     * as many periods as there are other members. Acks to own probes arrive on the same schedule.
+     */
+    private long expectedArrivalIntervalMillis(int otherMembers) {
+        return Math.max(1, otherMembers) * probePeriodMillis;
+    }
+
+    private void pullDivergedMembership(ClusterNode peer, Map<String, Long> remoteDigests, long now) {
+        var localDigests = meshManager.getClusterDigests();
+        Map<String, long[]> knownNodeIds = new HashMap<>();
+        for (var remoteDigest: remoteDigests.entrySet()) {
+            String clusterName = remoteDigest.getKey();
+            Long localDigest = localDigests.get(clusterName);
+            if (localDigest == null || localDigest.longValue() == remoteDigest.getValue()) {
+                continue;
+            }
+
+            // A peer still counting members declared dead here has nothing to offer, their gossip is refused anyway
+            var declaredDead = heartbeatJob.getMembership().getDeclaredDead(clusterName);
+            if (!declaredDead.isEmpty() && digestWith(clusterName, declaredDead) == remoteDigest.getValue()) {
+                continue;
+            }
+
+            Long pulledAt = lastPulls.get(new MembershipPull(peer, clusterName));
+            if (pulledAt != null && now - pulledAt < probePeriodMillis) {
+                continue;
             }
+
+            lastPulls.put(new MembershipPull(peer, clusterName), now);
+            // Dead members are reported as known so the delta does not carry them back
+            knownNodeIds.put(clusterName, LongStream.concat(
+                Arrays.stream(meshManager.getKnownNodeIds(clusterName)),
+                declaredDead.stream().mapToLong(MembershipDigest::nodeId)
+            ).toArray());
+        }
+
+        if (!knownNodeIds.isEmpty()) {
+            logger.debug("Membership of {} diverged from {}, pulling delta", knownNodeIds.keySet(), peer);
+            heartbeatJob.send(
+                new HeartbeatMessage.MembershipSyncRequest(meshManager.getSelf(), System.currentTimeMillis(), knownNodeIds),
+                Set.of(addressOf(peer))
+            );
         }
     }
 
+    private long digestWith(String clusterName, Set<ClusterNode> extraNodes) {
+        Set<ClusterNode> nodes = new HashSet<>(extraNodes);
+        meshManager.findCluster(clusterName).ifPresent(cluster -> nodes.addAll(cluster.nodes()));
+
+        return MembershipDigest.clusterDigest(nodes);
+    }
+
+    private void handleSyncRequest(HeartbeatMessage.MembershipSyncRequest request, Map<String, Set<ClusterNode>> discovered) {
+        Set<Cluster> deltas = new HashSet<>();
+
+        for (var knownNodes: request.knownNodeIds().entrySet()) {
+            meshManager.findCluster(knownNodes.getKey()).ifPresent(cluster -> {
+                // Requester only asks about clusters it belongs to
+                collectDiscovered(discovered, request.sender(), cluster, request.sender());
+            });
+
+            meshManager.getClusterDelta(knownNodes.getKey(), knownNodes.getValue())
+                .filter(delta -> !delta.nodes().isEmpty())
+                .ifPresent(deltas::add)
+            ;
+        }
+
+        if (!deltas.isEmpty()) {
+            heartbeatJob.send(
+                new HeartbeatMessage.MembershipSyncResponse(meshManager.getSelf(), System.currentTimeMillis(), deltas),
+                Set.of(addressOf(request.sender()))
+            );
+        }
+    }
+
+    private void answerBeacon(HeartbeatMessage.Beacon beacon, Map<String, Set<ClusterNode>> discovered) {
+        Set<Cluster> sharedClusters = new HashSet<>();
+
+        for (var clusterName: beacon.clusterNames()) {
+            meshManager.findCluster(clusterName)
+                .filter(cluster -> !meshManager.hasInCluster(cluster, beacon.sender()))
+                .ifPresent(cluster -> {
+                    sharedClusters.add(cluster);
+                    collectDiscovered(discovered, beacon.sender(), cluster, beacon.sender());
+                })
+            ;
+        }
+
+        // Known nodes are kept in sync by probing, only newcomers get the full membership
+        if (!sharedClusters.isEmpty()) {
+            heartbeatJob.send(
+                new HeartbeatMessage.MembershipSyncResponse(meshManager.getSelf(), System.currentTimeMillis(), sharedClusters),
+                Set.of(addressOf(beacon.sender()))
+            );
+        }
+    }
+
+    private void collectDiscovered(Map<String, Set<ClusterNode>> discovered, ClusterNode source, Set<Cluster> clusters) {
+        for (var cluster: clusters) {
+            // TODO: Do we need to know about clusters that this server is not connected?
+            var localCluster = meshManager.findCluster(cluster.name());
+            if (localCluster.isEmpty()) {
+                continue;
+            }
+
+            for (var node: cluster.nodes()) {
+                collectDiscovered(discovered, source, localCluster.get(), node);
+            }
+        }
+    }
+
+    private void collectDiscovered(Map<String, Set<ClusterNode>> discovered, ClusterNode source, Cluster cluster, ClusterNode node) {
+        if (meshManager.hasInCluster(cluster, node)) {
+            return;
+        }
+
+        // Stale views of other members must not resurrect a node declared dead, only the node itself can
+        if (!node.equals(source) && heartbeatJob.getMembership().isDeclaredDead(node)) {
+            return;
+        }
+
+        discovered.computeIfAbsent(cluster.name(), _ -> new HashSet<>()).add(node);
+    }
+
+    private static InetSocketAddress addressOf(ClusterNode node) {
+        return new InetSocketAddress(node.hostname(), node.heartbeatPort());
+    }
+
+    /**
+     * Feeds a message decoded elsewhere, like a multicast beacon, straight into the apply stage.
+     */
+    public void submit(@NonNull HeartbeatMessage message) {
+        if (!decoded.offer(new DecodedMessage(message, System.currentTimeMillis()))) {
+            droppedDecoded.increment();
+        }
+    }
+
+    public long getDroppedReceived() {
+        return droppedReceived.sum();
+    }
+
+    public long getDroppedDecoded() {
+        return droppedDecoded.sum();
+    }
+
+    public long getDecodeFailures() {
+        return decodeFailures.sum();
+    }
+
     public void start() {
         running = true;
         executor.submit(this);
+        for (int i = 0; i < DECODE_WORKERS; i++) {
+            executor.submit(this::decodeLoop);
+        }
+        executor.submit(this::applyLoop);
     }
 
     public void stop() {
         running = false;
-        if (!socket.isClosed()) {
-            socket.close();
-        }
+        transport.wakeup();
         logger.info("UDP heartbeat Server stopped.");
     }
 }
@@ -2,11 +2,20 @@ package io.grano22.cluster;
 
 import io.grano22.cluster.clustermanagement.NodeConfig;
 import io.grano22.cluster.clustermanagement.NodeConfigLoader;
+import io.grano22.cluster.clustermanagement.NodePlacement;
 import io.grano22.cluster.clustermanagement.NodesMeshManager;
+import io.grano22.cluster.heartbeat.HeartbeatCodecs;
+import io.grano22.cluster.heartbeat.HeartbeatTransport;
+import io.grano22.cluster.heartbeat.MulticastDiscovery;
 import io.grano22.cluster.logging.ConcurrentWebLogEmitter;
 import io.grano22.cluster.logging.GlobalLoggerContextHolder;
+import io.grano22.cluster.remoteexecution.ClusterExecutionService;
+import io.grano22.cluster.remoteexecution.ExecutionDelegation;
+import io.grano22.cluster.remoteexecution.ExecutionMetrics;
 import io.grano22.cluster.remoteexecution.RemoteExecutionDelegator;
 import io.grano22.cluster.remoteexecution.RemoteExecutionHandlerJob;
+import io.grano22.cluster.remoteexecution.ScatterGatherExecutor;
+import io.grano22.cluster.remoteexecution.WorkStealer;
 import io.grano22.cluster.runtime.CommandLineExecutionRuntime;
 import io.grano22.cluster.runtime.ExecutionRuntime;
 import io.grano22.cluster.runtime.LanguageExpressionExecutionRuntime;
@@ -40,9 +49,33 @@ public class App {
 
         JsonMapper jsonMapper = JsonMapper.shared();
         var nodesMeshManager = NodesMeshManager.initMeshFromConfig(config);
-        var remoteExecutionDelegator = new RemoteExecutionDelegator();
+        var executionMetrics = new ExecutionMetrics();
+        var remoteExecutionDelegator = new RemoteExecutionDelegator(
+            config.delegationSettings(),
+            config.compressionSettings(),
+            executionMetrics.getCompression()
+        );
+        // Telemetry older than a few missed heartbeats no longer tells much about the member
+        var nodePlacement = new NodePlacement(nodesMeshManager, config.heartbeatSettings().probePeriodMillis() * 10);
+        var clusterExecutionService = new ClusterExecutionService(nodePlacement, remoteExecutionDelegator);
+        var scatterGatherExecutor = new ScatterGatherExecutor(nodePlacement, clusterExecutionService);
+        // Queues move only on recent figures, a stale one would send thieves to a peer that has drained already
+        var workStealer = new WorkStealer(
+            nodesMeshManager,
+            remoteExecutionDelegator,
+            config.executionSettings(),
+            config.stealingSettings(),
+            executionMetrics,
+            config.heartbeatSettings().probePeriodMillis() * 3
+        );
 
-        var heartBeatJob = new HeartbeatJob(nodesMeshManager);
+        var heartbeatTransport = new HeartbeatTransport(config.heartbeatPort());
+        var heartBeatJob = new HeartbeatJob(
+            nodesMeshManager,
+            HeartbeatCodecs.create(config.heartbeatSettings().codec()),
+            heartbeatTransport,
+            config.heartbeatSettings()
+        );
         heartBeatJob.runForDiscoverableNodes();
         heartBeatJob.run();
 
@@ -53,6 +86,46 @@ public class App {
                 case "info" -> {
                     return new ExecutionRuntime.Result(0, jsonMapper.writeValueAsString(nodesMeshManager.getClusters()));
                 }
+                case "metrics" -> {
+                    return new ExecutionRuntime.Result(0, jsonMapper.writeValueAsString(executionMetrics.snapshot()));
+                }
+                case "run" -> {
+                    var clusterName = input.positionalArguments()[0];
+                    var runtimeName = input.positionalArguments()[1];
+                    var options = new HashMap<>(input.options());
+                    int repeatTimes = Integer.parseInt(Optional.ofNullable(options.remove("--repeat")).orElse("0"));
+                    var partitions = Optional.ofNullable(options.remove("--partitions"));
+                    var delegation = new ExecutionDelegation(
+                        runtimeName,
+                        new ExecutionRuntime.Input(
+                            input.positionalArguments()[2],
+                            Arrays.copyOfRange(input.positionalArguments(), 3, input.positionalArguments().length),
+                            options
+                        ),
+                        repeatTimes
+                    );
+
+                    if (partitions.isPresent()) {
+                        // "auto" gives one partition per job slot of the cluster
+                        var gathered = scatterGatherExecutor.execute(
+                            clusterName,
+                            delegation,
+                            partitions.get().equals("auto") ? 0 : Integer.parseInt(partitions.get())
+                        ).join();
+
+                        return new ExecutionRuntime.Result(
+                            gathered.result().statusCode(),
+                            "Runs per node " + gathered.runsPerNode() + "\n" + gathered.result().output()
+                        );
+                    }
+
+                    var placed = clusterExecutionService.execute(clusterName, delegation).join();
+
+                    return new ExecutionRuntime.Result(
+                        placed.summary().result().statusCode(),
+                        "Executed on " + placed.node().hostname() + ":" + placed.node().communicationPort() + "\n" + placed.summary().result().output()
+                    );
+                }
                 case "join" -> {
                     var netAddr = input.positionalArguments()[0];
                     var netPort = Integer.parseInt(input.positionalArguments()[1]);
@@ -66,29 +139,53 @@ public class App {
             return new ExecutionRuntime.Result(0, "Invalid command");
         });
         var runtimeHandlers = Set.of(cliHandler, new LanguageExpressionExecutionRuntime());
-        var uiCommandHandler = new UICommandHandler(nodesMeshManager, runtimeHandlers, remoteExecutionDelegator);
+        var uiCommandHandler = new UICommandHandler(
+            nodesMeshManager,
+            runtimeHandlers,
+            remoteExecutionDelegator,
+            clusterExecutionService,
+            scatterGatherExecutor,
+            config.executionSettings()
+        );
 
-        var uiJob = new UIJob(config.webPort(), uiCommandHandler::handleMessage);
+        var uiJob = new UIJob(config.webPort(), uiCommandHandler::handleMessage, nodesMeshManager);
         var uiJobThread = new Thread(uiJob);
         uiJobThread.start();
 
         ConcurrentWebLogEmitter.setUiJob(uiJob);
 
         var alivenessCollector = new AlivenessCollector(
-            config.heartbeatPort(),
+            heartbeatTransport,
             Executors.newVirtualThreadPerTaskExecutor(),
-            nodesMeshManager
+            nodesMeshManager,
+            heartBeatJob,
+            config.heartbeatSettings()
         );
         alivenessCollector.start();
 
+        if (config.discoverySettings().mode() == NodeConfig.DiscoveryMode.MULTICAST) {
+            var multicastDiscovery = new MulticastDiscovery(
+                nodesMeshManager,
+                config.discoverySettings(),
+                Executors.newVirtualThreadPerTaskExecutor(),
+                alivenessCollector::submit
+            );
+            multicastDiscovery.start();
+        }
+
         var remoteExecutionHandlerJob = new Thread(
               new RemoteExecutionHandlerJob(
                   config.communicationPort(),
                   runtimeHandlers,
-                  nodesMeshManager
+                  nodesMeshManager,
+                  config.executionSettings(),
+                  config.compressionSettings(),
+                  executionMetrics,
+                  workStealer
               )
         );
         remoteExecutionHandlerJob.start();
+        workStealer.start();
 
         logger.info("Cluster started, ready to act");
 
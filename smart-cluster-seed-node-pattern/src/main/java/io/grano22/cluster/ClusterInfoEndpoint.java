@@ -1,14 +1,80 @@
 package io.grano22.cluster;
 
 
+import io.grano22.cluster.clustermanagement.Cluster;
+import io.grano22.cluster.clustermanagement.ClusterNode;
+import io.grano22.cluster.clustermanagement.LatencyHistogram;
+import io.grano22.cluster.clustermanagement.NodeTelemetry;
+import io.grano22.cluster.clustermanagement.NodesMeshManager;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import lombok.NonNull;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
 
 public final class ClusterInfoEndpoint extends HttpServlet {
+    private record ClusterInfo(String name, List<NodeInfo> nodes) {}
+
+    private record NodeInfo(
+        String hostname,
+        int webPort,
+        int communicationPort,
+        int heartbeatPort,
+        boolean self,
+        boolean healthy,
+        double suspicionLevel,
+        LatencyHistogram.Snapshot roundTrip,
+        NodeTelemetry telemetry
+    ) {}
+
+    private final JsonMapper mapper = JsonMapper.shared();
+    private final transient NodesMeshManager meshManager;
+
+    public ClusterInfoEndpoint(@NonNull NodesMeshManager meshManager) {
+        this.meshManager = meshManager;
+    }
+
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException {
+        var clusters = meshManager.getClusters().stream()
+            .sorted(Comparator.comparing(Cluster::name))
+            .map(cluster -> new ClusterInfo(
+                cluster.name(),
+                cluster.nodes().stream()
+                    .sorted(Comparator.comparing(ClusterNode::hostname).thenComparingInt(ClusterNode::communicationPort))
+                    .map(this::describe)
+                    .toList()
+            ))
+            .toList()
+        ;
+
+        try {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType("application/json; charset=UTF-8");
+            mapper.writeValue(response.getOutputStream(), clusters);
+        } catch (IOException exception) {
+            throw new ServletException("Cannot process request");
+        }
+    }
+
+    private NodeInfo describe(ClusterNode node) {
+        boolean self = node.equals(meshManager.getSelf());
 
+        return new NodeInfo(
+            node.hostname(),
+            node.webPort(),
+            node.communicationPort(),
+            node.heartbeatPort(),
+            self,
+            meshManager.isNodeHealthy(node),
+            self ? 0.0 : meshManager.getSuspicionLevel(node),
+            meshManager.getRoundTripStats(node).orElse(null),
+            meshManager.getTelemetry(node).orElse(null)
+        );
     }
 }
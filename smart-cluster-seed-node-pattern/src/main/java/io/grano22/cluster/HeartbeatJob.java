@@ -1,109 +1,143 @@
 package io.grano22.cluster;
 
+import lombok.Getter;
 import lombok.NonNull;
-import io.grano22.cluster.clustermanagement.Cluster;
-import io.grano22.cluster.clustermanagement.ClusterNode;
+import io.grano22.cluster.clustermanagement.NodeConfig;
 import io.grano22.cluster.clustermanagement.NodesMeshManager;
+import io.grano22.cluster.heartbeat.HeartbeatCodec;
+import io.grano22.cluster.heartbeat.HeartbeatFragments;
+import io.grano22.cluster.heartbeat.HeartbeatMessage;
+import io.grano22.cluster.heartbeat.HeartbeatTransport;
+import io.grano22.cluster.heartbeat.SwimMembershipProtocol;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Marker;
 import org.slf4j.MarkerFactory;
-import tools.jackson.databind.json.JsonMapper;
 
-import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
-import java.util.HashSet;
+import java.nio.ByteBuffer;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
-public class HeartbeatJob {
-    public record Heartbeat(
-        @NonNull ClusterNode sender,
-        long timestamp,
-        Set<Cluster> clusters
-    ) {}
-
+public final class HeartbeatJob {
     private final static Marker contextMarker = MarkerFactory.getMarker("Heartbeat-Job");
     private final static Logger logger = LoggerFactory.getLogger(HeartbeatJob.class);
 
     private final @NonNull NodesMeshManager meshManager;
     private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-    private final JsonMapper mapper = JsonMapper.shared();
-
-    public HeartbeatJob(@NonNull final NodesMeshManager meshManager) {
+    private final @NonNull HeartbeatCodec codec;
+    private final @NonNull HeartbeatTransport transport;
+    private final @NonNull NodeConfig.HeartbeatSettings settings;
+    @Getter
+    private final @NonNull SwimMembershipProtocol membership;
+    private long nextFragmentedMessageId = ThreadLocalRandom.current().nextLong();
+
+    public HeartbeatJob(
+        @NonNull final NodesMeshManager meshManager,
+        @NonNull final HeartbeatCodec codec,
+        @NonNull final HeartbeatTransport transport,
+        @NonNull final NodeConfig.HeartbeatSettings settings
+    ) {
         this.meshManager = meshManager;
+        this.codec = codec;
+        this.transport = transport;
+        this.settings = settings;
+        this.membership = new SwimMembershipProtocol(meshManager, this::send, scheduler, settings);
     }
 
     public void run() {
         scheduler.scheduleWithFixedDelay(() -> {
             try {
-                runForAlreadyKnownNodes();
+                meshManager.getTelemetrySampler().sample();
+                membership.tick();
             } catch (Exception e) {
                 logger.atError()
                     .addMarker(contextMarker)
                     .setCause(e)
-                    .log("Failed to send heartbeat")
+                    .log("Failed to probe cluster member")
                 ;
             }
-        }, 0, 3000, TimeUnit.MILLISECONDS);
+        }, 0, settings.probePeriodMillis(), TimeUnit.MILLISECONDS);
     }
 
     public void runOnce(final Set<InetSocketAddress> sendTo, boolean withCluster) {
-        byte[] udpBuffer = new byte[1024];
         long timestamp = System.currentTimeMillis();
-        var heartbeat = new Heartbeat(
+        var heartbeat = new HeartbeatMessage.Heartbeat(
             meshManager.getSelf(),
             timestamp,
-            withCluster ? meshManager.getClusters() : null
+            withCluster ? meshManager.getClusters() : null,
+            meshManager.getClusterDigests(),
+            membership.nextRoundTripSequence()
         );
 
-        byte[] rawData = mapper.writeValueAsBytes(heartbeat);
-        System.arraycopy(rawData, 0, udpBuffer, 0, rawData.length);
+        send(heartbeat, sendTo);
+    }
 
-        for (var nodeAddress: sendTo) {
-            DatagramPacket packet = new DatagramPacket(
-                udpBuffer,
-                udpBuffer.length,
-                nodeAddress
-            );
+    public synchronized void send(final @NonNull HeartbeatMessage outgoing, final Set<InetSocketAddress> sendTo) {
+        // Periodic messages piggyback the load sampled on the last tick
+        HeartbeatMessage message = outgoing.withTelemetry(meshManager.getTelemetrySampler().latest());
+        int payloadSize = codec.encodedSize(message);
+        if (payloadSize > HeartbeatFragments.MAX_MESSAGE_SIZE) {
+            logger.atError()
+                .addMarker(contextMarker)
+                .log("Heartbeat message of {} bytes exceeds the fragmentation limit", payloadSize)
+            ;
 
-            try (DatagramSocket socket = new DatagramSocket()) {
-                socket.send(packet);
-            } catch(IOException sockedException) {
-                logger.atError()
-                    .addMarker(contextMarker)
-                    .setCause(sockedException)
-                    .log("Failed to send heartbeat to {}", nodeAddress)
-                ;
+            return;
+        }
+
+        // Pooled buffers hold a single datagram, bigger messages are only encoded once and then fragmented
+        boolean pooled = payloadSize <= HeartbeatTransport.MAX_DATAGRAM_SIZE;
+        ByteBuffer payload = pooled ? transport.acquireSendBuffer() : ByteBuffer.allocate(payloadSize);
+        try {
+            codec.encode(message, payload);
+            payload.flip();
+
+            if (payload.remaining() <= settings.mtu()) {
+                transport.sendToAll(payload, sendTo);
+            } else {
+                sendFragmented(payload, sendTo);
+            }
+        } finally {
+            if (pooled) {
+                transport.releaseSendBuffer(payload);
+            }
+        }
+    }
+
+    private void sendFragmented(ByteBuffer payload, Set<InetSocketAddress> sendTo) {
+        int count = HeartbeatFragments.fragmentCount(payload.remaining(), settings.mtu());
+        long messageId = nextFragmentedMessageId++;
+
+        ByteBuffer fragment = transport.acquireSendBuffer();
+        try {
+            for (int index = 0; index < count; index++) {
+                fragment.clear();
+                HeartbeatFragments.writeFragment(fragment, payload, messageId, index, count, settings.mtu());
+                transport.sendToAll(fragment.flip(), sendTo);
             }
+        } finally {
+            transport.releaseSendBuffer(fragment);
         }
+
+        logger.debug("Heartbeat message of {} bytes sent in {} fragments", payload.remaining(), count);
     }
 
     public void runForDiscoverableNodes() {
-        runOnce(
-             meshManager.getDiscoverableNodes().stream()
-                 .map(node -> {
-                     var parts = node.split(":");
-                     return new InetSocketAddress(parts[0], Integer.parseInt(parts[1]));
-                 })
-                 .collect(Collectors.toSet()),
-                true
-        );
+        Map<String, InetSocketAddress> discoverableAddresses = meshManager.getDiscoverableAddresses();
+        runOnce(Set.copyOf(discoverableAddresses.values()), true);
 
         AtomicReference<ScheduledFuture<?>> futureHolder = new AtomicReference<>();
         ScheduledFuture<?> future = scheduler.scheduleAtFixedRate(() -> {
             Set<InetSocketAddress> rest = meshManager.getAllNotDiscoveredNodes().stream()
-                .map(node -> {
-                    var parts = node.split(":");
-                    return new InetSocketAddress(parts[0], Integer.parseInt(parts[1]));
-                })
+                .map(discoverableAddresses::get)
                 .collect(Collectors.toSet())
             ;
 
@@ -115,25 +149,4 @@ public class HeartbeatJob {
         }, 5, 5, TimeUnit.SECONDS);
         futureHolder.set(future);
     }
-
-    public void runForAlreadyKnownNodes() {
-        Set<ClusterNode> visitedNodes = new HashSet<>();
-        for (var cluster: meshManager.getClusters()) {
-            for (var node: cluster.nodes()) {
-                if (visitedNodes.contains(node) || meshManager.getSelf().equals(node)) {
-                    continue;
-                }
-
-                visitedNodes.add(node);
-            }
-        }
-
-        // TODO: Change to withCluster false to save bandwidth
-        runOnce(
-            visitedNodes.stream()
-                .map(node -> new InetSocketAddress(node.hostname(), node.heartbeatPort()))
-                .collect(Collectors.toSet()),
-            true
-        );
-    }
 }
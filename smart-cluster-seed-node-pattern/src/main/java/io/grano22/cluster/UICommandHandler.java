@@ -7,11 +7,18 @@ import lombok.Builder;
 import lombok.NonNull;
 import lombok.SneakyThrows;
 import io.grano22.cluster.clustermanagement.Cluster;
+import io.grano22.cluster.clustermanagement.NodeConfig;
 import io.grano22.cluster.clustermanagement.NodesMeshManager;
+import io.grano22.cluster.remoteexecution.ClusterExecutionService;
+import io.grano22.cluster.remoteexecution.DelegationFrame;
 import io.grano22.cluster.remoteexecution.ExecutionDelegation;
+import io.grano22.cluster.remoteexecution.OutputListener;
 import io.grano22.cluster.remoteexecution.RemoteExecutionDelegator;
 import io.grano22.cluster.remoteexecution.RemoteExecutionSummary;
+import io.grano22.cluster.remoteexecution.ResultAggregator;
+import io.grano22.cluster.remoteexecution.ScatterGatherExecutor;
 import io.grano22.cluster.runtime.ExecutionRuntime;
+import io.grano22.cluster.runtime.OutputLimit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Marker;
@@ -20,8 +27,13 @@ import tools.jackson.databind.json.JsonMapper;
 
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 public class UICommandHandler {
     @JsonTypeInfo(
@@ -43,12 +55,36 @@ public class UICommandHandler {
             int repeatTimes
         ) implements UISyncCommand {}
 
+        @JsonTypeName("execute_in_cluster")
+        record ExecuteInCluster(
+            @NonNull String clusterName,
+            @NonNull String runtimeName,
+            @NonNull ExecutionRuntime.Input input,
+            ZonedDateTime requestedAt,
+            int repeatTimes,
+            int partitions
+        ) implements UISyncCommand {}
+
         ZonedDateTime requestedAt();
     }
 
     private sealed interface UISyncResponseData {
         record ClustersInfo(Set<Cluster> clusters) implements UISyncResponseData {}
-        record ExecutionResultDetails(ExecutionRuntime.ExecutionResult result) implements UISyncResponseData {}
+        record ExecutionResultDetails(ExecutionRuntime.ExecutionResult result, ResultAggregator.Summary statistics) implements UISyncResponseData {}
+        record PartialResultDetails(int iteration, int runs, ExecutionRuntime.Result result) implements UISyncResponseData {}
+        record OutputChunkDetails(int run, String chunk) implements UISyncResponseData {}
+        record PlacedExecutionResultDetails(
+            ExecutionRuntime.ExecutionResult result,
+            String clusterName,
+            String hostname,
+            Integer communicationPort
+        ) implements UISyncResponseData {}
+        record GatheredExecutionResultDetails(
+            ExecutionRuntime.ExecutionResult result,
+            ResultAggregator.Summary statistics,
+            String clusterName,
+            Map<String, Integer> runsPerNode
+        ) implements UISyncResponseData {}
     }
 
     @Builder
@@ -64,20 +100,33 @@ public class UICommandHandler {
     private final static Marker contextMarker = MarkerFactory.getMarker("UI-Command-Handler");
     private final static Logger logger = LoggerFactory.getLogger(UICommandHandler.class);
 
+    private static final int OUTPUT_MESSAGE_LENGTH = 16 * 1024;
+
     private final JsonMapper mapper = JsonMapper.builder()
         .build();
     private final Set<ExecutionRuntime> runtimes;
     private final NodesMeshManager meshManager;
     private final RemoteExecutionDelegator delegator;
+    private final ClusterExecutionService clusterExecutionService;
+    private final ScatterGatherExecutor scatterGatherExecutor;
+    private final long maxOutputBytes;
+    // Messages of an execution are sent from virtual threads, a slow browser never blocks a delegation connection
+    private final ExecutorService messageSenders = Executors.newVirtualThreadPerTaskExecutor();
 
     public UICommandHandler(
         final @NonNull NodesMeshManager meshManager,
         final @NonNull Set<ExecutionRuntime> runtimes,
-        final @NonNull RemoteExecutionDelegator delegator
+        final @NonNull RemoteExecutionDelegator delegator,
+        final @NonNull ClusterExecutionService clusterExecutionService,
+        final @NonNull ScatterGatherExecutor scatterGatherExecutor,
+        final @NonNull NodeConfig.ExecutionSettings executionSettings
     ) {
         this.meshManager = meshManager;
         this.runtimes = runtimes;
         this.delegator = delegator;
+        this.clusterExecutionService = clusterExecutionService;
+        this.scatterGatherExecutor = scatterGatherExecutor;
+        this.maxOutputBytes = executionSettings.maxOutputBytes();
     }
 
     @SneakyThrows
@@ -87,12 +136,25 @@ public class UICommandHandler {
 
         switch (command) {
             case UISyncCommand.ExecuteCommand executeCommandUISyncCommand -> {
-                ExecutionRuntime.ExecutionResult result = handleExecution(executeCommandUISyncCommand);
-                logger.atInfo().log("Execution result: {}", mapper.writeValueAsString(result));
+                var messages = new OrderedMessages(session);
+                RemoteExecutionSummary summary = handleExecution(executeCommandUISyncCommand, messages, receivedAt);
+                logger.atInfo().log("Execution finished with status {}", summary.result().statusCode());
 
                 var response = UISyncResponse.builder()
                     .type("execution_result")
-                    .data(new UISyncResponseData.ExecutionResultDetails(result))
+                    .data(new UISyncResponseData.ExecutionResultDetails(summary.result(), summary.statistics()))
+                    .receivedAt(receivedAt)
+                    .processedAt(ZonedDateTime.now(ZoneId.of("UTC")))
+                    .requestedAt(command.requestedAt())
+                    .build()
+                ;
+
+                messages.send(response).join();
+            }
+            case UISyncCommand.ExecuteInCluster executeInCluster -> {
+                var response = UISyncResponse.builder()
+                    .type("execution_result")
+                    .data(executeInCluster.partitions() > 0 ? handleScatteredExecution(executeInCluster) : handleClusterExecution(executeInCluster))
                     .receivedAt(receivedAt)
                     .processedAt(ZonedDateTime.now(ZoneId.of("UTC")))
                     .requestedAt(command.requestedAt())
@@ -119,27 +181,62 @@ public class UICommandHandler {
         }
     }
 
-    private @NonNull ExecutionRuntime.ExecutionResult handleExecution(@NonNull UISyncCommand.ExecuteCommand executeCommandUISyncCommand) {
+    private @NonNull RemoteExecutionSummary handleExecution(
+        @NonNull UISyncCommand.ExecuteCommand executeCommandUISyncCommand,
+        @NonNull OrderedMessages messages,
+        @NonNull ZonedDateTime receivedAt
+    ) {
         if (
             executeCommandUISyncCommand.targetHostname().equals(meshManager.getSelf().hostname()) &&
             executeCommandUISyncCommand.targetPort() == meshManager.getSelf().communicationPort()
         ) {
-            return handleLocalExecution(executeCommandUISyncCommand);
+            return new RemoteExecutionSummary(handleLocalExecution(executeCommandUISyncCommand, messages, receivedAt));
+        }
+
+        var targetNode = meshManager.findNode(executeCommandUISyncCommand.targetHostname(), executeCommandUISyncCommand.targetPort());
+        if (targetNode.isPresent() && !meshManager.isNodeHealthy(targetNode.get())) {
+            String reasonMessage = String.format(
+                "Failed to delegate execution, node %s:%d is not healthy (phi %.2f)",
+                executeCommandUISyncCommand.targetHostname(),
+                executeCommandUISyncCommand.targetPort(),
+                meshManager.getSuspicionLevel(targetNode.get())
+            );
+            logger.atWarn().addMarker(contextMarker).log(reasonMessage);
+
+            return new RemoteExecutionSummary(new ExecutionRuntime.Result(1, reasonMessage));
         }
 
+        // Runs of a repeated job are shown as they finish instead of after the slowest one, so the response only
+        // brings their summary and this node never holds all outputs at once
+        int runs = 1 + Math.max(0, executeCommandUISyncCommand.repeatTimes());
+        Consumer<DelegationFrame.Partial> partialListener = runs == 1 ? null : partial -> messages.send(
+            UISyncResponse.builder()
+                .type("execution_partial")
+                .data(new UISyncResponseData.PartialResultDetails(partial.iteration(), runs, partial.result()))
+                .receivedAt(receivedAt)
+                .processedAt(ZonedDateTime.now(ZoneId.of("UTC")))
+                .requestedAt(executeCommandUISyncCommand.requestedAt())
+                .build()
+        );
+        // The peer streams no more output than the browser took, so this node holds a window of it at most
+        OutputListener outputListener = output -> messages.send(outputMessage(executeCommandUISyncCommand, receivedAt, output.run(), output.chunk()));
+
         var summary = delegator.delegate(
             executeCommandUISyncCommand.targetHostname,
             executeCommandUISyncCommand.targetPort,
             new ExecutionDelegation(
                 executeCommandUISyncCommand.runtimeName,
                 executeCommandUISyncCommand.input,
-                executeCommandUISyncCommand.repeatTimes
-            )
+                executeCommandUISyncCommand.repeatTimes,
+                runs == 1
+            ),
+            partialListener,
+            outputListener
         )
             .exceptionally(e -> {
                 String reasonMessage = "Failed to delegate execution, unknown reason: " + e.getMessage();
 
-                if (e instanceof TimeoutException) {
+                if (e instanceof TimeoutException || e.getCause() instanceof TimeoutException) {
                     reasonMessage = "Failed to delegate execution, timeout";
                 }
 
@@ -157,18 +254,148 @@ public class UICommandHandler {
             .join()
         ;
 
-        logger.atInfo().log("Execution result: {}", mapper.writeValueAsString(summary.result()));
+        return summary;
+    }
+
+    private @NonNull UISyncResponseData.GatheredExecutionResultDetails handleScatteredExecution(@NonNull UISyncCommand.ExecuteInCluster executeInCluster) {
+        // Split jobs are the repeat heavy ones, only their summary is brought back to this node
+        var delegation = new ExecutionDelegation(
+            executeInCluster.runtimeName(),
+            executeInCluster.input(),
+            executeInCluster.repeatTimes(),
+            executeInCluster.repeatTimes() == 0
+        );
+
+        return scatterGatherExecutor.execute(executeInCluster.clusterName(), delegation, executeInCluster.partitions())
+            .thenApply(gathered -> new UISyncResponseData.GatheredExecutionResultDetails(
+                gathered.result(),
+                gathered.statistics(),
+                executeInCluster.clusterName(),
+                gathered.runsPerNode()
+            ))
+            .exceptionally(e -> {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                String reasonMessage = "Failed to scatter execution over cluster " + executeInCluster.clusterName() + ": " + cause.getMessage();
+                logger.atError()
+                    .addMarker(contextMarker)
+                    .setCause(cause)
+                    .log(reasonMessage)
+                ;
+
+                return new UISyncResponseData.GatheredExecutionResultDetails(
+                    new ExecutionRuntime.Result(1, reasonMessage),
+                    null,
+                    executeInCluster.clusterName(),
+                    Map.of()
+                );
+            })
+            .join()
+        ;
+    }
+
+    private @NonNull UISyncResponseData.PlacedExecutionResultDetails handleClusterExecution(@NonNull UISyncCommand.ExecuteInCluster executeInCluster) {
+        var delegation = new ExecutionDelegation(executeInCluster.runtimeName(), executeInCluster.input(), executeInCluster.repeatTimes());
 
-        return summary.result();
+        return clusterExecutionService.execute(executeInCluster.clusterName(), delegation)
+            .thenApply(placed -> new UISyncResponseData.PlacedExecutionResultDetails(
+                placed.summary().result(),
+                executeInCluster.clusterName(),
+                placed.node().hostname(),
+                placed.node().communicationPort()
+            ))
+            .exceptionally(e -> {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                String reasonMessage = "Failed to execute in cluster " + executeInCluster.clusterName() + ": " + cause.getMessage();
+                if (cause instanceof TimeoutException) {
+                    reasonMessage = "Failed to execute in cluster " + executeInCluster.clusterName() + ", timeout";
+                }
+
+                logger.atError()
+                    .addMarker(contextMarker)
+                    .setCause(cause)
+                    .log(reasonMessage)
+                ;
+
+                return new UISyncResponseData.PlacedExecutionResultDetails(
+                    new ExecutionRuntime.Result(1, reasonMessage),
+                    executeInCluster.clusterName(),
+                    null,
+                    null
+                );
+            })
+            .join()
+        ;
     }
 
-    private @NonNull ExecutionRuntime.Result handleLocalExecution(@NonNull UISyncCommand.ExecuteCommand executeCommandUISyncCommand) {
+    private @NonNull ExecutionRuntime.Result handleLocalExecution(
+        @NonNull UISyncCommand.ExecuteCommand executeCommandUISyncCommand,
+        @NonNull OrderedMessages messages,
+        @NonNull ZonedDateTime receivedAt
+    ) {
         var runtime = runtimes.stream()
                 .filter(r -> r.name().equals(executeCommandUISyncCommand.runtimeName()))
                 .findFirst()
                 .orElseThrow(() -> new IllegalArgumentException("Unknown runtime: " + executeCommandUISyncCommand.runtimeName()));
 
+        // Waiting for each message holds the runtime back while the browser is slower than it
+        var outputLimit = new OutputLimit(maxOutputBytes);
+        return runtime.execute(executeCommandUISyncCommand.input(), chunk -> {
+            String admitted = outputLimit.admit(chunk);
+            int start = 0;
+            while (start < admitted.length()) {
+                int end = Math.min(admitted.length(), start + OUTPUT_MESSAGE_LENGTH);
+                if (end < admitted.length() && Character.isHighSurrogate(admitted.charAt(end - 1))) {
+                    end--;
+                }
+
+                messages.send(outputMessage(executeCommandUISyncCommand, receivedAt, 0, admitted.substring(start, end))).join();
+                start = end;
+            }
+        });
+    }
 
-        return runtime.execute(executeCommandUISyncCommand.input());
+    private @NonNull UISyncResponse outputMessage(
+        @NonNull UISyncCommand.ExecuteCommand executeCommandUISyncCommand,
+        @NonNull ZonedDateTime receivedAt,
+        int run,
+        @NonNull String chunk
+    ) {
+        return UISyncResponse.builder()
+            .type("execution_output")
+            .data(new UISyncResponseData.OutputChunkDetails(run, chunk))
+            .receivedAt(receivedAt)
+            .processedAt(ZonedDateTime.now(ZoneId.of("UTC")))
+            .requestedAt(executeCommandUISyncCommand.requestedAt())
+            .build()
+        ;
+    }
+
+    /**
+     * Messages of one execution leave in the order they were handed over, the stage returned for a message completes
+     * once the browser took it.
+     */
+    private final class OrderedMessages {
+        private final Session session;
+        private CompletableFuture<Void> sent = CompletableFuture.completedFuture(null);
+
+        private OrderedMessages(Session session) {
+            this.session = session;
+        }
+
+        private synchronized CompletableFuture<Void> send(UISyncResponse response) {
+            sent = sent.thenRunAsync(() -> {
+                try {
+                    session.getBasicRemote().sendText(mapper.writeValueAsString(response));
+                } catch (Exception exception) {
+                    logger.atWarn()
+                        .addMarker(contextMarker)
+                        .setCause(exception)
+                        .log("Failed to send {} message", response.type())
+                    ;
+                }
+            }, messageSenders);
+
+            return sent;
+        }
     }
 }
@@ -2,8 +2,11 @@ package io.grano22.cluster;
 
 import jakarta.websocket.Session;
 import jakarta.websocket.server.ServerEndpointConfig;
+import io.grano22.cluster.clustermanagement.MembershipEvent;
+import io.grano22.cluster.clustermanagement.NodesMeshManager;
 import lombok.NonNull;
 import org.eclipse.jetty.ee10.servlet.ServletContextHandler;
+import org.eclipse.jetty.ee10.servlet.ServletHolder;
 import org.eclipse.jetty.ee10.websocket.jakarta.server.config.JakartaWebSocketServletContainerInitializer;
 import org.eclipse.jetty.server.Server;
 import org.slf4j.Logger;
@@ -11,21 +14,27 @@ import org.slf4j.LoggerFactory;
 import org.slf4j.Marker;
 import org.slf4j.MarkerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 
 public final class UIJob implements Runnable {
     private static final Marker uiJobServiceMarker = MarkerFactory.getMarker("UI job");
     private static final Logger logger = LoggerFactory.getLogger(UIJob.class);
+    private static final int MAX_EVENTS_PER_UPDATE = 256;
 
     private final @NonNull Server server;
     private final @NonNull BiConsumer<String, Session> messageHandler;
+    private final @NonNull NodesMeshManager meshManager;
 
     // TODO: Refactor in future, best practise is to avoid exposing handler
     private UISyncEndpoint uiSyncEndpoint;
 
-    public UIJob(int webPort, @NonNull final BiConsumer<String, Session> messageHandler) {
+    public UIJob(int webPort, @NonNull final BiConsumer<String, Session> messageHandler, @NonNull final NodesMeshManager meshManager) {
         server = new Server(webPort);
         this.messageHandler = messageHandler;
+        this.meshManager = meshManager;
     }
 
     @Override
@@ -39,7 +48,7 @@ public final class UIJob implements Runnable {
             server.setHandler(handler);
 
             handler.addServlet(UIServeEndpoint.class, "/*");
-            handler.addServlet(ClusterInfoEndpoint.class, "/api/v1/cluster");
+            handler.addServlet(new ServletHolder(new ClusterInfoEndpoint(meshManager)), "/api/v1/cluster");
 
             uiSyncEndpoint = new UISyncEndpoint(messageHandler);
             var websocketConfig = ServerEndpointConfig.Builder
@@ -65,6 +74,7 @@ public final class UIJob implements Runnable {
             );
 
             server.start();
+            Thread.ofVirtual().name("ui-membership-events").start(this::forwardMembershipEvents);
             server.join();
         } catch (Exception exception) {
             logger.atError()
@@ -78,4 +88,29 @@ public final class UIJob implements Runnable {
     public void emitLogMessage(@NonNull String message) {
         uiSyncEndpoint.emitLogMessage(message);
     }
+
+    private void forwardMembershipEvents() {
+        try (var subscription = meshManager.getEvents().subscribe()) {
+            List<MembershipEvent> batch = new ArrayList<>();
+
+            while (server.isRunning()) {
+                try {
+                    if (subscription.takeOverflow()) {
+                        uiSyncEndpoint.emitMembershipResync(meshManager.getVersion());
+                    }
+
+                    subscription.drain(batch::add, MAX_EVENTS_PER_UPDATE, 1, TimeUnit.SECONDS);
+                    uiSyncEndpoint.emitMembershipEvents(List.copyOf(batch));
+                } catch (Exception exception) {
+                    logger.atError()
+                        .addMarker(uiJobServiceMarker)
+                        .setCause(exception)
+                        .log("Failed to forward membership events")
+                    ;
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+    }
 }
@@ -1,6 +1,7 @@
 package io.grano22.cluster;
 
 import ch.qos.logback.classic.spi.ILoggingEvent;
+import io.grano22.cluster.clustermanagement.MembershipEvent;
 import io.grano22.cluster.logging.ConcurrentMemoryLogCollector;
 import jakarta.websocket.OnClose;
 import jakarta.websocket.OnError;
@@ -12,6 +13,7 @@ import jakarta.websocket.server.ServerEndpoint;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.Deque;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.DelayQueue;
@@ -39,6 +41,14 @@ public final class UISyncEndpoint {
     ) {
     }
 
+    private record UIMembershipMessage(
+        String type,
+        List<MembershipEvent> events,
+        long version,
+        ZonedDateTime processedAt
+    ) {
+    }
+
     private final static Marker uiSyncEndpointServiceTag = MarkerFactory.getMarker("UI-Sync");
     private final static Logger logger = LoggerFactory.getLogger(UISyncEndpoint.class);
 
@@ -145,4 +155,46 @@ public final class UISyncEndpoint {
             ;
         }
     }
+
+    /**
+     * Pushes membership changes, clients apply them on top of their last cluster details.
+     */
+    public void emitMembershipEvents(@NonNull List<MembershipEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+
+        emitMembershipMessage(new UIMembershipMessage(
+            "membership_events",
+            events,
+            events.getLast().version(),
+            ZonedDateTime.now(ZoneId.of("UTC"))
+        ));
+    }
+
+    /**
+     * Tells clients that events were lost and cluster details have to be queried again.
+     */
+    public void emitMembershipResync(long version) {
+        emitMembershipMessage(new UIMembershipMessage("membership_resync", List.of(), version, ZonedDateTime.now(ZoneId.of("UTC"))));
+    }
+
+    private void emitMembershipMessage(UIMembershipMessage message) {
+        if (clients.isEmpty()) {
+            return;
+        }
+
+        String payload = mapper.writeValueAsString(message);
+        for (var client: clients.values()) {
+            try {
+                client.session.getBasicRemote().sendText(payload);
+            } catch (Exception e) {
+                logger.atWarn()
+                    .setCause(e)
+                    .addMarker(uiSyncEndpointServiceTag)
+                    .log("Failed to send membership update to client {}", client.sessionId())
+                ;
+            }
+        }
+    }
 }
@@ -18,7 +18,6 @@ public record ClusterNode(
 ) {
     public ClusterNode {
         supportedRuntimes = Set.copyOf(supportedRuntimes);
-        utilization = new ClusterNodeUtilization(0, 4);
     }
 
     @Override
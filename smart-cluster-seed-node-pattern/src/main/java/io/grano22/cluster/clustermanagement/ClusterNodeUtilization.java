@@ -6,7 +6,7 @@ import lombok.Setter;
 public class ClusterNodeUtilization {
     @Setter
     @Getter
-    private int jobsInProgress;
+    private volatile int jobsInProgress;
 
     @Getter
     private final int jobTotalCapacity;
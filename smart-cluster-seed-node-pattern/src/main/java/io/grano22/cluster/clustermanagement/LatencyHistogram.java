@@ -0,0 +1,92 @@
+package io.grano22.cluster.clustermanagement;
+
+/**
+ * Fixed memory latency histogram in microseconds: log2 buckets split into 8 linear sub-buckets, so any recorded value is
+ * reported with at most 12.5% error. Counts are halved once the window fills up, so percentiles follow recent samples.
+ */
+public final class LatencyHistogram {
+    public record Snapshot(long samples, long p50Micros, long p99Micros, long maxMicros, long lastMicros) {}
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_MAGNITUDE = 40;
+    private static final long MAX_TRACKABLE_MICROS = (1L << (MAX_MAGNITUDE + 1)) - 1;
+    private static final int BUCKET_COUNT = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    private static final long DECAY_THRESHOLD = 1 << 14;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private long maxMicros;
+    private long lastMicros = -1;
+
+    public synchronized void record(long micros) {
+        long value = Math.clamp(micros, 0, MAX_TRACKABLE_MICROS);
+
+        counts[bucketOf(value)]++;
+        totalCount++;
+        maxMicros = Math.max(maxMicros, value);
+        lastMicros = value;
+
+        if (totalCount >= DECAY_THRESHOLD) {
+            decay();
+        }
+    }
+
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(totalCount, percentile(0.50), percentile(0.99), maxMicros, lastMicros);
+    }
+
+    private long percentile(double quantile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * totalCount));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += counts[bucket];
+
+            if (seen >= rank) {
+                return Math.min(lowerBoundOf(bucket + 1) - 1, maxMicros);
+            }
+        }
+
+        return maxMicros;
+    }
+
+    private void decay() {
+        totalCount = 0;
+        int highestBucket = 0;
+
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            counts[bucket] >>>= 1;
+            totalCount += counts[bucket];
+
+            if (counts[bucket] > 0) {
+                highestBucket = bucket;
+            }
+        }
+
+        maxMicros = Math.min(maxMicros, lowerBoundOf(highestBucket + 1) - 1);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + (int) ((value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    static long lowerBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (magnitude - SUB_BUCKET_BITS);
+    }
+}
@@ -0,0 +1,56 @@
+package io.grano22.cluster.clustermanagement;
+
+import lombok.NonNull;
+
+import java.util.Collection;
+
+/**
+ * Order independent digests, two nodes holding the same members of a cluster compute the same value without exchanging them.
+ */
+public final class MembershipDigest {
+    private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    private MembershipDigest() {}
+
+    public static long nodeId(@NonNull ClusterNode node) {
+        long hash = FNV_OFFSET;
+        String hostname = node.hostname();
+
+        for (int i = 0; i < hostname.length(); i++) {
+            hash = (hash ^ hostname.charAt(i)) * FNV_PRIME;
+        }
+        hash = (hash ^ node.communicationPort()) * FNV_PRIME;
+        hash = (hash ^ node.heartbeatPort()) * FNV_PRIME;
+
+        return hash;
+    }
+
+    public static long clusterDigest(@NonNull Collection<ClusterNode> nodes) {
+        long digest = 0;
+
+        for (var node: nodes) {
+            digest += contributionOf(node);
+        }
+
+        return finish(digest, nodes.size());
+    }
+
+    /**
+     * A cluster digest is the finished sum of its node contributions, so adding or removing a node updates it in O(1).
+     */
+    static long contributionOf(@NonNull ClusterNode node) {
+        return mix(nodeId(node));
+    }
+
+    static long finish(long contributionSum, int nodeCount) {
+        return mix(contributionSum ^ nodeCount);
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xFF51AFD7ED558CCDL;
+        value = (value ^ (value >>> 33)) * 0xC4CEB9FE1A85EC53L;
+
+        return value ^ (value >>> 33);
+    }
+}
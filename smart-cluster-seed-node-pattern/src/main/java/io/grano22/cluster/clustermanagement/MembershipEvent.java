@@ -0,0 +1,34 @@
+package io.grano22.cluster.clustermanagement;
+
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import lombok.NonNull;
+
+/**
+ * Change of the mesh, version is the {@link MembershipSnapshot} version the change is visible in.
+ */
+@JsonTypeInfo(
+    use = JsonTypeInfo.Id.NAME,
+    include = JsonTypeInfo.As.PROPERTY,
+    property = "type"
+)
+public sealed interface MembershipEvent {
+    @JsonTypeName("node_joined")
+    record NodeJoined(long version, @NonNull String clusterName, @NonNull ClusterNode node) implements MembershipEvent {}
+
+    @JsonTypeName("node_left")
+    record NodeLeft(long version, @NonNull String clusterName, @NonNull ClusterNode node) implements MembershipEvent {}
+
+    @JsonTypeName("node_suspected")
+    record NodeSuspected(long version, @NonNull ClusterNode node, double suspicionLevel) implements MembershipEvent {}
+
+    @JsonTypeName("node_recovered")
+    record NodeRecovered(long version, @NonNull ClusterNode node) implements MembershipEvent {}
+
+    @JsonTypeName("utilization_changed")
+    record UtilizationChanged(long version, @NonNull ClusterNode node, int jobsInProgress, int jobTotalCapacity) implements MembershipEvent {}
+
+    long version();
+
+    ClusterNode node();
+}
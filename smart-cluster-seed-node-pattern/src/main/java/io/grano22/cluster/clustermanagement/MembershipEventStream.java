@@ -0,0 +1,148 @@
+package io.grano22.cluster.clustermanagement;
+
+import lombok.NonNull;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Fans membership events out to subscribers, each owning a bounded queue. A slow subscriber never blocks the publisher,
+ * once its queue is full further events are dropped and the subscription is marked as overflowed, so it knows to resync
+ * from a {@link MembershipSnapshot}.
+ */
+public final class MembershipEventStream {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    public Subscription subscribe() {
+        return subscribe(DEFAULT_CAPACITY);
+    }
+
+    public Subscription subscribe(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Subscription capacity must be positive");
+        }
+
+        var subscription = new Subscription(capacity);
+        subscriptions.add(subscription);
+
+        return subscription;
+    }
+
+    public void publish(@NonNull MembershipEvent event) {
+        for (var subscription: subscriptions) {
+            subscription.offer(event);
+        }
+    }
+
+    public void publishAll(@NonNull List<? extends MembershipEvent> events) {
+        for (var event: events) {
+            publish(event);
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    public final class Subscription implements AutoCloseable {
+        private final Queue<MembershipEvent> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final LongAdder droppedEvents = new LongAdder();
+        private final int capacity;
+        private volatile boolean overflowed;
+        private volatile Thread waiter;
+
+        private Subscription(int capacity) {
+            this.capacity = capacity;
+        }
+
+        private void offer(MembershipEvent event) {
+            if (size.incrementAndGet() > capacity) {
+                size.decrementAndGet();
+                droppedEvents.increment();
+                overflowed = true;
+            } else {
+                queue.offer(event);
+            }
+
+            Thread parked = waiter;
+            if (parked != null) {
+                LockSupport.unpark(parked);
+            }
+        }
+
+        public MembershipEvent poll() {
+            MembershipEvent event = queue.poll();
+            if (event != null) {
+                size.decrementAndGet();
+            }
+
+            return event;
+        }
+
+        /**
+         * Hands at most maxEvents queued events to the consumer, waits up to the timeout if none is queued yet.
+         */
+        public int drain(@NonNull Consumer<MembershipEvent> consumer, int maxEvents, long timeout, @NonNull TimeUnit unit) {
+            MembershipEvent event = poll();
+            if (event == null && !overflowed) {
+                waiter = Thread.currentThread();
+                try {
+                    // Checked again after registering, an event offered in between would not unpark us
+                    if ((event = poll()) == null && !overflowed) {
+                        LockSupport.parkNanos(this, unit.toNanos(timeout));
+                        event = poll();
+                    }
+                } finally {
+                    waiter = null;
+                }
+            }
+
+            int drained = 0;
+            while (event != null) {
+                consumer.accept(event);
+                if (++drained >= maxEvents) {
+                    break;
+                }
+                event = poll();
+            }
+
+            return drained;
+        }
+
+        /**
+         * True once, after events were lost. The queue is cleared, the subscriber should resync from a snapshot
+         * taken after this call and continue with events of a newer version.
+         */
+        public boolean takeOverflow() {
+            if (!overflowed) {
+                return false;
+            }
+
+            overflowed = false;
+            while (poll() != null) {
+                // Events older than the resync snapshot are skipped
+            }
+
+            return true;
+        }
+
+        public long getDroppedEvents() {
+            return droppedEvents.sum();
+        }
+
+        @Override
+        public void close() {
+            subscriptions.remove(this);
+        }
+    }
+}
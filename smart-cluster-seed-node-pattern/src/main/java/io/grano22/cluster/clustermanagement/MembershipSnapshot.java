@@ -0,0 +1,284 @@
+package io.grano22.cluster.clustermanagement;
+
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable view of all clusters at one version, copy-on-write per cluster. A new version shares every untouched
+ * {@link Cluster} with the previous one, while a touched cluster gets a full copy of its node set and member bitset.
+ * Membership is kept as a bitset of {@link NodeRegistry} ids per cluster, checks by id are a bit test and checks by node
+ * resolve its id through the registry first.
+ */
+public final class MembershipSnapshot {
+    private final long version;
+    private final NodeRegistry registry;
+    private final Map<String, Cluster> clustersByName;
+    private final Map<String, BitSet> memberIds;
+    private final Map<String, Long> contributionSums;
+    private final Map<String, Long> clusterDigests;
+    private final Set<Cluster> clusters;
+    private volatile Set<ClusterNode> allNodes;
+
+    private MembershipSnapshot(
+        long version,
+        NodeRegistry registry,
+        Map<String, Cluster> clustersByName,
+        Map<String, BitSet> memberIds,
+        Map<String, Long> contributionSums
+    ) {
+        this.version = version;
+        this.registry = registry;
+        this.clustersByName = Collections.unmodifiableMap(clustersByName);
+        this.memberIds = memberIds;
+        this.contributionSums = contributionSums;
+        this.clusterDigests = clustersByName.values().stream().collect(Collectors.toUnmodifiableMap(
+            Cluster::name,
+            cluster -> MembershipDigest.finish(contributionSums.get(cluster.name()), cluster.nodes().size())
+        ));
+        this.clusters = Set.copyOf(clustersByName.values());
+    }
+
+    public static MembershipSnapshot initial(@NonNull NodeRegistry registry, @NonNull Collection<Cluster> clusters) {
+        var batch = new MembershipSnapshot(0, registry, Map.of(), Map.of(), Map.of()).batch();
+        for (var cluster: clusters) {
+            batch.addCluster(cluster);
+        }
+
+        return batch.build(0);
+    }
+
+    /**
+     * Grows by one with every published change, equal versions of one manager always hold equal members.
+     */
+    public long version() {
+        return version;
+    }
+
+    public Set<Cluster> clusters() {
+        return clusters;
+    }
+
+    public Map<String, Long> clusterDigests() {
+        return clusterDigests;
+    }
+
+    public Optional<Cluster> findCluster(String clusterName) {
+        return Optional.ofNullable(clustersByName.get(clusterName));
+    }
+
+    public boolean hasInCluster(String clusterName, ClusterNode node) {
+        return hasInCluster(clusterName, registry.idOf(node));
+    }
+
+    public boolean hasInCluster(String clusterName, int nodeId) {
+        BitSet members = memberIds.get(clusterName);
+
+        return members != null && nodeId != NodeRegistry.UNKNOWN && members.get(nodeId);
+    }
+
+    public boolean isMember(int nodeId) {
+        if (nodeId == NodeRegistry.UNKNOWN) {
+            return false;
+        }
+
+        for (var members: memberIds.values()) {
+            if (members.get(nodeId)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public Set<String> clusterNamesOf(ClusterNode node) {
+        int nodeId = registry.idOf(node);
+        if (nodeId == NodeRegistry.UNKNOWN) {
+            return Set.of();
+        }
+
+        Set<String> names = new HashSet<>();
+        for (var members: memberIds.entrySet()) {
+            if (members.getValue().get(nodeId)) {
+                names.add(members.getKey());
+            }
+        }
+
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Distinct members of all clusters, computed on first use.
+     */
+    public Set<ClusterNode> allNodes() {
+        Set<ClusterNode> nodes = allNodes;
+        if (nodes == null) {
+            BitSet union = new BitSet();
+            for (var members: memberIds.values()) {
+                union.or(members);
+            }
+
+            Set<ClusterNode> collected = new HashSet<>(union.cardinality() * 2);
+            union.stream().forEach(nodeId -> collected.add(registry.nodeOf(nodeId)));
+            allNodes = nodes = Collections.unmodifiableSet(collected);
+        }
+
+        return nodes;
+    }
+
+    public Batch batch() {
+        return new Batch();
+    }
+
+    private record Change(boolean joined, String clusterName, ClusterNode node) {}
+
+    /**
+     * Collects mutations against this snapshot, each touched cluster node set is copied once per batch.
+     */
+    public final class Batch {
+        private final Map<String, Set<ClusterNode>> touchedNodes = new HashMap<>();
+        private final Map<String, BitSet> touchedIds = new HashMap<>();
+        private final Map<String, Long> touchedSums = new HashMap<>();
+        private final List<Change> changes = new ArrayList<>();
+        private boolean changed;
+
+        private Batch() {}
+
+        public MembershipSnapshot base() {
+            return MembershipSnapshot.this;
+        }
+
+        public void addCluster(@NonNull Cluster cluster) {
+            if (!clustersByName.containsKey(cluster.name()) && !touchedNodes.containsKey(cluster.name())) {
+                touchedNodes.put(cluster.name(), new HashSet<>());
+                touchedIds.put(cluster.name(), new BitSet());
+                touchedSums.put(cluster.name(), 0L);
+                changed = true;
+            }
+
+            addNodes(cluster.name(), cluster.nodes());
+        }
+
+        /**
+         * Adds nodes to an already known cluster, unknown cluster names are ignored.
+         */
+        public boolean addNodes(@NonNull String clusterName, @NonNull Collection<ClusterNode> nodes) {
+            boolean added = false;
+
+            for (var node: nodes) {
+                BitSet current = currentIdsOf(clusterName);
+                if (current == null) {
+                    break;
+                }
+
+                // Interning twice on a retried batch is harmless, the registry hands out the same id
+                int nodeId = registry.intern(node);
+                if (current.get(nodeId)) {
+                    continue;
+                }
+
+                touch(clusterName);
+                touchedIds.get(clusterName).set(nodeId);
+                touchedNodes.get(clusterName).add(registry.nodeOf(nodeId));
+                touchedSums.merge(clusterName, MembershipDigest.contributionOf(node), Long::sum);
+                changes.add(new Change(true, clusterName, registry.nodeOf(nodeId)));
+                added = true;
+            }
+            changed |= added;
+
+            return added;
+        }
+
+        /**
+         * Removes the node from every cluster and returns names of the clusters it has left.
+         */
+        public Set<String> removeNode(@NonNull ClusterNode node) {
+            int nodeId = registry.idOf(node);
+            if (nodeId == NodeRegistry.UNKNOWN) {
+                return Set.of();
+            }
+
+            Set<String> leftClusters = new HashSet<>();
+            Set<String> clusterNames = new HashSet<>(clustersByName.keySet());
+            clusterNames.addAll(touchedNodes.keySet());
+
+            for (var clusterName: clusterNames) {
+                if (!currentIdsOf(clusterName).get(nodeId)) {
+                    continue;
+                }
+
+                touch(clusterName);
+                touchedIds.get(clusterName).clear(nodeId);
+                touchedNodes.get(clusterName).remove(node);
+                touchedSums.merge(clusterName, -MembershipDigest.contributionOf(node), Long::sum);
+                changes.add(new Change(false, clusterName, registry.nodeOf(nodeId)));
+                leftClusters.add(clusterName);
+            }
+            changed |= !leftClusters.isEmpty();
+
+            return leftClusters;
+        }
+
+        public MembershipSnapshot build() {
+            return build(version + 1);
+        }
+
+        /**
+         * Joins and leaves applied by this batch, in the order they were applied.
+         */
+        public List<MembershipEvent> events(long publishedVersion) {
+            return changes.stream()
+                .<MembershipEvent>map(change -> change.joined()
+                    ? new MembershipEvent.NodeJoined(publishedVersion, change.clusterName(), change.node())
+                    : new MembershipEvent.NodeLeft(publishedVersion, change.clusterName(), change.node())
+                )
+                .toList()
+            ;
+        }
+
+        private MembershipSnapshot build(long nextVersion) {
+            if (!changed) {
+                return MembershipSnapshot.this;
+            }
+
+            Map<String, Cluster> nextClusters = new HashMap<>(clustersByName);
+            Map<String, BitSet> nextIds = new HashMap<>(memberIds);
+            Map<String, Long> nextSums = new HashMap<>(contributionSums);
+            for (var touched: touchedNodes.entrySet()) {
+                String clusterName = touched.getKey();
+
+                nextClusters.put(clusterName, new Cluster(clusterName, Collections.unmodifiableSet(touched.getValue())));
+                nextIds.put(clusterName, touchedIds.get(clusterName));
+                nextSums.put(clusterName, touchedSums.get(clusterName));
+            }
+
+            return new MembershipSnapshot(nextVersion, registry, nextClusters, nextIds, nextSums);
+        }
+
+        private BitSet currentIdsOf(String clusterName) {
+            BitSet touched = touchedIds.get(clusterName);
+
+            return touched != null ? touched : memberIds.get(clusterName);
+        }
+
+        private void touch(String clusterName) {
+            if (touchedNodes.containsKey(clusterName)) {
+                return;
+            }
+
+            touchedNodes.put(clusterName, new HashSet<>(clustersByName.get(clusterName).nodes()));
+            touchedIds.put(clusterName, (BitSet) memberIds.get(clusterName).clone());
+            touchedSums.put(clusterName, contributionSums.get(clusterName));
+        }
+    }
+}
@@ -10,7 +10,13 @@ public record NodeConfig(
     int communicationPort,
     int heartbeatPort,
     Set<String> nodesToDiscover,
-    Set<ClusterSettingsForNode> clusterSettingsForNode
+    Set<ClusterSettingsForNode> clusterSettingsForNode,
+    HeartbeatSettings heartbeatSettings,
+    DiscoverySettings discoverySettings,
+    DelegationSettings delegationSettings,
+    ExecutionSettings executionSettings,
+    CompressionSettings compressionSettings,
+    StealingSettings stealingSettings
 ) {
     public NodeConfig {
         if (!NodeSpec.isHostValid(hostname)) {
@@ -31,7 +37,226 @@ public record NodeConfig(
 
         nodesToDiscover = Set.copyOf(nodesToDiscover);
         clusterSettingsForNode = Set.copyOf(clusterSettingsForNode);
+
+        if (heartbeatSettings == null) {
+            heartbeatSettings = HeartbeatSettings.defaults();
+        }
+
+        if (discoverySettings == null) {
+            discoverySettings = DiscoverySettings.defaults();
+        }
+
+        if (delegationSettings == null) {
+            delegationSettings = DelegationSettings.defaults();
+        }
+
+        if (executionSettings == null) {
+            executionSettings = ExecutionSettings.defaults();
+        }
+
+        if (compressionSettings == null) {
+            compressionSettings = CompressionSettings.defaults();
+        }
+
+        if (stealingSettings == null) {
+            stealingSettings = StealingSettings.defaults();
+        }
     }
 
     public record ClusterSettingsForNode(String clusterName) {}
+
+    public record HeartbeatSettings(
+        String codec,
+        long probePeriodMillis,
+        int indirectProbes,
+        int suspicionMultiplier,
+        double phiThreshold,
+        int mtu
+    ) {
+        public HeartbeatSettings {
+            if (probePeriodMillis <= 0) {
+                throw new IllegalArgumentException("Heartbeat probing period must be positive");
+            }
+
+            if (indirectProbes < 0 || suspicionMultiplier <= 0) {
+                throw new IllegalArgumentException("Invalid failure detection settings passed to the config");
+            }
+
+            if (phiThreshold <= 0) {
+                throw new IllegalArgumentException("Phi threshold must be positive");
+            }
+
+            if (mtu < MIN_MTU || mtu > MAX_MTU) {
+                throw new IllegalArgumentException("Heartbeat MTU must be between " + MIN_MTU + " and " + MAX_MTU);
+            }
+        }
+
+        // IPv4 minimum reassembly size and the biggest UDP payload
+        public static final int MIN_MTU = 576;
+        public static final int MAX_MTU = 65507;
+
+        public static HeartbeatSettings defaults() {
+            return new HeartbeatSettings("binary", 1000, 3, 4, 8.0, 1400);
+        }
+    }
+
+    public enum DiscoveryMode {
+        STATIC,
+        MULTICAST
+    }
+
+    /**
+     * In multicast mode nodes announce a beacon on the group besides contacting the static discovery nodes.
+     */
+    public record DiscoverySettings(
+        DiscoveryMode mode,
+        String multicastGroup,
+        int multicastPort,
+        String multicastInterface,
+        long beaconIntervalMillis
+    ) {
+        public DiscoverySettings {
+            if (mode == null) {
+                throw new IllegalArgumentException("Discovery mode must be set");
+            }
+
+            if (mode == DiscoveryMode.MULTICAST) {
+                if (multicastGroup == null || !NodeSpec.isHostValid(multicastGroup)) {
+                    throw new IllegalArgumentException("Invalid multicast group passed to the config");
+                }
+
+                if (!NodeSpec.isPortValid(multicastPort)) {
+                    throw new IllegalArgumentException("Invalid multicast port passed to the config");
+                }
+            }
+
+            if (beaconIntervalMillis <= 0) {
+                throw new IllegalArgumentException("Beacon interval must be positive");
+            }
+        }
+
+        public static DiscoverySettings defaults() {
+            return new DiscoverySettings(DiscoveryMode.STATIC, "239.255.42.99", 9099, null, 5000);
+        }
+    }
+
+    /**
+     * Client side of the communication port, connections to a peer are pooled and a new one is opened only once every
+     * pooled connection has maxInFlightPerConnection requests in flight.
+     */
+    public record DelegationSettings(
+        int maxConnectionsPerPeer,
+        int maxInFlightPerConnection,
+        long connectTimeoutMillis,
+        long requestTimeoutMillis,
+        long idleTimeoutMillis,
+        long healthCheckIntervalMillis
+    ) {
+        public DelegationSettings {
+            if (maxConnectionsPerPeer <= 0 || maxInFlightPerConnection <= 0) {
+                throw new IllegalArgumentException("Delegation connection limits must be positive");
+            }
+
+            if (connectTimeoutMillis <= 0 || requestTimeoutMillis <= 0) {
+                throw new IllegalArgumentException("Delegation timeouts must be positive");
+            }
+
+            if (healthCheckIntervalMillis <= 0 || idleTimeoutMillis < healthCheckIntervalMillis) {
+                throw new IllegalArgumentException("Idle timeout must not be shorter than the health check interval");
+            }
+        }
+
+        public static DelegationSettings defaults() {
+            return new DelegationSettings(4, 16, 3000, 120_000, 60_000, 15_000);
+        }
+    }
+
+    /**
+     * Server side of the communication port, a connection may pipeline up to maxInFlightPerConnection requests and is
+     * closed once it has nothing in flight for idleTimeoutMillis. Jobs run on poolSize threads, at most queueCapacity
+     * jobs wait for one and further requests are refused. A job forwards at most maxOutputBytes of output, the rest is
+     * cut off. Up to maxJobsAwaitingCredit jobs blocked on a slow output consumer get an extra thread meanwhile.
+     */
+    public record ExecutionSettings(
+        int maxInFlightPerConnection,
+        long idleTimeoutMillis,
+        int poolSize,
+        int queueCapacity,
+        int acceptBacklog,
+        int repeatParallelism,
+        long maxOutputBytes,
+        int maxJobsAwaitingCredit
+    ) {
+        public ExecutionSettings {
+            if (poolSize <= 0 || queueCapacity <= 0 || acceptBacklog <= 0) {
+                throw new IllegalArgumentException("Execution pool size, queue capacity and accept backlog must be positive");
+            }
+
+            if (maxInFlightPerConnection <= 0) {
+                throw new IllegalArgumentException("Per connection in-flight limit must be positive");
+            }
+
+            if (idleTimeoutMillis <= 0) {
+                throw new IllegalArgumentException("Connection idle timeout must be positive");
+            }
+
+            if (repeatParallelism <= 0) {
+                throw new IllegalArgumentException("Repeat parallelism must be positive");
+            }
+
+            if (maxOutputBytes <= 0) {
+                throw new IllegalArgumentException("Output limit per job must be positive");
+            }
+
+            if (maxJobsAwaitingCredit < 0) {
+                throw new IllegalArgumentException("Limit of jobs awaiting output credit cannot be negative");
+            }
+        }
+
+        public static ExecutionSettings defaults() {
+            int processors = Runtime.getRuntime().availableProcessors();
+
+            return new ExecutionSettings(32, 120_000, processors, 256, 1024, processors, 16 * 1024 * 1024, processors);
+        }
+    }
+
+    /**
+     * Frames on the communication port of at least thresholdBytes are deflated at the given level when both sides
+     * enable compression, smaller ones are not worth the CPU time.
+     */
+    public record CompressionSettings(boolean enabled, int thresholdBytes, int level) {
+        public CompressionSettings {
+            if (thresholdBytes < 0) {
+                throw new IllegalArgumentException("Compression threshold cannot be negative");
+            }
+
+            if (level < 0 || level > 9) {
+                throw new IllegalArgumentException("Compression level must be between 0 and 9");
+            }
+        }
+
+        public static CompressionSettings defaults() {
+            return new CompressionSettings(true, 1024, 1);
+        }
+    }
+
+    /**
+     * Every intervalMillis a node with idle job threads asks the peer with the longest queue, at least minQueuedJobs
+     * jobs, to lend it queued jobs taking up to maxSlotsPerSteal of its threads.
+     */
+    public record StealingSettings(boolean enabled, long intervalMillis, int minQueuedJobs, int maxSlotsPerSteal) {
+        public StealingSettings {
+            if (intervalMillis <= 0) {
+                throw new IllegalArgumentException("Stealing interval must be positive");
+            }
+
+            if (minQueuedJobs <= 0 || maxSlotsPerSteal <= 0) {
+                throw new IllegalArgumentException("Stealing thresholds must be positive");
+            }
+        }
+
+        public static StealingSettings defaults() {
+            return new StealingSettings(true, 250, 2, 4);
+        }
+    }
 }
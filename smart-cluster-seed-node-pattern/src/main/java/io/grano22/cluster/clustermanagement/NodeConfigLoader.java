@@ -4,6 +4,7 @@ import tools.jackson.core.JsonParser;
 import tools.jackson.core.JsonToken;
 import tools.jackson.databind.JsonNode;
 import tools.jackson.databind.json.JsonMapper;
+import tools.jackson.databind.node.MissingNode;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -24,6 +25,19 @@ public class NodeConfigLoader {
         int webPort = 0, communicationPort = 0, heartbeatPort = 0;
         Set<String> nodesToDiscover = new HashSet<>();
         Set<NodeConfig.ClusterSettingsForNode> clusterSettingsForNodes = new HashSet<>();
+        NodeConfig.HeartbeatSettings heartbeatDefaults = NodeConfig.HeartbeatSettings.defaults();
+        JsonNode heartbeatNode = MissingNode.getInstance();
+        NodeConfig.DiscoverySettings discoveryDefaults = NodeConfig.DiscoverySettings.defaults();
+        JsonNode discoveryNode = MissingNode.getInstance();
+        NodeConfig.DelegationSettings delegationDefaults = NodeConfig.DelegationSettings.defaults();
+        JsonNode delegationNode = MissingNode.getInstance();
+        NodeConfig.ExecutionSettings executionDefaults = NodeConfig.ExecutionSettings.defaults();
+        JsonNode executionNode = MissingNode.getInstance();
+        NodeConfig.CompressionSettings compressionDefaults = NodeConfig.CompressionSettings.defaults();
+        JsonNode compressionNode = MissingNode.getInstance();
+        NodeConfig.StealingSettings stealingDefaults = NodeConfig.StealingSettings.defaults();
+        JsonNode stealingNode = MissingNode.getInstance();
+        long heartbeatProbingPeriod = heartbeatDefaults.probePeriodMillis();
 
         try(InputStream is = Files.newInputStream(configPath); JsonParser parser = MAPPER.reader().createParser(is)) {
             int rootDepth = parser.streamReadContext().getNestingDepth();
@@ -68,6 +82,51 @@ public class NodeConfigLoader {
                             clusterSettingsForNodes.add(new NodeConfig.ClusterSettingsForNode(clusterName));
                         }
                     }
+                    case "heartbeatProbingPeriod" -> {
+                        heartbeatProbingPeriod = parser.getLongValue();
+                    }
+                    case "heartbeat" -> {
+                        if (parser.currentToken() != JsonToken.START_OBJECT) {
+                            throw new IllegalStateException("'heartbeat' must be an object");
+                        }
+
+                        heartbeatNode = parser.readValueAs(JsonNode.class);
+                    }
+                    case "discovery" -> {
+                        if (parser.currentToken() != JsonToken.START_OBJECT) {
+                            throw new IllegalStateException("'discovery' must be an object");
+                        }
+
+                        discoveryNode = parser.readValueAs(JsonNode.class);
+                    }
+                    case "delegation" -> {
+                        if (parser.currentToken() != JsonToken.START_OBJECT) {
+                            throw new IllegalStateException("'delegation' must be an object");
+                        }
+
+                        delegationNode = parser.readValueAs(JsonNode.class);
+                    }
+                    case "execution" -> {
+                        if (parser.currentToken() != JsonToken.START_OBJECT) {
+                            throw new IllegalStateException("'execution' must be an object");
+                        }
+
+                        executionNode = parser.readValueAs(JsonNode.class);
+                    }
+                    case "compression" -> {
+                        if (parser.currentToken() != JsonToken.START_OBJECT) {
+                            throw new IllegalStateException("'compression' must be an object");
+                        }
+
+                        compressionNode = parser.readValueAs(JsonNode.class);
+                    }
+                    case "stealing" -> {
+                        if (parser.currentToken() != JsonToken.START_OBJECT) {
+                            throw new IllegalStateException("'stealing' must be an object");
+                        }
+
+                        stealingNode = parser.readValueAs(JsonNode.class);
+                    }
                     default -> parser.skipChildren();
                 }
             }
@@ -81,7 +140,51 @@ public class NodeConfigLoader {
             communicationPort,
             heartbeatPort,
             nodesToDiscover,
-            clusterSettingsForNodes
+            clusterSettingsForNodes,
+            new NodeConfig.HeartbeatSettings(
+                heartbeatNode.path("codec").asString(heartbeatDefaults.codec()),
+                heartbeatProbingPeriod,
+                heartbeatNode.path("indirectProbes").asInt(heartbeatDefaults.indirectProbes()),
+                heartbeatNode.path("suspicionMultiplier").asInt(heartbeatDefaults.suspicionMultiplier()),
+                heartbeatNode.path("phiThreshold").asDouble(heartbeatDefaults.phiThreshold()),
+                heartbeatNode.path("mtu").asInt(heartbeatDefaults.mtu())
+            ),
+            new NodeConfig.DiscoverySettings(
+                NodeConfig.DiscoveryMode.valueOf(discoveryNode.path("mode").asString(discoveryDefaults.mode().name()).toUpperCase()),
+                discoveryNode.path("group").asString(discoveryDefaults.multicastGroup()),
+                discoveryNode.path("port").asInt(discoveryDefaults.multicastPort()),
+                discoveryNode.path("interface").asString(discoveryDefaults.multicastInterface()),
+                discoveryNode.path("beaconInterval").asLong(discoveryDefaults.beaconIntervalMillis())
+            ),
+            new NodeConfig.DelegationSettings(
+                delegationNode.path("maxConnectionsPerPeer").asInt(delegationDefaults.maxConnectionsPerPeer()),
+                delegationNode.path("maxInFlightPerConnection").asInt(delegationDefaults.maxInFlightPerConnection()),
+                delegationNode.path("connectTimeout").asLong(delegationDefaults.connectTimeoutMillis()),
+                delegationNode.path("requestTimeout").asLong(delegationDefaults.requestTimeoutMillis()),
+                delegationNode.path("idleTimeout").asLong(delegationDefaults.idleTimeoutMillis()),
+                delegationNode.path("healthCheckInterval").asLong(delegationDefaults.healthCheckIntervalMillis())
+            ),
+            new NodeConfig.ExecutionSettings(
+                executionNode.path("maxInFlightPerConnection").asInt(executionDefaults.maxInFlightPerConnection()),
+                executionNode.path("idleTimeout").asLong(executionDefaults.idleTimeoutMillis()),
+                executionNode.path("poolSize").asInt(executionDefaults.poolSize()),
+                executionNode.path("queueCapacity").asInt(executionDefaults.queueCapacity()),
+                executionNode.path("acceptBacklog").asInt(executionDefaults.acceptBacklog()),
+                executionNode.path("repeatParallelism").asInt(executionDefaults.repeatParallelism()),
+                executionNode.path("maxOutputBytes").asLong(executionDefaults.maxOutputBytes()),
+                executionNode.path("maxJobsAwaitingCredit").asInt(executionDefaults.maxJobsAwaitingCredit())
+            ),
+            new NodeConfig.CompressionSettings(
+                compressionNode.path("enabled").asBoolean(compressionDefaults.enabled()),
+                compressionNode.path("threshold").asInt(compressionDefaults.thresholdBytes()),
+                compressionNode.path("level").asInt(compressionDefaults.level())
+            ),
+            new NodeConfig.StealingSettings(
+                stealingNode.path("enabled").asBoolean(stealingDefaults.enabled()),
+                stealingNode.path("interval").asLong(stealingDefaults.intervalMillis()),
+                stealingNode.path("minQueuedJobs").asInt(stealingDefaults.minQueuedJobs()),
+                stealingNode.path("maxSlots").asInt(stealingDefaults.maxSlotsPerSteal())
+            )
         );
     }
 }
@@ -0,0 +1,203 @@
+package io.grano22.cluster.clustermanagement;
+
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses a member of a cluster for a job with power of two choices: two random eligible members are compared and the
+ * less loaded one wins, which keeps placements spread even when load figures are a few heartbeats old. Jobs placed from
+ * this node and not finished yet are added to the load, so a burst does not pile onto the member that looked idle.
+ */
+public final class NodePlacement {
+    // Makes members with outdated telemetry lose against members with fresh figures of a similar load
+    private static final double STALE_TELEMETRY_PENALTY = 0.5;
+
+    private record Candidates(List<ClusterNode> healthy, List<ClusterNode> suspected) {}
+
+    private final NodesMeshManager meshManager;
+    private final long telemetryMaxAgeMillis;
+    private final Map<ClusterNode, AtomicInteger> placedJobs = new ConcurrentHashMap<>();
+
+    public NodePlacement(@NonNull NodesMeshManager meshManager, long telemetryMaxAgeMillis) {
+        if (telemetryMaxAgeMillis <= 0) {
+            throw new IllegalArgumentException("Telemetry max age must be positive");
+        }
+
+        this.meshManager = meshManager;
+        this.telemetryMaxAgeMillis = telemetryMaxAgeMillis;
+    }
+
+    /**
+     * Healthy members supporting the runtime are preferred, when none is left the least suspected one is tried. Every
+     * chosen node must be handed back to {@link #release(ClusterNode)} once its job finished.
+     */
+    public Optional<ClusterNode> choose(@NonNull String clusterName, @NonNull String runtimeName, @NonNull Set<ClusterNode> excluded) {
+        var candidates = candidatesOf(clusterName, runtimeName, excluded);
+
+        Optional<ClusterNode> chosen = candidates.healthy().isEmpty()
+            ? candidates.suspected().stream().min(Comparator.comparingDouble(meshManager::getSuspicionLevel))
+            : Optional.of(twoChoices(candidates.healthy()))
+        ;
+        chosen.ifPresent(this::reserve);
+
+        return chosen;
+    }
+
+    /**
+     * Assigns the partitions of one job to members in proportion to their capacity, the returned list holds a member
+     * for each partition, interleaved so that no member receives all of its share at once. Every entry must be released.
+     */
+    public List<ClusterNode> spread(@NonNull String clusterName, @NonNull String runtimeName, int partitions) {
+        var members = membersToSpreadOver(clusterName, runtimeName);
+        if (members.isEmpty() || partitions <= 0) {
+            return List.of();
+        }
+
+        int totalCapacity = members.stream().mapToInt(this::capacityOf).sum();
+        int[] shares = new int[members.size()];
+        double[] remainders = new double[members.size()];
+        int assigned = 0;
+        for (var i = 0; i < members.size(); i++) {
+            double exactShare = (double) partitions * capacityOf(members.get(i)) / totalCapacity;
+            shares[i] = (int) exactShare;
+            remainders[i] = exactShare - shares[i];
+            assigned += shares[i];
+        }
+
+        // Largest remainder, partitions lost to rounding go to the members closest to deserving one more
+        while (assigned < partitions) {
+            int best = 0;
+            for (var i = 1; i < members.size(); i++) {
+                if (remainders[i] > remainders[best]) {
+                    best = i;
+                }
+            }
+            shares[best]++;
+            remainders[best] = -1;
+            assigned++;
+        }
+
+        List<ClusterNode> assignment = new ArrayList<>(partitions);
+        while (assignment.size() < partitions) {
+            for (var i = 0; i < members.size(); i++) {
+                if (shares[i] > 0) {
+                    shares[i]--;
+                    assignment.add(members.get(i));
+                }
+            }
+        }
+        assignment.forEach(this::reserve);
+
+        return assignment;
+    }
+
+    /**
+     * Job slots of the members a job of the runtime would be spread over, at least one when any member is eligible.
+     */
+    public int capacityOf(@NonNull String clusterName, @NonNull String runtimeName) {
+        return membersToSpreadOver(clusterName, runtimeName).stream().mapToInt(this::capacityOf).sum();
+    }
+
+    public void release(@NonNull ClusterNode node) {
+        var placed = placedJobs.get(node);
+        if (placed != null) {
+            placed.updateAndGet(count -> Math.max(0, count - 1));
+        }
+    }
+
+    /**
+     * Jobs running or waiting per slot of capacity, including jobs placed from here the member has not reported yet.
+     */
+    public double loadOf(@NonNull ClusterNode node) {
+        var placed = placedJobs.get(node);
+        int placedCount = placed == null ? 0 : placed.get();
+        var telemetry = meshManager.getTelemetry(node);
+
+        if (telemetry.isEmpty() || telemetry.get().capacity() <= 0) {
+            var utilization = node.utilization();
+
+            return (double) (utilization.getJobsInProgress() + placedCount) / Math.max(1, utilization.getJobTotalCapacity());
+        }
+
+        var sample = telemetry.get();
+        double load = (double) (sample.activeJobs() + sample.queuedJobs() + placedCount) / sample.capacity();
+
+        return sample.isFresherThan(telemetryMaxAgeMillis, System.currentTimeMillis()) ? load : load + STALE_TELEMETRY_PENALTY;
+    }
+
+    private int capacityOf(ClusterNode node) {
+        return meshManager.getTelemetry(node)
+            .map(NodeTelemetry::capacity)
+            .filter(capacity -> capacity > 0)
+            .orElse(Math.max(1, node.utilization().getJobTotalCapacity()))
+        ;
+    }
+
+    private void reserve(ClusterNode node) {
+        placedJobs.computeIfAbsent(node, _ -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private List<ClusterNode> membersToSpreadOver(String clusterName, String runtimeName) {
+        var candidates = candidatesOf(clusterName, runtimeName, Set.of());
+
+        return candidates.healthy().isEmpty() ? candidates.suspected() : candidates.healthy();
+    }
+
+    private Candidates candidatesOf(String clusterName, String runtimeName, Set<ClusterNode> excluded) {
+        var candidates = new Candidates(new ArrayList<>(), new ArrayList<>());
+        var cluster = meshManager.findCluster(clusterName);
+        if (cluster.isEmpty()) {
+            return candidates;
+        }
+
+        for (var node: cluster.get().nodes()) {
+            if (excluded.contains(node) || !node.supportedRuntimes().contains(runtimeName)) {
+                continue;
+            }
+
+            (meshManager.isNodeHealthy(node) ? candidates.healthy() : candidates.suspected()).add(node);
+        }
+
+        return candidates;
+    }
+
+    private ClusterNode twoChoices(List<ClusterNode> candidates) {
+        if (candidates.size() == 1) {
+            return candidates.getFirst();
+        }
+
+        var random = ThreadLocalRandom.current();
+        int first = random.nextInt(candidates.size());
+        int second = random.nextInt(candidates.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+
+        var firstNode = candidates.get(first);
+        var secondNode = candidates.get(second);
+        double firstLoad = loadOf(firstNode);
+        double secondLoad = loadOf(secondNode);
+        if (firstLoad != secondLoad) {
+            return firstLoad < secondLoad ? firstNode : secondNode;
+        }
+
+        return cpuLoadOf(firstNode) <= cpuLoadOf(secondNode) ? firstNode : secondNode;
+    }
+
+    private double cpuLoadOf(ClusterNode node) {
+        return meshManager.getTelemetry(node)
+            .map(NodeTelemetry::cpuLoad)
+            .filter(cpuLoad -> cpuLoad >= 0)
+            .orElse(1.0)
+        ;
+    }
+}
@@ -0,0 +1,71 @@
+package io.grano22.cluster.clustermanagement;
+
+import lombok.NonNull;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns every node ever seen to a dense int id, ids are never reused so they stay valid in older membership snapshots.
+ */
+public final class NodeRegistry {
+    public static final int UNKNOWN = -1;
+
+    private record Address(String hostname, int port) {}
+
+    private final Map<ClusterNode, Integer> ids = new ConcurrentHashMap<>();
+    private final Map<Address, Integer> byCommunicationAddress = new ConcurrentHashMap<>();
+    private final Map<Address, Integer> byHeartbeatAddress = new ConcurrentHashMap<>();
+    private volatile ClusterNode[] nodes = new ClusterNode[16];
+    private int size;
+
+    public int intern(@NonNull ClusterNode node) {
+        Integer id = ids.get(node);
+        if (id != null) {
+            return id;
+        }
+
+        synchronized (this) {
+            id = ids.get(node);
+            if (id != null) {
+                return id;
+            }
+
+            ClusterNode[] current = nodes;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, size * 2);
+            }
+            current[size] = node;
+            nodes = current;
+
+            // Indexes are filled last, so any id found through them already resolves to its node
+            byCommunicationAddress.put(new Address(node.hostname(), node.communicationPort()), size);
+            byHeartbeatAddress.put(new Address(node.hostname(), node.heartbeatPort()), size);
+            ids.put(node, size);
+
+            return size++;
+        }
+    }
+
+    public int idOf(@NonNull ClusterNode node) {
+        return ids.getOrDefault(node, UNKNOWN);
+    }
+
+    public ClusterNode nodeOf(int id) {
+        return nodes[id];
+    }
+
+    public int findByCommunicationAddress(@NonNull String hostname, int communicationPort) {
+        return byCommunicationAddress.getOrDefault(new Address(hostname, communicationPort), UNKNOWN);
+    }
+
+    public int findByHeartbeatAddress(@NonNull String hostname, int heartbeatPort) {
+        return byHeartbeatAddress.getOrDefault(new Address(hostname, heartbeatPort), UNKNOWN);
+    }
+
+    public Optional<ClusterNode> find(int id) {
+        return id == UNKNOWN ? Optional.empty() : Optional.of(nodeOf(id));
+    }
+}
@@ -0,0 +1,29 @@
+package io.grano22.cluster.clustermanagement;
+
+/**
+ * Load of a node at one moment. Negative cpuLoad and heapMaxBytes mean the value is not available on that node.
+ */
+public record NodeTelemetry(
+    int activeJobs,
+    int queuedJobs,
+    int capacity,
+    double cpuLoad,
+    long heapUsedBytes,
+    long heapMaxBytes,
+    long sampledAtMillis
+) {
+    public NodeTelemetry withSampledAt(long sampledAtMillis) {
+        return new NodeTelemetry(activeJobs, queuedJobs, capacity, cpuLoad, heapUsedBytes, heapMaxBytes, sampledAtMillis);
+    }
+
+    /**
+     * Jobs running or waiting per slot of capacity, above 1 the node is saturated.
+     */
+    public double jobLoad() {
+        return capacity <= 0 ? Double.MAX_VALUE : (double) (activeJobs + queuedJobs) / capacity;
+    }
+
+    public boolean isFresherThan(long maxAgeMillis, long nowMillis) {
+        return nowMillis - sampledAtMillis <= maxAgeMillis;
+    }
+}
@@ -0,0 +1,90 @@
+package io.grano22.cluster.clustermanagement;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Telemetry of this node. Job counters are atomics updated by the execution side, {@link #sample()} combines them with
+ * process CPU load and heap usage from MXBeans and publishes the result for readers.
+ */
+public final class NodeTelemetrySampler {
+    private final AtomicInteger activeJobs = new AtomicInteger();
+    private final AtomicInteger queuedJobs = new AtomicInteger();
+    private final AtomicInteger capacity;
+    private final AtomicReference<NodeTelemetry> latest = new AtomicReference<>();
+    private final OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    public NodeTelemetrySampler(int capacity) {
+        this.capacity = new AtomicInteger(capacity);
+        sample();
+    }
+
+    public void jobQueued() {
+        queuedJobs.incrementAndGet();
+    }
+
+    /**
+     * Undoes {@link #jobQueued()} for a job the execution pool refused.
+     */
+    public void jobRejected() {
+        queuedJobs.decrementAndGet();
+    }
+
+    public int jobStarted() {
+        queuedJobs.decrementAndGet();
+
+        return activeJobs.incrementAndGet();
+    }
+
+    public int jobFinished() {
+        return activeJobs.decrementAndGet();
+    }
+
+    public void setCapacity(int newCapacity) {
+        capacity.set(newCapacity);
+    }
+
+    public int getActiveJobs() {
+        return activeJobs.get();
+    }
+
+    public int getQueuedJobs() {
+        return Math.max(0, queuedJobs.get());
+    }
+
+    public NodeTelemetry sample() {
+        MemoryUsage heap = memory.getHeapMemoryUsage();
+        var telemetry = new NodeTelemetry(
+            activeJobs.get(),
+            Math.max(0, queuedJobs.get()),
+            capacity.get(),
+            processCpuLoad(),
+            heap.getUsed(),
+            heap.getMax(),
+            System.currentTimeMillis()
+        );
+        latest.set(telemetry);
+
+        return telemetry;
+    }
+
+    public NodeTelemetry latest() {
+        return latest.get();
+    }
+
+    private double processCpuLoad() {
+        if (operatingSystem instanceof com.sun.management.OperatingSystemMXBean extended) {
+            return extended.getProcessCpuLoad();
+        }
+
+        // Without the extended bean only the system wide average is known, scaled to the share of one processor
+        double loadAverage = operatingSystem.getSystemLoadAverage();
+
+        return loadAverage < 0 ? -1 : Math.min(1.0, loadAverage / operatingSystem.getAvailableProcessors());
+    }
+}
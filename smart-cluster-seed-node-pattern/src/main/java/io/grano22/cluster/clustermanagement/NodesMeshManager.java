@@ -2,26 +2,43 @@ package io.grano22.cluster.clustermanagement;
 
 import lombok.Getter;
 import lombok.NonNull;
-import io.grano22.cluster.optimizations.SingleCPURegisterHostsFilter;
+import io.grano22.cluster.optimizations.HostStatusTable;
+import io.grano22.cluster.optimizations.HostStatusTable.HostStatus;
 import io.grano22.cluster.runtime.LanguageExpressionExecutionRuntime;
 
-import java.lang.ref.WeakReference;
+import java.net.InetSocketAddress;
 import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongFunction;
 import java.util.stream.Collectors;
 
 public final class NodesMeshManager {
     @Getter
-    private final Set<Cluster> clusters = ConcurrentHashMap.newKeySet();
+    private final NodeRegistry registry = new NodeRegistry();
+    private final AtomicReference<MembershipSnapshot> snapshot;
+    @Getter
+    private final MembershipEventStream events = new MembershipEventStream();
+    // Writers are serialized, so events leave in version order, readers never take it
+    private final Object writeLock = new Object();
     @Getter
     private final @NonNull ClusterNode self;
     @Getter
     private final @NonNull Set<String> discoverableNodes;
-    private final @NonNull SingleCPURegisterHostsFilter discoverableNodesStatus;
+    @Getter
+    private final @NonNull Map<String, InetSocketAddress> discoverableAddresses;
+    private final @NonNull HostStatusTable discoverableNodesStatus;
 
-    //private final Map<Cluster, Set<ClusterNode>> clusterNodesCache = Collections.synchronizedMap(new WeakHashMap<>());
-    private final Map<String, WeakReference<Cluster>> clusterNodesCache = new ConcurrentHashMap<>();
+    private final Set<ClusterNode> unhealthyNodes = ConcurrentHashMap.newKeySet();
+    private final Map<ClusterNode, Double> suspicionLevels = new ConcurrentHashMap<>();
+    private final Map<ClusterNode, LatencyHistogram> roundTrips = new ConcurrentHashMap<>();
+    private final Map<ClusterNode, NodeTelemetry> telemetry = new ConcurrentHashMap<>();
+    @Getter
+    private final NodeTelemetrySampler telemetrySampler;
 
     public static NodesMeshManager initMeshFromConfig(NodeConfig nodeSettings) {
         var selfNode = new ClusterNode(
@@ -51,94 +68,253 @@ public final class NodesMeshManager {
         final @NonNull Set<String> discoverableNodes
     ) {
         this.self = self;
-        this.clusters.addAll(clusters);
+        this.telemetrySampler = new NodeTelemetrySampler(self.utilization().getJobTotalCapacity());
+        this.snapshot = new AtomicReference<>(MembershipSnapshot.initial(registry, clusters));
+        this.discoverableNodes = discoverableNodes;
+        // Parsed once, heartbeat rounds only filter these by status
+        this.discoverableAddresses = discoverableNodes.stream()
+            .collect(Collectors.toUnmodifiableMap(Function.identity(), node -> {
+                var parts = node.split(":");
+                return new InetSocketAddress(parts[0], Integer.parseInt(parts[1]));
+            }))
+        ;
+        this.discoverableNodesStatus = new HostStatusTable(discoverableNodes, HostStatus.UNKNOWN);
+    }
 
-        for (var cluster : clusters) {
-            clusterNodesCache.put(cluster.name(), new WeakReference<>(cluster));
+    /**
+     * Consistent view of all clusters, never blocks and never changes after it is returned.
+     */
+    public MembershipSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    public long getVersion() {
+        return snapshot.get().version();
+    }
+
+    public Set<Cluster> getClusters() {
+        return snapshot.get().clusters();
+    }
+
+    /**
+     * Applies all mutations of the batch as one new version, emits its events and returns the version holding them.
+     * The mutation must not have side effects outside the batch.
+     */
+    public long publish(Consumer<MembershipSnapshot.Batch> mutation) {
+        synchronized (writeLock) {
+            MembershipSnapshot current = snapshot.get();
+            MembershipSnapshot.Batch batch = current.batch();
+            mutation.accept(batch);
+            MembershipSnapshot next = batch.build();
+
+            if (next != current) {
+                snapshot.set(next);
+                events.publishAll(batch.events(next.version()));
+            }
+
+            return next.version();
+        }
+    }
+
+    private void emit(LongFunction<MembershipEvent> event) {
+        if (events.getSubscriberCount() == 0) {
+            return;
         }
 
-        this.discoverableNodes = discoverableNodes;
-        this.discoverableNodesStatus = new SingleCPURegisterHostsFilter(discoverableNodes, "UNKNOWN");
+        synchronized (writeLock) {
+            events.publish(event.apply(snapshot.get().version()));
+        }
     }
 
     public void addCluster(Cluster cluster) {
-        clusters.add(cluster);
-        clusterNodesCache.put(cluster.name(), new WeakReference<>(cluster));
+        publish(batch -> batch.addCluster(cluster));
     }
 
     public void addClusters(Set<Cluster> newClusters) {
-        clusters.addAll(newClusters);
-        clusterNodesCache.putAll(newClusters.stream().collect(Collectors.toMap(Cluster::name, WeakReference::new)));
+        publish(batch -> newClusters.forEach(batch::addCluster));
+    }
+
+    public Map<String, Long> getClusterDigests() {
+        return snapshot.get().clusterDigests();
+    }
+
+    public Optional<Cluster> findCluster(String clusterName) {
+        return snapshot.get().findCluster(clusterName);
+    }
+
+    public long[] getKnownNodeIds(String clusterName) {
+        return findCluster(clusterName)
+            .map(cluster -> cluster.nodes().stream().mapToLong(MembershipDigest::nodeId).toArray())
+            .orElse(new long[0])
+        ;
+    }
+
+    public Optional<Cluster> getClusterDelta(String clusterName, long[] knownNodeIds) {
+        var knownIds = Arrays.stream(knownNodeIds).boxed().collect(Collectors.toSet());
+
+        return findCluster(clusterName)
+            .map(cluster -> new Cluster(
+                cluster.name(),
+                cluster.nodes().stream()
+                    .filter(node -> !knownIds.contains(MembershipDigest.nodeId(node)))
+                    .collect(Collectors.toUnmodifiableSet())
+            ))
+        ;
     }
 
     public boolean hasInCluster(Cluster cluster, ClusterNode node) {
-        WeakReference<Cluster> clusterRef = clusterNodesCache.get(cluster.name());
+        return snapshot.get().hasInCluster(cluster.name(), node);
+    }
 
-        if (clusterRef == null) {
+    public void addNodeToCluster(Cluster cluster, ClusterNode newNode) {
+        addNodesToCluster(cluster, Set.of(newNode));
+    }
+
+    public void addNodesToCluster(Cluster cluster, Collection<ClusterNode> newNodesBatch) {
+        if (newNodesBatch.isEmpty()) {
+            return;
+        }
+
+        publish(batch -> batch.addNodes(cluster.name(), newNodesBatch));
+    }
+
+    public Set<String> removeNodeFromClusters(ClusterNode node) {
+        unhealthyNodes.remove(node);
+        suspicionLevels.remove(node);
+        roundTrips.remove(node);
+        telemetry.remove(node);
+
+        var leftClusters = new AtomicReference<Set<String>>();
+        publish(batch -> leftClusters.set(batch.removeNode(node)));
+
+        return leftClusters.get();
+    }
+
+    public Set<String> getClusterNamesOf(ClusterNode node) {
+        return snapshot.get().clusterNamesOf(node);
+    }
+
+    public Set<ClusterNode> getAllKnownNodes() {
+        Set<ClusterNode> nodes = snapshot.get().allNodes();
+        if (!nodes.contains(self)) {
+            return nodes;
+        }
+
+        Set<ClusterNode> others = new HashSet<>(nodes);
+        others.remove(self);
+
+        return Collections.unmodifiableSet(others);
+    }
+
+    public void setNodeDiscovered(String host) {
+        discoverableNodesStatus.update(host, HostStatus.OK);
+    }
+
+    public void setNodeAsNotHealthy(String host) {
+        discoverableNodesStatus.update(host, HostStatus.DOWN);
+    }
+
+    public boolean setNodeAsNotHealthy(ClusterNode node) {
+        setNodeAsNotHealthy(node.hostname() + ":" + node.heartbeatPort());
+
+        if (!unhealthyNodes.add(node)) {
             return false;
         }
+        emit(version -> new MembershipEvent.NodeSuspected(version, node, getSuspicionLevel(node)));
+
+        return true;
+    }
+
+    public boolean setNodeAsHealthy(ClusterNode node) {
+        setNodeDiscovered(node.hostname() + ":" + node.heartbeatPort());
 
-        Cluster clusterPointer = clusterRef.get();
-        if (clusterPointer == null) {
+        if (!unhealthyNodes.remove(node)) {
             return false;
         }
+        emit(version -> new MembershipEvent.NodeRecovered(version, node));
 
-        return clusterPointer.nodes().contains(node);
+        return true;
     }
 
-    public void addNodeToCluster(Cluster cluster, ClusterNode newNode) {
-        clusterNodesCache.compute(cluster.name(), (id, currentRef) -> {
-            Set<ClusterNode> newNodes;
-            Cluster oldCluster = null;
-
-            if (currentRef != null && (oldCluster = currentRef.get()) != null) {
-                newNodes = new HashSet<>(oldCluster.nodes());
-            } else {
-                newNodes = new HashSet<>();
-            }
+    public void updateSuspicionLevel(ClusterNode node, double phi) {
+        suspicionLevels.put(node, phi);
+    }
 
-            newNodes.add(newNode);
-            Cluster newCluster = new Cluster(id, Collections.unmodifiableSet(newNodes));
+    public double getSuspicionLevel(ClusterNode node) {
+        return suspicionLevels.getOrDefault(node, 0.0);
+    }
 
-            if (oldCluster != null) {
-                clusters.remove(oldCluster);
-            }
-            clusters.add(newCluster);
+    public void recordRoundTrip(ClusterNode node, long roundTripNanos) {
+        roundTrips.computeIfAbsent(node, _ -> new LatencyHistogram()).record(TimeUnit.NANOSECONDS.toMicros(roundTripNanos));
+    }
 
-            return new WeakReference<>(newCluster);
-        });
+    public Optional<LatencyHistogram.Snapshot> getRoundTripStats(ClusterNode node) {
+        return Optional.ofNullable(roundTrips.get(node)).map(LatencyHistogram::snapshot);
     }
 
-    public void setNodeDiscovered(String host) {
-        discoverableNodesStatus.update(host, "OK");
+    /**
+     * Stores telemetry of a member, its sampledAt is expected in the local clock so freshness checks never compare clocks of two nodes.
+     */
+    public void updateTelemetry(ClusterNode node, NodeTelemetry nodeTelemetry) {
+        Optional<ClusterNode> member = registry.find(registry.idOf(node));
+        if (member.isEmpty() || node.equals(self)) {
+            return;
+        }
+
+        telemetry.merge(member.get(), nodeTelemetry, (previous, next) -> next.sampledAtMillis() >= previous.sampledAtMillis() ? next : previous);
+        updateUtilizationOf(member.get(), nodeTelemetry.activeJobs());
     }
 
-    public void setNodeAsNotHealthy(String host) {
-        discoverableNodesStatus.update(host, "DOWN");
+    public Optional<NodeTelemetry> getTelemetry(ClusterNode node) {
+        if (node.equals(self)) {
+            return Optional.ofNullable(telemetrySampler.latest());
+        }
+
+        return Optional.ofNullable(telemetry.get(node));
+    }
+
+    public Optional<ClusterNode> findNode(String hostname, int communicationPort) {
+        int nodeId = registry.findByCommunicationAddress(hostname, communicationPort);
+
+        return snapshot.get().isMember(nodeId) ? registry.find(nodeId) : Optional.empty();
     }
 
     public void updateUtilizationFor(ClusterNodeMatcher matcher, int jobsInProgress) {
-        var nodesToUpdate = clusters
-           .parallelStream()
-           .flatMap(n -> n.nodes().stream())
-           .filter(matcher::matchAgainst)
-           .collect(Collectors.toSet())
-        ;
+        Collection<ClusterNode> nodesToUpdate;
+        if (matcher.communicationPort() != null) {
+            nodesToUpdate = findNode(matcher.host(), matcher.communicationPort()).filter(matcher::matchAgainst).stream().toList();
+        } else {
+            nodesToUpdate = snapshot.get().allNodes().stream().filter(matcher::matchAgainst).toList();
+        }
 
         for (var node: nodesToUpdate) {
-            node.utilization().setJobsInProgress(jobsInProgress);
+            updateUtilizationOf(node, jobsInProgress);
         }
     }
 
     public void updateUtilization(int jobsInProgress) {
-        self.utilization().setJobsInProgress(jobsInProgress);
+        updateUtilizationOf(self, jobsInProgress);
+    }
+
+    private void updateUtilizationOf(ClusterNode node, int jobsInProgress) {
+        ClusterNodeUtilization utilization = node.utilization();
+        if (utilization.getJobsInProgress() == jobsInProgress) {
+            return;
+        }
+
+        utilization.setJobsInProgress(jobsInProgress);
+        emit(version -> new MembershipEvent.UtilizationChanged(version, node, jobsInProgress, utilization.getJobTotalCapacity()));
+    }
+
+    public boolean isNodeHealthy(ClusterNode node) {
+        return node.equals(self) || !unhealthyNodes.contains(node);
     }
 
     public boolean isNodeHealthy(String host) {
-        return discoverableNodesStatus.getStatus(host).equals("OK");
+        return discoverableNodesStatus.statusOf(host) == HostStatus.OK;
     }
 
     public Set<String> getAllNotDiscoveredNodes() {
-        return discoverableNodes.stream().filter(node -> !isNodeHealthy(node)).collect(Collectors.toSet());
+        return discoverableNodesStatus.getAllNotInStatus(HostStatus.OK);
     }
 }
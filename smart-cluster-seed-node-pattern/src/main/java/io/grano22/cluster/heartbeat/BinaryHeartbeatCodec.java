@@ -0,0 +1,675 @@
+package io.grano22.cluster.heartbeat;
+
+import io.grano22.cluster.clustermanagement.Cluster;
+import io.grano22.cluster.clustermanagement.ClusterNode;
+import io.grano22.cluster.clustermanagement.ClusterNodeUtilization;
+import io.grano22.cluster.clustermanagement.NodeTelemetry;
+import lombok.NonNull;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static io.grano22.cluster.optimizations.ByteBufferWire.*;
+
+/**
+ * Wire layout (version 2):
+ * <pre>
+ * magic:u8 version:u8 type:u8 flags:u8 bodyLength:varint
+ * timestamp:varlong
+ * nodeCount:varint node*
+ * senderId:varint
+ * HEARTBEAT     := [flags &amp; CLUSTERS] clusters digestCount:varint (name:string digest:i64)* [flags &amp; ACK_REQUESTED] ackSequence:varlong
+ * SYNC_REQUEST  := clusterCount:varint (name:string idCount:varint nodeId:i64*)*
+ * SYNC_RESPONSE := clusters
+ * PING          := sequence:varlong digestCount:varint (name:string digest:i64)* updates
+ * PING_REQUEST  := sequence:varlong targetIndex:varint updates
+ * ACK           := sequence:varlong updates
+ * BEACON        := clusterCount:varint name:string*
+ * followed by [flags &amp; TELEMETRY] telemetry on any type
+ *
+ * clusters := clusterCount:varint (name:string nodeCount:varint nodeIndex:varint*)*
+ * updates  := updateCount:varint (nodeIndex:varint status:u8 incarnation:varlong clusterCount:varint name:string*)*
+ * node     := hostname:string webPort:varint communicationPort:varint heartbeatPort:varint
+ *             lastHeartbeat:varlong(epoch millis) lastTrip:zigzag
+ *             runtimeCount:varint runtime:string* jobsInProgress:varint jobTotalCapacity:varint
+ * telemetry := activeJobs:varint queuedJobs:varint capacity:varint cpuLoadPermille:zigzag
+ *              heapUsedKib:varlong heapMaxKib:zigzag sampledAt:varlong(epoch millis)
+ * </pre>
+ * Node indexes point into the node table of a single payload, so a node shared by many clusters is written once.
+ * Version 1 payloads (no type byte, no digests) are still decoded as heartbeats. Telemetry is appended after the type
+ * specific fields, so decoders not knowing the flag skip it together with the rest of the body.
+ */
+public final class BinaryHeartbeatCodec implements HeartbeatCodec {
+    public static final String NAME = "binary";
+    public static final byte MAGIC = (byte) 0xB7;
+    public static final byte VERSION = 2;
+
+    private static final byte TYPE_HEARTBEAT = 1;
+    private static final byte TYPE_SYNC_REQUEST = 2;
+    private static final byte TYPE_SYNC_RESPONSE = 3;
+    private static final byte TYPE_PING = 4;
+    private static final byte TYPE_PING_REQUEST = 5;
+    private static final byte TYPE_ACK = 6;
+    private static final byte TYPE_BEACON = 7;
+
+    private static final HeartbeatMessage.MemberStatus[] MEMBER_STATUSES = HeartbeatMessage.MemberStatus.values();
+
+    private static final int FLAG_CLUSTERS = 1;
+    private static final int FLAG_ACK_REQUESTED = 2;
+    private static final int FLAG_TELEMETRY = 4;
+    private static final int HEADER_SIZE = 4;
+
+    private ClusterNode[] nodeTable = new ClusterNode[16];
+    private int nodeCount;
+    private ClusterNode[] slotKeys = new ClusterNode[32];
+    private int[] slotIds = new int[32];
+    private ClusterNode[] decodedNodes = new ClusterNode[16];
+
+    @Override
+    public @NonNull String name() {
+        return NAME;
+    }
+
+    @Override
+    public int encodedSize(@NonNull HeartbeatMessage message) {
+        indexNodes(message);
+        int bodySize = bodySize(message);
+
+        return HEADER_SIZE + sizeOfVarInt(bodySize) + bodySize;
+    }
+
+    @Override
+    public int encode(@NonNull HeartbeatMessage message, @NonNull ByteBuffer target) {
+        indexNodes(message);
+        int bodySize = bodySize(message);
+        int totalSize = HEADER_SIZE + sizeOfVarInt(bodySize) + bodySize;
+
+        if (target.remaining() < totalSize) {
+            throw new BufferOverflowException();
+        }
+
+        target.put(MAGIC);
+        target.put(VERSION);
+        target.put(typeOf(message));
+        target.put(flagsOf(message));
+        writeVarInt(target, bodySize);
+
+        writeVarLong(target, message.timestamp());
+        writeVarInt(target, nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            writeNode(target, nodeTable[i]);
+        }
+        writeVarInt(target, idOf(message.sender()));
+
+        switch (message) {
+            case HeartbeatMessage.Heartbeat heartbeat -> {
+                if (heartbeat.clusters() != null) {
+                    writeClusters(target, heartbeat.clusters());
+                }
+                writeDigests(target, heartbeat.clusterDigests());
+                if (heartbeat.ackRequested()) {
+                    writeVarLong(target, heartbeat.ackSequence());
+                }
+            }
+            case HeartbeatMessage.MembershipSyncRequest request -> {
+                writeVarInt(target, request.knownNodeIds().size());
+                for (var knownNodes: request.knownNodeIds().entrySet()) {
+                    writeString(target, knownNodes.getKey());
+                    writeVarInt(target, knownNodes.getValue().length);
+                    for (long nodeId: knownNodes.getValue()) {
+                        target.putLong(nodeId);
+                    }
+                }
+            }
+            case HeartbeatMessage.MembershipSyncResponse response -> writeClusters(target, response.clusters());
+            case HeartbeatMessage.Ping ping -> {
+                writeVarLong(target, ping.sequence());
+                writeDigests(target, ping.clusterDigests());
+                writeUpdates(target, ping.updates());
+            }
+            case HeartbeatMessage.PingRequest pingRequest -> {
+                writeVarLong(target, pingRequest.sequence());
+                writeVarInt(target, idOf(pingRequest.target()));
+                writeUpdates(target, pingRequest.updates());
+            }
+            case HeartbeatMessage.Ack ack -> {
+                writeVarLong(target, ack.sequence());
+                writeUpdates(target, ack.updates());
+            }
+            case HeartbeatMessage.Beacon beacon -> {
+                writeVarInt(target, beacon.clusterNames().size());
+                for (var clusterName: beacon.clusterNames()) {
+                    writeString(target, clusterName);
+                }
+            }
+        }
+        if (message.telemetry() != null) {
+            writeTelemetry(target, message.telemetry());
+        }
+
+        return totalSize;
+    }
+
+    @Override
+    public @NonNull HeartbeatMessage decode(@NonNull ByteBuffer source) {
+        if (source.get() != MAGIC) {
+            throw new IllegalArgumentException("Payload is not a binary heartbeat");
+        }
+
+        byte version = source.get();
+        if (version < 1 || version > VERSION) {
+            throw new IllegalArgumentException("Unsupported heartbeat wire version " + version);
+        }
+
+        byte type = version == 1 ? TYPE_HEARTBEAT : source.get();
+        int flags = source.get();
+        int bodySize = readVarInt(source);
+        if (bodySize > source.remaining()) {
+            throw new IllegalArgumentException("Heartbeat is truncated, expected " + bodySize + " bytes, got " + source.remaining());
+        }
+        int bodyEnd = source.position() + bodySize;
+
+        long timestamp = readVarLong(source);
+        int decodedCount = readCount(source);
+        if (decodedNodes.length < decodedCount) {
+            decodedNodes = new ClusterNode[Math.max(decodedCount, decodedNodes.length * 2)];
+        }
+        for (int i = 0; i < decodedCount; i++) {
+            decodedNodes[i] = readNode(source);
+        }
+        ClusterNode sender = decodedNodes[readNodeId(source, decodedCount)];
+
+        HeartbeatMessage message = switch (type) {
+            case TYPE_HEARTBEAT -> {
+                Set<Cluster> clusters = (flags & FLAG_CLUSTERS) != 0 ? readClusters(source, decodedCount) : null;
+                Map<String, Long> digests = version > 1 ? readDigests(source) : Map.of();
+                long ackSequence = (flags & FLAG_ACK_REQUESTED) != 0 ? readVarLong(source) : 0;
+
+                yield new HeartbeatMessage.Heartbeat(sender, timestamp, clusters, digests, ackSequence);
+            }
+            case TYPE_SYNC_REQUEST -> {
+                Map<String, long[]> knownNodeIds = new HashMap<>();
+                int clusterCount = readCount(source);
+                for (int i = 0; i < clusterCount; i++) {
+                    String clusterName = readString(source);
+                    var nodeIds = new long[readCount(source)];
+                    for (int j = 0; j < nodeIds.length; j++) {
+                        nodeIds[j] = source.getLong();
+                    }
+                    knownNodeIds.put(clusterName, nodeIds);
+                }
+
+                yield new HeartbeatMessage.MembershipSyncRequest(sender, timestamp, knownNodeIds);
+            }
+            case TYPE_SYNC_RESPONSE -> new HeartbeatMessage.MembershipSyncResponse(sender, timestamp, readClusters(source, decodedCount));
+            case TYPE_PING -> {
+                long sequence = readVarLong(source);
+                Map<String, Long> digests = readDigests(source);
+
+                yield new HeartbeatMessage.Ping(sender, timestamp, sequence, digests, readUpdates(source, decodedCount));
+            }
+            case TYPE_PING_REQUEST -> {
+                long sequence = readVarLong(source);
+                ClusterNode target = decodedNodes[readNodeId(source, decodedCount)];
+
+                yield new HeartbeatMessage.PingRequest(sender, timestamp, sequence, target, readUpdates(source, decodedCount));
+            }
+            case TYPE_ACK -> {
+                long sequence = readVarLong(source);
+
+                yield new HeartbeatMessage.Ack(sender, timestamp, sequence, readUpdates(source, decodedCount));
+            }
+            case TYPE_BEACON -> {
+                var clusterNames = new String[readCount(source)];
+                for (int i = 0; i < clusterNames.length; i++) {
+                    clusterNames[i] = readString(source);
+                }
+
+                yield new HeartbeatMessage.Beacon(sender, timestamp, Set.of(clusterNames));
+            }
+            default -> throw new IllegalArgumentException("Unknown heartbeat message type " + type);
+        };
+
+        if ((flags & FLAG_TELEMETRY) != 0) {
+            message = message.withTelemetry(readTelemetry(source));
+        }
+
+        Arrays.fill(decodedNodes, 0, decodedCount, null);
+        // Newer minor revisions may append fields, skip whatever this version does not understand
+        source.position(bodyEnd);
+
+        return message;
+    }
+
+    @Override
+    public boolean canDecode(@NonNull ByteBuffer source) {
+        return source.remaining() >= HEADER_SIZE && source.get(source.position()) == MAGIC;
+    }
+
+    private static byte typeOf(HeartbeatMessage message) {
+        return switch (message) {
+            case HeartbeatMessage.Heartbeat _ -> TYPE_HEARTBEAT;
+            case HeartbeatMessage.MembershipSyncRequest _ -> TYPE_SYNC_REQUEST;
+            case HeartbeatMessage.MembershipSyncResponse _ -> TYPE_SYNC_RESPONSE;
+            case HeartbeatMessage.Ping _ -> TYPE_PING;
+            case HeartbeatMessage.PingRequest _ -> TYPE_PING_REQUEST;
+            case HeartbeatMessage.Ack _ -> TYPE_ACK;
+            case HeartbeatMessage.Beacon _ -> TYPE_BEACON;
+        };
+    }
+
+    private static byte flagsOf(HeartbeatMessage message) {
+        int flags = clustersOf(message) != null ? FLAG_CLUSTERS : 0;
+
+        if (message instanceof HeartbeatMessage.Heartbeat heartbeat && heartbeat.ackRequested()) {
+            flags |= FLAG_ACK_REQUESTED;
+        }
+        if (message.telemetry() != null) {
+            flags |= FLAG_TELEMETRY;
+        }
+
+        return (byte) flags;
+    }
+
+    private static Set<Cluster> clustersOf(HeartbeatMessage message) {
+        return switch (message) {
+            case HeartbeatMessage.Heartbeat heartbeat -> heartbeat.clusters();
+            case HeartbeatMessage.MembershipSyncRequest _ -> null;
+            case HeartbeatMessage.MembershipSyncResponse response -> response.clusters();
+            case HeartbeatMessage.Ping _, HeartbeatMessage.PingRequest _, HeartbeatMessage.Ack _, HeartbeatMessage.Beacon _ -> null;
+        };
+    }
+
+    private static List<HeartbeatMessage.MembershipUpdate> updatesOf(HeartbeatMessage message) {
+        return switch (message) {
+            case HeartbeatMessage.Ping ping -> ping.updates();
+            case HeartbeatMessage.PingRequest pingRequest -> pingRequest.updates();
+            case HeartbeatMessage.Ack ack -> ack.updates();
+            case HeartbeatMessage.Heartbeat _,
+                 HeartbeatMessage.MembershipSyncRequest _,
+                 HeartbeatMessage.MembershipSyncResponse _,
+                 HeartbeatMessage.Beacon _ -> List.of();
+        };
+    }
+
+    private int bodySize(HeartbeatMessage message) {
+        int size = sizeOfVarLong(message.timestamp()) + sizeOfVarInt(nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            size += nodeSize(nodeTable[i]);
+        }
+        size += sizeOfVarInt(idOf(message.sender()));
+
+        switch (message) {
+            case HeartbeatMessage.Heartbeat heartbeat -> {
+                if (heartbeat.clusters() != null) {
+                    size += clustersSize(heartbeat.clusters());
+                }
+                size += digestsSize(heartbeat.clusterDigests());
+                if (heartbeat.ackRequested()) {
+                    size += sizeOfVarLong(heartbeat.ackSequence());
+                }
+            }
+            case HeartbeatMessage.MembershipSyncRequest request -> {
+                size += sizeOfVarInt(request.knownNodeIds().size());
+                for (var knownNodes: request.knownNodeIds().entrySet()) {
+                    size += sizeOfString(knownNodes.getKey())
+                        + sizeOfVarInt(knownNodes.getValue().length)
+                        + knownNodes.getValue().length * Long.BYTES
+                    ;
+                }
+            }
+            case HeartbeatMessage.MembershipSyncResponse response -> size += clustersSize(response.clusters());
+            case HeartbeatMessage.Ping ping -> size += sizeOfVarLong(ping.sequence())
+                + digestsSize(ping.clusterDigests())
+                + updatesSize(ping.updates())
+            ;
+            case HeartbeatMessage.PingRequest pingRequest -> size += sizeOfVarLong(pingRequest.sequence())
+                + sizeOfVarInt(idOf(pingRequest.target()))
+                + updatesSize(pingRequest.updates())
+            ;
+            case HeartbeatMessage.Ack ack -> size += sizeOfVarLong(ack.sequence()) + updatesSize(ack.updates());
+            case HeartbeatMessage.Beacon beacon -> {
+                size += sizeOfVarInt(beacon.clusterNames().size());
+                for (var clusterName: beacon.clusterNames()) {
+                    size += sizeOfString(clusterName);
+                }
+            }
+        }
+        if (message.telemetry() != null) {
+            size += telemetrySize(message.telemetry());
+        }
+
+        return size;
+    }
+
+    private static int digestsSize(Map<String, Long> digests) {
+        int size = sizeOfVarInt(digests.size());
+        for (var clusterName: digests.keySet()) {
+            size += sizeOfString(clusterName) + Long.BYTES;
+        }
+
+        return size;
+    }
+
+    private static void writeDigests(ByteBuffer target, Map<String, Long> digests) {
+        writeVarInt(target, digests.size());
+        for (var digest: digests.entrySet()) {
+            writeString(target, digest.getKey());
+            target.putLong(digest.getValue());
+        }
+    }
+
+    private static Map<String, Long> readDigests(ByteBuffer source) {
+        int digestCount = readCount(source);
+        Map<String, Long> digests = new HashMap<>(digestCount * 2);
+        for (int i = 0; i < digestCount; i++) {
+            digests.put(readString(source), source.getLong());
+        }
+
+        return digests;
+    }
+
+    private int updatesSize(List<HeartbeatMessage.MembershipUpdate> updates) {
+        int size = sizeOfVarInt(updates.size());
+        for (var update: updates) {
+            size += sizeOfVarInt(idOf(update.node())) + 1 + sizeOfVarLong(update.incarnation()) + sizeOfVarInt(update.clusters().size());
+            for (var clusterName: update.clusters()) {
+                size += sizeOfString(clusterName);
+            }
+        }
+
+        return size;
+    }
+
+    private void writeUpdates(ByteBuffer target, List<HeartbeatMessage.MembershipUpdate> updates) {
+        writeVarInt(target, updates.size());
+        for (var update: updates) {
+            writeVarInt(target, idOf(update.node()));
+            target.put((byte) update.status().ordinal());
+            writeVarLong(target, update.incarnation());
+            writeVarInt(target, update.clusters().size());
+            for (var clusterName: update.clusters()) {
+                writeString(target, clusterName);
+            }
+        }
+    }
+
+    private List<HeartbeatMessage.MembershipUpdate> readUpdates(ByteBuffer source, int decodedCount) {
+        var updates = new HeartbeatMessage.MembershipUpdate[readCount(source)];
+        for (int i = 0; i < updates.length; i++) {
+            ClusterNode node = decodedNodes[readNodeId(source, decodedCount)];
+            int status = source.get();
+            if (status < 0 || status >= MEMBER_STATUSES.length) {
+                throw new IllegalArgumentException("Unknown member status " + status);
+            }
+            long incarnation = readVarLong(source);
+
+            var clusterNames = new String[readCount(source)];
+            for (int j = 0; j < clusterNames.length; j++) {
+                clusterNames[j] = readString(source);
+            }
+
+            updates[i] = new HeartbeatMessage.MembershipUpdate(node, MEMBER_STATUSES[status], incarnation, Set.copyOf(Arrays.asList(clusterNames)));
+        }
+
+        return List.of(updates);
+    }
+
+    private int clustersSize(Set<Cluster> clusters) {
+        int size = sizeOfVarInt(clusters.size());
+        for (var cluster: clusters) {
+            size += sizeOfString(cluster.name()) + sizeOfVarInt(cluster.nodes().size());
+            for (var node: cluster.nodes()) {
+                size += sizeOfVarInt(idOf(node));
+            }
+        }
+
+        return size;
+    }
+
+    private void writeClusters(ByteBuffer target, Set<Cluster> clusters) {
+        writeVarInt(target, clusters.size());
+        for (var cluster: clusters) {
+            writeString(target, cluster.name());
+            writeVarInt(target, cluster.nodes().size());
+            for (var node: cluster.nodes()) {
+                writeVarInt(target, idOf(node));
+            }
+        }
+    }
+
+    private Set<Cluster> readClusters(ByteBuffer source, int decodedCount) {
+        var decodedClusters = new Cluster[readCount(source)];
+        for (int i = 0; i < decodedClusters.length; i++) {
+            String name = readString(source);
+            var clusterNodes = new ClusterNode[readCount(source)];
+            for (int j = 0; j < clusterNodes.length; j++) {
+                clusterNodes[j] = decodedNodes[readNodeId(source, decodedCount)];
+            }
+            decodedClusters[i] = new Cluster(name, Set.copyOf(Arrays.asList(clusterNodes)));
+        }
+
+        return Set.copyOf(Arrays.asList(decodedClusters));
+    }
+
+    private static int nodeSize(ClusterNode node) {
+        int size = sizeOfString(node.hostname())
+            + sizeOfVarInt(node.webPort())
+            + sizeOfVarInt(node.communicationPort())
+            + sizeOfVarInt(node.heartbeatPort())
+            + sizeOfVarLong(epochMillis(node.lastHeartbeat()))
+            + sizeOfZigZag(node.lastTrip())
+            + sizeOfVarInt(node.supportedRuntimes().size())
+            + sizeOfVarInt(node.utilization().getJobsInProgress())
+            + sizeOfVarInt(node.utilization().getJobTotalCapacity())
+        ;
+
+        for (var runtime: node.supportedRuntimes()) {
+            size += sizeOfString(runtime);
+        }
+
+        return size;
+    }
+
+    private static void writeNode(ByteBuffer target, ClusterNode node) {
+        writeString(target, node.hostname());
+        writeVarInt(target, node.webPort());
+        writeVarInt(target, node.communicationPort());
+        writeVarInt(target, node.heartbeatPort());
+        writeVarLong(target, epochMillis(node.lastHeartbeat()));
+        writeZigZag(target, node.lastTrip());
+        writeVarInt(target, node.supportedRuntimes().size());
+        for (var runtime: node.supportedRuntimes()) {
+            writeString(target, runtime);
+        }
+        writeVarInt(target, node.utilization().getJobsInProgress());
+        writeVarInt(target, node.utilization().getJobTotalCapacity());
+    }
+
+    private static ClusterNode readNode(ByteBuffer source) {
+        String hostname = readString(source);
+        int webPort = readVarInt(source);
+        int communicationPort = readVarInt(source);
+        int heartbeatPort = readVarInt(source);
+        long lastHeartbeat = readVarLong(source);
+        int lastTrip = readZigZag(source);
+
+        var runtimes = new String[readCount(source)];
+        for (int i = 0; i < runtimes.length; i++) {
+            runtimes[i] = readString(source);
+        }
+
+        int jobsInProgress = readVarInt(source);
+        int jobTotalCapacity = readVarInt(source);
+
+        return new ClusterNode(
+            hostname,
+            webPort,
+            communicationPort,
+            heartbeatPort,
+            Instant.ofEpochMilli(lastHeartbeat).atZone(ZoneOffset.UTC),
+            lastTrip,
+            Set.copyOf(Arrays.asList(runtimes)),
+            new ClusterNodeUtilization(jobsInProgress, jobTotalCapacity)
+        );
+    }
+
+    private static int telemetrySize(NodeTelemetry telemetry) {
+        return sizeOfVarInt(telemetry.activeJobs())
+            + sizeOfVarInt(telemetry.queuedJobs())
+            + sizeOfVarInt(telemetry.capacity())
+            + sizeOfZigZag(cpuLoadPermille(telemetry))
+            + sizeOfVarLong(telemetry.heapUsedBytes() >>> 10)
+            + sizeOfZigZag(heapMaxKib(telemetry))
+            + sizeOfVarLong(telemetry.sampledAtMillis())
+        ;
+    }
+
+    private static void writeTelemetry(ByteBuffer target, NodeTelemetry telemetry) {
+        writeVarInt(target, telemetry.activeJobs());
+        writeVarInt(target, telemetry.queuedJobs());
+        writeVarInt(target, telemetry.capacity());
+        writeZigZag(target, cpuLoadPermille(telemetry));
+        writeVarLong(target, telemetry.heapUsedBytes() >>> 10);
+        writeZigZag(target, heapMaxKib(telemetry));
+        writeVarLong(target, telemetry.sampledAtMillis());
+    }
+
+    private static NodeTelemetry readTelemetry(ByteBuffer source) {
+        int activeJobs = readVarInt(source);
+        int queuedJobs = readVarInt(source);
+        int capacity = readVarInt(source);
+        int cpuLoadPermille = readZigZag(source);
+        long heapUsedKib = readVarLong(source);
+        int heapMaxKib = readZigZag(source);
+        long sampledAt = readVarLong(source);
+
+        return new NodeTelemetry(
+            activeJobs,
+            queuedJobs,
+            capacity,
+            cpuLoadPermille < 0 ? -1 : cpuLoadPermille / 1000.0,
+            heapUsedKib << 10,
+            heapMaxKib < 0 ? -1 : (long) heapMaxKib << 10,
+            sampledAt
+        );
+    }
+
+    private static int cpuLoadPermille(NodeTelemetry telemetry) {
+        return telemetry.cpuLoad() < 0 ? -1 : (int) Math.round(telemetry.cpuLoad() * 1000);
+    }
+
+    private static int heapMaxKib(NodeTelemetry telemetry) {
+        return telemetry.heapMaxBytes() < 0 ? -1 : (int) Math.min(Integer.MAX_VALUE, telemetry.heapMaxBytes() >>> 10);
+    }
+
+    private static int readCount(ByteBuffer source) {
+        int count = readVarInt(source);
+
+        // Every element takes at least one byte, anything bigger is a corrupted or hostile payload
+        if (count < 0 || count > source.remaining()) {
+            throw new IllegalArgumentException("Invalid element count " + count);
+        }
+
+        return count;
+    }
+
+    private static int readNodeId(ByteBuffer source, int nodeCount) {
+        int nodeId = readVarInt(source);
+
+        if (nodeId < 0 || nodeId >= nodeCount) {
+            throw new IllegalArgumentException("Unknown node id " + nodeId);
+        }
+
+        return nodeId;
+    }
+
+    private void indexNodes(HeartbeatMessage message) {
+        Arrays.fill(slotKeys, null);
+        Arrays.fill(nodeTable, 0, nodeCount, null);
+        nodeCount = 0;
+
+        intern(message.sender());
+        if (message instanceof HeartbeatMessage.PingRequest pingRequest) {
+            intern(pingRequest.target());
+        }
+        for (var update: updatesOf(message)) {
+            intern(update.node());
+        }
+        Set<Cluster> clusters = clustersOf(message);
+        if (clusters != null) {
+            for (var cluster: clusters) {
+                for (var node: cluster.nodes()) {
+                    intern(node);
+                }
+            }
+        }
+    }
+
+    private void intern(ClusterNode node) {
+        if ((nodeCount + 1) * 2 > slotKeys.length) {
+            growSlots();
+        }
+
+        int mask = slotKeys.length - 1;
+        int slot = mix(node.hashCode()) & mask;
+        while (slotKeys[slot] != null) {
+            if (slotKeys[slot].equals(node)) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (nodeCount == nodeTable.length) {
+            nodeTable = Arrays.copyOf(nodeTable, nodeTable.length * 2);
+        }
+
+        slotKeys[slot] = node;
+        slotIds[slot] = nodeCount;
+        nodeTable[nodeCount++] = node;
+    }
+
+    private int idOf(ClusterNode node) {
+        int mask = slotKeys.length - 1;
+        int slot = mix(node.hashCode()) & mask;
+        while (slotKeys[slot] != null) {
+            if (slotKeys[slot].equals(node)) {
+                return slotIds[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        throw new IllegalStateException("Node " + node + " was not indexed");
+    }
+
+    private void growSlots() {
+        slotKeys = new ClusterNode[slotKeys.length * 2];
+        slotIds = new int[slotIds.length * 2];
+
+        int mask = slotKeys.length - 1;
+        for (int i = 0; i < nodeCount; i++) {
+            int slot = mix(nodeTable[i].hashCode()) & mask;
+            while (slotKeys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            slotKeys[slot] = nodeTable[i];
+            slotIds[slot] = i;
+        }
+    }
+
+    private static long epochMillis(ZonedDateTime dateTime) {
+        return dateTime.toEpochSecond() * 1000 + dateTime.getNano() / 1_000_000;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
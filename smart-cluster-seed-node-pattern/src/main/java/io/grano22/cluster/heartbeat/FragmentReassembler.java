@@ -0,0 +1,142 @@
+package io.grano22.cluster.heartbeat;
+
+import lombok.NonNull;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, time-limited reassembly table for {@link HeartbeatFragments}. Not thread-safe, meant for the single receive thread.
+ */
+public final class FragmentReassembler {
+    private record MessageKey(SocketAddress source, long messageId) {}
+
+    private static final class PartialMessage {
+        final byte[][] chunks;
+        final long startedAt;
+        int receivedChunks;
+        int size;
+
+        PartialMessage(int count, long startedAt) {
+            this.chunks = new byte[count][];
+            this.startedAt = startedAt;
+        }
+    }
+
+    private final int maxPendingMessages;
+    private final long timeoutMillis;
+    // Insertion order is arrival order, so the eldest entries are the first to expire or be evicted
+    private final Map<MessageKey, PartialMessage> pending = new LinkedHashMap<>();
+    private final LongAdder expiredMessages = new LongAdder();
+    private final LongAdder evictedMessages = new LongAdder();
+    private final LongAdder malformedFragments = new LongAdder();
+
+    public FragmentReassembler(int maxPendingMessages, long timeoutMillis) {
+        if (maxPendingMessages <= 0 || timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Reassembly table size and timeout must be positive");
+        }
+
+        this.maxPendingMessages = maxPendingMessages;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Consumes one fragment and returns the whole message once its last missing fragment arrives, otherwise null.
+     */
+    public ByteBuffer accept(@NonNull SocketAddress source, @NonNull ByteBuffer fragment, long nowMillis) {
+        expire(nowMillis);
+
+        fragment.get();
+        long messageId = fragment.getLong();
+        int index = Short.toUnsignedInt(fragment.getShort());
+        int count = Short.toUnsignedInt(fragment.getShort());
+
+        if (count == 0 || index >= count) {
+            malformedFragments.increment();
+            return null;
+        }
+
+        var key = new MessageKey(source, messageId);
+        PartialMessage message = pending.get(key);
+        if (message == null) {
+            if (pending.size() >= maxPendingMessages) {
+                evictEldest();
+            }
+
+            message = new PartialMessage(count, nowMillis);
+            pending.put(key, message);
+        } else if (message.chunks.length != count) {
+            malformedFragments.increment();
+            return null;
+        }
+
+        if (message.chunks[index] != null) {
+            return null;
+        }
+
+        if (message.size + fragment.remaining() > HeartbeatFragments.MAX_MESSAGE_SIZE) {
+            pending.remove(key);
+            malformedFragments.increment();
+            return null;
+        }
+
+        byte[] chunk = new byte[fragment.remaining()];
+        fragment.get(chunk);
+        message.chunks[index] = chunk;
+        message.receivedChunks++;
+        message.size += chunk.length;
+
+        if (message.receivedChunks < count) {
+            return null;
+        }
+
+        pending.remove(key);
+        ByteBuffer whole = ByteBuffer.allocate(message.size);
+        for (var part: message.chunks) {
+            whole.put(part);
+        }
+
+        return whole.flip();
+    }
+
+    public int getPendingMessages() {
+        return pending.size();
+    }
+
+    public long getExpiredMessages() {
+        return expiredMessages.sum();
+    }
+
+    public long getEvictedMessages() {
+        return evictedMessages.sum();
+    }
+
+    public long getMalformedFragments() {
+        return malformedFragments.sum();
+    }
+
+    private void expire(long nowMillis) {
+        Iterator<PartialMessage> iterator = pending.values().iterator();
+
+        while (iterator.hasNext()) {
+            if (nowMillis - iterator.next().startedAt <= timeoutMillis) {
+                return;
+            }
+
+            iterator.remove();
+            expiredMessages.increment();
+        }
+    }
+
+    private void evictEldest() {
+        Iterator<PartialMessage> iterator = pending.values().iterator();
+
+        iterator.next();
+        iterator.remove();
+        evictedMessages.increment();
+    }
+}
@@ -0,0 +1,20 @@
+package io.grano22.cluster.heartbeat;
+
+import lombok.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Codec instances keep reusable scratch state, so they are not thread-safe - use one instance per thread.
+ */
+public interface HeartbeatCodec {
+    @NonNull String name();
+
+    int encodedSize(@NonNull HeartbeatMessage message);
+
+    int encode(@NonNull HeartbeatMessage message, @NonNull ByteBuffer target);
+
+    @NonNull HeartbeatMessage decode(@NonNull ByteBuffer source);
+
+    boolean canDecode(@NonNull ByteBuffer source);
+}
@@ -0,0 +1,32 @@
+package io.grano22.cluster.heartbeat;
+
+import lombok.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+public final class HeartbeatCodecs {
+    private HeartbeatCodecs() {}
+
+    public static @NonNull HeartbeatCodec create(@NonNull String name) {
+        return switch (name) {
+            case BinaryHeartbeatCodec.NAME -> new BinaryHeartbeatCodec();
+            case JsonHeartbeatCodec.NAME -> new JsonHeartbeatCodec();
+            default -> throw new IllegalArgumentException("Unknown heartbeat codec: " + name);
+        };
+    }
+
+    public static @NonNull List<HeartbeatCodec> createAll() {
+        return List.of(new BinaryHeartbeatCodec(), new JsonHeartbeatCodec());
+    }
+
+    public static @NonNull HeartbeatCodec detect(@NonNull List<HeartbeatCodec> codecs, @NonNull ByteBuffer payload) {
+        for (var codec: codecs) {
+            if (codec.canDecode(payload)) {
+                return codec;
+            }
+        }
+
+        throw new IllegalArgumentException("Unrecognized heartbeat payload");
+    }
+}
@@ -0,0 +1,48 @@
+package io.grano22.cluster.heartbeat;
+
+import lombok.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fragment layout, independent of the codec of the carried message:
+ * <pre>
+ * magic:u8 messageId:i64 index:u16 count:u16 chunk:bytes
+ * </pre>
+ */
+public final class HeartbeatFragments {
+    public static final byte MAGIC = (byte) 0xB8;
+    public static final int HEADER_SIZE = 1 + Long.BYTES + Short.BYTES + Short.BYTES;
+    public static final int MAX_FRAGMENTS = 0xFFFF;
+    public static final int MAX_MESSAGE_SIZE = 1 << 20;
+
+    private HeartbeatFragments() {}
+
+    public static boolean isFragment(@NonNull ByteBuffer payload) {
+        return payload.remaining() >= HEADER_SIZE && payload.get(payload.position()) == MAGIC;
+    }
+
+    public static int fragmentCount(int messageSize, int mtu) {
+        int chunkSize = mtu - HEADER_SIZE;
+
+        return (messageSize + chunkSize - 1) / chunkSize;
+    }
+
+    /**
+     * Writes fragment number index of the message into target, the message position is left untouched.
+     */
+    public static void writeFragment(@NonNull ByteBuffer target, @NonNull ByteBuffer message, long messageId, int index, int count, int mtu) {
+        int chunkSize = mtu - HEADER_SIZE;
+        int chunkStart = message.position() + index * chunkSize;
+        int chunkLength = Math.min(chunkSize, message.limit() - chunkStart);
+
+        target.put(MAGIC)
+            .putLong(messageId)
+            .putShort((short) index)
+            .putShort((short) count)
+        ;
+        target.put(target.position(), message, chunkStart, chunkLength)
+            .position(target.position() + chunkLength)
+        ;
+    }
+}
@@ -0,0 +1,189 @@
+package io.grano22.cluster.heartbeat;
+
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import io.grano22.cluster.clustermanagement.Cluster;
+import io.grano22.cluster.clustermanagement.ClusterNode;
+import io.grano22.cluster.clustermanagement.NodeTelemetry;
+import lombok.NonNull;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+@JsonTypeInfo(
+    use = JsonTypeInfo.Id.NAME,
+    include = JsonTypeInfo.As.PROPERTY,
+    property = "type"
+)
+public sealed interface HeartbeatMessage {
+    /**
+     * A non-zero ackSequence asks the receiver to answer with an {@link Ack}, so the sender can measure the round trip.
+     */
+    @JsonTypeName("heartbeat")
+    record Heartbeat(
+        @NonNull ClusterNode sender,
+        long timestamp,
+        Set<Cluster> clusters,
+        @NonNull Map<String, Long> clusterDigests,
+        long ackSequence,
+        NodeTelemetry telemetry
+    ) implements HeartbeatMessage {
+        public Heartbeat {
+            clusterDigests = Map.copyOf(clusterDigests);
+        }
+
+        public Heartbeat(@NonNull ClusterNode sender, long timestamp, Set<Cluster> clusters, @NonNull Map<String, Long> clusterDigests, long ackSequence) {
+            this(sender, timestamp, clusters, clusterDigests, ackSequence, null);
+        }
+
+        public Heartbeat(@NonNull ClusterNode sender, long timestamp, Set<Cluster> clusters, @NonNull Map<String, Long> clusterDigests) {
+            this(sender, timestamp, clusters, clusterDigests, 0);
+        }
+
+        @Override
+        public Heartbeat withTelemetry(NodeTelemetry telemetry) {
+            return new Heartbeat(sender, timestamp, clusters, clusterDigests, ackSequence, telemetry);
+        }
+
+        public boolean ackRequested() {
+            return ackSequence != 0;
+        }
+    }
+
+    /**
+     * Sent back to a peer whose digest differs, lists node ids the requester already has so the peer answers with the delta only.
+     */
+    @JsonTypeName("membership_sync_request")
+    record MembershipSyncRequest(
+        @NonNull ClusterNode sender,
+        long timestamp,
+        @NonNull Map<String, long[]> knownNodeIds
+    ) implements HeartbeatMessage {
+        public MembershipSyncRequest {
+            knownNodeIds = Map.copyOf(knownNodeIds);
+        }
+    }
+
+    @JsonTypeName("membership_sync_response")
+    record MembershipSyncResponse(
+        @NonNull ClusterNode sender,
+        long timestamp,
+        @NonNull Set<Cluster> clusters
+    ) implements HeartbeatMessage {
+        public MembershipSyncResponse {
+            clusters = Set.copyOf(clusters);
+        }
+    }
+
+    /**
+     * Failure detector probe, also carries digests so membership divergence is spotted without extra traffic.
+     */
+    @JsonTypeName("ping")
+    record Ping(
+        @NonNull ClusterNode sender,
+        long timestamp,
+        long sequence,
+        @NonNull Map<String, Long> clusterDigests,
+        @NonNull List<MembershipUpdate> updates,
+        NodeTelemetry telemetry
+    ) implements HeartbeatMessage {
+        public Ping {
+            clusterDigests = Map.copyOf(clusterDigests);
+            updates = List.copyOf(updates);
+        }
+
+        public Ping(@NonNull ClusterNode sender, long timestamp, long sequence, @NonNull Map<String, Long> clusterDigests, @NonNull List<MembershipUpdate> updates) {
+            this(sender, timestamp, sequence, clusterDigests, updates, null);
+        }
+
+        @Override
+        public Ping withTelemetry(NodeTelemetry telemetry) {
+            return new Ping(sender, timestamp, sequence, clusterDigests, updates, telemetry);
+        }
+    }
+
+    @JsonTypeName("ping_request")
+    record PingRequest(
+        @NonNull ClusterNode sender,
+        long timestamp,
+        long sequence,
+        @NonNull ClusterNode target,
+        @NonNull List<MembershipUpdate> updates
+    ) implements HeartbeatMessage {
+        public PingRequest {
+            updates = List.copyOf(updates);
+        }
+    }
+
+    @JsonTypeName("ack")
+    record Ack(
+        @NonNull ClusterNode sender,
+        long timestamp,
+        long sequence,
+        @NonNull List<MembershipUpdate> updates,
+        NodeTelemetry telemetry
+    ) implements HeartbeatMessage {
+        public Ack {
+            updates = List.copyOf(updates);
+        }
+
+        public Ack(@NonNull ClusterNode sender, long timestamp, long sequence, @NonNull List<MembershipUpdate> updates) {
+            this(sender, timestamp, sequence, updates, null);
+        }
+
+        @Override
+        public Ack withTelemetry(NodeTelemetry telemetry) {
+            return new Ack(sender, timestamp, sequence, updates, telemetry);
+        }
+    }
+
+    /**
+     * Multicast announcement of a node, members of the listed clusters answer with a unicast {@link MembershipSyncResponse}.
+     */
+    @JsonTypeName("beacon")
+    record Beacon(
+        @NonNull ClusterNode sender,
+        long timestamp,
+        @NonNull Set<String> clusterNames
+    ) implements HeartbeatMessage {
+        public Beacon {
+            clusterNames = Set.copyOf(clusterNames);
+        }
+    }
+
+    record MembershipUpdate(
+        @NonNull ClusterNode node,
+        @NonNull MemberStatus status,
+        long incarnation,
+        @NonNull Set<String> clusters
+    ) {
+        public MembershipUpdate {
+            if (incarnation < 0) {
+                throw new IllegalArgumentException("Incarnation must not be negative, got " + incarnation);
+            }
+
+            clusters = Set.copyOf(clusters);
+        }
+    }
+
+    /**
+     * Load of the sender, only messages sent periodically carry it.
+     */
+    default NodeTelemetry telemetry() {
+        return null;
+    }
+
+    default HeartbeatMessage withTelemetry(NodeTelemetry telemetry) {
+        return this;
+    }
+
+    enum MemberStatus {
+        ALIVE,
+        SUSPECT,
+        DEAD
+    }
+
+    @NonNull ClusterNode sender();
+    long timestamp();
+}
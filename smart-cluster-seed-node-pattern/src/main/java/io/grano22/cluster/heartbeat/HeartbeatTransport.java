@@ -0,0 +1,155 @@
+package io.grano22.cluster.heartbeat;
+
+import io.grano22.cluster.optimizations.ByteBufferPool;
+import lombok.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.UnresolvedAddressException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * One long-lived, non-blocking UDP channel bound to the heartbeat port, used for both sending and receiving heartbeats.
+ */
+public final class HeartbeatTransport implements Closeable {
+    public static final int MAX_DATAGRAM_SIZE = 65507;
+
+    private final static Marker contextMarker = MarkerFactory.getMarker("Heartbeat-Transport");
+    private final static Logger logger = LoggerFactory.getLogger(HeartbeatTransport.class);
+
+    private final @NonNull DatagramChannel channel;
+    private final @NonNull Selector receiveSelector;
+    private final @NonNull ByteBufferPool sendBuffers = new ByteBufferPool(MAX_DATAGRAM_SIZE, 4, true);
+    private final Map<InetSocketAddress, LongAdder> sendErrors = new ConcurrentHashMap<>();
+    private final LongAdder sentDatagrams = new LongAdder();
+    private final LongAdder receivedDatagrams = new LongAdder();
+
+    public HeartbeatTransport(int port) throws IOException {
+        this.channel = DatagramChannel.open();
+        this.channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        this.channel.bind(new InetSocketAddress(port));
+        this.channel.configureBlocking(false);
+
+        this.receiveSelector = Selector.open();
+        this.channel.register(receiveSelector, SelectionKey.OP_READ);
+    }
+
+    public @NonNull ByteBuffer acquireSendBuffer() {
+        return sendBuffers.acquire();
+    }
+
+    public void releaseSendBuffer(@NonNull ByteBuffer buffer) {
+        sendBuffers.release(buffer);
+    }
+
+    /**
+     * Sends the remaining bytes of the payload to every target, the payload position is left untouched.
+     */
+    public int sendToAll(@NonNull ByteBuffer payload, @NonNull Collection<InetSocketAddress> targets) {
+        int delivered = 0;
+        int start = payload.position();
+
+        for (var target: targets) {
+            payload.position(start);
+
+            try {
+                if (channel.send(payload, target) > 0) {
+                    delivered++;
+                    sentDatagrams.increment();
+                    continue;
+                }
+
+                // Non-blocking channel with a full socket buffer, the datagram is dropped
+                recordSendError(target, null);
+            } catch (IOException | UnresolvedAddressException exception) {
+                recordSendError(target, exception);
+            }
+        }
+        payload.position(start);
+
+        return delivered;
+    }
+
+    /**
+     * Waits up to timeout for the next datagram, returns its sender or null when nothing arrived.
+     */
+    public SocketAddress receive(@NonNull ByteBuffer target, long timeoutMillis) throws IOException {
+        SocketAddress sender = channel.receive(target);
+
+        if (sender == null && receiveSelector.select(timeoutMillis) > 0) {
+            receiveSelector.selectedKeys().clear();
+            sender = channel.receive(target);
+        }
+
+        if (sender != null) {
+            receivedDatagrams.increment();
+        }
+
+        return sender;
+    }
+
+    public void wakeup() {
+        receiveSelector.wakeup();
+    }
+
+    public long getSendErrorsFor(@NonNull InetSocketAddress target) {
+        LongAdder errors = sendErrors.get(target);
+
+        return errors != null ? errors.sum() : 0;
+    }
+
+    public @NonNull Map<InetSocketAddress, Long> getSendErrors() {
+        return sendErrors.entrySet().stream()
+            .collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, entry -> entry.getValue().sum()))
+        ;
+    }
+
+    public long getSentDatagrams() {
+        return sentDatagrams.sum();
+    }
+
+    public long getReceivedDatagrams() {
+        return receivedDatagrams.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        receiveSelector.close();
+        channel.close();
+    }
+
+    private void recordSendError(InetSocketAddress target, Exception cause) {
+        var errors = sendErrors.computeIfAbsent(target, _ -> new LongAdder());
+        errors.increment();
+
+        // Only the first failure per target is worth a warning, the rest is visible through the counters
+        if (errors.sum() == 1) {
+            logger.atWarn()
+                .addMarker(contextMarker)
+                .setCause(cause)
+                .log("Failed to send heartbeat to {}", target)
+            ;
+        } else {
+            logger.atDebug()
+                .addMarker(contextMarker)
+                .setCause(cause)
+                .log("Failed to send heartbeat to {}", target)
+            ;
+        }
+    }
+}
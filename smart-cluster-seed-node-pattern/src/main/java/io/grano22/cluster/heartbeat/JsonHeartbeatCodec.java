@@ -0,0 +1,68 @@
+package io.grano22.cluster.heartbeat;
+
+import lombok.NonNull;
+import tools.jackson.databind.DeserializationFeature;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+public final class JsonHeartbeatCodec implements HeartbeatCodec {
+    public static final String NAME = "json";
+
+    // Fields added in newer revisions are missing from older peers and must fall back to their defaults
+    private final JsonMapper mapper = JsonMapper.builder()
+        .disable(DeserializationFeature.FAIL_ON_NULL_FOR_PRIMITIVES)
+        .build();
+    // Sizing a message serializes it already, encoding the same message right after reuses those bytes
+    private HeartbeatMessage sizedMessage;
+    private byte[] sizedData;
+
+    @Override
+    public @NonNull String name() {
+        return NAME;
+    }
+
+    @Override
+    public int encodedSize(@NonNull HeartbeatMessage message) {
+        sizedMessage = message;
+        sizedData = mapper.writeValueAsBytes(message);
+
+        return sizedData.length;
+    }
+
+    @Override
+    public int encode(@NonNull HeartbeatMessage message, @NonNull ByteBuffer target) {
+        byte[] rawData = message == sizedMessage ? sizedData : mapper.writeValueAsBytes(message);
+        sizedMessage = null;
+        sizedData = null;
+
+        if (target.remaining() < rawData.length) {
+            throw new BufferOverflowException();
+        }
+        target.put(rawData);
+
+        return rawData.length;
+    }
+
+    @Override
+    public @NonNull HeartbeatMessage decode(@NonNull ByteBuffer source) {
+        HeartbeatMessage message;
+
+        if (source.hasArray()) {
+            message = mapper.readValue(source.array(), source.arrayOffset() + source.position(), source.remaining(), HeartbeatMessage.class);
+        } else {
+            byte[] rawData = new byte[source.remaining()];
+            source.duplicate().get(rawData);
+            message = mapper.readValue(rawData, HeartbeatMessage.class);
+        }
+        source.position(source.limit());
+
+        return message;
+    }
+
+    @Override
+    public boolean canDecode(@NonNull ByteBuffer source) {
+        return source.hasRemaining() && source.get(source.position()) == '{';
+    }
+}
@@ -0,0 +1,183 @@
+package io.grano22.cluster.heartbeat;
+
+import io.grano22.cluster.clustermanagement.NodeConfig;
+import io.grano22.cluster.clustermanagement.NodesMeshManager;
+import lombok.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Announces this node with a small beacon on a multicast group and hands beacons of other nodes over to the sink.
+ */
+public final class MulticastDiscovery implements Closeable {
+    private final static Marker contextMarker = MarkerFactory.getMarker("Multicast-Discovery");
+    private final static Logger logger = LoggerFactory.getLogger(MulticastDiscovery.class);
+
+    private final @NonNull NodesMeshManager meshManager;
+    private final @NonNull NodeConfig.DiscoverySettings settings;
+    private final @NonNull ExecutorService executor;
+    private final @NonNull Consumer<HeartbeatMessage> sink;
+    private final @NonNull InetSocketAddress groupAddress;
+    private final @NonNull DatagramChannel channel;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final HeartbeatCodec beaconCodec = new BinaryHeartbeatCodec();
+    private final ByteBuffer beaconBuffer = ByteBuffer.allocate(HeartbeatTransport.MAX_DATAGRAM_SIZE);
+    private volatile boolean running;
+
+    public MulticastDiscovery(
+        final @NonNull NodesMeshManager meshManager,
+        final @NonNull NodeConfig.DiscoverySettings settings,
+        final @NonNull ExecutorService executor,
+        final @NonNull Consumer<HeartbeatMessage> sink
+    ) throws IOException {
+        this.meshManager = meshManager;
+        this.settings = settings;
+        this.executor = executor;
+        this.sink = sink;
+
+        InetAddress group = InetAddress.getByName(settings.multicastGroup());
+        if (!group.isMulticastAddress()) {
+            throw new IllegalArgumentException(settings.multicastGroup() + " is not a multicast address");
+        }
+        this.groupAddress = new InetSocketAddress(group, settings.multicastPort());
+
+        NetworkInterface networkInterface = resolveInterface(settings.multicastInterface());
+        this.channel = DatagramChannel.open(group instanceof Inet6Address ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET)
+            .setOption(StandardSocketOptions.SO_REUSEADDR, true)
+            .bind(new InetSocketAddress(settings.multicastPort()))
+            .setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface)
+            // Nodes sharing a host find each other only through the loopback copy
+            .setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true)
+        ;
+        this.channel.join(group, networkInterface);
+
+        logger.info("Joined multicast group {} on {}", groupAddress, networkInterface.getName());
+    }
+
+    public void start() {
+        running = true;
+        executor.submit(this::receiveBeacons);
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                announce();
+            } catch (Exception e) {
+                logger.atError()
+                    .addMarker(contextMarker)
+                    .setCause(e)
+                    .log("Failed to announce beacon")
+                ;
+            }
+        }, 0, settings.beaconIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void announce() throws IOException {
+        var beacon = new HeartbeatMessage.Beacon(
+            meshManager.getSelf(),
+            System.currentTimeMillis(),
+            meshManager.getClusterNamesOf(meshManager.getSelf())
+        );
+
+        synchronized (beaconBuffer) {
+            beaconBuffer.clear();
+            beaconCodec.encode(beacon, beaconBuffer);
+            channel.send(beaconBuffer.flip(), groupAddress);
+        }
+    }
+
+    private void receiveBeacons() {
+        List<HeartbeatCodec> codecs = HeartbeatCodecs.createAll();
+        ByteBuffer payload = ByteBuffer.allocate(HeartbeatTransport.MAX_DATAGRAM_SIZE);
+
+        while (running) {
+            try {
+                payload.clear();
+                var source = channel.receive(payload);
+                payload.flip();
+
+                if (HeartbeatCodecs.detect(codecs, payload).decode(payload) instanceof HeartbeatMessage.Beacon beacon) {
+                    if (!beacon.sender().equals(meshManager.getSelf())) {
+                        logger.debug("Beacon of {} received from {}", beacon.sender(), source);
+                        sink.accept(beacon);
+                    }
+                }
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (Exception e) {
+                logger.atError()
+                    .addMarker(contextMarker)
+                    .setCause(e)
+                    .log("Failed to receive beacon")
+                ;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        scheduler.shutdownNow();
+        channel.close();
+    }
+
+    private static NetworkInterface resolveInterface(String name) throws SocketException {
+        if (name != null) {
+            NetworkInterface byName = NetworkInterface.getByName(name);
+            if (byName == null) {
+                throw new IllegalArgumentException("Unknown network interface " + name);
+            }
+
+            return byName;
+        }
+
+        List<NetworkInterface> candidates = Collections.list(NetworkInterface.getNetworkInterfaces()).stream()
+            .filter(MulticastDiscovery::canMulticast)
+            .collect(Collectors.toList())
+        ;
+
+        return candidates.stream()
+            .filter(candidate -> !isLoopback(candidate))
+            .findFirst()
+            .or(() -> candidates.stream().findFirst())
+            .orElseThrow(() -> new IllegalStateException("No network interface supports multicast"))
+        ;
+    }
+
+    private static boolean canMulticast(NetworkInterface networkInterface) {
+        try {
+            return networkInterface.isUp() && (networkInterface.supportsMulticast() || networkInterface.isLoopback());
+        } catch (SocketException e) {
+            return false;
+        }
+    }
+
+    private static boolean isLoopback(NetworkInterface networkInterface) {
+        try {
+            return networkInterface.isLoopback();
+        } catch (SocketException e) {
+            return true;
+        }
+    }
+}
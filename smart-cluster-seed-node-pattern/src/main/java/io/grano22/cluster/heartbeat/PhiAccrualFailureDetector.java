@@ -0,0 +1,140 @@
+package io.grano22.cluster.heartbeat;
+
+import io.grano22.cluster.clustermanagement.ClusterNode;
+import lombok.NonNull;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Phi accrual failure detector (Hayashibara et al.), suspicion grows continuously with the time since the last arrival
+ * relative to the observed inter-arrival distribution of each node. New nodes start from the expected interval, which
+ * is also tolerated as a pause on top of the observed mean.
+ */
+public final class PhiAccrualFailureDetector {
+    private final int windowSize;
+    private final long minStdDeviationMillis;
+    private volatile long expectedIntervalMillis;
+
+    private final Map<ClusterNode, ArrivalWindow> windows = new ConcurrentHashMap<>();
+
+    public PhiAccrualFailureDetector(
+        int windowSize,
+        long minStdDeviationMillis,
+        long expectedIntervalMillis
+    ) {
+        if (windowSize <= 0 || minStdDeviationMillis <= 0) {
+            throw new IllegalArgumentException("Invalid phi accrual failure detector settings");
+        }
+
+        this.windowSize = windowSize;
+        this.minStdDeviationMillis = minStdDeviationMillis;
+        setExpectedIntervalMillis(expectedIntervalMillis);
+    }
+
+    /**
+     * How often a node is expected to be heard from, follows the membership size as it changes.
+     */
+    public void setExpectedIntervalMillis(long expectedIntervalMillis) {
+        if (expectedIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Expected arrival interval must be positive");
+        }
+
+        this.expectedIntervalMillis = expectedIntervalMillis;
+    }
+
+    public void heartbeat(@NonNull ClusterNode node, long arrivedAtMillis) {
+        windows.computeIfAbsent(node, _ -> new ArrivalWindow(windowSize, expectedIntervalMillis))
+            .record(arrivedAtMillis)
+        ;
+    }
+
+    /**
+     * Returns 0 for nodes that were never heard of, a phi of 1 means roughly 10% chance of a false suspicion, 2 means 1% and so on.
+     */
+    public double phi(@NonNull ClusterNode node, long nowMillis) {
+        ArrivalWindow window = windows.get(node);
+
+        return window != null ? window.phi(nowMillis, minStdDeviationMillis, expectedIntervalMillis) : 0.0;
+    }
+
+    public boolean isTracked(@NonNull ClusterNode node) {
+        return windows.containsKey(node);
+    }
+
+    public void retainOnly(@NonNull Collection<ClusterNode> nodes) {
+        windows.keySet().retainAll(nodes);
+    }
+
+    public void remove(@NonNull ClusterNode node) {
+        windows.remove(node);
+    }
+
+    private static final class ArrivalWindow {
+        private final long[] intervals;
+        private int head;
+        private int count;
+        private long sum;
+        private long sumOfSquares;
+        private long lastArrival = -1;
+
+        ArrivalWindow(int windowSize, long firstIntervalEstimateMillis) {
+            this.intervals = new long[windowSize];
+
+            // Seed with a spread around the estimate so the first real arrivals do not produce an infinite phi
+            long deviation = firstIntervalEstimateMillis / 4;
+            add(firstIntervalEstimateMillis - deviation);
+            add(firstIntervalEstimateMillis + deviation);
+        }
+
+        synchronized void record(long arrivedAt) {
+            if (lastArrival >= 0 && arrivedAt > lastArrival) {
+                add(arrivedAt - lastArrival);
+            }
+
+            lastArrival = Math.max(lastArrival, arrivedAt);
+        }
+
+        synchronized double phi(long now, long minStdDeviation, long acceptablePause) {
+            if (lastArrival < 0) {
+                return 0.0;
+            }
+
+            double mean = (double) sum / count;
+            double variance = (double) sumOfSquares / count - mean * mean;
+            double stdDeviation = Math.max(Math.sqrt(Math.max(variance, 0.0)), minStdDeviation);
+
+            return phi(now - lastArrival, mean + acceptablePause, stdDeviation);
+        }
+
+        private void add(long interval) {
+            if (count == intervals.length) {
+                long evicted = intervals[head];
+                sum -= evicted;
+                sumOfSquares -= evicted * evicted;
+            } else {
+                count++;
+            }
+
+            intervals[head] = interval;
+            head = (head + 1) % intervals.length;
+            sum += interval;
+            sumOfSquares += interval * interval;
+        }
+
+        /**
+         * Logistic approximation of the normal cumulative distribution, accurate to 1e-4 and without erf.
+         */
+        private static double phi(long timeSinceLast, double mean, double stdDeviation) {
+            double y = (timeSinceLast - mean) / stdDeviation;
+            double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+
+            if (timeSinceLast > mean) {
+                return -Math.log10(e / (1.0 + e));
+            }
+
+            return -Math.log10(1.0 - 1.0 / (1.0 + e));
+        }
+    }
+}
@@ -0,0 +1,450 @@
+package io.grano22.cluster.heartbeat;
+
+import io.grano22.cluster.clustermanagement.ClusterNode;
+import io.grano22.cluster.clustermanagement.NodeConfig;
+import io.grano22.cluster.clustermanagement.NodesMeshManager;
+import io.grano22.cluster.heartbeat.HeartbeatMessage.MemberStatus;
+import io.grano22.cluster.heartbeat.HeartbeatMessage.MembershipUpdate;
+import lombok.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * SWIM style failure detection: one randomly ordered probe per period, indirect probes through k members and suspicion before death.
+ * Membership changes are piggybacked on probe traffic instead of being broadcast.
+ */
+public final class SwimMembershipProtocol {
+    private static final int MAX_PIGGYBACKED_UPDATES = 8;
+    private static final int RETRANSMIT_MULTIPLIER = 3;
+    private static final int TOMBSTONE_PERIODS = 60;
+
+    private final static Marker contextMarker = MarkerFactory.getMarker("SWIM-Membership");
+    private final static Logger logger = LoggerFactory.getLogger(SwimMembershipProtocol.class);
+
+    private final @NonNull NodesMeshManager meshManager;
+    private final @NonNull BiConsumer<HeartbeatMessage, Set<InetSocketAddress>> sender;
+    private final @NonNull ScheduledExecutorService scheduler;
+    private final @NonNull NodeConfig.HeartbeatSettings settings;
+
+    private final Map<ClusterNode, Member> members = new HashMap<>();
+    private final Map<ClusterNode, Tombstone> tombstones = new HashMap<>();
+    private final Map<Long, ClusterNode> pendingProbes = new HashMap<>();
+    private final Map<Long, Relay> relays = new HashMap<>();
+    private final Map<Long, RoundTripProbe> roundTripProbes = new HashMap<>();
+    private final Map<ClusterNode, Dissemination> disseminations = new LinkedHashMap<>();
+    private final List<ClusterNode> probeOrder = new ArrayList<>();
+    private int probeIndex;
+    private long nextSequence;
+    // Starting from the boot time lets a restarted node override whatever the cluster remembers about its previous run,
+    // seconds since the epoch as a long stay positive long past the point an int would overflow
+    private long selfIncarnation = System.currentTimeMillis() / 1000;
+
+    public SwimMembershipProtocol(
+        final @NonNull NodesMeshManager meshManager,
+        final @NonNull BiConsumer<HeartbeatMessage, Set<InetSocketAddress>> sender,
+        final @NonNull ScheduledExecutorService scheduler,
+        final @NonNull NodeConfig.HeartbeatSettings settings
+    ) {
+        this.meshManager = meshManager;
+        this.sender = sender;
+        this.scheduler = scheduler;
+        this.settings = settings;
+    }
+
+    public synchronized void tick() {
+        long now = System.currentTimeMillis();
+        syncMembers();
+        expireSuspects(now);
+        expireRelaysAndTombstones(now);
+
+        ClusterNode target = nextProbeTarget();
+        if (target == null) {
+            return;
+        }
+
+        long sequence = ++nextSequence;
+        pendingProbes.put(sequence, target);
+        roundTripProbes.put(sequence, new RoundTripProbe(target, System.nanoTime()));
+        sender.accept(
+            new HeartbeatMessage.Ping(meshManager.getSelf(), now, sequence, meshManager.getClusterDigests(), takeUpdatesWithSelf()),
+            Set.of(addressOf(target))
+        );
+
+        long period = settings.probePeriodMillis();
+        scheduler.schedule(() -> probeIndirectly(sequence, target), Math.max(1, period / 3), TimeUnit.MILLISECONDS);
+        scheduler.schedule(() -> probeTimedOut(sequence, target), period, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void onPing(@NonNull HeartbeatMessage.Ping ping) {
+        applyUpdates(ping.updates());
+
+        sender.accept(
+            new HeartbeatMessage.Ack(meshManager.getSelf(), System.currentTimeMillis(), ping.sequence(), takeUpdatesWithSelf()),
+            Set.of(addressOf(ping.sender()))
+        );
+    }
+
+    public synchronized void onPingRequest(@NonNull HeartbeatMessage.PingRequest request) {
+        applyUpdates(request.updates());
+
+        long sequence = ++nextSequence;
+        long now = System.currentTimeMillis();
+        relays.put(sequence, new Relay(request.sender(), request.sequence(), now));
+        sender.accept(
+            new HeartbeatMessage.Ping(meshManager.getSelf(), now, sequence, meshManager.getClusterDigests(), takeUpdates()),
+            Set.of(addressOf(request.target()))
+        );
+    }
+
+    /**
+     * Reserves a sequence for a heartbeat that requests an ack, whoever answers it gets its round trip recorded.
+     */
+    public synchronized long nextRoundTripSequence() {
+        long sequence = ++nextSequence;
+        roundTripProbes.put(sequence, new RoundTripProbe(null, System.nanoTime()));
+
+        return sequence;
+    }
+
+    public synchronized void onAckRequested(@NonNull HeartbeatMessage.Heartbeat heartbeat) {
+        sender.accept(
+            new HeartbeatMessage.Ack(meshManager.getSelf(), System.currentTimeMillis(), heartbeat.ackSequence(), takeUpdatesWithSelf()),
+            Set.of(addressOf(heartbeat.sender()))
+        );
+    }
+
+    public synchronized void onAck(@NonNull HeartbeatMessage.Ack ack) {
+        applyUpdates(ack.updates());
+
+        RoundTripProbe roundTripProbe = roundTripProbes.remove(ack.sequence());
+        // Acks relayed by indirect probes come from the helper and would count its extra hops as the target latency
+        if (roundTripProbe != null && (roundTripProbe.target() == null || roundTripProbe.target().equals(ack.sender()))) {
+            meshManager.recordRoundTrip(ack.sender(), System.nanoTime() - roundTripProbe.sentAtNanos());
+        }
+
+        ClusterNode probed = pendingProbes.remove(ack.sequence());
+        if (probed != null) {
+            Member member = members.get(probed);
+
+            // A direct answer clears local suspicion, other members still need a refutation with a higher incarnation
+            if (member != null && member.status == MemberStatus.SUSPECT) {
+                member.status = MemberStatus.ALIVE;
+            }
+        }
+
+        Relay relay = relays.remove(ack.sequence());
+        if (relay != null) {
+            sender.accept(
+                new HeartbeatMessage.Ack(meshManager.getSelf(), System.currentTimeMillis(), relay.requesterSequence(), takeUpdates()),
+                Set.of(addressOf(relay.requester()))
+            );
+        }
+    }
+
+    /**
+     * Nodes declared dead are not re-added from gossip until the tombstone expires or the node speaks for itself.
+     */
+    public synchronized boolean isDeclaredDead(@NonNull ClusterNode node) {
+        return tombstones.containsKey(node);
+    }
+
+    /**
+     * Tombstoned members of a cluster, peers that have not heard of their death yet still count them in.
+     */
+    public synchronized Set<ClusterNode> getDeclaredDead(@NonNull String clusterName) {
+        Set<ClusterNode> declaredDead = new HashSet<>();
+        for (var tombstone: tombstones.entrySet()) {
+            if (tombstone.getValue().clusterNames().contains(clusterName)) {
+                declaredDead.add(tombstone.getKey());
+            }
+        }
+
+        return declaredDead;
+    }
+
+    public synchronized Optional<MemberStatus> getMemberStatus(@NonNull ClusterNode node) {
+        if (tombstones.containsKey(node)) {
+            return Optional.of(MemberStatus.DEAD);
+        }
+
+        return Optional.ofNullable(members.get(node)).map(member -> member.status);
+    }
+
+    public synchronized long getSelfIncarnation() {
+        return selfIncarnation;
+    }
+
+    private synchronized void probeIndirectly(long sequence, ClusterNode target) {
+        if (!pendingProbes.containsKey(sequence)) {
+            return;
+        }
+
+        List<ClusterNode> helpers = new ArrayList<>();
+        for (var member: members.entrySet()) {
+            if (!member.getKey().equals(target) && member.getValue().status == MemberStatus.ALIVE) {
+                helpers.add(member.getKey());
+            }
+        }
+        Collections.shuffle(helpers, ThreadLocalRandom.current());
+
+        Set<InetSocketAddress> helperAddresses = new HashSet<>();
+        for (var helper: helpers.subList(0, Math.min(settings.indirectProbes(), helpers.size()))) {
+            helperAddresses.add(addressOf(helper));
+        }
+
+        if (!helperAddresses.isEmpty()) {
+            sender.accept(
+                new HeartbeatMessage.PingRequest(meshManager.getSelf(), System.currentTimeMillis(), sequence, target, takeUpdates()),
+                helperAddresses
+            );
+        }
+    }
+
+    private synchronized void probeTimedOut(long sequence, ClusterNode target) {
+        if (pendingProbes.remove(sequence) == null) {
+            return;
+        }
+
+        Member member = members.get(target);
+        if (member == null || member.status != MemberStatus.ALIVE) {
+            return;
+        }
+
+        member.status = MemberStatus.SUSPECT;
+        member.suspectedAt = System.currentTimeMillis();
+        disseminate(new MembershipUpdate(target, MemberStatus.SUSPECT, member.incarnation, meshManager.getClusterNamesOf(target)));
+        logger.atInfo()
+            .addMarker(contextMarker)
+            .log("Node {} did not answer direct nor indirect probes, suspecting it", target)
+        ;
+    }
+
+    private void applyUpdates(List<MembershipUpdate> updates) {
+        for (var update: updates) {
+            if (update.node().equals(meshManager.getSelf())) {
+                refuteIfNeeded(update);
+                continue;
+            }
+
+            Member member = members.get(update.node());
+            switch (update.status()) {
+                case ALIVE -> {
+                    if (member == null) {
+                        Tombstone tombstone = tombstones.get(update.node());
+                        if (tombstone != null && tombstone.incarnation() >= update.incarnation()) {
+                            continue;
+                        }
+
+                        tombstones.remove(update.node());
+                        rejoin(update);
+                    } else if (update.incarnation() > member.incarnation) {
+                        member.status = MemberStatus.ALIVE;
+                        member.incarnation = update.incarnation();
+                        disseminate(update);
+                    }
+                }
+                case SUSPECT -> {
+                    if (member == null) {
+                        continue;
+                    }
+
+                    boolean overrides = member.status == MemberStatus.ALIVE
+                        ? update.incarnation() >= member.incarnation
+                        : update.incarnation() > member.incarnation
+                    ;
+                    if (overrides) {
+                        member.status = MemberStatus.SUSPECT;
+                        member.incarnation = update.incarnation();
+                        member.suspectedAt = System.currentTimeMillis();
+                        disseminate(update);
+                    }
+                }
+                case DEAD -> {
+                    if (member != null) {
+                        declareDead(update.node(), Math.max(member.incarnation, update.incarnation()));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Any suspicion about self is answered, peers may still hold an older incarnation than the one this node runs with.
+     */
+    private void refuteIfNeeded(MembershipUpdate update) {
+        if (update.status() == MemberStatus.ALIVE) {
+            return;
+        }
+
+        selfIncarnation = Math.max(selfIncarnation, update.incarnation() + 1);
+        ClusterNode self = meshManager.getSelf();
+        disseminate(new MembershipUpdate(self, MemberStatus.ALIVE, selfIncarnation, meshManager.getClusterNamesOf(self)));
+        logger.atInfo()
+            .addMarker(contextMarker)
+            .log("Refuting {} suspicion about self with incarnation {}", update.status(), selfIncarnation)
+        ;
+    }
+
+    private void rejoin(MembershipUpdate update) {
+        for (var clusterName: update.clusters()) {
+            meshManager.findCluster(clusterName)
+                .filter(cluster -> !meshManager.hasInCluster(cluster, update.node()))
+                .ifPresent(cluster -> meshManager.addNodeToCluster(cluster, update.node()))
+            ;
+        }
+
+        Member member = new Member();
+        member.incarnation = update.incarnation();
+        members.put(update.node(), member);
+        disseminate(update);
+    }
+
+    private void declareDead(ClusterNode node, long incarnation) {
+        Set<String> clusterNames = meshManager.getClusterNamesOf(node);
+
+        members.remove(node);
+        tombstones.put(node, new Tombstone(incarnation, clusterNames, System.currentTimeMillis()));
+        meshManager.removeNodeFromClusters(node);
+        meshManager.setNodeAsNotHealthy(node.hostname() + ":" + node.heartbeatPort());
+        disseminate(new MembershipUpdate(node, MemberStatus.DEAD, incarnation, clusterNames));
+
+        logger.atWarn()
+            .addMarker(contextMarker)
+            .log("Node {} declared dead and removed from {}", node, clusterNames)
+        ;
+    }
+
+    private void syncMembers() {
+        for (var node: meshManager.getAllKnownNodes()) {
+            if (!members.containsKey(node)) {
+                tombstones.remove(node);
+                members.put(node, new Member());
+                // Put new members at a random position of the current round so they are probed within it
+                probeOrder.add(ThreadLocalRandom.current().nextInt(probeIndex, probeOrder.size() + 1), node);
+            }
+        }
+    }
+
+    private void expireSuspects(long now) {
+        long timeout = suspicionTimeoutMillis();
+
+        for (var member: List.copyOf(members.entrySet())) {
+            if (member.getValue().status == MemberStatus.SUSPECT && now - member.getValue().suspectedAt > timeout) {
+                declareDead(member.getKey(), member.getValue().incarnation);
+            }
+        }
+    }
+
+    private void expireRelaysAndTombstones(long now) {
+        long period = settings.probePeriodMillis();
+
+        relays.values().removeIf(relay -> now - relay.createdAt() > period * 2);
+        long nowNanos = System.nanoTime();
+        roundTripProbes.values().removeIf(probe -> nowNanos - probe.sentAtNanos() > TimeUnit.MILLISECONDS.toNanos(period * 2));
+        tombstones.values().removeIf(tombstone -> now - tombstone.createdAt() > period * TOMBSTONE_PERIODS);
+    }
+
+    private ClusterNode nextProbeTarget() {
+        while (true) {
+            if (probeIndex >= probeOrder.size()) {
+                probeOrder.clear();
+                probeOrder.addAll(members.keySet());
+                Collections.shuffle(probeOrder, ThreadLocalRandom.current());
+                probeIndex = 0;
+
+                if (probeOrder.isEmpty()) {
+                    return null;
+                }
+            }
+
+            ClusterNode candidate = probeOrder.get(probeIndex++);
+            if (members.containsKey(candidate)) {
+                return candidate;
+            }
+        }
+    }
+
+    private long suspicionTimeoutMillis() {
+        double scale = Math.max(1.0, Math.log10(members.size() + 1));
+
+        return (long) (settings.suspicionMultiplier() * scale * settings.probePeriodMillis());
+    }
+
+    private void disseminate(MembershipUpdate update) {
+        disseminations.put(update.node(), new Dissemination(update));
+    }
+
+    private List<MembershipUpdate> takeUpdates() {
+        return takeUpdates(MAX_PIGGYBACKED_UPDATES);
+    }
+
+    /**
+     * Messages this node sends about itself also carry its incarnation, so peers which learned about it from gossip
+     * stop holding the initial 0 and a suspicion about it is raised at the incarnation it actually runs with.
+     */
+    private List<MembershipUpdate> takeUpdatesWithSelf() {
+        ClusterNode self = meshManager.getSelf();
+        List<MembershipUpdate> updates = new ArrayList<>(takeUpdates(MAX_PIGGYBACKED_UPDATES - 1));
+        if (updates.stream().noneMatch(update -> update.node().equals(self))) {
+            updates.add(new MembershipUpdate(self, MemberStatus.ALIVE, selfIncarnation, meshManager.getClusterNamesOf(self)));
+        }
+
+        return updates;
+    }
+
+    private List<MembershipUpdate> takeUpdates(int limit) {
+        if (disseminations.isEmpty()) {
+            return List.of();
+        }
+
+        int retransmitLimit = RETRANSMIT_MULTIPLIER * (32 - Integer.numberOfLeadingZeros(members.size() + 1));
+        List<Dissemination> candidates = new ArrayList<>(disseminations.values());
+        // Least gossiped first so fresh updates are not starved by older ones
+        candidates.sort(Comparator.comparingInt(dissemination -> dissemination.transmissions));
+
+        List<MembershipUpdate> updates = new ArrayList<>(Math.min(limit, candidates.size()));
+        for (var dissemination: candidates.subList(0, Math.min(limit, candidates.size()))) {
+            updates.add(dissemination.update);
+
+            if (++dissemination.transmissions >= retransmitLimit) {
+                disseminations.remove(dissemination.update.node());
+            }
+        }
+
+        return updates;
+    }
+
+    private static InetSocketAddress addressOf(ClusterNode node) {
+        return new InetSocketAddress(node.hostname(), node.heartbeatPort());
+    }
+
+    private static final class Member {
+        MemberStatus status = MemberStatus.ALIVE;
+        long incarnation;
+        long suspectedAt;
+    }
+
+    private static final class Dissemination {
+        final MembershipUpdate update;
+        int transmissions;
+
+        Dissemination(MembershipUpdate update) {
+            this.update = update;
+        }
+    }
+
+    private record Relay(ClusterNode requester, long requesterSequence, long createdAt) {}
+
+    private record Tombstone(long incarnation, Set<String> clusterNames, long createdAt) {}
+
+    private record RoundTripProbe(ClusterNode target, long sentAtNanos) {}
+}
@@ -13,12 +13,14 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Deque;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentLinkedDeque;
 
 public final class ConcurrentComputationResultDbSaver {
     private static final Marker contextMarker = MarkerFactory.getMarker("Computation DB Saver");
     private static final Logger logger = LoggerFactory.getLogger(ConcurrentComputationResultDbSaver.class);
+    private static final int SAVE_BATCH_SIZE = 500;
 
     private Connection connection = null;
     private final ConnectionSource connectionSource;
@@ -29,17 +31,35 @@ public final class ConcurrentComputationResultDbSaver {
         connect();
     }
 
+    /**
+     * Every run of a union goes through one prepared statement in batches, instead of a statement per run.
+     */
     public void saveResults(@NonNull ExecutionRuntime.ExecutionResult result) {
-        if (result instanceof ExecutionRuntime.UnionResult unionResult) {
-            for (var subResult : unionResult.results()) {
-                if (subResult instanceof ExecutionRuntime.Result simpleResult) {
-                    saveResult(simpleResult);
+        List<ExecutionRuntime.Result> results = switch (result) {
+            case ExecutionRuntime.UnionResult unionResult -> unionResult.results();
+            case ExecutionRuntime.Result simpleResult -> List.of(simpleResult);
+        };
+
+        try (var statement = connection.prepareStatement("INSERT INTO execution_entries (statusCode, output) VALUES (?, ?)")) {
+            int batched = 0;
+            for (var next: results) {
+                statement.setString(1, String.valueOf(next.statusCode()));
+                statement.setString(2, next.output());
+                statement.addBatch();
+
+                if (++batched % SAVE_BATCH_SIZE == 0) {
+                    statement.executeBatch();
                 }
             }
-        }
 
-        if (result instanceof ExecutionRuntime.Result simpleResult) {
-            saveResult(simpleResult);
+            if (batched % SAVE_BATCH_SIZE != 0) {
+                statement.executeBatch();
+            }
+        } catch (SQLException exception) {
+            logger.atError()
+                .addMarker(contextMarker)
+                .log("Failed to save results to the DB")
+            ;
         }
     }
 
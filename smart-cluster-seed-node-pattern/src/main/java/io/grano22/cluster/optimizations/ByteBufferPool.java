@@ -0,0 +1,53 @@
+package io.grano22.cluster.optimizations;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class ByteBufferPool {
+    private final Queue<ByteBuffer> pooled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledCount = new AtomicInteger();
+    @Getter
+    private final int bufferSize;
+    private final int maxPooled;
+    private final boolean direct;
+
+    public ByteBufferPool(int bufferSize, int maxPooled, boolean direct) {
+        if (bufferSize <= 0 || maxPooled < 0) {
+            throw new IllegalArgumentException("Buffer size must be positive and pool size cannot be negative");
+        }
+
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+        this.direct = direct;
+    }
+
+    public @NonNull ByteBuffer acquire() {
+        ByteBuffer buffer = pooled.poll();
+
+        if (buffer == null) {
+            return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        }
+
+        pooledCount.decrementAndGet();
+
+        return buffer.clear();
+    }
+
+    public void release(@NonNull ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || buffer.isDirect() != direct) {
+            return;
+        }
+
+        if (pooledCount.incrementAndGet() > maxPooled) {
+            pooledCount.decrementAndGet();
+            return;
+        }
+
+        pooled.offer(buffer);
+    }
+}
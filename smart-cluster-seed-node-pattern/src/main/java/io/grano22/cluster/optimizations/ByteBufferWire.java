@@ -0,0 +1,165 @@
+package io.grano22.cluster.optimizations;
+
+import lombok.NonNull;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public final class ByteBufferWire {
+    private ByteBufferWire() {}
+
+    public static int sizeOfVarInt(int value) {
+        return sizeOfVarLong(value & 0xFFFFFFFFL);
+    }
+
+    public static int sizeOfVarLong(long value) {
+        int bits = 64 - Long.numberOfLeadingZeros(value | 1);
+
+        return (bits + 6) / 7;
+    }
+
+    public static int sizeOfZigZag(int value) {
+        return sizeOfVarInt((value << 1) ^ (value >> 31));
+    }
+
+    public static int sizeOfZigZagLong(long value) {
+        return sizeOfVarLong((value << 1) ^ (value >> 63));
+    }
+
+    public static int sizeOfUtf8(@NonNull CharSequence value) {
+        int size = 0;
+        int length = value.length();
+
+        for (int i = 0; i < length; i++) {
+            char next = value.charAt(i);
+
+            if (next < 0x80) {
+                size += 1;
+            } else if (next < 0x800) {
+                size += 2;
+            } else if (Character.isHighSurrogate(next) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                size += 4;
+                i++;
+            } else {
+                size += 3;
+            }
+        }
+
+        return size;
+    }
+
+    public static int sizeOfString(@NonNull CharSequence value) {
+        int utf8Size = sizeOfUtf8(value);
+
+        return sizeOfVarInt(utf8Size) + utf8Size;
+    }
+
+    public static void writeVarInt(@NonNull ByteBuffer target, int value) {
+        writeVarLong(target, value & 0xFFFFFFFFL);
+    }
+
+    public static void writeVarLong(@NonNull ByteBuffer target, long value) {
+        while ((value & ~0x7FL) != 0) {
+            target.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        target.put((byte) value);
+    }
+
+    public static void writeZigZag(@NonNull ByteBuffer target, int value) {
+        writeVarInt(target, (value << 1) ^ (value >> 31));
+    }
+
+    public static void writeZigZagLong(@NonNull ByteBuffer target, long value) {
+        writeVarLong(target, (value << 1) ^ (value >> 63));
+    }
+
+    public static void writeString(@NonNull ByteBuffer target, @NonNull CharSequence value) {
+        writeVarInt(target, sizeOfUtf8(value));
+
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char next = value.charAt(i);
+
+            if (next < 0x80) {
+                target.put((byte) next);
+            } else if (next < 0x800) {
+                target.put((byte) (0xC0 | (next >> 6)));
+                target.put((byte) (0x80 | (next & 0x3F)));
+            } else if (Character.isHighSurrogate(next) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(next, value.charAt(++i));
+                target.put((byte) (0xF0 | (codePoint >> 18)));
+                target.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                target.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                target.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else {
+                target.put((byte) (0xE0 | (next >> 12)));
+                target.put((byte) (0x80 | ((next >> 6) & 0x3F)));
+                target.put((byte) (0x80 | (next & 0x3F)));
+            }
+        }
+    }
+
+    public static int readVarInt(@NonNull ByteBuffer source) {
+        long value = readVarLong(source);
+
+        if ((value >>> 32) != 0) {
+            throw new IllegalArgumentException("Varint does not fit into 32 bits");
+        }
+
+        return (int) value;
+    }
+
+    public static long readVarLong(@NonNull ByteBuffer source) {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte next = source.get();
+            value |= (long) (next & 0x7F) << shift;
+
+            if ((next & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    public static int readZigZag(@NonNull ByteBuffer source) {
+        int encoded = readVarInt(source);
+
+        return (encoded >>> 1) ^ -(encoded & 1);
+    }
+
+    public static long readZigZagLong(@NonNull ByteBuffer source) {
+        long encoded = readVarLong(source);
+
+        return (encoded >>> 1) ^ -(encoded & 1);
+    }
+
+    public static @NonNull String readString(@NonNull ByteBuffer source) {
+        int length = readVarInt(source);
+
+        if (length < 0) {
+            throw new IllegalArgumentException("Invalid string length " + length);
+        }
+
+        if (length > source.remaining()) {
+            throw new BufferUnderflowException();
+        }
+
+        String value;
+        if (source.hasArray()) {
+            value = new String(source.array(), source.arrayOffset() + source.position(), length, StandardCharsets.UTF_8);
+            source.position(source.position() + length);
+        } else {
+            byte[] rawValue = new byte[length];
+            source.get(rawValue);
+            value = new String(rawValue, StandardCharsets.UTF_8);
+        }
+
+        return value;
+    }
+}
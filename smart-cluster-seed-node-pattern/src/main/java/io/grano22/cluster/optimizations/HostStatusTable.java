@@ -0,0 +1,222 @@
+package io.grano22.cluster.optimizations;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+/**
+ * Status of a fixed set of hosts, the scalable successor of {@link SingleCPURegisterHostsFilter}.
+ * Hosts are interned to ids at construction, statuses live in a byte array and in one bitset per status.
+ * Unknown hosts are mostly rejected by a blocked Bloom filter, known ones are found in an open addressing id table.
+ * Status reads never lock, updates and status scans are serialized.
+ */
+public final class HostStatusTable {
+    public enum HostStatus {
+        UNKNOWN,
+        OK,
+        DOWN;
+
+        private static final HostStatus[] VALUES = values();
+    }
+
+    private static final VarHandle STATUS = MethodHandles.arrayElementVarHandle(byte[].class);
+    private static final int BITS_PER_HOST = 12;
+    private static final int HASH_FUNCTIONS = 5;
+
+    private final String[] hosts;
+    // Slot holds id + 1, zero marks an empty slot
+    private final int[] idSlots;
+    private final int idSlotMask;
+    private final long[] bloomWords;
+    private final int bloomWordMask;
+    private final byte[] statuses;
+    private final long[][] statusBits;
+
+    public HostStatusTable(Set<String> allowedHosts, HostStatus defaultStatus) {
+        this.hosts = allowedHosts.toArray(String[]::new);
+        this.idSlots = new int[Integer.highestOneBit(Math.max(2, hosts.length * 4) * 2 - 1)];
+        this.idSlotMask = idSlots.length - 1;
+        this.statuses = new byte[hosts.length];
+        this.statusBits = new long[HostStatus.VALUES.length][(hosts.length + 63) >>> 6];
+
+        int words = Integer.highestOneBit(Math.max(1, (hosts.length * BITS_PER_HOST + 63) >>> 6) * 2 - 1);
+        this.bloomWords = new long[words];
+        this.bloomWordMask = words - 1;
+
+        for (int id = 0; id < hosts.length; id++) {
+            long hash = hashOf(hosts[id]);
+            addToFilter(hash);
+
+            int slot = (int) (hash >>> 32) & idSlotMask;
+            while (idSlots[slot] != 0) {
+                slot = (slot + 1) & idSlotMask;
+            }
+            idSlots[slot] = id + 1;
+            statuses[id] = (byte) defaultStatus.ordinal();
+            statusBits[defaultStatus.ordinal()][id >>> 6] |= 1L << id;
+        }
+    }
+
+    public HostStatusTable(Set<String> allowedHosts, String defaultStatus) {
+        this(allowedHosts, HostStatus.valueOf(defaultStatus));
+    }
+
+    /**
+     * Dense id of the host or -1 if it is not part of the table.
+     */
+    public int idOf(String host) {
+        long hash = hashOf(host);
+        if (!mightContain(hash)) {
+            return -1;
+        }
+
+        for (int slot = (int) (hash >>> 32) & idSlotMask; idSlots[slot] != 0; slot = (slot + 1) & idSlotMask) {
+            if (hosts[idSlots[slot] - 1].equals(host)) {
+                return idSlots[slot] - 1;
+            }
+        }
+
+        return -1;
+    }
+
+    public String hostOf(int id) {
+        return hosts[id];
+    }
+
+    public int size() {
+        return hosts.length;
+    }
+
+    public HostStatus statusOf(String host) {
+        int id = idOf(host);
+
+        return id < 0 ? null : statusOf(id);
+    }
+
+    public HostStatus statusOf(int id) {
+        return HostStatus.VALUES[(byte) STATUS.getOpaque(statuses, id)];
+    }
+
+    public String getStatus(String host) {
+        HostStatus status = statusOf(host);
+
+        return status == null ? null : status.name();
+    }
+
+    public void update(String host, HostStatus newStatus) {
+        int id = idOf(host);
+
+        if (id >= 0) {
+            update(id, newStatus);
+        }
+    }
+
+    public void update(String host, String newStatus) {
+        update(host, HostStatus.valueOf(newStatus));
+    }
+
+    public synchronized void update(int id, HostStatus newStatus) {
+        int previous = statuses[id];
+        if (previous == newStatus.ordinal()) {
+            return;
+        }
+
+        statusBits[previous][id >>> 6] &= ~(1L << id);
+        statusBits[newStatus.ordinal()][id >>> 6] |= 1L << id;
+        STATUS.setRelease(statuses, id, (byte) newStatus.ordinal());
+    }
+
+    public synchronized int countInStatus(HostStatus status) {
+        int count = 0;
+        for (long word: statusBits[status.ordinal()]) {
+            count += Long.bitCount(word);
+        }
+
+        return count;
+    }
+
+    public Set<String> getAllInStatus(HostStatus status) {
+        Set<String> inStatus = new HashSet<>();
+        forEachInStatus(status, id -> inStatus.add(hosts[id]));
+
+        return inStatus;
+    }
+
+    public Set<String> getAllInStatus(String status) {
+        return getAllInStatus(HostStatus.valueOf(status));
+    }
+
+    public Set<String> getAllNotInStatus(HostStatus status) {
+        long[] words = copyOf(status);
+        Set<String> notInStatus = new HashSet<>();
+
+        for (int word = 0; word < words.length; word++) {
+            long remaining = ~words[word] & validBitsOf(word);
+
+            while (remaining != 0) {
+                notInStatus.add(hosts[(word << 6) + Long.numberOfTrailingZeros(remaining)]);
+                remaining &= remaining - 1;
+            }
+        }
+
+        return notInStatus;
+    }
+
+    public void forEachInStatus(HostStatus status, IntConsumer action) {
+        long[] words = copyOf(status);
+
+        for (int word = 0; word < words.length; word++) {
+            long remaining = words[word];
+
+            while (remaining != 0) {
+                action.accept((word << 6) + Long.numberOfTrailingZeros(remaining));
+                remaining &= remaining - 1;
+            }
+        }
+    }
+
+    private synchronized long[] copyOf(HostStatus status) {
+        return Arrays.copyOf(statusBits[status.ordinal()], statusBits[status.ordinal()].length);
+    }
+
+    private long validBitsOf(int word) {
+        int bitsInWord = Math.min(64, hosts.length - (word << 6));
+
+        return bitsInWord == 64 ? -1L : (1L << bitsInWord) - 1;
+    }
+
+    private void addToFilter(long hash) {
+        bloomWords[wordOf(hash)] |= patternOf(hash);
+    }
+
+    // Blocks are a single word, so a negative lookup costs one load and one compare
+    private boolean mightContain(long hash) {
+        long pattern = patternOf(hash);
+
+        return (bloomWords[wordOf(hash)] & pattern) == pattern;
+    }
+
+    private int wordOf(long hash) {
+        return (int) (hash >>> 40) & bloomWordMask;
+    }
+
+    private static long patternOf(long hash) {
+        long pattern = 0;
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+            pattern |= 1L << (hash >>> (i * 6));
+        }
+
+        return pattern;
+    }
+
+    private static long hashOf(String host) {
+        long hash = host.hashCode();
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+
+        return hash ^ (hash >>> 33);
+    }
+}
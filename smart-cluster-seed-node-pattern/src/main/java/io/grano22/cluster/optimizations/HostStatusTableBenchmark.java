@@ -0,0 +1,108 @@
+package io.grano22.cluster.optimizations;
+
+import io.grano22.cluster.optimizations.HostStatusTable.HostStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link HostStatusTable} with {@link SingleCPURegisterHostsFilter} on the calls made by discovery.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HostStatusTableBenchmark {
+    @Param({"16", "64", "1024"})
+    public int hosts;
+
+    private SingleCPURegisterHostsFilter filter;
+    private HostStatusTable table;
+    private String[] knownHosts;
+    private String[] unknownHosts;
+    private int cursor;
+
+    @Setup
+    public void setUp() {
+        Set<String> allowedHosts = new LinkedHashSet<>();
+        knownHosts = new String[hosts];
+        unknownHosts = new String[hosts];
+
+        for (int i = 0; i < hosts; i++) {
+            knownHosts[i] = "10.0." + (i >>> 8) + "." + (i & 255) + ":9001";
+            unknownHosts[i] = "10.1." + (i >>> 8) + "." + (i & 255) + ":9001";
+            allowedHosts.add(knownHosts[i]);
+        }
+
+        filter = new SingleCPURegisterHostsFilter(allowedHosts, "UNKNOWN");
+        table = new HostStatusTable(allowedHosts, HostStatus.UNKNOWN);
+
+        // Half of the hosts discovered, the state discovery spends most of its time in
+        for (int i = 0; i < hosts; i += 2) {
+            filter.update(knownHosts[i], "OK");
+            table.update(knownHosts[i], HostStatus.OK);
+        }
+    }
+
+    private int next() {
+        return cursor = (cursor + 1) & (hosts - 1);
+    }
+
+    @Benchmark
+    public Object filterKnownLookup() {
+        return filter.getStatus(knownHosts[next()]);
+    }
+
+    @Benchmark
+    public Object tableKnownLookup() {
+        return table.statusOf(knownHosts[next()]);
+    }
+
+    @Benchmark
+    public Object filterUnknownLookup() {
+        return filter.getStatus(unknownHosts[next()]);
+    }
+
+    @Benchmark
+    public Object tableUnknownLookup() {
+        return table.statusOf(unknownHosts[next()]);
+    }
+
+    @Benchmark
+    public void filterUpdate() {
+        int i = next();
+        filter.update(knownHosts[i], (i & 1) == 0 ? "DOWN" : "OK");
+    }
+
+    @Benchmark
+    public void tableUpdate() {
+        int i = next();
+        table.update(knownHosts[i], (i & 1) == 0 ? HostStatus.DOWN : HostStatus.OK);
+    }
+
+    @Benchmark
+    public void filterNotDiscovered(Blackhole blackhole) {
+        blackhole.consume(filter.getAllInStatus("UNKNOWN"));
+        blackhole.consume(filter.getAllInStatus("DOWN"));
+    }
+
+    @Benchmark
+    public Object tableNotDiscovered() {
+        return table.getAllNotInStatus(HostStatus.OK);
+    }
+}
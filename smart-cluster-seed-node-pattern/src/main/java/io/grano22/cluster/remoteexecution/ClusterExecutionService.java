@@ -0,0 +1,96 @@
+package io.grano22.cluster.remoteexecution;
+
+import io.grano22.cluster.clustermanagement.ClusterNode;
+import io.grano22.cluster.clustermanagement.NodePlacement;
+import lombok.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Runs a job on whichever member of a cluster the placement picks. The job always goes through the communication port,
+ * self included, so it is queued and measured like any other delegated job. A member failing the job is left out of
+ * the next attempts.
+ */
+public final class ClusterExecutionService {
+    private final static Marker contextMarker = MarkerFactory.getMarker("ClusterExecutionService");
+    private final static Logger logger = LoggerFactory.getLogger(ClusterExecutionService.class);
+
+    public static final int MAX_ATTEMPTS = 3;
+
+    public record PlacedSummary(@NonNull ClusterNode node, @NonNull RemoteExecutionSummary summary) {}
+
+    private final NodePlacement placement;
+    private final RemoteExecutionDelegator delegator;
+
+    public ClusterExecutionService(@NonNull NodePlacement placement, @NonNull RemoteExecutionDelegator delegator) {
+        this.placement = placement;
+        this.delegator = delegator;
+    }
+
+    public @NonNull CompletableFuture<PlacedSummary> execute(@NonNull String clusterName, @NonNull ExecutionDelegation delegation) {
+        var chosen = placement.choose(clusterName, delegation.runtimeName(), Set.of());
+        if (chosen.isEmpty()) {
+            return CompletableFuture.failedFuture(new IllegalStateException(
+                "No member of cluster " + clusterName + " supports runtime " + delegation.runtimeName()
+            ));
+        }
+
+        return executeOn(chosen.get(), clusterName, delegation);
+    }
+
+    /**
+     * Starts on a member already reserved in the placement, other members are only chosen when it fails the job.
+     */
+    public @NonNull CompletableFuture<PlacedSummary> executeOn(
+        @NonNull ClusterNode node,
+        @NonNull String clusterName,
+        @NonNull ExecutionDelegation delegation
+    ) {
+        return attempt(node, clusterName, delegation, new HashSet<>());
+    }
+
+    private CompletableFuture<PlacedSummary> attempt(
+        ClusterNode node,
+        String clusterName,
+        ExecutionDelegation delegation,
+        Set<ClusterNode> failedNodes
+    ) {
+        logger.atDebug()
+            .addMarker(contextMarker)
+            .log("Placing {} job of cluster {} on {}:{}", delegation.runtimeName(), clusterName, node.hostname(), node.communicationPort())
+        ;
+
+        return delegator.delegate(node.hostname(), node.communicationPort(), delegation)
+            .whenComplete((_, _) -> placement.release(node))
+            .thenApply(summary -> CompletableFuture.completedFuture(new PlacedSummary(node, summary)))
+            .exceptionally(failure -> {
+                Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+                failedNodes.add(node);
+
+                var next = failedNodes.size() < MAX_ATTEMPTS
+                    ? placement.choose(clusterName, delegation.runtimeName(), failedNodes)
+                    : Optional.<ClusterNode>empty()
+                ;
+                if (next.isEmpty()) {
+                    return CompletableFuture.failedFuture(cause);
+                }
+
+                logger.atWarn()
+                    .addMarker(contextMarker)
+                    .log("Job placed on {}:{} failed, trying another member: {}", node.hostname(), node.communicationPort(), cause.getMessage())
+                ;
+
+                return attempt(next.get(), clusterName, delegation, failedNodes);
+            })
+            .thenCompose(placed -> placed)
+        ;
+    }
+}
@@ -0,0 +1,66 @@
+package io.grano22.cluster.remoteexecution;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Frame compression of the communication port, both directions of every connection of the node. Times are measured
+ * around deflate and inflate calls, which do not block, so they stand for the CPU time spent on compression.
+ */
+public final class CompressionMetrics {
+    /**
+     * Ratio is compressed to raw size of the compressed frames, skipped frames were deflated but did not shrink and
+     * went out raw. Frames below the threshold are not counted.
+     */
+    public record Snapshot(
+        long compressedFrames,
+        long skippedFrames,
+        long inflatedFrames,
+        long rawBytes,
+        long compressedBytes,
+        double ratio,
+        long deflateMicros,
+        long inflateMicros
+    ) {}
+
+    private final LongAdder compressedFrames = new LongAdder();
+    private final LongAdder skippedFrames = new LongAdder();
+    private final LongAdder inflatedFrames = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder deflateNanos = new LongAdder();
+    private final LongAdder inflateNanos = new LongAdder();
+
+    void frameCompressed(int rawSize, int compressedSize, long tookNanos) {
+        compressedFrames.increment();
+        rawBytes.add(rawSize);
+        compressedBytes.add(compressedSize);
+        deflateNanos.add(tookNanos);
+    }
+
+    void frameSkipped(long tookNanos) {
+        skippedFrames.increment();
+        deflateNanos.add(tookNanos);
+    }
+
+    void frameInflated(long tookNanos) {
+        inflatedFrames.increment();
+        inflateNanos.add(tookNanos);
+    }
+
+    public Snapshot snapshot() {
+        long raw = rawBytes.sum();
+        long compressed = compressedBytes.sum();
+
+        return new Snapshot(
+            compressedFrames.sum(),
+            skippedFrames.sum(),
+            inflatedFrames.sum(),
+            raw,
+            compressed,
+            raw == 0 ? 1.0 : (double) compressed / raw,
+            TimeUnit.NANOSECONDS.toMicros(deflateNanos.sum()),
+            TimeUnit.NANOSECONDS.toMicros(inflateNanos.sum())
+        );
+    }
+}
@@ -0,0 +1,332 @@
+package io.grano22.cluster.remoteexecution;
+
+import io.grano22.cluster.clustermanagement.NodeConfig;
+import lombok.Getter;
+import lombok.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+/**
+ * Long-lived client connection to the communication port of one peer. Requests are tagged with an id and written by
+ * any thread, a single reader thread completes them as their answers arrive, in whatever order the peer sends them.
+ */
+public final class DelegationConnection implements AutoCloseable {
+    private final static Marker contextMarker = MarkerFactory.getMarker("DelegationConnection");
+    private final static Logger logger = LoggerFactory.getLogger(DelegationConnection.class);
+
+    // Output bytes of one request on their way or waiting for the listener, granted again as chunks are consumed
+    public static final int OUTPUT_WINDOW_BYTES = 256 * 1024;
+
+    @Getter
+    private final @NonNull InetSocketAddress address;
+    @Getter
+    private final byte protocolVersion;
+    @Getter
+    private final boolean compressed;
+    private final Socket socket;
+    private final DataOutputStream output;
+    private final DataInputStream input;
+    // Guarded by the output, the reader thread owns its own codec
+    private final DelegationFrameCodec writeCodec;
+    private final DelegationFrameCodec readCodec;
+    private final Map<Long, CompletableFuture<DelegationFrame>> pending = new ConcurrentHashMap<>();
+    private final Map<Long, Consumer<DelegationFrame.Partial>> partialListeners = new ConcurrentHashMap<>();
+    private final Map<Long, OutputListener> outputListeners = new ConcurrentHashMap<>();
+    private final AtomicLong nextRequestId = new AtomicLong();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile long lastUsedNanos = System.nanoTime();
+
+    private DelegationConnection(
+        @NonNull InetSocketAddress address,
+        @NonNull Socket socket,
+        @NonNull NodeConfig.CompressionSettings compression,
+        @NonNull CompressionMetrics compressionMetrics
+    ) throws IOException {
+        this.address = address;
+        this.socket = socket;
+        this.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.protocolVersion = DelegationFrameCodec.handshakeAsClient(input, output);
+        this.compressed = DelegationFrameCodec.negotiateCompressionAsClient(input, output, protocolVersion, compression.enabled());
+        this.writeCodec = new DelegationFrameCodec(protocolVersion, compressed ? compression : null, compressionMetrics);
+        this.readCodec = new DelegationFrameCodec(protocolVersion, null, compressionMetrics);
+    }
+
+    /**
+     * Connects and negotiates the protocol version and compression blocking the calling thread, the pool calls it on
+     * a virtual thread.
+     */
+    public static DelegationConnection open(
+        @NonNull InetSocketAddress address,
+        int connectTimeoutMillis,
+        @NonNull NodeConfig.CompressionSettings compression,
+        @NonNull CompressionMetrics compressionMetrics
+    ) throws IOException {
+        var socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(address, connectTimeoutMillis);
+            // Bounds the handshake only, afterwards the reader waits for answers as long as the connection lives
+            socket.setSoTimeout(connectTimeoutMillis);
+
+            var connection = new DelegationConnection(address, socket, compression, compressionMetrics);
+            socket.setSoTimeout(0);
+            Thread.ofVirtual()
+                .name("delegation-reader-" + address.getHostString() + ":" + address.getPort())
+                .start(connection::readResponses)
+            ;
+
+            return connection;
+        } catch (IOException exception) {
+            socket.close();
+
+            throw exception;
+        }
+    }
+
+    public @NonNull CompletableFuture<RemoteExecutionSummary> delegate(@NonNull ExecutionDelegation delegation, long timeoutMillis) {
+        return delegate(delegation, timeoutMillis, null, null);
+    }
+
+    /**
+     * Partial results are passed to the listener on the reader thread as the runs finish, always before the returned
+     * future completes. Peers speaking version 1 only answer with the final response. With an output listener outputs
+     * arrive as chunks instead of inside partial results and the response, peers older than version 4 ignore it and
+     * answer as without one.
+     */
+    public @NonNull CompletableFuture<RemoteExecutionSummary> delegate(
+        @NonNull ExecutionDelegation delegation,
+        long timeoutMillis,
+        Consumer<DelegationFrame.Partial> partialListener,
+        OutputListener outputListener
+    ) {
+        return delegate(delegation, timeoutMillis, partialListener, outputListener, false);
+    }
+
+    /**
+     * A stolen job came from the queue of this node, the peer runs it but never lets it be stolen further.
+     */
+    @NonNull CompletableFuture<RemoteExecutionSummary> delegate(
+        @NonNull ExecutionDelegation delegation,
+        long timeoutMillis,
+        Consumer<DelegationFrame.Partial> partialListener,
+        OutputListener outputListener,
+        boolean stolen
+    ) {
+        touch();
+        boolean streamPartials = partialListener != null && protocolVersion >= 2;
+        boolean streamOutput = outputListener != null && protocolVersion >= 4;
+
+        return send(requestId -> {
+            if (streamPartials) {
+                partialListeners.put(requestId, partialListener);
+            }
+            if (streamOutput) {
+                outputListeners.put(requestId, outputListener);
+            }
+
+            return new DelegationFrame.Request(requestId, delegation, streamPartials, streamOutput ? OUTPUT_WINDOW_BYTES : 0, stolen);
+        }, timeoutMillis)
+            .thenApply(frame -> switch (frame) {
+                case DelegationFrame.Response response -> response.summary();
+                case DelegationFrame.Failure failure -> throw new IllegalStateException(failure.reason());
+                default -> throw new IllegalStateException("Unexpected answer " + frame.getClass().getSimpleName());
+            })
+        ;
+    }
+
+    /**
+     * Round trip of an empty frame, fails when the peer does not answer within the timeout.
+     */
+    public @NonNull CompletableFuture<Void> ping(long timeoutMillis) {
+        return send(DelegationFrame.Ping::new, timeoutMillis).thenAccept(_ -> {});
+    }
+
+    /**
+     * Asks the peer to delegate queued jobs taking up to slots job threads to the thief, completes with the number of
+     * jobs it lends. Peers older than version 6 cannot lend and are not asked.
+     */
+    public @NonNull CompletableFuture<Integer> steal(@NonNull String thiefHostname, int thiefCommunicationPort, int slots, long timeoutMillis) {
+        if (protocolVersion < 6) {
+            return CompletableFuture.completedFuture(0);
+        }
+
+        touch();
+
+        return send(requestId -> new DelegationFrame.Steal(requestId, thiefHostname, thiefCommunicationPort, slots), timeoutMillis)
+            .thenApply(frame -> switch (frame) {
+                case DelegationFrame.Lent lent -> lent.jobs();
+                case DelegationFrame.Failure failure -> throw new IllegalStateException(failure.reason());
+                default -> throw new IllegalStateException("Unexpected answer " + frame.getClass().getSimpleName());
+            })
+        ;
+    }
+
+    public int getInFlight() {
+        return pending.size();
+    }
+
+    public long getIdleNanos() {
+        return pending.isEmpty() ? System.nanoTime() - lastUsedNanos : 0;
+    }
+
+    void touch() {
+        lastUsedNanos = System.nanoTime();
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    @Override
+    public void close() {
+        closeWith(new IOException("Connection to " + address + " closed"));
+    }
+
+    private CompletableFuture<DelegationFrame> send(LongFunction<DelegationFrame> factory, long timeoutMillis) {
+        long requestId = nextRequestId.incrementAndGet();
+        var answer = new CompletableFuture<DelegationFrame>();
+        pending.put(requestId, answer);
+        // Also covers timeouts, a late answer for a forgotten id is ignored by the reader
+        answer.whenComplete((_, _) -> {
+            pending.remove(requestId);
+            partialListeners.remove(requestId);
+            outputListeners.remove(requestId);
+        });
+
+        if (closed.get()) {
+            answer.completeExceptionally(new IOException("Connection to " + address + " closed"));
+
+            return answer;
+        }
+
+        write(factory.apply(requestId));
+
+        return answer.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void write(DelegationFrame frame) {
+        try {
+            synchronized (output) {
+                writeCodec.write(output, frame);
+                output.flush();
+            }
+        } catch (IOException exception) {
+            closeWith(exception);
+        }
+    }
+
+    /**
+     * Credit is granted back only after the listener is done with the chunk and only while the request is pending.
+     */
+    private void consumeOutput(DelegationFrame.Output output) {
+        var listener = outputListeners.get(output.requestId());
+        if (listener == null) {
+            return;
+        }
+
+        listener.onOutput(output).whenComplete((_, failure) -> {
+            if (failure != null) {
+                logger.atDebug()
+                    .addMarker(contextMarker)
+                    .setCause(failure)
+                    .log("Output listener of request {} failed", output.requestId())
+                ;
+            }
+
+            if (!closed.get() && pending.containsKey(output.requestId())) {
+                write(new DelegationFrame.Credit(output.requestId(), output.size()));
+            }
+        });
+    }
+
+    private void readResponses() {
+        try {
+            while (!closed.get()) {
+                var frame = readCodec.read(input);
+                // Health checks alone must not keep an unused connection open
+                if (!(frame instanceof DelegationFrame.Pong)) {
+                    touch();
+                }
+
+                if (frame instanceof DelegationFrame.Partial partial) {
+                    var listener = partialListeners.get(partial.requestId());
+                    if (listener != null) {
+                        listener.accept(partial);
+                    }
+
+                    continue;
+                }
+
+                if (frame instanceof DelegationFrame.Output chunk) {
+                    consumeOutput(chunk);
+
+                    continue;
+                }
+
+                var answer = pending.remove(frame.requestId());
+                if (answer != null) {
+                    answer.complete(frame);
+                }
+            }
+        } catch (EOFException exception) {
+            closeWith(new IOException("Connection closed by " + address));
+        } catch (Exception exception) {
+            if (!closed.get()) {
+                logger.atWarn()
+                    .addMarker(contextMarker)
+                    .setCause(exception)
+                    .log("Lost delegation connection to {}", address)
+                ;
+            }
+
+            closeWith(exception);
+        } finally {
+            readCodec.close();
+        }
+    }
+
+    private void closeWith(Exception reason) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            socket.close();
+        } catch (IOException exception) {
+            logger.atDebug()
+                .addMarker(contextMarker)
+                .setCause(exception)
+                .log("Failed to close delegation connection to {}", address)
+            ;
+        }
+
+        synchronized (output) {
+            writeCodec.close();
+        }
+
+        for (var answer: pending.values()) {
+            answer.completeExceptionally(reason);
+        }
+    }
+}
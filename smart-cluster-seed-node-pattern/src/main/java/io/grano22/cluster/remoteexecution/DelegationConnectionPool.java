@@ -0,0 +1,194 @@
+package io.grano22.cluster.remoteexecution;
+
+import io.grano22.cluster.clustermanagement.NodeConfig;
+import lombok.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+import java.io.UncheckedIOException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a few long-lived {@link DelegationConnection}s per peer. A request goes to the least loaded connection, another
+ * one is opened only when all of them are busy and the peer limit allows it. Idle connections are pinged periodically
+ * and closed once idle for longer than the idle timeout.
+ */
+public final class DelegationConnectionPool implements AutoCloseable {
+    private final static Marker contextMarker = MarkerFactory.getMarker("DelegationConnectionPool");
+    private final static Logger logger = LoggerFactory.getLogger(DelegationConnectionPool.class);
+
+    private final NodeConfig.DelegationSettings settings;
+    private final NodeConfig.CompressionSettings compression;
+    private final CompressionMetrics compressionMetrics;
+    private final Map<InetSocketAddress, PeerConnections> peers = new ConcurrentHashMap<>();
+    private final ExecutorService connector = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor();
+
+    public DelegationConnectionPool(
+        @NonNull NodeConfig.DelegationSettings settings,
+        @NonNull NodeConfig.CompressionSettings compression,
+        @NonNull CompressionMetrics compressionMetrics
+    ) {
+        this.settings = settings;
+        this.compression = compression;
+        this.compressionMetrics = compressionMetrics;
+        maintenance.scheduleWithFixedDelay(
+            this::maintain,
+            settings.healthCheckIntervalMillis(),
+            settings.healthCheckIntervalMillis(),
+            TimeUnit.MILLISECONDS
+        );
+    }
+
+    public @NonNull CompletableFuture<DelegationConnection> acquire(@NonNull InetSocketAddress address) {
+        return peers.computeIfAbsent(address, PeerConnections::new).acquire();
+    }
+
+    public int getOpenConnections() {
+        return peers.values().stream().mapToInt(PeerConnections::size).sum();
+    }
+
+    @Override
+    public void close() {
+        maintenance.shutdownNow();
+        connector.shutdownNow();
+        for (var peer: peers.values()) {
+            peer.closeAll();
+        }
+        peers.clear();
+    }
+
+    private void maintain() {
+        long idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(settings.idleTimeoutMillis());
+        long healthCheckNanos = TimeUnit.MILLISECONDS.toNanos(settings.healthCheckIntervalMillis());
+
+        try {
+            for (var peer: peers.values()) {
+                for (var connection: peer.snapshot()) {
+                    if (peer.evictIfIdle(connection, idleTimeoutNanos)) {
+                        continue;
+                    }
+
+                    if (connection.getIdleNanos() >= healthCheckNanos) {
+                        connection.ping(settings.connectTimeoutMillis()).whenComplete((_, failure) -> {
+                            if (failure != null) {
+                                logger.atWarn()
+                                    .addMarker(contextMarker)
+                                    .log("Delegation connection to {} failed the health check", connection.getAddress())
+                                ;
+                                peer.evict(connection);
+                            }
+                        });
+                    }
+                }
+            }
+        } catch (Exception exception) {
+            logger.atError()
+                .addMarker(contextMarker)
+                .setCause(exception)
+                .log("Failed to maintain delegation connections")
+            ;
+        }
+    }
+
+    private final class PeerConnections {
+        private final InetSocketAddress address;
+        private final List<DelegationConnection> connections = new ArrayList<>();
+        private CompletableFuture<DelegationConnection> opening;
+
+        private PeerConnections(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        private synchronized CompletableFuture<DelegationConnection> acquire() {
+            connections.removeIf(DelegationConnection::isClosed);
+
+            DelegationConnection leastLoaded = null;
+            for (var connection: connections) {
+                if (leastLoaded == null || connection.getInFlight() < leastLoaded.getInFlight()) {
+                    leastLoaded = connection;
+                }
+            }
+
+            boolean canGrow = connections.size() < settings.maxConnectionsPerPeer();
+            if (leastLoaded != null && (leastLoaded.getInFlight() < settings.maxInFlightPerConnection() || !canGrow || opening != null)) {
+                // Under the same lock as eviction, a connection handed out here is not seen as idle anymore
+                leastLoaded.touch();
+
+                return CompletableFuture.completedFuture(leastLoaded);
+            }
+
+            // Requests arriving while a connection is being opened wait for that one instead of opening their own
+            if (opening != null) {
+                return opening;
+            }
+
+            var connecting = CompletableFuture.supplyAsync(this::connect, connector);
+            opening = connecting;
+            // May run right here when the connection opened already, opening is cleared before it is returned
+            connecting.whenComplete((connection, _) -> opened(connecting, connection));
+
+            return connecting;
+        }
+
+        private DelegationConnection connect() {
+            try {
+                return DelegationConnection.open(address, Math.toIntExact(settings.connectTimeoutMillis()), compression, compressionMetrics);
+            } catch (IOException exception) {
+                throw new UncheckedIOException("Failed to connect to " + address, exception);
+            }
+        }
+
+        private synchronized void opened(CompletableFuture<DelegationConnection> connecting, DelegationConnection connection) {
+            if (opening == connecting) {
+                opening = null;
+            }
+
+            if (connection != null) {
+                connections.add(connection);
+            }
+        }
+
+        private synchronized boolean evictIfIdle(DelegationConnection connection, long idleTimeoutNanos) {
+            if (!connection.isClosed() && connection.getIdleNanos() < idleTimeoutNanos) {
+                return false;
+            }
+
+            evict(connection);
+
+            return true;
+        }
+
+        private synchronized void evict(DelegationConnection connection) {
+            connections.remove(connection);
+            connection.close();
+        }
+
+        private synchronized List<DelegationConnection> snapshot() {
+            return List.copyOf(connections);
+        }
+
+        private synchronized int size() {
+            return connections.size();
+        }
+
+        private synchronized void closeAll() {
+            for (var connection: connections) {
+                connection.close();
+            }
+            connections.clear();
+        }
+    }
+}
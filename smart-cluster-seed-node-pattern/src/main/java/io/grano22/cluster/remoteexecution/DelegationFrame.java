@@ -0,0 +1,88 @@
+package io.grano22.cluster.remoteexecution;
+
+import io.grano22.cluster.runtime.ExecutionRuntime;
+import lombok.NonNull;
+
+import static io.grano22.cluster.optimizations.ByteBufferWire.sizeOfUtf8;
+
+/**
+ * Unit exchanged on the communication port. Every frame carries the id of the request it belongs to, so many requests
+ * can share one connection and their answers can be matched regardless of order. See {@link DelegationFrameCodec}.
+ */
+public sealed interface DelegationFrame {
+    /**
+     * With streamPartials every finished run of a repeated job is sent back as a {@link Partial} before the response.
+     * A positive outputWindow asks for outputs as {@link Output} chunks instead, at most that many bytes of them may be
+     * on their way before the client grants more with {@link Credit}. A stolen job was taken from the queue of the
+     * sending peer, it must not be stolen again.
+     */
+    record Request(
+        long requestId,
+        @NonNull ExecutionDelegation delegation,
+        boolean streamPartials,
+        int outputWindow,
+        boolean stolen
+    ) implements DelegationFrame {
+        public Request {
+            if (outputWindow < 0) {
+                throw new IllegalArgumentException("Output window cannot be negative");
+            }
+        }
+
+        public Request(long requestId, @NonNull ExecutionDelegation delegation, boolean streamPartials, int outputWindow) {
+            this(requestId, delegation, streamPartials, outputWindow, false);
+        }
+
+        public Request(long requestId, @NonNull ExecutionDelegation delegation, boolean streamPartials) {
+            this(requestId, delegation, streamPartials, 0, false);
+        }
+
+        public Request(long requestId, @NonNull ExecutionDelegation delegation) {
+            this(requestId, delegation, false, 0, false);
+        }
+
+        public boolean streamOutput() {
+            return outputWindow > 0;
+        }
+    }
+
+    record Partial(long requestId, int iteration, @NonNull ExecutionRuntime.Result result) implements DelegationFrame {}
+
+    /**
+     * Piece of the output of one run, pieces of a run arrive in order but those of parallel runs may interleave.
+     */
+    record Output(long requestId, int run, @NonNull String chunk) implements DelegationFrame {
+        /**
+         * Bytes of the chunk counted against the output window.
+         */
+        public int size() {
+            return sizeOfUtf8(chunk);
+        }
+    }
+
+    /**
+     * Sent by the client once it consumed output chunks, lets the peer send that many bytes more.
+     */
+    record Credit(long requestId, int bytes) implements DelegationFrame {}
+
+    /**
+     * Sent by an idle node to a busy peer, the peer may delegate queued jobs taking up to slots job threads back to the
+     * node at the given communication address.
+     */
+    record Steal(long requestId, @NonNull String hostname, int communicationPort, int slots) implements DelegationFrame {}
+
+    /**
+     * Answer to {@link Steal}, the number of jobs the peer is delegating to the thief.
+     */
+    record Lent(long requestId, int jobs) implements DelegationFrame {}
+
+    record Response(long requestId, @NonNull RemoteExecutionSummary summary) implements DelegationFrame {}
+
+    record Failure(long requestId, @NonNull String reason) implements DelegationFrame {}
+
+    record Ping(long requestId) implements DelegationFrame {}
+
+    record Pong(long requestId) implements DelegationFrame {}
+
+    long requestId();
+}
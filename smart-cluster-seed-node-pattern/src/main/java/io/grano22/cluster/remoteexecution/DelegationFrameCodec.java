@@ -0,0 +1,680 @@
+package io.grano22.cluster.remoteexecution;
+
+import io.grano22.cluster.clustermanagement.LatencyHistogram;
+import io.grano22.cluster.clustermanagement.NodeConfig;
+import io.grano22.cluster.runtime.ExecutionRuntime;
+import lombok.NonNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static io.grano22.cluster.optimizations.ByteBufferWire.*;
+
+/**
+ * Wire layout of the communication port (version 6):
+ * <pre>
+ * handshake := client: magic:i32 minVersion:u8 maxVersion:u8, server: magic:i32 version:u8 (0 = no common version)
+ *              [since version 5] client: wantsCompression:u8, server: compressionAgreed:u8
+ * frame     := bodyLength:i32 type:u8 flags:u8 requestId:i64 body
+ *              flags bit 7 marks a body compressed as rawBodyLength:varint deflated:byte* (since version 5)
+ * REQUEST   := runtimeName:string repeatTimes:zigzag input [flags bit 2] outputWindow:varint
+ *              flags bit 0 asks for partial results, bit 1 for no outputs, bit 2 for streamed outputs (since version 4),
+ *              bit 3 marks a stolen job (since version 6)
+ * PARTIAL   := iteration:varint statusCode:zigzag completedAt:varlong output:string (since version 2)
+ * RESPONSE  := result [since version 3] hasStatistics:u8 statistics?
+ * FAILURE   := reason:string
+ * OUTPUT    := run:varint chunk:string (since version 4)
+ * CREDIT    := bytes:varint (since version 4, client to server)
+ * STEAL     := hostname:string communicationPort:varint slots:varint (since version 6, client to server)
+ * LENT      := jobs:varint (since version 6)
+ * PING/PONG := empty
+ *
+ * input  := command:string argumentCount:varint argument:string* optionCount:varint (name:string value:string)*
+ * result := kind:u8 statusCode:zigzag completedAt:varlong(epoch millis) output:string
+ *           [kind = UNION] resultCount:varint (statusCode:zigzag completedAt:varlong output:string)*
+ * statistics := runs:varlong failed:varlong codeCount:varint (statusCode:zigzag runs:varlong)* completedAt:varlong
+ *               firstFailure:failure lastFailure:failure samples:varlong p50:varlong p99:varlong max:varlong last:zigzag
+ * failure    := present:u8 [run:varint statusCode:zigzag completedAt:varlong output:string]
+ * </pre>
+ * Strings are length prefixed UTF-8, so outputs may contain any character including line breaks. Timestamps travel as
+ * epoch millis and are decoded in UTC. A codec keeps its scratch buffers and its deflater or inflater between frames,
+ * use one instance per thread created for the version negotiated on the connection and close it with the connection.
+ * Compressed frames are always understood, a codec compresses the frames it writes only when given compression
+ * settings, and only those of at least the threshold size which actually shrink.
+ */
+public final class DelegationFrameCodec implements AutoCloseable {
+    public static final int MAGIC = 0x53434450;
+    public static final byte VERSION = 6;
+    public static final byte MIN_VERSION = 1;
+    public static final int HEADER_SIZE = 14;
+    public static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+    private static final byte TYPE_REQUEST = 1;
+    private static final byte TYPE_RESPONSE = 2;
+    private static final byte TYPE_FAILURE = 3;
+    private static final byte TYPE_PING = 4;
+    private static final byte TYPE_PONG = 5;
+    private static final byte TYPE_PARTIAL = 6;
+    private static final byte TYPE_OUTPUT = 7;
+    private static final byte TYPE_CREDIT = 8;
+    private static final byte TYPE_STEAL = 9;
+    private static final byte TYPE_LENT = 10;
+
+    private static final byte FLAG_STREAM_PARTIALS = 1;
+    private static final byte FLAG_SUMMARY_ONLY = 2;
+    private static final byte FLAG_STREAM_OUTPUT = 4;
+    private static final byte FLAG_STOLEN = 8;
+    private static final byte FLAG_COMPRESSED = (byte) 0x80;
+    private static final int FLAGS_OFFSET = 5;
+
+    private static final byte RESULT_SIMPLE = 1;
+    private static final byte RESULT_UNION = 2;
+
+    private final byte version;
+    private final NodeConfig.CompressionSettings compression;
+    private final CompressionMetrics metrics;
+    private ByteBuffer buffer = ByteBuffer.allocate(4096);
+    private ByteBuffer compressedBuffer = ByteBuffer.allocate(0);
+    private Deflater deflater;
+    private Inflater inflater;
+
+    /**
+     * Without compression settings frames are written raw.
+     */
+    public DelegationFrameCodec(byte version, NodeConfig.CompressionSettings compression, @NonNull CompressionMetrics metrics) {
+        if (version < MIN_VERSION || version > VERSION) {
+            throw new IllegalArgumentException("Unsupported delegation protocol version " + version);
+        }
+
+        this.version = version;
+        this.compression = version >= 5 && compression != null && compression.enabled() ? compression : null;
+        this.metrics = metrics;
+    }
+
+    public DelegationFrameCodec(byte version) {
+        this(version, null, new CompressionMetrics());
+    }
+
+    public DelegationFrameCodec() {
+        this(VERSION);
+    }
+
+    /**
+     * Offers our version range and returns the version chosen by the server.
+     */
+    public static byte handshakeAsClient(@NonNull DataInputStream in, @NonNull DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(MIN_VERSION);
+        out.writeByte(VERSION);
+        out.flush();
+
+        if (in.readInt() != MAGIC) {
+            throw new ProtocolException("Peer does not speak the delegation protocol");
+        }
+
+        byte version = in.readByte();
+        if (version < MIN_VERSION || version > VERSION) {
+            throw new ProtocolException("No common delegation protocol version, peer answered " + version);
+        }
+
+        return version;
+    }
+
+    /**
+     * Picks the highest version supported by both sides, the connection must be closed when it returns 0.
+     */
+    public static byte handshakeAsServer(@NonNull DataInputStream in, @NonNull DataOutputStream out) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new ProtocolException("Client does not speak the delegation protocol");
+        }
+
+        byte clientMin = in.readByte();
+        byte clientMax = in.readByte();
+        byte version = clientMin <= VERSION && clientMax >= MIN_VERSION ? (byte) Math.min(clientMax, VERSION) : 0;
+
+        out.writeInt(MAGIC);
+        out.writeByte(version);
+        out.flush();
+
+        return version;
+    }
+
+    /**
+     * Tells the server whether this side wants compressed frames, true when both sides do. Versions before 5 exchange
+     * nothing.
+     */
+    public static boolean negotiateCompressionAsClient(
+        @NonNull DataInputStream in,
+        @NonNull DataOutputStream out,
+        byte version,
+        boolean wanted
+    ) throws IOException {
+        if (version < 5) {
+            return false;
+        }
+
+        out.writeByte(wanted ? 1 : 0);
+        out.flush();
+
+        return in.readByte() == 1;
+    }
+
+    public static boolean negotiateCompressionAsServer(
+        @NonNull DataInputStream in,
+        @NonNull DataOutputStream out,
+        byte version,
+        boolean accepted
+    ) throws IOException {
+        if (version < 5) {
+            return false;
+        }
+
+        boolean agreed = in.readByte() == 1 && accepted;
+        out.writeByte(agreed ? 1 : 0);
+        out.flush();
+
+        return agreed;
+    }
+
+    public void write(@NonNull DataOutputStream out, @NonNull DelegationFrame frame) throws IOException {
+        int bodySize = bodySize(frame);
+        if (bodySize > MAX_FRAME_SIZE) {
+            throw new ProtocolException("Frame of " + bodySize + " bytes exceeds the limit of " + MAX_FRAME_SIZE);
+        }
+
+        ByteBuffer target = scratch(HEADER_SIZE + bodySize);
+        target.putInt(bodySize);
+        target.put(typeOf(frame));
+        target.put(flagsOf(frame));
+        target.putLong(frame.requestId());
+
+        switch (frame) {
+            case DelegationFrame.Request request -> {
+                writeString(target, request.delegation().runtimeName());
+                writeZigZag(target, request.delegation().repeatTimes());
+                writeInput(target, request.delegation().input());
+                if (streamsOutput(request)) {
+                    writeVarInt(target, request.outputWindow());
+                }
+            }
+            case DelegationFrame.Partial partial -> {
+                writeVarInt(target, partial.iteration());
+                writeSimpleResult(target, partial.result().statusCode(), partial.result().completedAt(), partial.result().output());
+            }
+            case DelegationFrame.Response response -> {
+                writeResult(target, response.summary().result());
+                if (version >= 3) {
+                    writeStatistics(target, response.summary().statistics());
+                }
+            }
+            case DelegationFrame.Failure failure -> writeString(target, failure.reason());
+            case DelegationFrame.Output output -> {
+                writeVarInt(target, output.run());
+                writeString(target, output.chunk());
+            }
+            case DelegationFrame.Credit credit -> writeVarInt(target, credit.bytes());
+            case DelegationFrame.Steal steal -> {
+                writeString(target, steal.hostname());
+                writeVarInt(target, steal.communicationPort());
+                writeVarInt(target, steal.slots());
+            }
+            case DelegationFrame.Lent lent -> writeVarInt(target, lent.jobs());
+            case DelegationFrame.Ping _, DelegationFrame.Pong _ -> {}
+        }
+
+        if (compression != null && bodySize > 0 && bodySize >= compression.thresholdBytes() && writeCompressed(out, target, bodySize)) {
+            return;
+        }
+
+        out.write(target.array(), 0, target.position());
+    }
+
+    @Override
+    public void close() {
+        if (deflater != null) {
+            deflater.end();
+        }
+        if (inflater != null) {
+            inflater.end();
+        }
+    }
+
+    public @NonNull DelegationFrame read(@NonNull DataInputStream in) throws IOException {
+        int bodySize = in.readInt();
+        if (bodySize < 0 || bodySize > MAX_FRAME_SIZE) {
+            throw new ProtocolException("Invalid frame length " + bodySize);
+        }
+
+        byte type = in.readByte();
+        byte flags = in.readByte();
+        long requestId = in.readLong();
+
+        ByteBuffer source;
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            if (version < 5) {
+                throw new ProtocolException("Compressed frame on delegation protocol version " + version);
+            }
+
+            source = inflate(in, bodySize);
+        } else {
+            source = scratch(bodySize);
+            in.readFully(source.array(), 0, bodySize);
+            source.limit(bodySize);
+        }
+
+        return switch (type) {
+            case TYPE_REQUEST -> {
+                String runtimeName = readString(source);
+                int repeatTimes = readZigZag(source);
+                var input = readInput(source);
+
+                yield new DelegationFrame.Request(
+                    requestId,
+                    new ExecutionDelegation(runtimeName, input, repeatTimes, (flags & FLAG_SUMMARY_ONLY) == 0),
+                    (flags & FLAG_STREAM_PARTIALS) != 0,
+                    version >= 4 && (flags & FLAG_STREAM_OUTPUT) != 0 ? readVarInt(source) : 0,
+                    version >= 6 && (flags & FLAG_STOLEN) != 0
+                );
+            }
+            case TYPE_PARTIAL -> new DelegationFrame.Partial(requestId, readVarInt(source), readSimpleResult(source));
+            case TYPE_RESPONSE -> {
+                var result = readResult(source);
+
+                yield new DelegationFrame.Response(requestId, new RemoteExecutionSummary(result, version >= 3 ? readStatistics(source) : null));
+            }
+            case TYPE_FAILURE -> new DelegationFrame.Failure(requestId, readString(source));
+            case TYPE_OUTPUT -> new DelegationFrame.Output(requestId, readVarInt(source), readString(source));
+            case TYPE_CREDIT -> new DelegationFrame.Credit(requestId, readVarInt(source));
+            case TYPE_STEAL -> new DelegationFrame.Steal(requestId, readString(source), readVarInt(source), readVarInt(source));
+            case TYPE_LENT -> new DelegationFrame.Lent(requestId, readVarInt(source));
+            case TYPE_PING -> new DelegationFrame.Ping(requestId);
+            case TYPE_PONG -> new DelegationFrame.Pong(requestId);
+            default -> throw new ProtocolException("Unknown delegation frame type " + type);
+        };
+    }
+
+    /**
+     * Deflates the body of an encoded frame, gives up as soon as the output would not be smaller than the raw body.
+     */
+    private boolean writeCompressed(DataOutputStream out, ByteBuffer frame, int bodySize) throws IOException {
+        long startedAt = System.nanoTime();
+        if (deflater == null) {
+            deflater = new Deflater(compression.level());
+        }
+        deflater.reset();
+        deflater.setInput(frame.array(), HEADER_SIZE, bodySize);
+        deflater.finish();
+
+        int limit = HEADER_SIZE + bodySize;
+        ByteBuffer target = compressedScratch(limit);
+        target.put(frame.array(), 0, HEADER_SIZE);
+        writeVarInt(target, bodySize);
+        while (!deflater.finished() && target.position() < limit) {
+            target.position(target.position() + deflater.deflate(target.array(), target.position(), limit - target.position()));
+        }
+
+        if (!deflater.finished()) {
+            metrics.frameSkipped(System.nanoTime() - startedAt);
+
+            return false;
+        }
+
+        int compressedSize = target.position() - HEADER_SIZE;
+        target.putInt(0, compressedSize);
+        target.put(FLAGS_OFFSET, (byte) (target.get(FLAGS_OFFSET) | FLAG_COMPRESSED));
+        metrics.frameCompressed(bodySize, compressedSize, System.nanoTime() - startedAt);
+        out.write(target.array(), 0, target.position());
+
+        return true;
+    }
+
+    private ByteBuffer inflate(DataInputStream in, int compressedSize) throws IOException {
+        ByteBuffer compressed = compressedScratch(compressedSize);
+        in.readFully(compressed.array(), 0, compressedSize);
+        compressed.limit(compressedSize);
+
+        long startedAt = System.nanoTime();
+        int rawSize = readVarInt(compressed);
+        // Never inflates past the announced size, which is bounded like any other frame
+        if (rawSize < 0 || rawSize > MAX_FRAME_SIZE) {
+            throw new ProtocolException("Invalid raw length " + rawSize + " of compressed frame");
+        }
+
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        inflater.reset();
+        inflater.setInput(compressed.array(), compressed.position(), compressed.remaining());
+
+        ByteBuffer source = scratch(rawSize);
+        int inflated = 0;
+        try {
+            while (inflated < rawSize) {
+                int count = inflater.inflate(source.array(), inflated, rawSize - inflated);
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+        } catch (DataFormatException exception) {
+            throw new ProtocolException("Corrupted compressed frame: " + exception.getMessage());
+        }
+
+        if (inflated != rawSize) {
+            throw new ProtocolException("Compressed frame inflated to " + inflated + " bytes instead of " + rawSize);
+        }
+        source.limit(rawSize);
+        metrics.frameInflated(System.nanoTime() - startedAt);
+
+        return source;
+    }
+
+    private ByteBuffer compressedScratch(int size) {
+        if (compressedBuffer.capacity() < size) {
+            compressedBuffer = ByteBuffer.allocate(Math.max(size, compressedBuffer.capacity() * 2));
+        }
+
+        return compressedBuffer.clear();
+    }
+
+    private ByteBuffer scratch(int size) {
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocate(Math.max(size, buffer.capacity() * 2));
+        }
+
+        return buffer.clear();
+    }
+
+    private byte flagsOf(DelegationFrame frame) {
+        if (!(frame instanceof DelegationFrame.Request request)) {
+            return 0;
+        }
+
+        return (byte) ((request.streamPartials() ? FLAG_STREAM_PARTIALS : 0)
+            | (request.delegation().keepOutputs() ? 0 : FLAG_SUMMARY_ONLY)
+            | (streamsOutput(request) ? FLAG_STREAM_OUTPUT : 0)
+            | (request.stolen() && version >= 6 ? FLAG_STOLEN : 0));
+    }
+
+    private boolean streamsOutput(DelegationFrame.Request request) {
+        return request.streamOutput() && version >= 4;
+    }
+
+    private static byte typeOf(DelegationFrame frame) {
+        return switch (frame) {
+            case DelegationFrame.Request _ -> TYPE_REQUEST;
+            case DelegationFrame.Partial _ -> TYPE_PARTIAL;
+            case DelegationFrame.Response _ -> TYPE_RESPONSE;
+            case DelegationFrame.Failure _ -> TYPE_FAILURE;
+            case DelegationFrame.Ping _ -> TYPE_PING;
+            case DelegationFrame.Pong _ -> TYPE_PONG;
+            case DelegationFrame.Output _ -> TYPE_OUTPUT;
+            case DelegationFrame.Credit _ -> TYPE_CREDIT;
+            case DelegationFrame.Steal _ -> TYPE_STEAL;
+            case DelegationFrame.Lent _ -> TYPE_LENT;
+        };
+    }
+
+    private int bodySize(DelegationFrame frame) {
+        return switch (frame) {
+            case DelegationFrame.Request request -> sizeOfString(request.delegation().runtimeName())
+                + sizeOfZigZag(request.delegation().repeatTimes())
+                + inputSize(request.delegation().input())
+                + (streamsOutput(request) ? sizeOfVarInt(request.outputWindow()) : 0);
+            case DelegationFrame.Partial partial -> sizeOfVarInt(partial.iteration())
+                + simpleResultSize(partial.result().statusCode(), partial.result().completedAt(), partial.result().output());
+            case DelegationFrame.Response response -> resultSize(response.summary().result())
+                + (version >= 3 ? statisticsSize(response.summary().statistics()) : 0);
+            case DelegationFrame.Failure failure -> sizeOfString(failure.reason());
+            case DelegationFrame.Output output -> sizeOfVarInt(output.run()) + sizeOfString(output.chunk());
+            case DelegationFrame.Credit credit -> sizeOfVarInt(credit.bytes());
+            case DelegationFrame.Steal steal -> sizeOfString(steal.hostname())
+                + sizeOfVarInt(steal.communicationPort())
+                + sizeOfVarInt(steal.slots());
+            case DelegationFrame.Lent lent -> sizeOfVarInt(lent.jobs());
+            case DelegationFrame.Ping _, DelegationFrame.Pong _ -> 0;
+        };
+    }
+
+    private static int inputSize(ExecutionRuntime.Input input) {
+        int size = sizeOfString(input.command()) + sizeOfVarInt(input.positionalArguments().length);
+        for (var argument: input.positionalArguments()) {
+            size += sizeOfString(argument);
+        }
+
+        size += sizeOfVarInt(input.options().size());
+        for (var option: input.options().entrySet()) {
+            size += sizeOfString(option.getKey()) + sizeOfString(option.getValue());
+        }
+
+        return size;
+    }
+
+    private static void writeInput(ByteBuffer target, ExecutionRuntime.Input input) {
+        writeString(target, input.command());
+        writeVarInt(target, input.positionalArguments().length);
+        for (var argument: input.positionalArguments()) {
+            writeString(target, argument);
+        }
+
+        writeVarInt(target, input.options().size());
+        for (var option: input.options().entrySet()) {
+            writeString(target, option.getKey());
+            writeString(target, option.getValue());
+        }
+    }
+
+    private static ExecutionRuntime.Input readInput(ByteBuffer source) throws ProtocolException {
+        String command = readString(source);
+
+        var arguments = new String[readCount(source)];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = readString(source);
+        }
+
+        int optionCount = readCount(source);
+        Map<String, String> options = new HashMap<>(optionCount * 2);
+        for (int i = 0; i < optionCount; i++) {
+            options.put(readString(source), readString(source));
+        }
+
+        return new ExecutionRuntime.Input(command, arguments, options);
+    }
+
+    private static int resultSize(ExecutionRuntime.ExecutionResult result) {
+        int size = 1 + simpleResultSize(result.statusCode(), result.completedAt(), result.output());
+
+        if (result instanceof ExecutionRuntime.UnionResult union) {
+            size += sizeOfVarInt(union.results().size());
+            for (var next: union.results()) {
+                size += simpleResultSize(next.statusCode(), next.completedAt(), next.output());
+            }
+        }
+
+        return size;
+    }
+
+    private static int simpleResultSize(int statusCode, ZonedDateTime completedAt, String output) {
+        return sizeOfZigZag(statusCode) + sizeOfVarLong(epochMillis(completedAt)) + sizeOfString(output);
+    }
+
+    private static void writeResult(ByteBuffer target, ExecutionRuntime.ExecutionResult result) {
+        target.put(result instanceof ExecutionRuntime.UnionResult ? RESULT_UNION : RESULT_SIMPLE);
+        writeSimpleResult(target, result.statusCode(), result.completedAt(), result.output());
+
+        if (result instanceof ExecutionRuntime.UnionResult union) {
+            writeVarInt(target, union.results().size());
+            for (var next: union.results()) {
+                writeSimpleResult(target, next.statusCode(), next.completedAt(), next.output());
+            }
+        }
+    }
+
+    private static void writeSimpleResult(ByteBuffer target, int statusCode, ZonedDateTime completedAt, String output) {
+        writeZigZag(target, statusCode);
+        writeVarLong(target, epochMillis(completedAt));
+        writeString(target, output);
+    }
+
+    private static ExecutionRuntime.ExecutionResult readResult(ByteBuffer source) throws ProtocolException {
+        byte kind = source.get();
+        ExecutionRuntime.Result summary = readSimpleResult(source);
+
+        return switch (kind) {
+            case RESULT_SIMPLE -> summary;
+            case RESULT_UNION -> {
+                int resultCount = readCount(source);
+                List<ExecutionRuntime.Result> results = new ArrayList<>(resultCount);
+                for (int i = 0; i < resultCount; i++) {
+                    results.add(readSimpleResult(source));
+                }
+
+                yield new ExecutionRuntime.UnionResult(summary.statusCode(), summary.output(), results, summary.completedAt());
+            }
+            default -> throw new ProtocolException("Unknown result kind " + kind);
+        };
+    }
+
+    private static ExecutionRuntime.Result readSimpleResult(ByteBuffer source) {
+        int statusCode = readZigZag(source);
+        long completedAt = readVarLong(source);
+
+        return new ExecutionRuntime.Result(statusCode, readString(source), Instant.ofEpochMilli(completedAt).atZone(ZoneOffset.UTC));
+    }
+
+    private static int statisticsSize(ResultAggregator.Summary statistics) {
+        if (statistics == null) {
+            return 1;
+        }
+
+        int size = 1 + sizeOfVarLong(statistics.runs()) + sizeOfVarLong(statistics.failed()) + sizeOfVarInt(statistics.statusCodes().size());
+        for (var statusCode: statistics.statusCodes().entrySet()) {
+            size += sizeOfZigZag(statusCode.getKey()) + sizeOfVarLong(statusCode.getValue());
+        }
+
+        var durations = statistics.durations();
+        return size
+            + sizeOfVarLong(statistics.completedAt() == null ? 0 : epochMillis(statistics.completedAt()))
+            + failureSize(statistics.firstFailure())
+            + failureSize(statistics.lastFailure())
+            + sizeOfVarLong(durations.samples())
+            + sizeOfVarLong(durations.p50Micros())
+            + sizeOfVarLong(durations.p99Micros())
+            + sizeOfVarLong(durations.maxMicros())
+            + sizeOfZigZagLong(durations.lastMicros())
+        ;
+    }
+
+    private static int failureSize(ResultAggregator.Failure failure) {
+        return failure == null
+            ? 1
+            : 1 + sizeOfVarInt(failure.run()) + simpleResultSize(failure.statusCode(), failure.completedAt(), failure.output())
+        ;
+    }
+
+    private static void writeStatistics(ByteBuffer target, ResultAggregator.Summary statistics) {
+        target.put((byte) (statistics == null ? 0 : 1));
+        if (statistics == null) {
+            return;
+        }
+
+        writeVarLong(target, statistics.runs());
+        writeVarLong(target, statistics.failed());
+        writeVarInt(target, statistics.statusCodes().size());
+        for (var statusCode: statistics.statusCodes().entrySet()) {
+            writeZigZag(target, statusCode.getKey());
+            writeVarLong(target, statusCode.getValue());
+        }
+        writeVarLong(target, statistics.completedAt() == null ? 0 : epochMillis(statistics.completedAt()));
+        writeFailure(target, statistics.firstFailure());
+        writeFailure(target, statistics.lastFailure());
+
+        var durations = statistics.durations();
+        writeVarLong(target, durations.samples());
+        writeVarLong(target, durations.p50Micros());
+        writeVarLong(target, durations.p99Micros());
+        writeVarLong(target, durations.maxMicros());
+        writeZigZagLong(target, durations.lastMicros());
+    }
+
+    private static void writeFailure(ByteBuffer target, ResultAggregator.Failure failure) {
+        target.put((byte) (failure == null ? 0 : 1));
+        if (failure != null) {
+            writeVarInt(target, failure.run());
+            writeSimpleResult(target, failure.statusCode(), failure.completedAt(), failure.output());
+        }
+    }
+
+    private static ResultAggregator.Summary readStatistics(ByteBuffer source) throws ProtocolException {
+        if (source.get() == 0) {
+            return null;
+        }
+
+        long runs = readVarLong(source);
+        long failed = readVarLong(source);
+        int codeCount = readCount(source);
+        Map<Integer, Long> statusCodes = new HashMap<>(codeCount * 2);
+        for (int i = 0; i < codeCount; i++) {
+            statusCodes.put(readZigZag(source), readVarLong(source));
+        }
+        long completedAt = readVarLong(source);
+        var firstFailure = readFailure(source);
+        var lastFailure = readFailure(source);
+        var durations = new LatencyHistogram.Snapshot(
+            readVarLong(source),
+            readVarLong(source),
+            readVarLong(source),
+            readVarLong(source),
+            readZigZagLong(source)
+        );
+
+        return new ResultAggregator.Summary(
+            runs,
+            failed,
+            statusCodes,
+            firstFailure,
+            lastFailure,
+            durations,
+            completedAt == 0 ? null : Instant.ofEpochMilli(completedAt).atZone(ZoneOffset.UTC)
+        );
+    }
+
+    private static int readCount(ByteBuffer source) throws ProtocolException {
+        int count = readVarInt(source);
+
+        // Every element takes at least one byte, anything bigger is a corrupted or hostile frame
+        if (count < 0 || count > source.remaining()) {
+            throw new ProtocolException("Invalid element count " + count);
+        }
+
+        return count;
+    }
+
+    private static ResultAggregator.Failure readFailure(ByteBuffer source) {
+        if (source.get() == 0) {
+            return null;
+        }
+
+        int run = readVarInt(source);
+        var result = readSimpleResult(source);
+
+        return new ResultAggregator.Failure(run, result.statusCode(), result.output(), result.completedAt());
+    }
+
+    private static long epochMillis(ZonedDateTime dateTime) {
+        return dateTime.toInstant().toEpochMilli();
+    }
+}
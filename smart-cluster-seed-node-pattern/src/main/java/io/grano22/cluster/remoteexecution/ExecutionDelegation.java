@@ -3,9 +3,16 @@ package io.grano22.cluster.remoteexecution;
 import lombok.NonNull;
 import io.grano22.cluster.runtime.ExecutionRuntime;
 
+/**
+ * Without keepOutputs the answer of a repeated job only carries the summary of its runs, not every output.
+ */
 public record ExecutionDelegation(
      @NonNull String runtimeName,
      @NonNull ExecutionRuntime.Input input,
-     int repeatTimes
+     int repeatTimes,
+     boolean keepOutputs
 ) {
+    public ExecutionDelegation(@NonNull String runtimeName, @NonNull ExecutionRuntime.Input input, int repeatTimes) {
+        this(runtimeName, input, repeatTimes, true);
+    }
 }
@@ -0,0 +1,99 @@
+package io.grano22.cluster.remoteexecution;
+
+import io.grano22.cluster.clustermanagement.LatencyHistogram;
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timings of the communication port kept apart, so a slow handshake, a long queue and a slow job can be told from each
+ * other: accept covers accept until the handshake is done, queue wait covers submit until a pool thread picks the job.
+ */
+public final class ExecutionMetrics {
+    public record Snapshot(
+        long acceptedConnections,
+        int openConnections,
+        long completedJobs,
+        long failedJobs,
+        long rejectedJobs,
+        long stolenJobs,
+        long lentJobs,
+        LatencyHistogram.Snapshot accept,
+        LatencyHistogram.Snapshot queueWait,
+        LatencyHistogram.Snapshot execution,
+        CompressionMetrics.Snapshot compression
+    ) {}
+
+    private final LongAdder acceptedConnections = new LongAdder();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final LongAdder completedJobs = new LongAdder();
+    private final LongAdder failedJobs = new LongAdder();
+    private final LongAdder rejectedJobs = new LongAdder();
+    private final LongAdder stolenJobs = new LongAdder();
+    private final LongAdder lentJobs = new LongAdder();
+    private final LatencyHistogram accept = new LatencyHistogram();
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram execution = new LatencyHistogram();
+    // Shared with the delegating side, frames of both directions are counted together
+    @Getter
+    private final CompressionMetrics compression = new CompressionMetrics();
+
+    public void connectionOpened() {
+        acceptedConnections.increment();
+        openConnections.incrementAndGet();
+    }
+
+    public void handshakeCompleted(long acceptedAtNanos) {
+        accept.record(microsSince(acceptedAtNanos));
+    }
+
+    public void connectionClosed() {
+        openConnections.decrementAndGet();
+    }
+
+    public void jobStarted(long queuedAtNanos) {
+        queueWait.record(microsSince(queuedAtNanos));
+    }
+
+    public void jobFinished(long startedAtNanos, boolean succeeded) {
+        execution.record(microsSince(startedAtNanos));
+        (succeeded ? completedJobs : failedJobs).increment();
+    }
+
+    public void jobRejected() {
+        rejectedJobs.increment();
+    }
+
+    /**
+     * Jobs peers agreed to lend to this node, they run here but are answered to the caller by the peer.
+     */
+    public void jobsStolen(int jobs) {
+        stolenJobs.add(jobs);
+    }
+
+    public void jobLent() {
+        lentJobs.increment();
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(
+            acceptedConnections.sum(),
+            openConnections.get(),
+            completedJobs.sum(),
+            failedJobs.sum(),
+            rejectedJobs.sum(),
+            stolenJobs.sum(),
+            lentJobs.sum(),
+            accept.snapshot(),
+            queueWait.snapshot(),
+            execution.snapshot(),
+            compression.snapshot()
+        );
+    }
+
+    private static long microsSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+    }
+}
@@ -0,0 +1,143 @@
+package io.grano22.cluster.remoteexecution;
+
+import io.grano22.cluster.runtime.ExecutionRuntime;
+import io.grano22.cluster.runtime.OutputLimit;
+import lombok.NonNull;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Streams the outputs of one job to the client as {@link DelegationFrame.Output} chunks. A chunk leaves only while the
+ * client has credit for it, so a run writing faster than the client consumes waits for credit instead of piling chunks
+ * up in memory. While it waits, the pool may lend another thread to other jobs, see {@link CreditWaits}. Output past the
+ * job limit is dropped.
+ */
+final class OutputChunker {
+    static final int CHUNK_LENGTH = 16 * 1024;
+
+    /**
+     * Told when a run has to wait for credit and when it may go on, the execution pool can lend another thread to other
+     * jobs meanwhile. Returns whether it did, only then the end of the wait is reported.
+     */
+    interface CreditWaits {
+        boolean waitStarted();
+
+        void waitFinished();
+    }
+
+    private final long requestId;
+    private final int windowBytes;
+    private final int chunkLength;
+    private final OutputLimit limit;
+    private final long stallTimeoutMillis;
+    private final Consumer<DelegationFrame> emitter;
+    private final CreditWaits creditWaits;
+    private final Semaphore window;
+    private volatile boolean cancelled;
+
+    OutputChunker(
+        long requestId,
+        int windowBytes,
+        @NonNull OutputLimit limit,
+        long stallTimeoutMillis,
+        @NonNull Consumer<DelegationFrame> emitter,
+        @NonNull CreditWaits creditWaits
+    ) {
+        if (windowBytes <= 0) {
+            throw new IllegalArgumentException("Output window must be positive");
+        }
+
+        this.requestId = requestId;
+        this.windowBytes = windowBytes;
+        // A character takes up to 3 bytes, a chunk must always fit into an empty window
+        this.chunkLength = Math.max(2, Math.min(CHUNK_LENGTH, windowBytes / 3));
+        this.limit = limit;
+        this.stallTimeoutMillis = stallTimeoutMillis;
+        this.emitter = emitter;
+        this.creditWaits = creditWaits;
+        this.window = new Semaphore(windowBytes);
+    }
+
+    void grant(int bytes) {
+        window.release(bytes);
+    }
+
+    /**
+     * Wakes up runs waiting for credit, they fail instead of waiting for a client that is gone.
+     */
+    void cancel() {
+        cancelled = true;
+        window.release(windowBytes);
+    }
+
+    @NonNull RunOutput forRun(int run) {
+        return new RunOutput(run);
+    }
+
+    /**
+     * Output of one run, the beginning of it is kept for the summary of failed runs.
+     */
+    final class RunOutput implements ExecutionRuntime.OutputSink {
+        private final int run;
+        private final StringBuilder head = new StringBuilder();
+
+        private RunOutput(int run) {
+            this.run = run;
+        }
+
+        @Override
+        public void write(@NonNull String chunk) {
+            if (head.length() < ResultAggregator.FAILURE_OUTPUT_LIMIT) {
+                head.append(chunk, 0, Math.min(chunk.length(), ResultAggregator.FAILURE_OUTPUT_LIMIT - head.length()));
+            }
+
+            String admitted = limit.admit(chunk);
+            int start = 0;
+            while (start < admitted.length()) {
+                int end = Math.min(admitted.length(), start + chunkLength);
+                if (end < admitted.length() && Character.isHighSurrogate(admitted.charAt(end - 1))) {
+                    end--;
+                }
+
+                send(new DelegationFrame.Output(requestId, run, admitted.substring(start, end)));
+                start = end;
+            }
+        }
+
+        @NonNull String head() {
+            return head.toString();
+        }
+    }
+
+    private void send(DelegationFrame.Output output) {
+        int size = Math.min(output.size(), windowBytes);
+        if (!window.tryAcquire(size)) {
+            awaitCredit(size);
+        }
+
+        if (cancelled) {
+            throw new IllegalStateException("Connection closed while streaming output");
+        }
+
+        emitter.accept(output);
+    }
+
+    private void awaitCredit(int size) {
+        boolean compensated = creditWaits.waitStarted();
+        try {
+            if (!window.tryAcquire(size, stallTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("Client consumed no output for " + stallTimeoutMillis + " ms");
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException("Interrupted while waiting for output credit", exception);
+        } finally {
+            if (compensated) {
+                creditWaits.waitFinished();
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package io.grano22.cluster.remoteexecution;
+
+import lombok.NonNull;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Consumer of streamed output chunks. The peer may send more output only once the stage returned for a chunk completes,
+ * so a consumer slower than the job holds the job back instead of buffering its output.
+ */
+@FunctionalInterface
+public interface OutputListener {
+    @NonNull CompletionStage<?> onOutput(@NonNull DelegationFrame.Output output);
+}
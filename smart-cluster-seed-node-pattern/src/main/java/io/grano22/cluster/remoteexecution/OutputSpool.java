@@ -0,0 +1,58 @@
+package io.grano22.cluster.remoteexecution;
+
+import io.grano22.cluster.runtime.ExecutionRuntime;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Results kept for the final answer of a job, on heap up to the memory limit. Later ones are only counted, the answer
+ * carries every kept result at once, so keeping more would cost the heap the limit is there to protect.
+ */
+final class OutputSpool {
+    // Rough heap cost of a result besides its output characters
+    private static final int RESULT_OVERHEAD_BYTES = 64;
+
+    private record Spooled(int run, ExecutionRuntime.Result result) {}
+
+    @Getter
+    private final long memoryLimitBytes;
+    private final List<Spooled> kept = new ArrayList<>();
+    private long memoryBytes;
+    @Getter
+    private long dropped;
+
+    OutputSpool(long memoryLimitBytes) {
+        if (memoryLimitBytes < 0) {
+            throw new IllegalArgumentException("Spool memory limit cannot be negative");
+        }
+
+        this.memoryLimitBytes = memoryLimitBytes;
+    }
+
+    void append(int run, ExecutionRuntime.Result result) {
+        long size = 2L * result.output().length() + RESULT_OVERHEAD_BYTES;
+        if (memoryBytes + size > memoryLimitBytes) {
+            dropped++;
+
+            return;
+        }
+
+        kept.add(new Spooled(run, result));
+        memoryBytes += size;
+    }
+
+    List<ExecutionRuntime.Result> readInRunOrder() {
+        return kept.stream()
+            .sorted(Comparator.comparingInt(Spooled::run))
+            .map(Spooled::result)
+            .toList()
+        ;
+    }
+
+    void clear() {
+        kept.clear();
+    }
+}
@@ -1,56 +1,115 @@
 package io.grano22.cluster.remoteexecution;
 
+import io.grano22.cluster.clustermanagement.NodeConfig;
 import lombok.NonNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Marker;
 import org.slf4j.MarkerFactory;
-import tools.jackson.databind.json.JsonMapper;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
+import java.net.InetSocketAddress;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
-public final class RemoteExecutionDelegator {
+/**
+ * Delegates executions to peers over pooled connections, nothing blocks the calling thread.
+ */
+public final class RemoteExecutionDelegator implements AutoCloseable {
     private final static Marker contextMarker = MarkerFactory.getMarker("RemoteExecutionDelegator");
     private final static Logger logger = LoggerFactory.getLogger(RemoteExecutionDelegator.class);
-    private final JsonMapper mapper = JsonMapper.shared();
+
+    private final NodeConfig.DelegationSettings settings;
+    private final DelegationConnectionPool connections;
+
+    public RemoteExecutionDelegator(
+        @NonNull NodeConfig.DelegationSettings settings,
+        @NonNull NodeConfig.CompressionSettings compression,
+        @NonNull CompressionMetrics compressionMetrics
+    ) {
+        this.settings = settings;
+        this.connections = new DelegationConnectionPool(settings, compression, compressionMetrics);
+    }
+
+    public RemoteExecutionDelegator() {
+        this(NodeConfig.DelegationSettings.defaults(), NodeConfig.CompressionSettings.defaults(), new CompressionMetrics());
+    }
 
     public @NonNull CompletableFuture<RemoteExecutionSummary> delegate(
         @NonNull String hostname,
         int port,
         final @NonNull ExecutionDelegation delegation
     ) {
-        return CompletableFuture.supplyAsync(() -> {
-            logger.atInfo().log("Starting delegation to {}:{}", hostname, port);
+        return delegate(hostname, port, delegation, null, null);
+    }
+
+    /**
+     * Passes every finished run of a repeated job to the partial listener as soon as the peer reports it and outputs
+     * to the output listener while they are written, peers not streaming outputs put them in partials and the response.
+     */
+    public @NonNull CompletableFuture<RemoteExecutionSummary> delegate(
+        @NonNull String hostname,
+        int port,
+        final @NonNull ExecutionDelegation delegation,
+        final Consumer<DelegationFrame.Partial> partialListener,
+        final OutputListener outputListener
+    ) {
+        logger.atInfo().log("Starting delegation to {}:{}", hostname, port);
 
-            try (
-                Socket socket = new Socket(hostname, port);
-                PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
-                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()))
-            ) {
-                String rawRequest = mapper.writeValueAsString(delegation);
-                writer.println(rawRequest);
+        return connections.acquire(new InetSocketAddress(hostname, port))
+            .thenCompose(connection -> connection.delegate(delegation, settings.requestTimeoutMillis(), partialListener, outputListener))
+            .whenComplete((_, failure) -> {
+                if (failure != null) {
+                    logger.atError()
+                        .addMarker(contextMarker)
+                        .setCause(failure)
+                        .log("Failed to delegate execution to {}:{}", hostname, port)
+                    ;
 
-                var summary = mapper.readValue(reader, RemoteExecutionSummary.class);
+                    return;
+                }
 
                 logger.atInfo()
                     .log("Result is summarized")
                 ;
+            })
+        ;
+    }
 
-                return summary;
-            } catch (Exception e) {
-                logger.atError()
-                    .addMarker(contextMarker)
-                    .setCause(e)
-                    .log("Failed to delegate execution to {}:{}", hostname, port)
-                ;
+    /**
+     * Hands a job taken from the local queue over to the thief that asked for it, see {@link WorkStealer}.
+     */
+    @NonNull CompletableFuture<RemoteExecutionSummary> lend(
+        @NonNull String hostname,
+        int port,
+        final @NonNull ExecutionDelegation delegation,
+        final Consumer<DelegationFrame.Partial> partialListener,
+        final OutputListener outputListener
+    ) {
+        logger.atDebug()
+            .addMarker(contextMarker)
+            .log("Lending {} job to {}:{}", delegation.runtimeName(), hostname, port)
+        ;
+
+        return connections.acquire(new InetSocketAddress(hostname, port))
+            .thenCompose(connection -> connection.delegate(delegation, settings.requestTimeoutMillis(), partialListener, outputListener, true))
+        ;
+    }
+
+    /**
+     * Asks a busy peer for queued jobs, the answer is bounded by the connect timeout as the peer only looks at its queue.
+     */
+    @NonNull CompletableFuture<Integer> steal(@NonNull String hostname, int port, @NonNull String thiefHostname, int thiefCommunicationPort, int slots) {
+        return connections.acquire(new InetSocketAddress(hostname, port))
+            .thenCompose(connection -> connection.steal(thiefHostname, thiefCommunicationPort, slots, settings.connectTimeoutMillis()))
+        ;
+    }
+
+    public int getOpenConnections() {
+        return connections.getOpenConnections();
+    }
 
-                throw new RuntimeException(e);
-            }
-        }).orTimeout(2, TimeUnit.MINUTES);
+    @Override
+    public void close() {
+        connections.close();
     }
 }
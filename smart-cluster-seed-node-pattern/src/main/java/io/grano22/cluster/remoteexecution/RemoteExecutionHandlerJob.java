@@ -1,32 +1,60 @@
 package io.grano22.cluster.remoteexecution;
 
+import io.grano22.cluster.clustermanagement.ClusterNode;
 import io.grano22.cluster.clustermanagement.ClusterNodeMatcher;
+import io.grano22.cluster.clustermanagement.NodeConfig;
 import io.grano22.cluster.clustermanagement.NodesMeshManager;
 import io.grano22.cluster.logging.GlobalLoggerContextHolder;
+import lombok.Getter;
 import lombok.NonNull;
 import io.grano22.cluster.runtime.ExecutionRuntime;
+import io.grano22.cluster.runtime.OutputLimit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Marker;
 import org.slf4j.MarkerFactory;
-import tools.jackson.databind.json.JsonMapper;
 
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
-public final class RemoteExecutionHandlerJob implements Runnable {
+public final class RemoteExecutionHandlerJob implements Runnable, AutoCloseable {
     private final static Marker contextMarker = MarkerFactory.getMarker("RemoteExecutionHandlerJob");
     private final static Logger logger = LoggerFactory.getLogger(RemoteExecutionHandlerJob.class);
 
-    private final JsonMapper mapper = JsonMapper.shared();
     private final ServerSocket serverSocket;
     private final Set<ExecutionRuntime> runtimes;
     private final ThreadPoolExecutor executor;
-    private final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+    private final ConfigurableThreadFactory threadFactory = new ConfigurableThreadFactory("delegated_job_", false);
+    // Answers are written from virtual threads, a slow client never holds an execution thread
+    private final ExecutorService answerWriters = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService idleSweeper = Executors.newSingleThreadScheduledExecutor();
+    private final Set<ClientConnection> connections = ConcurrentHashMap.newKeySet();
+    private final NodeConfig.ExecutionSettings settings;
+    private final NodeConfig.CompressionSettings compression;
+    @Getter
+    private final ExecutionMetrics metrics;
+    // Without a work stealer queued jobs never leave this node
+    private final WorkStealer workStealer;
+    // Newest last, jobs whose lanes all still wait in the pool queue
+    private final Deque<QueuedJob> stealableJobs = new ConcurrentLinkedDeque<>();
+    private final PoolCompensation creditWaits;
+    // Jobs whose lanes have not all finished, a stolen job leaves once its lanes are taken out of the queue
+    private final AtomicInteger pendingJobs = new AtomicInteger();
     private volatile boolean running = true;
 
     private final NodesMeshManager meshManager;
@@ -34,22 +62,62 @@ public final class RemoteExecutionHandlerJob implements Runnable {
     public RemoteExecutionHandlerJob(
         int communicationPort,
         final @NonNull Set<ExecutionRuntime> runtimes,
-        final @NonNull NodesMeshManager meshManager
+        final @NonNull NodesMeshManager meshManager,
+        final @NonNull NodeConfig.ExecutionSettings settings,
+        final @NonNull NodeConfig.CompressionSettings compression,
+        final @NonNull ExecutionMetrics metrics,
+        final WorkStealer workStealer
     ) throws IOException {
-        this.serverSocket = new ServerSocket(communicationPort);
+        this.serverSocket = new ServerSocket(communicationPort, settings.acceptBacklog());
         this.runtimes = runtimes;
-        var threadFactory = new ConfigurableThreadFactory("delegated_job_", false);
         this.meshManager = meshManager;
+        this.settings = settings;
+        this.compression = compression;
+        this.metrics = metrics;
+        this.workStealer = workStealer;
 
+        // Fixed size with a bounded queue, a burst beyond it is refused instead of piling up in memory
         this.executor = new ThreadPoolExecutor(
-            3,
-            4,
-            3,
-            TimeUnit.SECONDS,
-            queue,
+            settings.poolSize(),
+            settings.poolSize(),
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(settings.queueCapacity()),
             threadFactory,
-            new ThreadPoolExecutor.CallerRunsPolicy()
+            new ThreadPoolExecutor.AbortPolicy()
         );
+        this.creditWaits = new PoolCompensation(settings.maxJobsAwaitingCredit());
+
+        long sweepPeriodMillis = Math.max(1000, settings.idleTimeoutMillis() / 4);
+        idleSweeper.scheduleWithFixedDelay(this::closeIdleConnections, sweepPeriodMillis, sweepPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public RemoteExecutionHandlerJob(
+        int communicationPort,
+        final @NonNull Set<ExecutionRuntime> runtimes,
+        final @NonNull NodesMeshManager meshManager
+    ) throws IOException {
+        this(
+            communicationPort,
+            runtimes,
+            meshManager,
+            NodeConfig.ExecutionSettings.defaults(),
+            NodeConfig.CompressionSettings.defaults(),
+            new ExecutionMetrics(),
+            null
+        );
+    }
+
+    public int getOpenConnections() {
+        return connections.size();
+    }
+
+    public int getCommunicationPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getPendingJobs() {
+        return pendingJobs.get();
     }
 
     @Override
@@ -57,79 +125,693 @@ public final class RemoteExecutionHandlerJob implements Runnable {
         while (running && !Thread.currentThread().isInterrupted()) {
             try {
                 Socket clientSocket = serverSocket.accept();
-                executor.submit(() -> {
-                    try {
-                        BufferedReader reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-                        PrintWriter writer = new PrintWriter(new OutputStreamWriter(clientSocket.getOutputStream()));
-
-                        String line;
-                        long startTime = System.nanoTime();
-                        while ((line = reader.readLine()) != null) {
-                            if (line.trim().isEmpty()) continue;
-
-                            var delegatedTask = mapper.readValue(line, ExecutionDelegation.class);
-                            var runtime = runtimes.stream()
-                                .filter(r -> r.name().equals(delegatedTask.runtimeName()))
-                                .findFirst()
-                                .orElseThrow(() -> new IllegalArgumentException("Unknown runtime: " + delegatedTask.runtimeName()))
-                            ;
-
-                            ExecutionRuntime.ExecutionResult result = runtime.execute(delegatedTask.input());
-                            for (var i = 0; i < Math.max(0, delegatedTask.repeatTimes()); i++) {
-                                var localResult = runtime.execute(delegatedTask.input());
-                                result = result.withNextResult(localResult);
-                            }
+                long acceptedAtNanos = System.nanoTime();
+                metrics.connectionOpened();
+                // Connections are long-lived and mostly idle, they must not hold one of the few execution threads
+                var connection = new ClientConnection(clientSocket, acceptedAtNanos);
+                Thread.ofVirtual()
+                    .name("delegation-connection-" + clientSocket.getRemoteSocketAddress())
+                    .start(connection::serve)
+                ;
+            } catch (IOException e) {
+                if (!running) {
+                    return;
+                }
+
+                logger.atError()
+                    .addMarker(contextMarker)
+                    .setCause(e)
+                    .log("Failed to accept client connection")
+                ;
+            }
+        }
+    }
 
-                            var summary = RemoteExecutionSummary.builder()
-                                .result(result)
-                                .build()
-                            ;
-                            writer.println(mapper.writeValueAsString(summary));
-                            writer.flush();
+    @Override
+    public void close() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException exception) {
+            logger.atDebug()
+                .addMarker(contextMarker)
+                .setCause(exception)
+                .log("Failed to close delegation server socket")
+            ;
+        }
+        connections.forEach(ClientConnection::close);
+        idleSweeper.shutdownNow();
+        executor.shutdownNow();
+        answerWriters.shutdown();
+    }
 
-                            GlobalLoggerContextHolder.propagateTo(logger.atInfo())
-                                .addMarker(contextMarker)
-                                .addKeyValue("timeTook", System.nanoTime() - startTime)
-                                .log("Requested execution finished")
-                            ;
+    private void closeIdleConnections() {
+        long idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(settings.idleTimeoutMillis());
 
-                            break;
-                        }
+        for (var connection: connections) {
+            if (connection.getIdleNanos() >= idleTimeoutNanos) {
+                logger.atDebug()
+                    .addMarker(contextMarker)
+                    .log("Closing idle delegation connection {}", connection.socket.getRemoteSocketAddress())
+                ;
+                connection.close();
+            }
+        }
+    }
 
-                        clientSocket.close();
-                    } catch (IOException exception) {
-                        logger.atError()
-                            .addMarker(contextMarker)
-                            .setCause(exception)
-                            .log("Failed to read client request")
-                        ;
-                    } catch (Exception exception) {
-                        logger.atError()
-                            .addMarker(contextMarker)
-                            .setCause(exception)
-                            .log("Failed to handle job: " + exception.getMessage())
-                        ;
-                    }
-                });
-                meshManager.updateUtilization(executor.getActiveCount());
-            } catch (IOException e) {
+    /**
+     * Runs of a repeated job are shared by up to the configured parallelism of pool tasks, each takes the next pending
+     * run until none is left. Every finished run is passed to the partial results consumer right away and folded into
+     * the aggregator, outputs are only kept for the response when the delegation asks for them. With an output chunker
+     * outputs are streamed as they are written and neither partial results nor the response carry them. Until its first
+     * lane starts the job may be lent to an idle peer, unless it was stolen from another node itself.
+     */
+    private CompletableFuture<DelegationFrame> handleRequest(
+        DelegationFrame.Request request,
+        Consumer<DelegationFrame.Partial> partialResults,
+        OutputChunker outputChunker
+    ) {
+        var delegation = request.delegation();
+        var runtime = runtimes.stream()
+            .filter(r -> r.name().equals(delegation.runtimeName()))
+            .findFirst()
+        ;
+        if (runtime.isEmpty()) {
+            return CompletableFuture.completedFuture(new DelegationFrame.Failure(
+                request.requestId(),
+                "Failed to handle job: Unknown runtime: " + delegation.runtimeName()
+            ));
+        }
+
+        long startTime = System.nanoTime();
+        int runs = 1 + Math.max(0, delegation.repeatTimes());
+        var aggregator = delegation.keepOutputs() && outputChunker == null
+            ? ResultAggregator.keepingOutputs(ResultAggregator.DEFAULT_SPOOL_MEMORY_BYTES, settings.maxOutputBytes())
+            : new ResultAggregator()
+        ;
+        var job = new QueuedJob(request, aggregator, partialResults, outputChunker);
+        // Partial results travel separately from kept outputs, they get a limit of their own
+        var partialOutputLimit = new OutputLimit(settings.maxOutputBytes());
+        Consumer<DelegationFrame.Partial> limitedPartialResults = partial -> partialResults.accept(new DelegationFrame.Partial(
+            partial.requestId(),
+            partial.iteration(),
+            new ExecutionRuntime.Result(partial.result().statusCode(), partialOutputLimit.admit(partial.result().output()), partial.result().completedAt())
+        ));
+        var nextRun = new AtomicInteger();
+        int lanes = Math.min(runs, settings.repeatParallelism());
+        List<CompletableFuture<Void>> laneFutures = new ArrayList<>(lanes);
+
+        for (var lane = 0; lane < lanes; lane++) {
+            try {
+                laneFutures.add(runLane(job, runtime.get(), delegation.input(), runs, nextRun, limitedPartialResults));
+            } catch (RejectedExecutionException exception) {
+                meshManager.getTelemetrySampler().jobRejected();
+                if (lane > 0) {
+                    // Lanes already accepted take over the runs of the refused ones
+                    break;
+                }
+
+                metrics.jobRejected();
+                aggregator.close();
+
+                return CompletableFuture.completedFuture(new DelegationFrame.Failure(
+                    request.requestId(),
+                    "Node is saturated, " + executor.getQueue().size() + " jobs are already waiting"
+                ));
+            }
+        }
+
+        pendingJobs.incrementAndGet();
+        CompletableFuture.allOf(laneFutures.toArray(CompletableFuture[]::new))
+            .whenComplete((_, exception) -> {
+                // Counted once per job, however many lanes shared its runs
+                if (job.state.get() == JobState.STARTED) {
+                    metrics.jobFinished(job.startedAtNanos, exception == null);
+                }
+            })
+            .<DelegationFrame>thenApply(_ -> new DelegationFrame.Response(request.requestId(), summarize(aggregator, startTime)))
+            .exceptionally(exception -> {
+                if (job.state.get() == JobState.STOLEN) {
+                    // Lanes of a stolen job are cancelled, the thief answers it
+                    return null;
+                }
+
+                Throwable cause = exception instanceof CompletionException && exception.getCause() != null ? exception.getCause() : exception;
                 logger.atError()
                     .addMarker(contextMarker)
-                    .setCause(e)
-                    .log("Failed to accept client connection")
+                    .setCause(cause)
+                    .log("Failed to handle job: " + cause.getMessage())
                 ;
+
+                return new DelegationFrame.Failure(request.requestId(), "Failed to handle job: " + cause.getMessage());
+            })
+            .whenComplete((_, _) -> {
+                aggregator.close();
+                pendingJobs.decrementAndGet();
+            })
+            .thenAccept(answer -> {
+                if (answer != null) {
+                    job.answer.complete(answer);
+                }
+            })
+        ;
+
+        if (workStealer != null && workStealer.isEnabled() && !request.stolen()) {
+            stealableJobs.addLast(job);
+            // A lane may have started before the job was listed, it could not unlist it then
+            if (job.state.get() != JobState.QUEUED) {
+                stealableJobs.remove(job);
+            }
+        }
+
+        return job.answer;
+    }
+
+    private CompletableFuture<Void> runLane(
+        QueuedJob job,
+        ExecutionRuntime runtime,
+        ExecutionRuntime.Input input,
+        int runs,
+        AtomicInteger nextRun,
+        Consumer<DelegationFrame.Partial> partialResults
+    ) {
+        var telemetrySampler = meshManager.getTelemetrySampler();
+        long requestId = job.request.requestId();
+        var aggregator = job.aggregator;
+        var outputChunker = job.outputChunker;
+        var done = new CompletableFuture<Void>();
+        telemetrySampler.jobQueued();
+
+        Runnable lane = () -> {
+            if (!job.start()) {
+                // Stolen while a pool thread was already taking this lane off the queue
+                telemetrySampler.jobRejected();
+                done.cancel(false);
+
+                return;
+            }
+
+            meshManager.updateUtilization(telemetrySampler.jobStarted());
+
+            try {
+                int run;
+                while ((run = nextRun.getAndIncrement()) < runs) {
+                    long runStartedAtNanos = System.nanoTime();
+                    if (outputChunker == null) {
+                        var result = runtime.execute(input);
+                        aggregator.add(run, result, System.nanoTime() - runStartedAtNanos);
+                        partialResults.accept(new DelegationFrame.Partial(requestId, run, result));
+
+                        continue;
+                    }
+
+                    var output = outputChunker.forRun(run);
+                    var result = runtime.execute(input, output);
+                    aggregator.add(run, new ExecutionRuntime.Result(result.statusCode(), output.head(), result.completedAt()), System.nanoTime() - runStartedAtNanos);
+                    partialResults.accept(new DelegationFrame.Partial(requestId, run, result));
+                }
+                done.complete(null);
+            } catch (Throwable exception) {
+                // Other lanes stop after their current run, the job fails anyway
+                nextRun.set(runs);
+                done.completeExceptionally(exception);
+            } finally {
+                meshManager.updateUtilization(telemetrySampler.jobFinished());
+            }
+        };
+        executor.execute(lane);
+        job.lanes.add(new Lane(lane, done));
+
+        return done;
+    }
+
+    /**
+     * Answers a steal request with the number of jobs lent to the thief. The newest jobs go first, they would wait
+     * here the longest, and only whole jobs which fit into the free threads of the thief.
+     */
+    private int lend(DelegationFrame.Steal steal) {
+        var thief = workStealer == null ? Optional.<ClusterNode>empty() : workStealer.thiefOf(steal);
+        if (thief.isEmpty()) {
+            return 0;
+        }
+
+        int slots = steal.slots();
+        int lent = 0;
+        var jobs = stealableJobs.descendingIterator();
+        while (slots > 0 && jobs.hasNext()) {
+            var job = jobs.next();
+            int lanes = job.lanes.size();
+            if (lanes > slots || !thief.get().supportedRuntimes().contains(job.request.delegation().runtimeName())) {
+                continue;
+            }
+
+            if (!job.steal()) {
+                continue;
+            }
+            jobs.remove();
+
+            slots -= lanes;
+            lent++;
+            lendTo(thief.get(), job);
+        }
+
+        return lent;
+    }
+
+    /**
+     * The answer of the thief completes the job. When the thief fails before anything reached the client the job runs
+     * here after all, otherwise the client already saw a part of it and gets the failure.
+     */
+    private void lendTo(ClusterNode thief, QueuedJob job) {
+        var request = job.request;
+        var forwarded = new AtomicBoolean();
+        Consumer<DelegationFrame.Partial> partialListener = request.streamPartials()
+            ? partial -> {
+                forwarded.set(true);
+                job.partialResults.accept(new DelegationFrame.Partial(request.requestId(), partial.iteration(), partial.result()));
+            }
+            : null
+        ;
+        OutputListener outputListener = job.outputChunker == null ? null : new ForwardedOutput(job.outputChunker, forwarded);
+
+        CompletableFuture<RemoteExecutionSummary> lent;
+        try {
+            lent = workStealer.lend(thief, request.delegation(), partialListener, outputListener);
+        } catch (RuntimeException exception) {
+            // The job is out of the queue already, it must not be lost with the steal request
+            lent = CompletableFuture.failedFuture(exception);
+        }
+
+        lent
+            .<DelegationFrame>thenApply(summary -> new DelegationFrame.Response(request.requestId(), summary))
+            .exceptionallyCompose(exception -> {
+                Throwable cause = exception instanceof CompletionException && exception.getCause() != null ? exception.getCause() : exception;
+                if (forwarded.get()) {
+                    return CompletableFuture.completedFuture(new DelegationFrame.Failure(
+                        request.requestId(),
+                        "Failed to handle job on " + thief.hostname() + ":" + thief.communicationPort() + ": " + cause.getMessage()
+                    ));
+                }
+
+                logger.atWarn()
+                    .addMarker(contextMarker)
+                    .log("Job lent to {}:{} failed, running it here: {}", thief.hostname(), thief.communicationPort(), cause.getMessage())
+                ;
+                var local = new DelegationFrame.Request(request.requestId(), request.delegation(), request.streamPartials(), request.outputWindow(), true);
+
+                return handleRequest(local, job.partialResults, job.outputChunker);
+            })
+            .thenAccept(job.answer::complete)
+        ;
+    }
+
+    private RemoteExecutionSummary summarize(ResultAggregator aggregator, long startTime) {
+        var summary = RemoteExecutionSummary.builder()
+            .result(aggregator.toResult())
+            .statistics(aggregator.summary())
+            .build()
+        ;
+
+        GlobalLoggerContextHolder.propagateTo(logger.atInfo())
+            .addMarker(contextMarker)
+            .addKeyValue("timeTook", System.nanoTime() - startTime)
+            .log("Requested execution finished")
+        ;
+
+        return summary;
+    }
+
+    private record Lane(Runnable task, CompletableFuture<Void> done) {}
+
+    private enum JobState {
+        QUEUED,
+        STARTED,
+        STOLEN
+    }
+
+    /**
+     * Job accepted by this node. It either starts here, once a pool thread picks one of its lanes, or it is stolen while
+     * all of its lanes still wait in the queue, they are then taken out and the answer of the thief completes it.
+     */
+    private final class QueuedJob {
+        private final DelegationFrame.Request request;
+        private final ResultAggregator aggregator;
+        private final Consumer<DelegationFrame.Partial> partialResults;
+        private final OutputChunker outputChunker;
+        private final List<Lane> lanes = new ArrayList<>();
+        private final AtomicReference<JobState> state = new AtomicReference<>(JobState.QUEUED);
+        private final CompletableFuture<DelegationFrame> answer = new CompletableFuture<>();
+        private final long queuedAtNanos = System.nanoTime();
+        // Set by the first lane to start, the queue wait of the job ends there
+        private volatile long startedAtNanos;
+
+        private QueuedJob(
+            DelegationFrame.Request request,
+            ResultAggregator aggregator,
+            Consumer<DelegationFrame.Partial> partialResults,
+            OutputChunker outputChunker
+        ) {
+            this.request = request;
+            this.aggregator = aggregator;
+            this.partialResults = partialResults;
+            this.outputChunker = outputChunker;
+        }
+
+        private boolean start() {
+            if (state.compareAndSet(JobState.QUEUED, JobState.STARTED)) {
+                startedAtNanos = System.nanoTime();
+                metrics.jobStarted(queuedAtNanos);
+                stealableJobs.remove(this);
+
+                return true;
+            }
+
+            return state.get() == JobState.STARTED;
+        }
+
+        private boolean steal() {
+            if (!state.compareAndSet(JobState.QUEUED, JobState.STOLEN)) {
+                return false;
+            }
+
+            var telemetrySampler = meshManager.getTelemetrySampler();
+            for (var lane: lanes) {
+                // A lane a pool thread took already undoes its queued count itself
+                if (executor.remove(lane.task())) {
+                    telemetrySampler.jobRejected();
+                }
+                lane.done().cancel(false);
+            }
+            aggregator.close();
+
+            return true;
+        }
+    }
+
+    /**
+     * Grows the pool by one thread for every pool thread blocked on output credit, so queued jobs keep running behind a
+     * slow client. Only a bounded number of waits is compensated, beyond it a waiting job holds its thread as before.
+     */
+    private final class PoolCompensation implements OutputChunker.CreditWaits {
+        private final Semaphore permits;
+
+        private PoolCompensation(int maxCompensatedWaits) {
+            this.permits = new Semaphore(maxCompensatedWaits);
+        }
+
+        @Override
+        public boolean waitStarted() {
+            // Forwarded output of lent jobs waits on writer threads, the pool lost no thread to it
+            if (!threadFactory.isOwnThread() || !permits.tryAcquire()) {
+                return false;
+            }
+
+            resize(1);
+
+            return true;
+        }
+
+        @Override
+        public void waitFinished() {
+            resize(-1);
+            permits.release();
+        }
+
+        // Core size must never exceed the maximum, so the bound moving away from the other goes first
+        private synchronized void resize(int delta) {
+            int size = executor.getCorePoolSize() + delta;
+            if (delta > 0) {
+                executor.setMaximumPoolSize(size);
+                executor.setCorePoolSize(size);
+            } else {
+                executor.setCorePoolSize(size);
+                executor.setMaximumPoolSize(size);
             }
         }
     }
 
-    private boolean checkIfConnectionIsAlive(PrintWriter writer) {
-        return !writer.checkError();
+    /**
+     * Passes output chunks of a lent job on to the client in the order the thief sent them, a chunk waits for credit of
+     * the client before the thief gets credit for it.
+     */
+    private final class ForwardedOutput implements OutputListener {
+        private final OutputChunker outputChunker;
+        private final AtomicBoolean forwarded;
+        private CompletableFuture<Void> written = CompletableFuture.completedFuture(null);
+
+        private ForwardedOutput(OutputChunker outputChunker, AtomicBoolean forwarded) {
+            this.outputChunker = outputChunker;
+            this.forwarded = forwarded;
+        }
+
+        @Override
+        public synchronized @NonNull CompletionStage<?> onOutput(@NonNull DelegationFrame.Output output) {
+            forwarded.set(true);
+            written = written.thenRunAsync(() -> outputChunker.forRun(output.run()).write(output.chunk()), answerWriters);
+
+            return written;
+        }
+    }
+
+    /**
+     * One client connection, frames are read by a single virtual thread and requests are executed concurrently up to
+     * the per connection limit. Answers are written as soon as they are ready, so they may leave out of order.
+     */
+    private final class ClientConnection {
+        private final Socket socket;
+        private final Semaphore inFlight = new Semaphore(settings.maxInFlightPerConnection());
+        // Requests over the in-flight limit, guarded by itself, they start as permits are released
+        private final Queue<DelegationFrame.Request> waitingRequests = new ArrayDeque<>();
+        private final Object writeLock = new Object();
+        private final Map<Long, OutputChunker> outputChunkers = new ConcurrentHashMap<>();
+        private DelegationFrameCodec readCodec;
+        private DelegationFrameCodec writeCodec;
+        private DataOutputStream output;
+        private byte protocolVersion;
+        private volatile long lastActivityNanos = System.nanoTime();
+        private volatile boolean closed;
+
+        private final long acceptedAtNanos;
+
+        private ClientConnection(Socket socket, long acceptedAtNanos) {
+            this.socket = socket;
+            this.acceptedAtNanos = acceptedAtNanos;
+        }
+
+        private void serve() {
+            connections.add(this);
+
+            try (
+                socket;
+                DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))
+            ) {
+                this.output = output;
+                socket.setTcpNoDelay(true);
+                protocolVersion = DelegationFrameCodec.handshakeAsServer(input, output);
+                if (protocolVersion == 0) {
+                    logger.atWarn()
+                        .addMarker(contextMarker)
+                        .log("Rejected {}, no common delegation protocol version", socket.getRemoteSocketAddress())
+                    ;
+
+                    return;
+                }
+                boolean compressed = DelegationFrameCodec.negotiateCompressionAsServer(input, output, protocolVersion, compression.enabled());
+                readCodec = new DelegationFrameCodec(protocolVersion, null, metrics.getCompression());
+                writeCodec = new DelegationFrameCodec(protocolVersion, compressed ? compression : null, metrics.getCompression());
+                metrics.handshakeCompleted(acceptedAtNanos);
+
+                while (running && !closed) {
+                    var frame = readCodec.read(input);
+                    lastActivityNanos = System.nanoTime();
+
+                    switch (frame) {
+                        case DelegationFrame.Ping ping -> answer(new DelegationFrame.Pong(ping.requestId()));
+                        case DelegationFrame.Request request -> admit(request);
+                        case DelegationFrame.Steal steal -> answer(new DelegationFrame.Lent(steal.requestId(), lend(steal)));
+                        case DelegationFrame.Credit credit -> {
+                            var outputChunker = outputChunkers.get(credit.requestId());
+                            if (outputChunker != null) {
+                                outputChunker.grant(credit.bytes());
+                            }
+                        }
+                        default -> answer(new DelegationFrame.Failure(
+                            frame.requestId(),
+                            "Unsupported frame " + frame.getClass().getSimpleName()
+                        ));
+                    }
+                }
+            } catch (EOFException | SocketException _) {
+                // Closed by the client between frames or by the idle sweep
+            } catch (IOException exception) {
+                logger.atError()
+                    .addMarker(contextMarker)
+                    .setCause(exception)
+                    .log("Failed to read client request")
+                ;
+            } catch (Exception exception) {
+                logger.atError()
+                    .addMarker(contextMarker)
+                    .setCause(exception)
+                    .log("Failed to handle connection: " + exception.getMessage())
+                ;
+            } finally {
+                closed = true;
+                dropWaitingRequests();
+                outputChunkers.values().forEach(OutputChunker::cancel);
+                if (readCodec != null) {
+                    readCodec.close();
+                }
+                if (writeCodec != null) {
+                    synchronized (writeLock) {
+                        writeCodec.close();
+                    }
+                }
+                connections.remove(this);
+                metrics.connectionClosed();
+            }
+        }
+
+        /**
+         * Never blocks the reader, which has to keep taking credit, pings and steal requests while jobs run. Requests
+         * over the limit wait for a permit in a backlog of the same size, beyond it they are refused.
+         */
+        private void admit(DelegationFrame.Request request) {
+            boolean admitted;
+            synchronized (waitingRequests) {
+                admitted = inFlight.tryAcquire();
+                if (!admitted && waitingRequests.size() < settings.maxInFlightPerConnection()) {
+                    waitingRequests.add(request);
+
+                    return;
+                }
+            }
+
+            if (!admitted) {
+                metrics.jobRejected();
+                answer(new DelegationFrame.Failure(
+                    request.requestId(),
+                    "Connection already has " + settings.maxInFlightPerConnection() * 2 + " requests in flight or waiting"
+                ));
+
+                return;
+            }
+
+            start(request);
+        }
+
+        /**
+         * Hands the permit of a finished request over to the oldest waiting one, a closed connection only gives it back
+         * since nobody would read the answer.
+         */
+        private void release() {
+            DelegationFrame.Request next;
+            synchronized (waitingRequests) {
+                next = closed ? null : waitingRequests.poll();
+                if (next == null) {
+                    inFlight.release();
+
+                    return;
+                }
+            }
+
+            start(next);
+        }
+
+        private void dropWaitingRequests() {
+            int dropped;
+            synchronized (waitingRequests) {
+                dropped = waitingRequests.size();
+                waitingRequests.clear();
+            }
+
+            for (int i = 0; i < dropped; i++) {
+                metrics.jobRejected();
+            }
+        }
+
+        private void start(DelegationFrame.Request request) {
+            var answers = new OrderedAnswers();
+            Consumer<DelegationFrame.Partial> partialResults = request.streamPartials() && protocolVersion >= 2
+                ? answers::emit
+                : _ -> {}
+            ;
+            var outputChunker = request.streamOutput() && protocolVersion >= 4
+                ? new OutputChunker(request.requestId(), request.outputWindow(), new OutputLimit(settings.maxOutputBytes()), settings.idleTimeoutMillis(), answers::emit, creditWaits)
+                : null
+            ;
+            if (outputChunker != null) {
+                outputChunkers.put(request.requestId(), outputChunker);
+            }
+            handleRequest(request, partialResults, outputChunker)
+                .thenCompose(answers::emit)
+                .whenComplete((_, _) -> {
+                    outputChunkers.remove(request.requestId());
+                    release();
+                })
+            ;
+        }
+
+        private void answer(DelegationFrame frame) {
+            lastActivityNanos = System.nanoTime();
+            if (closed) {
+                return;
+            }
+
+            try {
+                synchronized (writeLock) {
+                    writeCodec.write(output, frame);
+                    output.flush();
+                }
+            } catch (IOException exception) {
+                logger.atWarn()
+                    .addMarker(contextMarker)
+                    .setCause(exception)
+                    .log("Failed to answer request {} of {}", frame.requestId(), socket.getRemoteSocketAddress())
+                ;
+                close();
+            }
+        }
+
+        /**
+         * Answers of one request leave in the order they were emitted, so partial results always precede the response.
+         */
+        private final class OrderedAnswers {
+            private CompletableFuture<Void> written = CompletableFuture.completedFuture(null);
+
+            private synchronized CompletableFuture<Void> emit(DelegationFrame frame) {
+                written = written.thenRunAsync(() -> answer(frame), answerWriters);
+
+                return written;
+            }
+        }
+
+        private long getIdleNanos() {
+            boolean busy = inFlight.availablePermits() < settings.maxInFlightPerConnection();
+
+            return busy ? 0 : System.nanoTime() - lastActivityNanos;
+        }
+
+        private void close() {
+            closed = true;
+            try {
+                socket.close();
+            } catch (IOException exception) {
+                logger.atDebug()
+                    .addMarker(contextMarker)
+                    .setCause(exception)
+                    .log("Failed to close delegation connection")
+                ;
+            }
+        }
     }
 
     private static final class ConfigurableThreadFactory implements ThreadFactory {
         private final String prefix;
         private final boolean daemon;
         private final AtomicInteger counter = new AtomicInteger(1);
+        private final ThreadLocal<Boolean> ownThread = ThreadLocal.withInitial(() -> false);
 
         public ConfigurableThreadFactory(String prefix, boolean daemon) {
             this.prefix = prefix;
@@ -138,11 +820,18 @@ public final class RemoteExecutionHandlerJob implements Runnable {
 
         @Override
         public Thread newThread(@NonNull Runnable job) {
-            Thread t = new Thread(job, prefix + "-" + counter.getAndIncrement());
+            Thread t = new Thread(() -> {
+                ownThread.set(true);
+                job.run();
+            }, prefix + "-" + counter.getAndIncrement());
             t.setDaemon(daemon);
             t.setPriority(Thread.NORM_PRIORITY);
 
             return t;
         }
+
+        boolean isOwnThread() {
+            return ownThread.get();
+        }
     }
 }
@@ -4,8 +4,15 @@ import lombok.Builder;
 import lombok.NonNull;
 import io.grano22.cluster.runtime.ExecutionRuntime;
 
+/**
+ * Statistics are only present for jobs summarized by a {@link ResultAggregator}.
+ */
 @Builder
 public record RemoteExecutionSummary(
-     @NonNull ExecutionRuntime.ExecutionResult result
+     @NonNull ExecutionRuntime.ExecutionResult result,
+     ResultAggregator.Summary statistics
 ) {
+    public RemoteExecutionSummary(@NonNull ExecutionRuntime.ExecutionResult result) {
+        this(result, null);
+    }
 }
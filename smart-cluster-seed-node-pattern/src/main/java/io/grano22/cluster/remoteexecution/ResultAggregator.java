@@ -0,0 +1,196 @@
+package io.grano22.cluster.remoteexecution;
+
+import io.grano22.cluster.clustermanagement.LatencyHistogram;
+import io.grano22.cluster.runtime.ExecutionRuntime;
+import io.grano22.cluster.runtime.OutputLimit;
+import lombok.NonNull;
+
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Folds results of a repeated job into a summary of fixed size as they arrive: runs per status code, the first and the
+ * last failure and run durations. Outputs are dropped unless the aggregator keeps them, then they are cut off at the
+ * output limit and kept up to the spool memory limit, results past it only count in the summary. Results may be added
+ * from many threads.
+ */
+public final class ResultAggregator implements AutoCloseable {
+    public static final int FAILURE_OUTPUT_LIMIT = 1024;
+    public static final long DEFAULT_SPOOL_MEMORY_BYTES = 8 * 1024 * 1024;
+
+    public record Failure(int run, int statusCode, @NonNull String output, @NonNull ZonedDateTime completedAt) {}
+
+    public record Summary(
+        long runs,
+        long failed,
+        @NonNull Map<Integer, Long> statusCodes,
+        Failure firstFailure,
+        Failure lastFailure,
+        @NonNull LatencyHistogram.Snapshot durations,
+        ZonedDateTime completedAt
+    ) {
+        public Summary {
+            statusCodes = Map.copyOf(statusCodes);
+        }
+
+        /**
+         * Runs that could not be executed at all, e.g. a partition refused by every member.
+         */
+        public static Summary failed(long runs, int statusCode, @NonNull String reason) {
+            var now = ZonedDateTime.now();
+            var failure = new Failure(0, statusCode, truncate(reason), now);
+
+            return new Summary(runs, runs, Map.of(statusCode, runs), failure, failure, new LatencyHistogram.Snapshot(0, 0, 0, 0, -1), now);
+        }
+
+        public int statusCode() {
+            return lastFailure == null ? 0 : lastFailure.statusCode();
+        }
+
+        public long succeeded() {
+            return runs - failed;
+        }
+
+        /**
+         * Counts are exact, durations of two summaries are only approximated: p50 weighted by samples, p99 and max the
+         * higher of both.
+         */
+        public Summary merge(@NonNull Summary other) {
+            var mergedCodes = new HashMap<>(statusCodes);
+            other.statusCodes.forEach((code, count) -> mergedCodes.merge(code, count, Long::sum));
+
+            long samples = durations.samples() + other.durations.samples();
+            var mergedDurations = new LatencyHistogram.Snapshot(
+                samples,
+                samples == 0 ? 0 : (durations.p50Micros() * durations.samples() + other.durations.p50Micros() * other.durations.samples()) / samples,
+                Math.max(durations.p99Micros(), other.durations.p99Micros()),
+                Math.max(durations.maxMicros(), other.durations.maxMicros()),
+                later(completedAt, other.completedAt) == completedAt ? durations.lastMicros() : other.durations.lastMicros()
+            );
+
+            return new Summary(
+                runs + other.runs,
+                failed + other.failed,
+                mergedCodes,
+                firstFailure == null || other.firstFailure != null && other.firstFailure.completedAt().isBefore(firstFailure.completedAt()) ? other.firstFailure : firstFailure,
+                lastFailure == null || other.lastFailure != null && other.lastFailure.completedAt().isAfter(lastFailure.completedAt()) ? other.lastFailure : lastFailure,
+                mergedDurations,
+                later(completedAt, other.completedAt)
+            );
+        }
+
+        public @NonNull String describe() {
+            var description = new StringBuilder()
+                .append(runs).append(" runs, ")
+                .append(succeeded()).append(" succeeded, ")
+                .append(failed).append(" failed, p50 ")
+                .append(TimeUnit.MICROSECONDS.toMillis(durations.p50Micros())).append(" ms, p99 ")
+                .append(TimeUnit.MICROSECONDS.toMillis(durations.p99Micros())).append(" ms")
+            ;
+            if (lastFailure != null) {
+                description.append(", last failure (status ").append(lastFailure.statusCode()).append("): ").append(lastFailure.output());
+            }
+
+            return description.toString();
+        }
+
+        private static ZonedDateTime later(ZonedDateTime first, ZonedDateTime second) {
+            if (first == null || second == null) {
+                return first == null ? second : first;
+            }
+
+            return second.isAfter(first) ? second : first;
+        }
+    }
+
+    private final LatencyHistogram durations = new LatencyHistogram();
+    private final Map<Integer, Long> statusCodes = new HashMap<>();
+    private final OutputSpool spool;
+    private final OutputLimit outputLimit;
+    private long runs;
+    private long failed;
+    private Failure firstFailure;
+    private Failure lastFailure;
+    private ZonedDateTime completedAt;
+
+    private ResultAggregator(OutputSpool spool, OutputLimit outputLimit) {
+        this.spool = spool;
+        this.outputLimit = outputLimit;
+    }
+
+    public ResultAggregator() {
+        this(null, null);
+    }
+
+    public static ResultAggregator keepingOutputs(long spoolMemoryBytes, long maxOutputBytes) {
+        return new ResultAggregator(new OutputSpool(spoolMemoryBytes), new OutputLimit(maxOutputBytes));
+    }
+
+    public synchronized void add(int run, @NonNull ExecutionRuntime.Result result, long durationNanos) {
+        runs++;
+        statusCodes.merge(result.statusCode(), 1L, Long::sum);
+        durations.record(TimeUnit.NANOSECONDS.toMicros(durationNanos));
+        if (completedAt == null || result.completedAt().isAfter(completedAt)) {
+            completedAt = result.completedAt();
+        }
+
+        if (result.statusCode() != 0) {
+            failed++;
+            lastFailure = new Failure(run, result.statusCode(), truncate(result.output()), result.completedAt());
+            if (firstFailure == null) {
+                firstFailure = lastFailure;
+            }
+        }
+
+        if (spool != null) {
+            spool.append(run, new ExecutionRuntime.Result(result.statusCode(), outputLimit.admit(result.output()), result.completedAt()));
+        }
+    }
+
+    public synchronized @NonNull Summary summary() {
+        return new Summary(runs, failed, statusCodes, firstFailure, lastFailure, durations.snapshot(), completedAt);
+    }
+
+    /**
+     * Kept results in run order when outputs are kept, otherwise a single result describing the summary. Runs past the
+     * spool memory limit are left out and mentioned at the end of the output, the status code still covers them.
+     */
+    public synchronized @NonNull ExecutionRuntime.ExecutionResult toResult() {
+        var summary = summary();
+        if (spool == null) {
+            return new ExecutionRuntime.Result(summary.statusCode(), summary.describe(), completedAt == null ? ZonedDateTime.now() : completedAt);
+        }
+
+        var results = spool.readInRunOrder();
+        if (spool.getDropped() == 0) {
+            return results.size() == 1 ? results.getFirst() : ExecutionRuntime.UnionResult.of(results);
+        }
+
+        var kept = ExecutionRuntime.UnionResult.of(results);
+        String note = "[" + spool.getDropped() + " more outputs not kept, past " + spool.getMemoryLimitBytes() + " bytes]";
+
+        return new ExecutionRuntime.UnionResult(
+            summary.statusCode(),
+            kept.output().isEmpty() ? note : kept.output() + "\n" + note,
+            kept.results(),
+            kept.completedAt()
+        );
+    }
+
+    public boolean isKeepingOutputs() {
+        return spool != null;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (spool != null) {
+            spool.clear();
+        }
+    }
+
+    private static String truncate(String output) {
+        return output.length() <= FAILURE_OUTPUT_LIMIT ? output : output.substring(0, FAILURE_OUTPUT_LIMIT) + "…";
+    }
+}
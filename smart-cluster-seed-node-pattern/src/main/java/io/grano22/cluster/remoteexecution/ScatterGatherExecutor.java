@@ -0,0 +1,154 @@
+package io.grano22.cluster.remoteexecution;
+
+import io.grano22.cluster.clustermanagement.NodePlacement;
+import io.grano22.cluster.runtime.ExecutionRuntime;
+import lombok.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Splits the runs of one job into partitions, spreads them over the members of a cluster in proportion to their
+ * capacity and gathers the partial results in partition order, outputs only when the delegation keeps them. A failed
+ * partition is retried on other members, one failing everywhere ends up as failed runs instead of failing the job.
+ */
+public final class ScatterGatherExecutor {
+    private final static Marker contextMarker = MarkerFactory.getMarker("ScatterGatherExecutor");
+    private final static Logger logger = LoggerFactory.getLogger(ScatterGatherExecutor.class);
+
+    public record GatheredSummary(
+        @NonNull ExecutionRuntime.ExecutionResult result,
+        ResultAggregator.Summary statistics,
+        @NonNull Map<String, Integer> runsPerNode
+    ) {}
+
+    private final NodePlacement placement;
+    private final ClusterExecutionService clusterExecutionService;
+
+    public ScatterGatherExecutor(@NonNull NodePlacement placement, @NonNull ClusterExecutionService clusterExecutionService) {
+        this.placement = placement;
+        this.clusterExecutionService = clusterExecutionService;
+    }
+
+    /**
+     * Runs the delegation 1 + repeatTimes times overall, with no requested partitions the job gets one per job slot of
+     * the eligible members.
+     */
+    public @NonNull CompletableFuture<GatheredSummary> execute(
+        @NonNull String clusterName,
+        @NonNull ExecutionDelegation delegation,
+        int requestedPartitions
+    ) {
+        long runs = 1L + Math.max(0, delegation.repeatTimes());
+        int partitions = (int) Math.min(
+            runs,
+            requestedPartitions > 0 ? requestedPartitions : placement.capacityOf(clusterName, delegation.runtimeName())
+        );
+        var nodes = placement.spread(clusterName, delegation.runtimeName(), partitions);
+        if (nodes.isEmpty()) {
+            return CompletableFuture.failedFuture(new IllegalStateException(
+                "No member of cluster " + clusterName + " supports runtime " + delegation.runtimeName()
+            ));
+        }
+
+        logger.atInfo()
+            .addMarker(contextMarker)
+            .log("Scattering {} runs of {} job over {} partitions of cluster {}", runs, delegation.runtimeName(), partitions, clusterName)
+        ;
+
+        var gathered = new Gathering(partitions, delegation.keepOutputs());
+        List<CompletableFuture<Void>> gathering = new ArrayList<>(partitions);
+        for (var partition = 0; partition < partitions; partition++) {
+            // Sizes differ by one at most, the first partitions take the remainder
+            long partitionRuns = runs / partitions + (partition < runs % partitions ? 1 : 0);
+            var partialDelegation = new ExecutionDelegation(
+                delegation.runtimeName(),
+                delegation.input(),
+                (int) partitionRuns - 1,
+                delegation.keepOutputs()
+            );
+            int index = partition;
+
+            gathering.add(
+                clusterExecutionService.executeOn(nodes.get(partition), clusterName, partialDelegation)
+                    .handle((placed, failure) -> {
+                        if (failure != null) {
+                            Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+                            String reason = "Partition " + index + " failed: " + cause.getMessage();
+                            gathered.fold(index, new RemoteExecutionSummary(
+                                new ExecutionRuntime.Result(1, reason),
+                                ResultAggregator.Summary.failed(partitionRuns, 1, reason)
+                            ), null, 0);
+                        } else {
+                            gathered.fold(index, placed.summary(), placed.node().hostname() + ":" + placed.node().communicationPort(), (int) partitionRuns);
+                        }
+
+                        return null;
+                    })
+            );
+        }
+
+        return CompletableFuture.allOf(gathering.toArray(CompletableFuture[]::new))
+            .thenApply(_ -> gathered.toSummary())
+        ;
+    }
+
+    /**
+     * Statistics of every partition are merged as soon as it answers, only kept outputs wait for their partition order.
+     */
+    private static final class Gathering {
+        private final boolean keepOutputs;
+        private final List<ExecutionRuntime.Result>[] outputs;
+        private final Map<String, Integer> runsPerNode = new TreeMap<>();
+        private ResultAggregator.Summary statistics;
+
+        @SuppressWarnings("unchecked")
+        private Gathering(int partitions, boolean keepOutputs) {
+            this.keepOutputs = keepOutputs;
+            this.outputs = keepOutputs ? new List[partitions] : null;
+        }
+
+        private synchronized void fold(int partition, RemoteExecutionSummary partialResult, String node, int runs) {
+            // Peers older than protocol version 3 answer without statistics
+            if (partialResult.statistics() != null) {
+                statistics = statistics == null ? partialResult.statistics() : statistics.merge(partialResult.statistics());
+            }
+
+            if (node != null) {
+                runsPerNode.merge(node, runs, Integer::sum);
+            }
+
+            if (keepOutputs) {
+                outputs[partition] = switch (partialResult.result()) {
+                    case ExecutionRuntime.Result result -> List.of(result);
+                    case ExecutionRuntime.UnionResult union -> union.results();
+                };
+            }
+        }
+
+        private synchronized GatheredSummary toSummary() {
+            List<ExecutionRuntime.Result> results = new ArrayList<>();
+            if (keepOutputs) {
+                for (var partitionResults: outputs) {
+                    results.addAll(partitionResults);
+                }
+            }
+
+            ExecutionRuntime.ExecutionResult result = keepOutputs || statistics == null
+                ? ExecutionRuntime.UnionResult.of(results)
+                : new ExecutionRuntime.Result(statistics.statusCode(), statistics.describe(), ZonedDateTime.now())
+            ;
+
+            return new GatheredSummary(result, statistics, new TreeMap<>(runsPerNode));
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package io.grano22.cluster.remoteexecution;
+
+import io.grano22.cluster.clustermanagement.ClusterNode;
+import io.grano22.cluster.clustermanagement.NodeConfig;
+import io.grano22.cluster.clustermanagement.NodesMeshManager;
+import lombok.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Takes queued jobs of busy peers while this node has idle job threads, no node coordinates the others. Every interval
+ * the local telemetry is checked and a node with free threads asks the peer reporting the longest queue for jobs. The
+ * peer takes them out of its queue and delegates them here marked as stolen, so the results go back through the peer
+ * and its caller never learns where the job ran.
+ */
+public final class WorkStealer implements AutoCloseable {
+    private final static Marker contextMarker = MarkerFactory.getMarker("WorkStealer");
+    private final static Logger logger = LoggerFactory.getLogger(WorkStealer.class);
+
+    private final NodesMeshManager meshManager;
+    private final RemoteExecutionDelegator delegator;
+    private final NodeConfig.StealingSettings settings;
+    private final int poolSize;
+    private final long telemetryMaxAgeMillis;
+    private final ExecutionMetrics metrics;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    // One steal at a time, jobs lent for the previous one have to show up in the telemetry before asking again
+    private final AtomicBoolean stealing = new AtomicBoolean();
+
+    public WorkStealer(
+        @NonNull NodesMeshManager meshManager,
+        @NonNull RemoteExecutionDelegator delegator,
+        @NonNull NodeConfig.ExecutionSettings executionSettings,
+        @NonNull NodeConfig.StealingSettings settings,
+        @NonNull ExecutionMetrics metrics,
+        long telemetryMaxAgeMillis
+    ) {
+        if (telemetryMaxAgeMillis <= 0) {
+            throw new IllegalArgumentException("Telemetry max age must be positive");
+        }
+
+        this.meshManager = meshManager;
+        this.delegator = delegator;
+        this.settings = settings;
+        this.poolSize = executionSettings.poolSize();
+        this.telemetryMaxAgeMillis = telemetryMaxAgeMillis;
+        this.metrics = metrics;
+    }
+
+    public boolean isEnabled() {
+        return settings.enabled();
+    }
+
+    public void start() {
+        if (!settings.enabled()) {
+            return;
+        }
+
+        scheduler.scheduleWithFixedDelay(this::stealIfIdle, settings.intervalMillis(), settings.intervalMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Threads of the execution pool neither running a job nor claimed by a queued one.
+     */
+    public int getIdleSlots() {
+        var telemetrySampler = meshManager.getTelemetrySampler();
+
+        return Math.max(0, poolSize - telemetrySampler.getActiveJobs() - telemetrySampler.getQueuedJobs());
+    }
+
+    /**
+     * Member the jobs of a steal request may be lent to, only healthy peers sharing a cluster with this node qualify.
+     */
+    Optional<ClusterNode> thiefOf(@NonNull DelegationFrame.Steal steal) {
+        if (!settings.enabled()) {
+            return Optional.empty();
+        }
+
+        var self = meshManager.getSelf();
+
+        return meshManager.findNode(steal.hostname(), steal.communicationPort())
+            .filter(node -> !node.equals(self) && meshManager.isNodeHealthy(node))
+            .filter(node -> !Collections.disjoint(meshManager.getClusterNamesOf(self), meshManager.getClusterNamesOf(node)))
+        ;
+    }
+
+    /**
+     * Runs a job taken from the local queue on the thief, its partial results and outputs are passed on as they come.
+     */
+    @NonNull CompletableFuture<RemoteExecutionSummary> lend(
+        @NonNull ClusterNode thief,
+        @NonNull ExecutionDelegation delegation,
+        Consumer<DelegationFrame.Partial> partialListener,
+        OutputListener outputListener
+    ) {
+        metrics.jobLent();
+
+        return delegator.lend(thief.hostname(), thief.communicationPort(), delegation, partialListener, outputListener);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void stealIfIdle() {
+        int slots = Math.min(settings.maxSlotsPerSteal(), getIdleSlots());
+        if (slots == 0 || !stealing.compareAndSet(false, true)) {
+            return;
+        }
+
+        var victim = busiestPeer();
+        if (victim.isEmpty()) {
+            stealing.set(false);
+
+            return;
+        }
+
+        var self = meshManager.getSelf();
+        var peer = victim.get();
+        try {
+            delegator.steal(peer.hostname(), peer.communicationPort(), self.hostname(), self.communicationPort(), slots)
+                .whenComplete((jobs, failure) -> {
+                    stealing.set(false);
+                    if (failure != null) {
+                        logger.atDebug()
+                            .addMarker(contextMarker)
+                            .setCause(failure)
+                            .log("Failed to steal jobs from {}:{}", peer.hostname(), peer.communicationPort())
+                        ;
+
+                        return;
+                    }
+
+                    if (jobs > 0) {
+                        metrics.jobsStolen(jobs);
+                        logger.atDebug()
+                            .addMarker(contextMarker)
+                            .log("Stole {} jobs from {}:{}", jobs, peer.hostname(), peer.communicationPort())
+                        ;
+                    }
+                })
+            ;
+        } catch (RuntimeException exception) {
+            // A failing round must not cancel the schedule
+            stealing.set(false);
+            logger.atWarn()
+                .addMarker(contextMarker)
+                .setCause(exception)
+                .log("Failed to steal jobs from {}:{}", peer.hostname(), peer.communicationPort())
+            ;
+        }
+    }
+
+    private Optional<ClusterNode> busiestPeer() {
+        var self = meshManager.getSelf();
+        var clusterNames = meshManager.getClusterNamesOf(self);
+        long nowMillis = System.currentTimeMillis();
+        ClusterNode busiest = null;
+        int longestQueue = settings.minQueuedJobs() - 1;
+
+        for (var node: meshManager.getAllKnownNodes()) {
+            if (node.equals(self) || !meshManager.isNodeHealthy(node) || Collections.disjoint(clusterNames, meshManager.getClusterNamesOf(node))) {
+                continue;
+            }
+
+            var telemetry = meshManager.getTelemetry(node).filter(sample -> sample.isFresherThan(telemetryMaxAgeMillis, nowMillis));
+            if (telemetry.isPresent() && telemetry.get().queuedJobs() > longestQueue) {
+                busiest = node;
+                longestQueue = telemetry.get().queuedJobs();
+            }
+        }
+
+        return Optional.ofNullable(busiest);
+    }
+}
@@ -2,19 +2,48 @@ package io.grano22.cluster.runtime;
 
 import lombok.NonNull;
 
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 
 public final class CommandLineExecutionRuntime implements ExecutionRuntime {
+    /**
+     * Handler writing its output to the sink as it is produced and returning the status code of the run.
+     */
+    @FunctionalInterface
+    public interface StreamingHandler {
+        int handle(@NonNull Input input, @NonNull OutputSink sink) throws Exception;
+    }
+
     private final @NonNull String handlerName;
-    private final @NonNull Function<Input, Result> handler;
+    private final Function<Input, Result> handler;
+    private final StreamingHandler streamingHandler;
 
     public CommandLineExecutionRuntime(@NonNull String handlerName, @NonNull Function<ExecutionRuntime.Input, ExecutionRuntime.Result> handler) {
+        this(handlerName, handler, null);
+    }
+
+    private CommandLineExecutionRuntime(@NonNull String handlerName, Function<Input, Result> handler, StreamingHandler streamingHandler) {
         this.handlerName = handlerName;
         this.handler = handler;
+        this.streamingHandler = streamingHandler;
+    }
+
+    /**
+     * Runtime whose output never has to be held as a whole, each piece goes to the sink of the run while it executes.
+     */
+    public static CommandLineExecutionRuntime streaming(@NonNull String handlerName, @NonNull StreamingHandler handler) {
+        return new CommandLineExecutionRuntime(handlerName, null, handler);
     }
 
     @Override
     public @NonNull Result execute(@NonNull final Input input) {
+        if (handler == null) {
+            var output = new StringBuilder();
+            var result = execute(input, output::append);
+
+            return new Result(result.statusCode(), output.toString(), result.completedAt());
+        }
+
         try {
             return handler.apply(input);
         } catch (Exception e) {
@@ -22,6 +51,40 @@ public final class CommandLineExecutionRuntime implements ExecutionRuntime {
         }
     }
 
+    @Override
+    public @NonNull Result execute(@NonNull final Input input, @NonNull OutputSink sink) {
+        if (streamingHandler == null) {
+            return ExecutionRuntime.super.execute(input, sink);
+        }
+
+        // A failing sink aborts the run, only failures of the handler itself become its output
+        var sinkFailure = new AtomicReference<RuntimeException>();
+        OutputSink guardedSink = chunk -> {
+            try {
+                sink.write(chunk);
+            } catch (RuntimeException exception) {
+                sinkFailure.set(exception);
+                throw exception;
+            }
+        };
+
+        int statusCode;
+        try {
+            statusCode = streamingHandler.handle(input, guardedSink);
+        } catch (Exception e) {
+            if (sinkFailure.get() != null) {
+                throw sinkFailure.get();
+            }
+
+            if (e.getMessage() != null) {
+                sink.write(e.getMessage());
+            }
+            statusCode = 1;
+        }
+
+        return new Result(statusCode, "");
+    }
+
     @Override
     public @NonNull String name() {
         return "CLI[" + handlerName + "]";
@@ -5,10 +5,9 @@ import com.fasterxml.jackson.annotation.JsonTypeName;
 import lombok.NonNull;
 
 import java.time.ZonedDateTime;
-import java.util.AbstractMap;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 public interface ExecutionRuntime {
     record Input(@NonNull String command, @NonNull String[] positionalArguments, @NonNull Map<String, String> options) {
@@ -34,6 +33,11 @@ public interface ExecutionRuntime {
         int statusCode();
         @NonNull String output();
         @NonNull ZonedDateTime completedAt();
+
+        /**
+         * Copies the outputs collected so far, meant for combining a few results. Many runs are combined at once with
+         * {@link UnionResult#of(List)} or aggregated as they arrive.
+         */
         UnionResult withNextResult(@NonNull Result nextResult);
     }
 
@@ -44,44 +48,79 @@ public interface ExecutionRuntime {
         }
 
         public UnionResult withNextResult(@NonNull Result localResult) {
-            return new UnionResult(Set.of(this, localResult));
+            return UnionResult.of(List.of(this, localResult));
         }
     }
 
+    /**
+     * Results of all runs in run order, the status code is the one of the last failed run or 0 when all succeeded.
+     */
     @JsonTypeName("union")
-    record UnionResult(int statusCode, @NonNull String output, @NonNull Set<Result> results, @NonNull ZonedDateTime completedAt) implements ExecutionResult {
+    record UnionResult(int statusCode, @NonNull String output, @NonNull List<Result> results, @NonNull ZonedDateTime completedAt) implements ExecutionResult {
+        public UnionResult {
+            results = List.copyOf(results);
+        }
+
         public UnionResult() {
-            this(0, "", Collections.emptySet(), ZonedDateTime.now());
+            this(0, "", List.of(), ZonedDateTime.now());
         }
 
-        public UnionResult(int statusCode, @NonNull String output, @NonNull Set<Result> results) {
+        public UnionResult(int statusCode, @NonNull String output, @NonNull List<Result> results) {
             this(statusCode, output, results, ZonedDateTime.now());
         }
 
-        public UnionResult(@NonNull Set<Result> results) {
-            var summaryResult = results
-                .stream()
-                .map(r -> new AbstractMap.SimpleImmutableEntry<>(r.statusCode, r.output))
-                .reduce((previous, next) -> new AbstractMap.SimpleImmutableEntry<>(
-                    previous.getKey() != 0 ? (next.getKey() == 0 ? previous.getKey() : next.getKey()) : next.getKey(),
-                    previous.getValue() + "\n" + next.getValue()
-                ))
-                .orElse(new AbstractMap.SimpleImmutableEntry<>(0, ""))
-            ;
-
-            this(summaryResult.getKey(), summaryResult.getValue(), results, ZonedDateTime.now());
+        public static UnionResult of(@NonNull List<Result> results) {
+            int statusCode = 0;
+            var output = new StringBuilder();
+            for (var result: results) {
+                if (result.statusCode() != 0) {
+                    statusCode = result.statusCode();
+                }
+                if (!output.isEmpty()) {
+                    output.append('\n');
+                }
+                output.append(result.output());
+            }
+
+            return new UnionResult(statusCode, output.toString(), results, ZonedDateTime.now());
         }
 
         public UnionResult withNextResult(@NonNull Result nextResult) {
+            var combined = new ArrayList<Result>(results.size() + 1);
+            combined.addAll(results);
+            combined.add(nextResult);
+
             return new UnionResult(
-                 nextResult.statusCode(),
-                 this.output + "\n" + nextResult.output,
-                 this.results,
-                 ZonedDateTime.now()
+                nextResult.statusCode() != 0 ? nextResult.statusCode() : statusCode,
+                output.isEmpty() ? nextResult.output() : output + "\n" + nextResult.output(),
+                combined,
+                ZonedDateTime.now()
             );
         }
     }
 
+    /**
+     * Receives the output of a run piece by piece. Writing may block, that is how a slow consumer slows the run down.
+     */
+    @FunctionalInterface
+    interface OutputSink {
+        void write(@NonNull String chunk);
+    }
+
     @NonNull Result execute(@NonNull final Input input);
     @NonNull String name();
+
+    /**
+     * Writes the output to the sink instead of returning it, the returned result carries no output. Runtimes which
+     * produce their output gradually should override it, by default the output of {@link #execute(Input)} is written
+     * once the run finished, so the run still holds all of it in memory.
+     */
+    default @NonNull Result execute(@NonNull final Input input, @NonNull OutputSink sink) {
+        var result = execute(input);
+        if (!result.output().isEmpty()) {
+            sink.write(result.output());
+        }
+
+        return new Result(result.statusCode(), "", result.completedAt());
+    }
 }
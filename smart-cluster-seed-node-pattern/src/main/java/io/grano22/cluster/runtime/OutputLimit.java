@@ -0,0 +1,69 @@
+package io.grano22.cluster.runtime;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import static io.grano22.cluster.optimizations.ByteBufferWire.sizeOfUtf8;
+
+/**
+ * Output one job may still produce, counted in UTF-8 bytes and shared by all of its runs. Whatever does not fit is
+ * dropped and replaced by a single note, so the size of an output never decides how much memory forwarding it takes.
+ */
+public final class OutputLimit {
+    @Getter
+    private final long maxBytes;
+    private long usedBytes;
+    private boolean truncated;
+
+    public OutputLimit(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Output limit must be positive");
+        }
+
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * The part of the chunk that still fits, followed by a note the first time output is cut, empty afterwards.
+     */
+    public synchronized @NonNull String admit(@NonNull String chunk) {
+        if (truncated) {
+            return "";
+        }
+
+        int size = sizeOfUtf8(chunk);
+        if (usedBytes + size <= maxBytes) {
+            usedBytes += size;
+
+            return chunk;
+        }
+
+        int fitting = fittingLength(chunk, maxBytes - usedBytes);
+        usedBytes = maxBytes;
+        truncated = true;
+
+        return chunk.substring(0, fitting) + "\n[output truncated at " + maxBytes + " bytes]";
+    }
+
+    public synchronized boolean isTruncated() {
+        return truncated;
+    }
+
+    private static int fittingLength(String chunk, long availableBytes) {
+        int length = 0;
+        while (length < chunk.length()) {
+            char next = chunk.charAt(length);
+            // Surrogate pairs are kept together, a lone half would not survive encoding
+            int chars = Character.isHighSurrogate(next) && length + 1 < chunk.length() ? 2 : 1;
+            int size = sizeOfUtf8(chunk.substring(length, length + chars));
+            if (size > availableBytes) {
+                break;
+            }
+
+            availableBytes -= size;
+            length += chars;
+        }
+
+        return length;
+    }
+}
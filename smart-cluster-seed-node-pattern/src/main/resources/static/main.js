@@ -157,6 +157,12 @@ window.$emit = (eventName, event, data) => {
 };
 
 const clusterDetailsEntries = [];
+/** Cluster members keyed by cluster name and node address, rows of the table are rendered from it */
+const clusterMembers = new Map();
+
+const memberKeyOf = (clusterName, node) => `${clusterName}|${node.hostname}:${node.communicationPort}:${node.heartbeatPort}`;
+
+const describeTasks = (utilization) => utilization ? `${utilization.jobsInProgress}/${utilization.jobTotalCapacity}` : ``;
 
 class CommandExecutionDialogController {
     /** @type {HTMLDialogElement} **/
@@ -167,16 +173,54 @@ class CommandExecutionDialogController {
 
     #executionStatusCode;
     #executionResult;
+    #clusterLabel;
+    #partitionsLabel;
+
+    /** When set, the node is chosen by the server among members of the picked cluster **/
+    #clusterRuntimes = null;
+
+    #partialRuns = 0;
+
+    /** Run of the last streamed output chunk, null until output arrives **/
+    #outputRun = null;
+    #repeated = false;
 
     constructor(webservice) {
         this.#dialog = document.getElementById('commandExecutionDialog');
         this.#dialogForm = this.#dialog.querySelector('form');
         this.#executionStatusCode = this.#dialog.querySelector('#execution__statusCode');
         this.#executionResult = this.#dialog.querySelector('#execution__output');
+        this.#clusterLabel = this.#dialog.querySelector('#execution__clusterLabel');
+        this.#partitionsLabel = this.#dialog.querySelector('#execution__partitionsLabel');
+        this.#dialogForm.elements.namedItem('clusterName')
+            .addEventListener('change', (evt) => this.#fillRuntimes(this.#clusterRuntimes.get(evt.currentTarget.value) || []))
+        ;
 
         this.#dialogForm.addEventListener('submit', (evt) => {
             evt.preventDefault();
+            this.#partialRuns = 0;
+            this.#outputRun = null;
+            this.#executionResult.textContent = '';
             const formData = new FormData(evt.currentTarget);
+            this.#repeated = Number(formData.get('howManyTimesToRepeat')) > 0;
+
+            if (this.#clusterRuntimes) {
+                webservice.executeInCluster(
+                    formData.get('clusterName'),
+                    formData.get('runtimeName'),
+                    {
+                        command: formData.get('command'),
+                        positionalArguments: [],
+                        options: {}
+                    },
+                    {
+                        repeatTimes: formData.get('howManyTimesToRepeat'),
+                        partitions: formData.get('partitions')
+                    }
+                );
+
+                return;
+            }
 
             webservice.executeCommand(
                 formData.get('targetHostname'),
@@ -197,29 +241,108 @@ class CommandExecutionDialogController {
         ;
     }
 
-    updateOutput(statusCode, output) {
+    updateOutput(statusCode, output, placedOn) {
         if (!this.#dialog.open) {
             return;
         }
 
+        if (this.#clusterRuntimes && placedOn?.runsPerNode) {
+            this.#dialogForm.elements.namedItem('targetHostname').value = Object.entries(placedOn.runsPerNode)
+                .map(([node, runs]) => `${node} (${runs})`)
+                .join(', ') || 'Not placed'
+            ;
+            this.#dialogForm.elements.namedItem('targetPort').value = '';
+        } else if (this.#clusterRuntimes) {
+            this.#dialogForm.elements.namedItem('targetHostname').value = placedOn?.hostname || 'Not placed';
+            this.#dialogForm.elements.namedItem('targetPort').value = placedOn?.communicationPort || '';
+        }
         this.#executionStatusCode.textContent = statusCode;
-        this.#executionResult.textContent = output;
+        // Outputs of streamed runs are already shown, the final answer only brings their summary
+        if (this.#partialRuns > 0 || this.#outputRun !== null) {
+            if (output) {
+                this.#executionResult.textContent += `\n${output}`;
+            }
+        } else {
+            this.#executionResult.textContent = output;
+        }
+    }
+
+    /**
+     * Runs of a repeated job arrive in completion order, the summary of all runs is appended once every run finished.
+     */
+    appendPartial(iteration, runs, result) {
+        if (!this.#dialog.open) {
+            return;
+        }
+
+        this.#partialRuns++;
+        this.#executionStatusCode.textContent = `${this.#partialRuns}/${runs} runs finished`;
+        // With streamed output the partial result only reports the status of the run
+        this.#executionResult.textContent += result.output
+            ? `[run ${iteration}, status ${result.statusCode}] ${result.output}\n`
+            : `[run ${iteration}, status ${result.statusCode}]\n`
+        ;
+    }
+
+    /**
+     * Output arrives in chunks while it is written, chunks of parallel runs interleave and are marked with their run.
+     */
+    appendOutput(run, chunk) {
+        if (!this.#dialog.open) {
+            return;
+        }
+
+        // Appended as text nodes, rewriting the whole text per chunk would get slower with every chunk
+        if (this.#repeated && run !== this.#outputRun) {
+            this.#executionResult.append(`[run ${run}] `);
+        }
+        this.#outputRun = run;
+        this.#executionResult.append(chunk);
     }
 
     showFor(node) {
+        this.#clusterRuntimes = null;
+        this.#clusterLabel.hidden = true;
+        this.#partitionsLabel.hidden = true;
         this.#dialogForm.elements.namedItem('targetHostname').value = node.hostname;
         this.#dialogForm.elements.namedItem('targetPort').value = node.communicationPort;
+        this.#fillRuntimes(node.supportedRuntimes);
+
+        this.#dialog.showModal();
+    }
+
+    /**
+     * @param {Map<string, Set<string>>} clusterRuntimes runtimes supported by any member, keyed by cluster name
+     */
+    showForCluster(clusterRuntimes) {
+        this.#clusterRuntimes = clusterRuntimes;
+        this.#clusterLabel.hidden = false;
+        this.#partitionsLabel.hidden = false;
+        this.#dialogForm.elements.namedItem('targetHostname').value = 'To be determined';
+        this.#dialogForm.elements.namedItem('targetPort').value = 'To be determined';
+
+        const clusterSelect = this.#dialogForm.elements.namedItem('clusterName');
+        clusterSelect.replaceChildren();
+        for (const clusterName of clusterRuntimes.keys()) {
+            const option = document.createElement('option');
+            option.value = clusterName;
+            option.textContent = clusterName;
+            clusterSelect.appendChild(option);
+        }
+        this.#fillRuntimes(clusterRuntimes.get(clusterSelect.value) || []);
+
+        this.#dialog.showModal();
+    }
 
+    #fillRuntimes(runtimes) {
         const runtimeSelect = this.#dialogForm.elements.namedItem('runtimeName');
         runtimeSelect.replaceChildren();
-        for (const runtime of node.supportedRuntimes) {
+        for (const runtime of runtimes) {
             const option = document.createElement('option');
             option.value = runtime;
             option.textContent = runtime;
             runtimeSelect.appendChild(option);
         }
-
-        this.#dialog.showModal();
     }
 
     close() {
@@ -240,12 +363,11 @@ const connectToTheWebSync = (messageHandler, address) => {
         websocket.addEventListener("open", (socketEvent) => {
             console.log("Synchronization is enabled", socketEvent);
 
+            // Full details once, afterward the node pushes membership events
             websocket.send(JSON.stringify({
                 type: "query_cluster_details",
                 requestedAt: new Date().toISOString()
             }));
-
-            scheduleNextUpdate();
         });
 
         websocket.addEventListener("message", (socketEvent) => messageHandler(socketEvent, websocket, address));
@@ -261,20 +383,6 @@ const connectToTheWebSync = (messageHandler, address) => {
         return websocket;
     }
 
-    const scheduleNextUpdate = () => {
-        setTimeout(() => {
-            if (websocketHandle.readyState === WebSocket.OPEN) {
-                console.log("Sending request for cluster status...");
-                websocketHandle.send(JSON.stringify({
-                    type: "query_cluster_details",
-                    requestedAt: new Date().toISOString()
-                }));
-
-                scheduleNextUpdate();
-            }
-        }, 5000);
-    }
-
     websocketHandle = connect();
 
     const queryClusters = () => {
@@ -296,12 +404,25 @@ const connectToTheWebSync = (messageHandler, address) => {
         }));
     }
 
+    const executeInCluster = (clusterName, runtimeName, input, additionalOptions) => {
+        websocketHandle.send(JSON.stringify({
+            type: "execute_in_cluster",
+            clusterName,
+            repeatTimes: additionalOptions.repeatTimes || 0,
+            partitions: additionalOptions.partitions || 0,
+            requestedAt: new Date().toISOString(),
+            runtimeName,
+            input
+        }));
+    }
+
     return {
         get isConnected() {
             return websocketHandle.readyState === WebSocket.OPEN;
         },
         queryClusters,
-        executeCommand
+        executeCommand,
+        executeInCluster
     };
 }
 
@@ -352,6 +473,80 @@ window.addEventListener("load", (wevt) => {
         currentLogList.setEntries(filteredLogs);
     });
 
+    const upsertMember = (clusterName, node, status = 'alive') => {
+        const previous = clusterMembers.get(memberKeyOf(clusterName, node));
+
+        clusterMembers.set(memberKeyOf(clusterName, node), {
+            ...node,
+            clusterName,
+            status: previous ? previous.status : status
+        });
+
+        const webTargetAddress = `${node.hostname}:${node.webPort}`;
+        if (!connectionPool.has(webTargetAddress)) {
+            logsPerNode.set(webTargetAddress, []);
+            connectionPool.set(webTargetAddress, connectToTheWebSync(standardHandler, webTargetAddress));
+            const nodeLogsTab = createNodeLogTab(webTargetAddress);
+
+            if (nodesLogsSwitchTab.children.length === 0) {
+                nodeLogsTab.classList.add('selected');
+            }
+            nodesLogsSwitchTab.appendChild(nodeLogsTab);
+        }
+    };
+
+    const updateMembersOf = (node, update) => {
+        for (const [key, member] of clusterMembers) {
+            if (member.hostname === node.hostname && member.communicationPort === node.communicationPort && member.heartbeatPort === node.heartbeatPort) {
+                clusterMembers.set(key, { ...member, ...update });
+            }
+        }
+    };
+
+    const applyMembershipEvent = (membershipEvent) => {
+        switch (membershipEvent.type) {
+            case "node_joined":
+                upsertMember(membershipEvent.clusterName, membershipEvent.node);
+                break;
+            case "node_left":
+                clusterMembers.delete(memberKeyOf(membershipEvent.clusterName, membershipEvent.node));
+                break;
+            case "node_suspected":
+                updateMembersOf(membershipEvent.node, { status: 'suspected' });
+                break;
+            case "node_recovered":
+                updateMembersOf(membershipEvent.node, { status: 'alive' });
+                break;
+            case "utilization_changed":
+                updateMembersOf(membershipEvent.node, {
+                    utilization: {
+                        jobsInProgress: membershipEvent.jobsInProgress,
+                        jobTotalCapacity: membershipEvent.jobTotalCapacity
+                    }
+                });
+                break;
+        }
+    };
+
+    const renderMembers = () => {
+        clusterDetailsEntries.splice(0, clusterDetailsEntries.length);
+
+        const entries = [];
+        for (const member of clusterMembers.values()) {
+            entries.push({
+                name: member.clusterName,
+                address: `${member.hostname}:${member.communicationPort}${member.status === 'suspected' ? ' (suspected)' : ''}`,
+                tasks: describeTasks(member.utilization),
+                last_heartbeat: member.lastHeartbeat,
+                trip_time: member.lastTrip,
+                supportedRuntimes: member.supportedRuntimes.join(', ')
+            });
+            clusterDetailsEntries.push(member);
+        }
+
+        dataTable.setEntries(entries);
+    };
+
     const standardHandler = (socketEvent, websocket, sourceAddress) => {
         console.log("Received message", socketEvent);
 
@@ -374,47 +569,57 @@ window.addEventListener("load", (wevt) => {
                 currentLogList.addEntry(incomingEvent);
                 break;
             case "cluster_details":
+                if (sourceAddress !== currentBaseUrl) {
+                    break;
+                }
+
                 lastSyncNode.textContent = incomingEvent.processedAt;
-                clusterDetailsEntries.splice(0, clusterDetailsEntries.length);
+                clusterMembers.clear();
 
-                const entries = [];
                 for (const cluster of incomingEvent.data.clusters) {
                     for (const node of cluster.nodes) {
-                        const nodeAddress = `${node.hostname}:${node.communicationPort}`;
-                        const webTargetAddress = `${node.hostname}:${node.webPort}`;
-
-                        entries.push({
-                            name: cluster.name,
-                            address: nodeAddress,
-                            tasks: ``,
-                            last_heartbeat: node.lastHeartbeat,
-                            trip_time: node.lastTrip,
-                            supportedRuntimes: node.supportedRuntimes.join(', ')
-                        });
-
-                        clusterDetailsEntries.push({
-                            ...node,
-                            clusterName: cluster.name
-                        });
-
-                        if (!connectionPool.has(webTargetAddress)) {
-                            console.log(webTargetAddress, 'fff');
-                            logsPerNode.set(webTargetAddress, []);
-                            connectionPool.set(webTargetAddress, connectToTheWebSync(standardHandler, webTargetAddress));
-                            const nodeLogsTab = createNodeLogTab(webTargetAddress);
-
-                            if (nodesLogsSwitchTab.children.length === 0) {
-                                nodeLogsTab.classList.add('selected');
-                            }
-                            nodesLogsSwitchTab.appendChild(nodeLogsTab);
-                        }
+                        upsertMember(cluster.name, node);
                     }
                 }
 
-                dataTable.setEntries(entries);
+                renderMembers();
+                break;
+            case "membership_events":
+                if (sourceAddress !== currentBaseUrl) {
+                    break;
+                }
+
+                for (const membershipEvent of incomingEvent.events) {
+                    applyMembershipEvent(membershipEvent);
+                }
+                lastSyncNode.textContent = incomingEvent.processedAt;
+
+                renderMembers();
+                break;
+            case "membership_resync":
+                if (sourceAddress === currentBaseUrl) {
+                    websocket.send(JSON.stringify({
+                        type: "query_cluster_details",
+                        requestedAt: new Date().toISOString()
+                    }));
+                }
+                break;
+            case "execution_partial":
+                commandExecutionDialogController.appendPartial(
+                    incomingEvent.data.iteration,
+                    incomingEvent.data.runs,
+                    incomingEvent.data.result
+                );
+                break;
+            case "execution_output":
+                commandExecutionDialogController.appendOutput(incomingEvent.data.run, incomingEvent.data.chunk);
                 break;
             case "execution_result":
-                commandExecutionDialogController.updateOutput(incomingEvent.data.result.statusCode, incomingEvent.data.result.output);
+                commandExecutionDialogController.updateOutput(
+                    incomingEvent.data.result.statusCode,
+                    incomingEvent.data.result.output,
+                    incomingEvent.data.hostname || incomingEvent.data.runsPerNode ? incomingEvent.data : null
+                );
         }
     };
     const webService = connectToTheWebSync(standardHandler, currentBaseUrl);
@@ -426,14 +631,21 @@ window.addEventListener("load", (wevt) => {
 
     const openSendToTheLowestUtilizedClusterBtn = document.getElementById('executeCommandOnTheLowestUtilizedNode');
     openSendToTheLowestUtilizedClusterBtn.addEventListener('click', () => {
-        //let minJobs = 0;
-        //const bestNode = clusterDetailsEntries.find(node => node.utilization.);
+        if (!webService.isConnected) {
+            alert('Connection with server is not established. Try again later.');
 
-        commandExecutionDialogController.showFor({
-            hostname: 'To be determined',
-            communicationPort: 'To be determined',
-            supportedRuntimes: ['CLI[Program]', 'LanguageExpression']
-        });
+            return;
+        }
+
+        // The node itself is picked by the server from live utilization, only the cluster and runtime are chosen here
+        const clusterRuntimes = new Map();
+        for (const member of clusterMembers.values()) {
+            const runtimes = clusterRuntimes.get(member.clusterName) || new Set();
+            member.supportedRuntimes.forEach(runtime => runtimes.add(runtime));
+            clusterRuntimes.set(member.clusterName, runtimes);
+        }
+
+        commandExecutionDialogController.showForCluster(clusterRuntimes);
     });
 
     eventBus.addEventListener('executeOnNode', (evt) => {
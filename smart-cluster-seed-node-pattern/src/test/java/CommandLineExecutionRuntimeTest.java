@@ -0,0 +1,65 @@
+import io.grano22.cluster.runtime.CommandLineExecutionRuntime;
+import io.grano22.cluster.runtime.ExecutionRuntime;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CommandLineExecutionRuntimeTest {
+    private final CommandLineExecutionRuntime counting = CommandLineExecutionRuntime.streaming("Count", (input, sink) -> {
+        int upTo = Integer.parseInt(input.command());
+        for (int i = 1; i <= upTo; i++) {
+            sink.write(i + "\n");
+        }
+
+        return 0;
+    });
+
+    @Test
+    public void streamingHandlerWritesPiecesWhileRunning() {
+        // Arrange
+        List<String> chunks = new ArrayList<>();
+
+        // Act
+        var result = counting.execute(new ExecutionRuntime.Input("3"), chunks::add);
+
+        // Assert
+        assertEquals(List.of("1\n", "2\n", "3\n"), chunks);
+        assertEquals(0, result.statusCode());
+        assertEquals("", result.output());
+    }
+
+    @Test
+    public void streamingHandlerOutputIsCollectedWithoutSink() {
+        // Act
+        var result = counting.execute(new ExecutionRuntime.Input("2"));
+
+        // Assert
+        assertEquals(0, result.statusCode());
+        assertEquals("1\n2\n", result.output());
+    }
+
+    @Test
+    public void handlerFailureBecomesOutputButSinkFailureAbortsRun() {
+        // Arrange
+        var failing = CommandLineExecutionRuntime.streaming("Fail", (input, sink) -> {
+            throw new IllegalStateException("broken");
+        });
+        ExecutionRuntime.OutputSink closedSink = chunk -> {
+            throw new UncheckedIOException(new IOException("closed"));
+        };
+
+        // Act
+        List<String> chunks = new ArrayList<>();
+        var result = failing.execute(new ExecutionRuntime.Input("x"), chunks::add);
+
+        // Assert
+        assertEquals(1, result.statusCode());
+        assertEquals(List.of("broken"), chunks);
+        assertThrows(UncheckedIOException.class, () -> counting.execute(new ExecutionRuntime.Input("1"), closedSink));
+    }
+}
@@ -0,0 +1,116 @@
+import io.grano22.cluster.clustermanagement.NodeConfig;
+import io.grano22.cluster.remoteexecution.CompressionMetrics;
+import io.grano22.cluster.remoteexecution.DelegationConnection;
+import io.grano22.cluster.remoteexecution.DelegationConnectionPool;
+import io.grano22.cluster.remoteexecution.DelegationFrameCodec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DelegationConnectionPoolTest {
+    private ServerSocket server;
+    private InetSocketAddress address;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new ServerSocket(0);
+        address = new InetSocketAddress("127.0.0.1", server.getLocalPort());
+        Thread.ofVirtual().start(this::acceptHandshakes);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    /**
+     * Answers the handshake of every client and keeps its connection open until the client leaves.
+     */
+    private void acceptHandshakes() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                Thread.ofVirtual().start(() -> {
+                    try (socket) {
+                        var in = new DataInputStream(socket.getInputStream());
+                        var out = new DataOutputStream(socket.getOutputStream());
+                        byte version = DelegationFrameCodec.handshakeAsServer(in, out);
+                        DelegationFrameCodec.negotiateCompressionAsServer(in, out, version, false);
+                        while (in.read() >= 0) {
+                            // Frames are not answered, the pool only needs an open connection
+                        }
+                    } catch (IOException _) {
+                        // Client went away
+                    }
+                });
+            } catch (IOException _) {
+                return;
+            }
+        }
+    }
+
+    private static DelegationConnectionPool pool() {
+        return new DelegationConnectionPool(
+            NodeConfig.DelegationSettings.defaults(),
+            new NodeConfig.CompressionSettings(false, 0, 1),
+            new CompressionMetrics()
+        );
+    }
+
+    @Test
+    public void acquireAlwaysHandsOutTheConnectionItOpens() throws Exception {
+        // Arrange
+        // A connection opening before the completion callback is registered used to leave acquire without a future
+        List<DelegationConnectionPool> pools = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            pools.add(pool());
+        }
+
+        try {
+            // Act
+            List<CompletableFuture<DelegationConnection>> acquired = new ArrayList<>();
+            for (var pool: pools) {
+                acquired.add(pool.acquire(address));
+            }
+
+            // Assert
+            for (var future: acquired) {
+                assertNotNull(future);
+                assertFalse(future.get(5, TimeUnit.SECONDS).isClosed());
+            }
+        } finally {
+            pools.forEach(DelegationConnectionPool::close);
+        }
+    }
+
+    @Test
+    public void requestsArrivingWhileOpeningShareOneConnection() throws Exception {
+        // Arrange
+        try (var pool = pool()) {
+            // Act
+            var first = pool.acquire(address);
+            var second = pool.acquire(address);
+            var firstConnection = first.get(5, TimeUnit.SECONDS);
+            var secondConnection = second.get(5, TimeUnit.SECONDS);
+            var afterOpening = pool.acquire(address).get(5, TimeUnit.SECONDS);
+
+            // Assert
+            assertSame(firstConnection, secondConnection);
+            assertSame(firstConnection, afterOpening);
+            assertEquals(1, pool.getOpenConnections());
+        }
+    }
+}
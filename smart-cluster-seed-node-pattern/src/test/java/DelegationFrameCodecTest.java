@@ -0,0 +1,224 @@
+import io.grano22.cluster.clustermanagement.NodeConfig;
+import io.grano22.cluster.remoteexecution.CompressionMetrics;
+import io.grano22.cluster.remoteexecution.DelegationFrame;
+import io.grano22.cluster.remoteexecution.DelegationFrameCodec;
+import io.grano22.cluster.remoteexecution.ExecutionDelegation;
+import io.grano22.cluster.remoteexecution.RemoteExecutionSummary;
+import io.grano22.cluster.remoteexecution.ResultAggregator;
+import io.grano22.cluster.runtime.ExecutionRuntime;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DelegationFrameCodecTest {
+    private static DelegationFrame roundTrip(DelegationFrame frame) throws IOException {
+        var codec = new DelegationFrameCodec();
+        var bytes = new ByteArrayOutputStream();
+        var output = new DataOutputStream(bytes);
+        codec.write(output, frame);
+        output.flush();
+
+        var input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        var decoded = codec.read(input);
+        assertEquals(-1, input.read());
+
+        return decoded;
+    }
+
+    @Test
+    public void requestAndUnionResponseRoundTrip() throws IOException {
+        // Arrange
+        var completedAt = Instant.ofEpochMilli(1_700_000_000_123L).atZone(ZoneOffset.UTC);
+        var request = new DelegationFrame.Request(
+            7L,
+            new ExecutionDelegation(
+                "CLI[Program]",
+                new ExecutionRuntime.Input("join", new String[] {"node-b.local", "9011"}, Map.of("-v", "true")),
+                3
+            )
+        );
+        var first = new ExecutionRuntime.Result(0, "line 1\nline 2\n", completedAt);
+        var second = new ExecutionRuntime.Result(2, "zażółć 🚀", completedAt);
+        var response = new DelegationFrame.Response(
+            8L,
+            new RemoteExecutionSummary(new ExecutionRuntime.UnionResult(2, first.output() + "\n" + second.output(), List.of(first, second), completedAt))
+        );
+
+        // Act
+        var decodedRequest = (DelegationFrame.Request) roundTrip(request);
+        var decodedResponse = (DelegationFrame.Response) roundTrip(response);
+
+        // Assert
+        assertEquals(7L, decodedRequest.requestId());
+        assertEquals("CLI[Program]", decodedRequest.delegation().runtimeName());
+        assertEquals(3, decodedRequest.delegation().repeatTimes());
+        assertEquals("join", decodedRequest.delegation().input().command());
+        assertArrayEquals(request.delegation().input().positionalArguments(), decodedRequest.delegation().input().positionalArguments());
+        assertEquals(Map.of("-v", "true"), decodedRequest.delegation().input().options());
+        assertEquals(8L, decodedResponse.requestId());
+        assertEquals(response.summary(), decodedResponse.summary());
+    }
+
+    @Test
+    public void streamingRequestAndPartialRoundTrip() throws IOException {
+        // Arrange
+        var delegation = new ExecutionDelegation("LanguageExpression", new ExecutionRuntime.Input("1 + 1"), 99);
+        var partial = new DelegationFrame.Partial(
+            11L,
+            42,
+            new ExecutionRuntime.Result(0, "2", Instant.ofEpochMilli(1_700_000_000_456L).atZone(ZoneOffset.UTC))
+        );
+
+        // Act
+        var streaming = (DelegationFrame.Request) roundTrip(new DelegationFrame.Request(10L, delegation, true));
+        var plain = (DelegationFrame.Request) roundTrip(new DelegationFrame.Request(12L, delegation));
+        var decodedPartial = roundTrip(partial);
+
+        // Assert
+        assertTrue(streaming.streamPartials());
+        assertFalse(plain.streamPartials());
+        assertEquals(partial, decodedPartial);
+    }
+
+    @Test
+    public void outputStreamingRequestChunkAndCreditRoundTrip() throws IOException {
+        // Arrange
+        var delegation = new ExecutionDelegation("LanguageExpression", new ExecutionRuntime.Input("'x'"), 0);
+        var chunk = new DelegationFrame.Output(31L, 3, "łańcuch\nwyjścia");
+
+        // Act
+        var request = (DelegationFrame.Request) roundTrip(new DelegationFrame.Request(30L, delegation, false, 256 * 1024));
+        var decodedChunk = roundTrip(chunk);
+        var decodedCredit = roundTrip(new DelegationFrame.Credit(31L, chunk.size()));
+
+        // Assert
+        assertTrue(request.streamOutput());
+        assertEquals(256 * 1024, request.outputWindow());
+        assertEquals(chunk, decodedChunk);
+        assertEquals(new DelegationFrame.Credit(31L, 18), decodedCredit);
+    }
+
+    @Test
+    public void stealLentAndStolenRequestRoundTrip() throws IOException {
+        // Arrange
+        var delegation = new ExecutionDelegation("LanguageExpression", new ExecutionRuntime.Input("2 * 21"), 4);
+
+        // Act
+        var steal = roundTrip(new DelegationFrame.Steal(50L, "node-b.local", 9011, 3));
+        var lent = roundTrip(new DelegationFrame.Lent(50L, 2));
+        var stolen = (DelegationFrame.Request) roundTrip(new DelegationFrame.Request(51L, delegation, true, 0, true));
+        var plain = (DelegationFrame.Request) roundTrip(new DelegationFrame.Request(52L, delegation, true));
+
+        // Assert
+        assertEquals(new DelegationFrame.Steal(50L, "node-b.local", 9011, 3), steal);
+        assertEquals(new DelegationFrame.Lent(50L, 2), lent);
+        assertTrue(stolen.stolen());
+        assertTrue(stolen.streamPartials());
+        assertFalse(plain.stolen());
+    }
+
+    @Test
+    public void summaryOnlyResponseCarriesStatistics() throws IOException {
+        // Arrange
+        var aggregator = new ResultAggregator();
+        var completedAt = Instant.ofEpochMilli(1_700_000_000_789L).atZone(ZoneOffset.UTC);
+        aggregator.add(0, new ExecutionRuntime.Result(0, "ok", completedAt), 1_500_000);
+        aggregator.add(1, new ExecutionRuntime.Result(3, "broken", completedAt), 2_500_000);
+        var summary = new RemoteExecutionSummary(aggregator.toResult(), aggregator.summary());
+        var request = new DelegationFrame.Request(20L, new ExecutionDelegation("LanguageExpression", new ExecutionRuntime.Input("1"), 1, false));
+
+        // Act
+        var decodedRequest = (DelegationFrame.Request) roundTrip(request);
+        var decoded = (DelegationFrame.Response) roundTrip(new DelegationFrame.Response(21L, summary));
+
+        // Assert
+        assertFalse(decodedRequest.delegation().keepOutputs());
+        assertEquals(summary.statistics(), decoded.summary().statistics());
+        assertEquals(3, decoded.summary().result().statusCode());
+    }
+
+    @Test
+    public void repetitiveFramesAreCompressedAndSmallOnesAreNot() throws IOException {
+        // Arrange
+        var metrics = new CompressionMetrics();
+        var writer = new DelegationFrameCodec(DelegationFrameCodec.VERSION, new NodeConfig.CompressionSettings(true, 1024, 1), metrics);
+        var reader = new DelegationFrameCodec(DelegationFrameCodec.VERSION, null, metrics);
+        var table = "| node-1 | 127.0.0.1 | healthy |\n".repeat(500);
+        var large = new DelegationFrame.Output(40L, 0, table);
+        var small = new DelegationFrame.Output(41L, 0, "short");
+        var bytes = new ByteArrayOutputStream();
+        var output = new DataOutputStream(bytes);
+
+        // Act
+        writer.write(output, large);
+        int largeFrameSize = bytes.size();
+        writer.write(output, small);
+        output.flush();
+        var input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        var decodedLarge = reader.read(input);
+        var decodedSmall = reader.read(input);
+
+        // Assert
+        assertEquals(large, decodedLarge);
+        assertEquals(small, decodedSmall);
+        assertTrue(largeFrameSize < table.length() / 10);
+        var snapshot = metrics.snapshot();
+        assertEquals(1, snapshot.compressedFrames());
+        assertEquals(1, snapshot.inflatedFrames());
+        assertTrue(snapshot.ratio() < 0.1);
+    }
+
+    @Test
+    public void oversizedElementCountIsRejectedBeforeAllocating() throws IOException {
+        // Arrange
+        var codec = new DelegationFrameCodec();
+        var bytes = new ByteArrayOutputStream();
+        var output = new DataOutputStream(bytes);
+        codec.write(output, new DelegationFrame.Request(1L, new ExecutionDelegation("CLI[Program]", new ExecutionRuntime.Input("join", new String[0], Map.of()), 1)));
+        output.flush();
+        var frame = bytes.toByteArray();
+        // The option count closes the body, claim far more options than bytes left
+        frame[frame.length - 1] = 0x7F;
+
+        // Act
+        var exception = assertThrows(ProtocolException.class, () -> codec.read(new DataInputStream(new ByteArrayInputStream(frame))));
+
+        // Assert
+        assertEquals("Invalid element count 127", exception.getMessage());
+    }
+
+    @Test
+    public void handshakeRejectsClientWithoutCommonVersion() throws IOException {
+        // Arrange
+        var offer = new ByteArrayOutputStream();
+        var client = new DataOutputStream(offer);
+        client.writeInt(DelegationFrameCodec.MAGIC);
+        client.writeByte(DelegationFrameCodec.VERSION + 1);
+        client.writeByte(DelegationFrameCodec.VERSION + 2);
+        var answer = new ByteArrayOutputStream();
+
+        // Act
+        byte version = DelegationFrameCodec.handshakeAsServer(
+            new DataInputStream(new ByteArrayInputStream(offer.toByteArray())),
+            new DataOutputStream(answer)
+        );
+
+        // Assert
+        assertEquals(0, version);
+        assertThrows(IOException.class, () -> DelegationFrameCodec.handshakeAsClient(
+            new DataInputStream(new ByteArrayInputStream(answer.toByteArray())),
+            new DataOutputStream(new ByteArrayOutputStream())
+        ));
+    }
+}
@@ -0,0 +1,120 @@
+import io.grano22.cluster.heartbeat.FragmentReassembler;
+import io.grano22.cluster.heartbeat.HeartbeatFragments;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FragmentReassemblerTest {
+    private final SocketAddress source = new InetSocketAddress("127.0.0.1", 7001);
+
+    private static ByteBuffer fragment(long messageId, int index, int count, String chunk) {
+        byte[] bytes = chunk.getBytes(StandardCharsets.UTF_8);
+        var fragment = ByteBuffer.allocate(HeartbeatFragments.HEADER_SIZE + bytes.length);
+        fragment.put(HeartbeatFragments.MAGIC).putLong(messageId).putShort((short) index).putShort((short) count).put(bytes);
+
+        return fragment.flip();
+    }
+
+    private static String text(ByteBuffer message) {
+        return StandardCharsets.UTF_8.decode(message).toString();
+    }
+
+    @Test
+    public void outOfOrderFragmentsAreJoinedInIndexOrder() {
+        // Arrange
+        var reassembler = new FragmentReassembler(4, 1000);
+
+        // Act
+        var afterLast = reassembler.accept(source, fragment(1, 2, 3, "c"), 0);
+        var afterFirst = reassembler.accept(source, fragment(1, 0, 3, "a"), 1);
+        var whole = reassembler.accept(source, fragment(1, 1, 3, "b"), 2);
+
+        // Assert
+        assertNull(afterLast);
+        assertNull(afterFirst);
+        assertEquals("abc", text(whole));
+        assertEquals(0, reassembler.getPendingMessages());
+    }
+
+    @Test
+    public void duplicateFragmentIsIgnored() {
+        // Arrange
+        var reassembler = new FragmentReassembler(4, 1000);
+        reassembler.accept(source, fragment(1, 0, 2, "a"), 0);
+
+        // Act
+        var afterDuplicate = reassembler.accept(source, fragment(1, 0, 2, "x"), 1);
+        var whole = reassembler.accept(source, fragment(1, 1, 2, "b"), 2);
+
+        // Assert
+        assertNull(afterDuplicate);
+        assertEquals("ab", text(whole));
+    }
+
+    @Test
+    public void eldestMessageIsEvictedWhenTableIsFull() {
+        // Arrange
+        var reassembler = new FragmentReassembler(2, 1000);
+        reassembler.accept(source, fragment(1, 0, 2, "a"), 0);
+        reassembler.accept(source, fragment(2, 0, 2, "a"), 1);
+
+        // Act
+        reassembler.accept(source, fragment(3, 0, 2, "a"), 2);
+        var survivor = reassembler.accept(source, fragment(2, 1, 2, "b"), 3);
+
+        // Assert
+        assertEquals(1, reassembler.getEvictedMessages());
+        assertEquals("ab", text(survivor));
+        assertEquals(1, reassembler.getPendingMessages());
+    }
+
+    @Test
+    public void incompleteMessageExpiresAfterTimeout() {
+        // Arrange
+        var reassembler = new FragmentReassembler(4, 1000);
+        reassembler.accept(source, fragment(1, 0, 2, "a"), 0);
+
+        // Act
+        var late = reassembler.accept(source, fragment(1, 1, 2, "b"), 1001);
+
+        // Assert
+        assertNull(late);
+        assertEquals(1, reassembler.getExpiredMessages());
+        assertEquals(1, reassembler.getPendingMessages());
+    }
+
+    @Test
+    public void fragmentsOfEqualIdFromDifferentSourcesAreKeptApart() {
+        // Arrange
+        var reassembler = new FragmentReassembler(4, 1000);
+        var otherSource = new InetSocketAddress("127.0.0.1", 7002);
+        reassembler.accept(source, fragment(1, 0, 2, "a"), 0);
+
+        // Act
+        var mixed = reassembler.accept(otherSource, fragment(1, 1, 2, "y"), 1);
+        var whole = reassembler.accept(source, fragment(1, 1, 2, "b"), 2);
+
+        // Assert
+        assertNull(mixed);
+        assertEquals("ab", text(whole));
+    }
+
+    @Test
+    public void fragmentWithIndexOutsideItsCountIsMalformed() {
+        // Arrange
+        var reassembler = new FragmentReassembler(4, 1000);
+
+        // Act
+        var result = reassembler.accept(source, fragment(1, 2, 2, "a"), 0);
+
+        // Assert
+        assertNull(result);
+        assertEquals(1, reassembler.getMalformedFragments());
+        assertEquals(0, reassembler.getPendingMessages());
+    }
+}
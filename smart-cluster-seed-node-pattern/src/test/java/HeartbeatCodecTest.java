@@ -0,0 +1,232 @@
+import io.grano22.cluster.clustermanagement.Cluster;
+import io.grano22.cluster.clustermanagement.ClusterNode;
+import io.grano22.cluster.clustermanagement.ClusterNodeUtilization;
+import io.grano22.cluster.clustermanagement.NodeTelemetry;
+import io.grano22.cluster.heartbeat.BinaryHeartbeatCodec;
+import io.grano22.cluster.heartbeat.FragmentReassembler;
+import io.grano22.cluster.heartbeat.HeartbeatCodec;
+import io.grano22.cluster.heartbeat.HeartbeatCodecs;
+import io.grano22.cluster.heartbeat.HeartbeatFragments;
+import io.grano22.cluster.heartbeat.HeartbeatMessage;
+import io.grano22.cluster.heartbeat.JsonHeartbeatCodec;
+import io.grano22.cluster.optimizations.ByteBufferWire;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.time.ZonedDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HeartbeatCodecTest {
+    private static ClusterNode node(String hostname, int basePort) {
+        return new ClusterNode(
+            hostname,
+            basePort + 2,
+            basePort + 1,
+            basePort + 3,
+            ZonedDateTime.now(),
+            -1,
+            Set.of("CLI[Program]", "LanguageExpression"),
+            new ClusterNodeUtilization()
+        );
+    }
+
+    @Test
+    public void binaryHeartbeatRoundTripsWithClusters() {
+        // Arrange
+        var self = node("localhost", 9000);
+        var peer = node("node-b.local", 9010);
+        var heartbeat = new HeartbeatMessage.Heartbeat(
+            self,
+            System.currentTimeMillis(),
+            Set.of(new Cluster("Main", Set.of(self, peer)), new Cluster("Secondary", Set.of(peer))),
+            Map.of("Main", 42L, "Secondary", -7L)
+        );
+        HeartbeatCodec codec = new BinaryHeartbeatCodec();
+        var buffer = ByteBuffer.allocate(codec.encodedSize(heartbeat));
+
+        // Act
+        int written = codec.encode(heartbeat, buffer);
+        buffer.flip();
+        var decoded = (HeartbeatMessage.Heartbeat) HeartbeatCodecs.detect(HeartbeatCodecs.createAll(), buffer).decode(buffer);
+
+        // Assert
+        assertEquals(buffer.capacity(), written);
+        assertFalse(buffer.hasRemaining());
+        assertEquals(self, decoded.sender());
+        assertEquals(heartbeat.timestamp(), decoded.timestamp());
+        assertEquals(heartbeat.clusters(), decoded.clusters());
+        for (var cluster: decoded.clusters()) {
+            var original = heartbeat.clusters().stream().filter(cluster::equals).findFirst().orElseThrow();
+            assertEquals(original.nodes(), cluster.nodes());
+        }
+        assertEquals(self.supportedRuntimes(), decoded.sender().supportedRuntimes());
+        assertEquals(heartbeat.clusterDigests(), decoded.clusterDigests());
+    }
+
+    @Test
+    public void pingCarriesTelemetryInBothCodecs() {
+        // Arrange
+        var self = node("localhost", 9000);
+        var telemetry = new NodeTelemetry(3, 5, 4, 0.25, 512L * 1024 * 1024, -1, 1_700_000_000_000L);
+        var ping = new HeartbeatMessage.Ping(self, 1L, 9L, Map.of("Main", 42L), List.of(), telemetry);
+
+        for (var codec: HeartbeatCodecs.createAll()) {
+            var buffer = ByteBuffer.allocate(codec.encodedSize(ping));
+
+            // Act
+            codec.encode(ping, buffer);
+            var decoded = (HeartbeatMessage.Ping) codec.decode(buffer.flip());
+
+            // Assert
+            assertEquals(9L, decoded.sequence());
+            assertEquals(telemetry, decoded.telemetry());
+        }
+    }
+
+    @Test
+    public void incarnationsBeyondIntRangeRoundTripInBothCodecs() {
+        // Arrange
+        var self = node("localhost", 9000);
+        var peer = node("node-b.local", 9010);
+        // Seconds since the epoch in 2100, past the overflow of an int in 2038
+        long incarnation = 4_102_444_800L;
+        var update = new HeartbeatMessage.MembershipUpdate(peer, HeartbeatMessage.MemberStatus.SUSPECT, incarnation, Set.of("Main"));
+        var ack = new HeartbeatMessage.Ack(self, 1L, 9L, List.of(update), null);
+
+        for (var codec: HeartbeatCodecs.createAll()) {
+            var buffer = ByteBuffer.allocate(codec.encodedSize(ack));
+
+            // Act
+            codec.encode(ack, buffer);
+            var decoded = (HeartbeatMessage.Ack) codec.decode(buffer.flip());
+
+            // Assert
+            assertEquals(List.of(update), decoded.updates());
+        }
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> new HeartbeatMessage.MembershipUpdate(peer, HeartbeatMessage.MemberStatus.ALIVE, -1, Set.of())
+        );
+    }
+
+    @Test
+    public void membershipSyncRequestRoundTripsInBothCodecs() {
+        // Arrange
+        var self = node("localhost", 9000);
+        var request = new HeartbeatMessage.MembershipSyncRequest(self, 1L, Map.of("Main", new long[] {1L, Long.MIN_VALUE}));
+
+        for (var codec: HeartbeatCodecs.createAll()) {
+            var buffer = ByteBuffer.allocate(codec.encodedSize(request));
+
+            // Act
+            codec.encode(request, buffer);
+            var decoded = (HeartbeatMessage.MembershipSyncRequest) codec.decode(buffer.flip());
+
+            // Assert
+            assertEquals(self, decoded.sender());
+            assertArrayEquals(request.knownNodeIds().get("Main"), decoded.knownNodeIds().get("Main"));
+        }
+    }
+
+    @Test
+    public void beaconRoundTripsInBothCodecs() {
+        // Arrange
+        var self = node("localhost", 9000);
+        var beacon = new HeartbeatMessage.Beacon(self, 1L, Set.of("Main", "Secondary"));
+
+        for (var codec: HeartbeatCodecs.createAll()) {
+            var buffer = ByteBuffer.allocate(codec.encodedSize(beacon));
+
+            // Act
+            codec.encode(beacon, buffer);
+            var decoded = (HeartbeatMessage.Beacon) codec.decode(buffer.flip());
+
+            // Assert
+            assertEquals(self, decoded.sender());
+            assertEquals(beacon.clusterNames(), decoded.clusterNames());
+        }
+    }
+
+    @Test
+    public void binaryHeartbeatIsSmallerThanJson() {
+        // Arrange
+        var self = node("localhost", 9000);
+        var heartbeat = new HeartbeatMessage.Heartbeat(self, System.currentTimeMillis(), Set.of(new Cluster("Main", Set.of(self))), Map.of("Main", 1L));
+
+        // Act
+        int binarySize = new BinaryHeartbeatCodec().encodedSize(heartbeat);
+        int jsonSize = new JsonHeartbeatCodec().encodedSize(heartbeat);
+
+        // Assert
+        assertTrue(binarySize * 4 < jsonSize);
+    }
+
+    @Test
+    public void truncatedBinaryHeartbeatIsRejected() {
+        // Arrange
+        var self = node("localhost", 9000);
+        var heartbeat = new HeartbeatMessage.Heartbeat(self, System.currentTimeMillis(), null, Map.of());
+        var codec = new BinaryHeartbeatCodec();
+        var buffer = ByteBuffer.allocate(codec.encodedSize(heartbeat));
+        codec.encode(heartbeat, buffer);
+
+        // Act
+        buffer.flip().limit(buffer.limit() - 4);
+
+        // Assert
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(buffer));
+    }
+
+    @Test
+    public void stringLengthOutsideIntRangeIsRejected() {
+        // Arrange
+        var buffer = ByteBuffer.allocate(16);
+        ByteBufferWire.writeVarLong(buffer, 0xFFFFFFFFL);
+        buffer.put((byte) 'x');
+
+        // Act
+        buffer.flip();
+
+        // Assert
+        assertThrows(IllegalArgumentException.class, () -> ByteBufferWire.readString(buffer));
+    }
+
+    @Test
+    public void largeMembershipIsReassembledFromFragmentsInAnyOrder() {
+        // Arrange
+        var self = node("localhost", 9000);
+        Set<ClusterNode> nodes = new HashSet<>();
+        for (int i = 0; i < 300; i++) {
+            nodes.add(node("node-" + i + ".local", 10000 + i * 10));
+        }
+        var response = new HeartbeatMessage.MembershipSyncResponse(self, 1L, Set.of(new Cluster("Main", nodes)));
+        var codec = new BinaryHeartbeatCodec();
+        var message = ByteBuffer.allocate(codec.encodedSize(response));
+        codec.encode(response, message);
+        message.flip();
+        int mtu = 1400;
+        int count = HeartbeatFragments.fragmentCount(message.remaining(), mtu);
+        var reassembler = new FragmentReassembler(4, 1000);
+        var source = new InetSocketAddress("localhost", 9003);
+
+        // Act
+        ByteBuffer reassembled = null;
+        for (int index = count - 1; index >= 0; index--) {
+            var fragment = ByteBuffer.allocate(mtu);
+            HeartbeatFragments.writeFragment(fragment, message, 7L, index, count, mtu);
+            reassembled = reassembler.accept(source, fragment.flip(), 0);
+        }
+        var decoded = (HeartbeatMessage.MembershipSyncResponse) codec.decode(reassembled);
+
+        // Assert
+        assertTrue(count > 1);
+        assertEquals(0, reassembler.getPendingMessages());
+        assertEquals(nodes, decoded.clusters().iterator().next().nodes());
+    }
+}
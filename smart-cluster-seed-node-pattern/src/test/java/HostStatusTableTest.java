@@ -0,0 +1,91 @@
+import io.grano22.cluster.optimizations.HostStatusTable;
+import io.grano22.cluster.optimizations.HostStatusTable.HostStatus;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HostStatusTableTest {
+    // Spans three bitset words, the last one only partially used
+    private final Set<String> hosts = IntStream.range(0, 130).mapToObj(i -> "node-" + i + ".local:9000").collect(Collectors.toSet());
+    private final HostStatusTable table = new HostStatusTable(hosts, HostStatus.UNKNOWN);
+
+    @Test
+    public void everyHostStartsInDefaultStatus() {
+        // Act
+        var unknown = table.getAllInStatus(HostStatus.UNKNOWN);
+
+        // Assert
+        assertEquals(hosts, unknown);
+        assertEquals(130, table.countInStatus(HostStatus.UNKNOWN));
+        assertEquals(0, table.countInStatus(HostStatus.OK));
+        assertEquals(Set.of(), table.getAllNotInStatus(HostStatus.UNKNOWN));
+    }
+
+    @Test
+    public void updateMovesHostBetweenStatusBitsets() {
+        // Arrange
+        var host = "node-129.local:9000";
+
+        // Act
+        table.update(host, HostStatus.OK);
+        table.update(host, HostStatus.DOWN);
+        table.update("node-64.local:9000", "OK");
+
+        // Assert
+        assertEquals(HostStatus.DOWN, table.statusOf(host));
+        assertEquals("OK", table.getStatus("node-64.local:9000"));
+        assertEquals(Set.of(host), table.getAllInStatus(HostStatus.DOWN));
+        assertEquals(Set.of("node-64.local:9000"), table.getAllInStatus(HostStatus.OK));
+        assertEquals(Set.of(host, "node-64.local:9000"), table.getAllNotInStatus(HostStatus.UNKNOWN));
+        assertEquals(128, table.countInStatus(HostStatus.UNKNOWN));
+    }
+
+    @Test
+    public void unknownHostsAreNeitherFoundNorUpdated() {
+        // Act
+        table.update("node-130.local:9000", HostStatus.OK);
+
+        // Assert
+        assertEquals(-1, table.idOf("node-130.local:9000"));
+        assertNull(table.statusOf("node-130.local:9000"));
+        assertNull(table.getStatus("elsewhere:9000"));
+        assertEquals(0, table.countInStatus(HostStatus.OK));
+    }
+
+    @Test
+    public void idsResolveBackToTheirHosts() {
+        // Arrange
+        Set<Integer> ids = new HashSet<>();
+        Set<String> resolved = new HashSet<>();
+
+        // Act
+        for (var host: hosts) {
+            int id = table.idOf(host);
+            ids.add(id);
+            resolved.add(table.hostOf(id));
+        }
+
+        // Assert
+        assertEquals(IntStream.range(0, table.size()).boxed().collect(Collectors.toSet()), ids);
+        assertEquals(hosts, resolved);
+    }
+
+    @Test
+    public void emptyTableAnswersWithoutHosts() {
+        // Arrange
+        var empty = new HostStatusTable(Set.of(), HostStatus.OK);
+
+        // Act
+        int id = empty.idOf("node-0.local:9000");
+
+        // Assert
+        assertEquals(-1, id);
+        assertEquals(0, empty.countInStatus(HostStatus.OK));
+        assertEquals(Set.of(), empty.getAllNotInStatus(HostStatus.DOWN));
+    }
+}
@@ -0,0 +1,106 @@
+import io.grano22.cluster.clustermanagement.ClusterNode;
+import io.grano22.cluster.clustermanagement.ClusterNodeUtilization;
+import io.grano22.cluster.clustermanagement.MembershipEvent;
+import io.grano22.cluster.clustermanagement.MembershipEventStream;
+import org.junit.jupiter.api.Test;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MembershipEventStreamTest {
+    private final ClusterNode node = new ClusterNode("127.0.0.1", 7001, 7101, 7201, ZonedDateTime.now(), -1, Set.of(), new ClusterNodeUtilization());
+    private final MembershipEventStream stream = new MembershipEventStream();
+
+    private MembershipEvent joined(long version) {
+        return new MembershipEvent.NodeJoined(version, "alpha", node);
+    }
+
+    @Test
+    public void everySubscriberGetsEventsInPublishOrder() {
+        // Arrange
+        var first = stream.subscribe();
+        var second = stream.subscribe();
+        List<MembershipEvent> received = new ArrayList<>();
+
+        // Act
+        stream.publishAll(List.of(joined(1), joined(2)));
+        first.drain(received::add, 10, 0, TimeUnit.MILLISECONDS);
+
+        // Assert
+        assertEquals(List.of(joined(1), joined(2)), received);
+        assertEquals(joined(1), second.poll());
+        assertEquals(joined(2), second.poll());
+        assertNull(second.poll());
+    }
+
+    @Test
+    public void fullSubscriptionDropsEventsAndReportsOverflowOnce() {
+        // Arrange
+        var slow = stream.subscribe(2);
+        var fast = stream.subscribe(8);
+
+        // Act
+        stream.publishAll(List.of(joined(1), joined(2), joined(3), joined(4)));
+
+        // Assert
+        assertEquals(2, slow.getDroppedEvents());
+        assertEquals(0, fast.getDroppedEvents());
+        assertFalse(fast.takeOverflow());
+        assertTrue(slow.takeOverflow());
+        assertFalse(slow.takeOverflow());
+    }
+
+    @Test
+    public void resyncSkipsEventsQueuedBeforeOverflowWasTaken() {
+        // Arrange
+        var subscription = stream.subscribe(2);
+        stream.publishAll(List.of(joined(1), joined(2), joined(3)));
+
+        // Act
+        boolean overflowed = subscription.takeOverflow();
+        stream.publish(joined(4));
+
+        // Assert
+        assertTrue(overflowed);
+        assertEquals(joined(4), subscription.poll());
+        assertNull(subscription.poll());
+    }
+
+    @Test
+    public void drainWakesUpOnPublishAndHonorsMaxEvents() throws Exception {
+        // Arrange
+        var subscription = stream.subscribe();
+        List<MembershipEvent> received = new ArrayList<>();
+        var draining = CompletableFuture.supplyAsync(() -> subscription.drain(received::add, 1, 10, TimeUnit.SECONDS));
+
+        // Act
+        Thread.sleep(50);
+        stream.publishAll(List.of(joined(1), joined(2)));
+        int drained = draining.get(5, TimeUnit.SECONDS);
+
+        // Assert
+        assertEquals(1, drained);
+        assertEquals(List.of(joined(1)), received);
+        assertEquals(joined(2), subscription.poll());
+    }
+
+    @Test
+    public void closedSubscriptionGetsNoMoreEvents() {
+        // Arrange
+        var subscription = stream.subscribe();
+
+        // Act
+        subscription.close();
+        stream.publish(joined(1));
+
+        // Assert
+        assertEquals(0, stream.getSubscriberCount());
+        assertNull(subscription.poll());
+    }
+}
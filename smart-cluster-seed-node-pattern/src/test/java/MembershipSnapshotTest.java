@@ -0,0 +1,115 @@
+import io.grano22.cluster.clustermanagement.Cluster;
+import io.grano22.cluster.clustermanagement.ClusterNode;
+import io.grano22.cluster.clustermanagement.ClusterNodeUtilization;
+import io.grano22.cluster.clustermanagement.MembershipDigest;
+import io.grano22.cluster.clustermanagement.MembershipEvent;
+import io.grano22.cluster.clustermanagement.MembershipSnapshot;
+import io.grano22.cluster.clustermanagement.NodeRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MembershipSnapshotTest {
+    private final ClusterNode first = node(7001);
+    private final ClusterNode second = node(7002);
+    private final ClusterNode third = node(7003);
+    private final MembershipSnapshot initial = MembershipSnapshot.initial(
+        new NodeRegistry(),
+        List.of(new Cluster("alpha", Set.of(first)), new Cluster("beta", Set.of(first, second)))
+    );
+
+    private static ClusterNode node(int port) {
+        return new ClusterNode("127.0.0.1", port, port + 100, port + 200, ZonedDateTime.now(), -1, Set.of(), new ClusterNodeUtilization());
+    }
+
+    @Test
+    public void batchWithoutChangesKeepsSnapshotAndVersion() {
+        // Arrange
+        var batch = initial.batch();
+        batch.addNodes("alpha", Set.of(first));
+        batch.addNodes("unknown", Set.of(third));
+
+        // Act
+        var built = batch.build();
+
+        // Assert
+        assertSame(initial, built);
+        assertEquals(0, built.version());
+    }
+
+    @Test
+    public void batchCopiesOnlyTouchedClustersIntoNextVersion() {
+        // Arrange
+        var batch = initial.batch();
+
+        // Act
+        boolean added = batch.addNodes("alpha", Set.of(second, third));
+        var next = batch.build();
+
+        // Assert
+        assertTrue(added);
+        assertEquals(1, next.version());
+        assertSame(initial.findCluster("beta").orElseThrow(), next.findCluster("beta").orElseThrow());
+        assertEquals(Set.of(first, second, third), next.findCluster("alpha").orElseThrow().nodes());
+        assertEquals(Set.of(first), initial.findCluster("alpha").orElseThrow().nodes());
+        assertFalse(initial.hasInCluster("alpha", third));
+        assertTrue(next.hasInCluster("alpha", third));
+    }
+
+    @Test
+    public void removedNodeLeavesEveryClusterAndDigestsFollow() {
+        // Arrange
+        var batch = initial.batch();
+
+        // Act
+        var leftClusters = batch.removeNode(first);
+        var next = batch.build();
+
+        // Assert
+        assertEquals(Set.of("alpha", "beta"), leftClusters);
+        assertEquals(Set.of(), next.clusterNamesOf(first));
+        assertEquals(Set.of(second), next.allNodes());
+        assertEquals(MembershipDigest.clusterDigest(Set.of()), next.clusterDigests().get("alpha"));
+        assertEquals(MembershipDigest.clusterDigest(Set.of(second)), next.clusterDigests().get("beta"));
+        assertEquals(MembershipDigest.clusterDigest(Set.of(first, second)), initial.clusterDigests().get("beta"));
+    }
+
+    @Test
+    public void batchReportsChangesInApplyOrder() {
+        // Arrange
+        var batch = initial.batch();
+        batch.addNodes("alpha", Set.of(third));
+        batch.removeNode(second);
+
+        // Act
+        var events = batch.events(5);
+
+        // Assert
+        assertEquals(
+            List.of(new MembershipEvent.NodeJoined(5, "alpha", third), new MembershipEvent.NodeLeft(5, "beta", second)),
+            events
+        );
+    }
+
+    @Test
+    public void snapshotsOfOneBatchChainGrowVersionByOne() {
+        // Arrange
+        var batch = initial.batch();
+        batch.addNodes("alpha", Set.of(second));
+        var next = batch.build();
+        var nextBatch = next.batch();
+        nextBatch.addNodes("beta", Set.of(third));
+
+        // Act
+        var last = nextBatch.build();
+
+        // Assert
+        assertEquals(2, last.version());
+        assertSame(next, nextBatch.base());
+        assertEquals(Set.of(first, second, third), last.allNodes());
+    }
+}
@@ -0,0 +1,120 @@
+import io.grano22.cluster.clustermanagement.Cluster;
+import io.grano22.cluster.clustermanagement.ClusterNode;
+import io.grano22.cluster.clustermanagement.ClusterNodeUtilization;
+import io.grano22.cluster.clustermanagement.NodePlacement;
+import io.grano22.cluster.clustermanagement.NodesMeshManager;
+import org.junit.jupiter.api.Test;
+
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NodePlacementTest {
+    private static final String RUNTIME = "CLI[Program]";
+
+    private final ClusterNode self = node(7000, 1, Set.of());
+
+    private static ClusterNode node(int port, int capacity, Set<String> runtimes) {
+        return new ClusterNode("127.0.0.1", port, port + 100, port + 200, ZonedDateTime.now(), -1, runtimes, new ClusterNodeUtilization(0, capacity));
+    }
+
+    private NodePlacement placementOver(ClusterNode... members) {
+        Set<ClusterNode> nodes = new HashSet<>(List.of(members));
+        nodes.add(self);
+
+        return new NodePlacement(new NodesMeshManager(self, Set.of(new Cluster("alpha", nodes)), Set.of()), 10_000);
+    }
+
+    @Test
+    public void partitionsFollowCapacityWhenTheyDivideEvenly() {
+        // Arrange
+        var small = node(7001, 1, Set.of(RUNTIME));
+        var medium = node(7002, 2, Set.of(RUNTIME));
+        var large = node(7003, 3, Set.of(RUNTIME));
+        var placement = placementOver(small, medium, large);
+
+        // Act
+        var assignment = placement.spread("alpha", RUNTIME, 12);
+
+        // Assert
+        assertEquals(12, assignment.size());
+        assertEquals(2, Collections.frequency(assignment, small));
+        assertEquals(4, Collections.frequency(assignment, medium));
+        assertEquals(6, Collections.frequency(assignment, large));
+    }
+
+    @Test
+    public void roundingLeftoverGoesToLargestRemainder() {
+        // Arrange
+        var first = node(7001, 3, Set.of(RUNTIME));
+        var second = node(7002, 3, Set.of(RUNTIME));
+        var large = node(7003, 4, Set.of(RUNTIME));
+        var placement = placementOver(first, second, large);
+
+        // Act
+        // Exact shares are 1.5, 1.5 and 2.0, the leftover partition must not go to the largest member
+        var assignment = placement.spread("alpha", RUNTIME, 5);
+
+        // Assert
+        assertEquals(5, assignment.size());
+        assertEquals(2, Collections.frequency(assignment, large));
+        assertEquals(3, Collections.frequency(assignment, first) + Collections.frequency(assignment, second));
+        assertTrue(assignment.contains(first) && assignment.contains(second));
+    }
+
+    @Test
+    public void sharesAreInterleaved() {
+        // Arrange
+        var small = node(7001, 1, Set.of(RUNTIME));
+        var large = node(7002, 3, Set.of(RUNTIME));
+        var placement = placementOver(small, large);
+
+        // Act
+        var assignment = placement.spread("alpha", RUNTIME, 4);
+
+        // Assert
+        assertEquals(Set.of(small, large), Set.copyOf(assignment.subList(0, 2)));
+        assertEquals(List.of(large, large), assignment.subList(2, 4));
+    }
+
+    @Test
+    public void onlyHealthyMembersSupportingTheRuntimeGetPartitions() {
+        // Arrange
+        var healthy = node(7001, 1, Set.of(RUNTIME));
+        var suspected = node(7002, 8, Set.of(RUNTIME));
+        var otherRuntime = node(7003, 8, Set.of("Other"));
+        var meshManager = new NodesMeshManager(self, Set.of(new Cluster("alpha", Set.of(self, healthy, suspected, otherRuntime))), Set.of());
+        meshManager.setNodeAsNotHealthy(suspected);
+        var placement = new NodePlacement(meshManager, 10_000);
+
+        // Act
+        var assignment = placement.spread("alpha", RUNTIME, 3);
+
+        // Assert
+        assertEquals(List.of(healthy, healthy, healthy), assignment);
+        assertEquals(List.of(), placement.spread("alpha", "Unknown", 3));
+        assertEquals(List.of(), placement.spread("alpha", RUNTIME, 0));
+    }
+
+    @Test
+    public void spreadPartitionsCountAsLoadUntilReleased() {
+        // Arrange
+        var member = node(7001, 4, Set.of(RUNTIME));
+        var placement = placementOver(member);
+        double idleLoad = placement.loadOf(member);
+
+        // Act
+        var assignment = placement.spread("alpha", RUNTIME, 2);
+        double spreadLoad = placement.loadOf(member);
+        assignment.forEach(placement::release);
+
+        // Assert
+        assertEquals(0.0, idleLoad);
+        assertEquals(0.5, spreadLoad);
+        assertEquals(0.0, placement.loadOf(member));
+    }
+}
@@ -0,0 +1,90 @@
+import io.grano22.cluster.clustermanagement.ClusterNode;
+import io.grano22.cluster.clustermanagement.ClusterNodeUtilization;
+import io.grano22.cluster.clustermanagement.NodeRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.ZonedDateTime;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NodeRegistryTest {
+    private final NodeRegistry registry = new NodeRegistry();
+
+    private static ClusterNode node(int port) {
+        return new ClusterNode("127.0.0.1", port, port + 100, port + 200, ZonedDateTime.now(), -1, Set.of(), new ClusterNodeUtilization());
+    }
+
+    @Test
+    public void internHandsOutDenseStableIds() {
+        // Arrange
+        var first = node(7001);
+        var second = node(7002);
+
+        // Act
+        int firstId = registry.intern(first);
+        int secondId = registry.intern(second);
+        int firstAgain = registry.intern(first);
+
+        // Assert
+        assertEquals(0, firstId);
+        assertEquals(1, secondId);
+        assertEquals(firstId, firstAgain);
+        assertSame(second, registry.nodeOf(secondId));
+        assertEquals(secondId, registry.idOf(second));
+    }
+
+    @Test
+    public void unknownNodesAndAddressesResolveToUnknown() {
+        // Arrange
+        registry.intern(node(7001));
+
+        // Act
+        int byNode = registry.idOf(node(7009));
+        int byCommunicationAddress = registry.findByCommunicationAddress("127.0.0.1", 7009);
+        int byHeartbeatAddress = registry.findByHeartbeatAddress("127.0.0.2", 7001);
+
+        // Assert
+        assertEquals(NodeRegistry.UNKNOWN, byNode);
+        assertEquals(NodeRegistry.UNKNOWN, byCommunicationAddress);
+        assertEquals(NodeRegistry.UNKNOWN, byHeartbeatAddress);
+        assertEquals(Optional.empty(), registry.find(NodeRegistry.UNKNOWN));
+    }
+
+    @Test
+    public void nodeIsFoundByEitherOfItsAddresses() {
+        // Arrange
+        var node = node(7001);
+        int id = registry.intern(node);
+
+        // Act
+        int byCommunicationAddress = registry.findByCommunicationAddress(node.hostname(), node.communicationPort());
+        int byHeartbeatAddress = registry.findByHeartbeatAddress(node.hostname(), node.heartbeatPort());
+
+        // Assert
+        assertEquals(id, byCommunicationAddress);
+        assertEquals(id, byHeartbeatAddress);
+        assertEquals(Optional.of(node), registry.find(id));
+    }
+
+    @Test
+    public void concurrentInterningGivesEveryNodeOneIdPastInitialCapacity() {
+        // Arrange
+        var nodes = IntStream.range(0, 200).mapToObj(i -> node(8000 + i)).toList();
+        var assigned = ConcurrentHashMap.<Integer>newKeySet();
+
+        // Act
+        nodes.parallelStream().forEach(node -> assigned.add(registry.intern(node)));
+        nodes.parallelStream().forEach(node -> assigned.add(registry.intern(node)));
+
+        // Assert
+        assertEquals(new HashSet<>(IntStream.range(0, 200).boxed().toList()), assigned);
+        for (var node: nodes) {
+            assertSame(node, registry.nodeOf(registry.idOf(node)));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+import io.grano22.cluster.clustermanagement.ClusterNode;
+import io.grano22.cluster.clustermanagement.ClusterNodeUtilization;
+import io.grano22.cluster.heartbeat.PhiAccrualFailureDetector;
+import org.junit.jupiter.api.Test;
+
+import java.time.ZonedDateTime;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PhiAccrualFailureDetectorTest {
+    private static final long PROBE_PERIOD_MILLIS = 1000;
+
+    private final ClusterNode node = new ClusterNode("127.0.0.1", 7001, 7101, 7201, ZonedDateTime.now(), -1, Set.of(), new ClusterNodeUtilization());
+
+    private static PhiAccrualFailureDetector detector(long expectedIntervalMillis) {
+        return new PhiAccrualFailureDetector(100, PROBE_PERIOD_MILLIS / 10, expectedIntervalMillis);
+    }
+
+    @Test
+    public void neverHeardNodeIsNotSuspected() {
+        // Arrange
+        var detector = detector(PROBE_PERIOD_MILLIS);
+
+        // Act
+        double phi = detector.phi(node, 1_000_000);
+
+        // Assert
+        assertFalse(detector.isTracked(node));
+        assertEquals(0.0, phi);
+    }
+
+    @Test
+    public void silenceOfOneSwimRoundIsToleratedRightAfterJoining() {
+        // Arrange
+        int otherMembers = 8;
+        var detector = detector(otherMembers * PROBE_PERIOD_MILLIS);
+
+        // Act
+        detector.heartbeat(node, 0);
+        double phi = detector.phi(node, otherMembers * PROBE_PERIOD_MILLIS);
+
+        // Assert
+        assertTrue(phi < 1.0, "phi " + phi);
+    }
+
+    @Test
+    public void suspicionGrowsWithSilenceBeyondObservedIntervals() {
+        // Arrange
+        var detector = detector(PROBE_PERIOD_MILLIS);
+        long arrivedAt = 0;
+        for (int i = 0; i < 50; i++) {
+            detector.heartbeat(node, arrivedAt);
+            arrivedAt += PROBE_PERIOD_MILLIS;
+        }
+        long lastArrival = arrivedAt - PROBE_PERIOD_MILLIS;
+
+        // Act
+        double onTime = detector.phi(node, lastArrival + PROBE_PERIOD_MILLIS);
+        double late = detector.phi(node, lastArrival + 3 * PROBE_PERIOD_MILLIS);
+        double silent = detector.phi(node, lastArrival + 10 * PROBE_PERIOD_MILLIS);
+
+        // Assert
+        assertTrue(onTime < 1.0, "phi " + onTime);
+        assertTrue(late > onTime);
+        assertTrue(silent > 8.0, "phi " + silent);
+    }
+
+    @Test
+    public void largerMembershipRaisesToleranceOfSilence() {
+        // Arrange
+        var small = detector(2 * PROBE_PERIOD_MILLIS);
+        var large = detector(2 * PROBE_PERIOD_MILLIS);
+        large.setExpectedIntervalMillis(20 * PROBE_PERIOD_MILLIS);
+        small.heartbeat(node, 0);
+        large.heartbeat(node, 0);
+
+        // Act
+        double smallPhi = small.phi(node, 10 * PROBE_PERIOD_MILLIS);
+        double largePhi = large.phi(node, 10 * PROBE_PERIOD_MILLIS);
+
+        // Assert
+        assertTrue(largePhi < smallPhi, largePhi + " should be below " + smallPhi);
+    }
+}
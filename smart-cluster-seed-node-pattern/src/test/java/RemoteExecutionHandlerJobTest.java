@@ -0,0 +1,474 @@
+import io.grano22.cluster.clustermanagement.Cluster;
+import io.grano22.cluster.clustermanagement.ClusterNode;
+import io.grano22.cluster.clustermanagement.ClusterNodeUtilization;
+import io.grano22.cluster.clustermanagement.NodeConfig;
+import io.grano22.cluster.clustermanagement.NodesMeshManager;
+import io.grano22.cluster.remoteexecution.CompressionMetrics;
+import io.grano22.cluster.remoteexecution.DelegationFrame;
+import io.grano22.cluster.remoteexecution.DelegationFrameCodec;
+import io.grano22.cluster.remoteexecution.ExecutionDelegation;
+import io.grano22.cluster.remoteexecution.ExecutionMetrics;
+import io.grano22.cluster.remoteexecution.RemoteExecutionDelegator;
+import io.grano22.cluster.remoteexecution.RemoteExecutionHandlerJob;
+import io.grano22.cluster.remoteexecution.RemoteExecutionSummary;
+import io.grano22.cluster.remoteexecution.WorkStealer;
+import io.grano22.cluster.runtime.CommandLineExecutionRuntime;
+import io.grano22.cluster.runtime.ExecutionRuntime;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RemoteExecutionHandlerJobTest {
+    private static final String RUNTIME = "CLI[Gate]";
+
+    private final ClusterNode self = new ClusterNode("127.0.0.1", 7000, 7100, 7200, ZonedDateTime.now(), -1, Set.of(), new ClusterNodeUtilization());
+    private final ExecutionMetrics metrics = new ExecutionMetrics();
+    // Runs of a command wait until its gate opens, commands without a gate finish right away
+    private final Map<String, CountDownLatch> gates = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> runs = new ConcurrentHashMap<>();
+    private final ExecutionRuntime gated = new CommandLineExecutionRuntime("Gate", input -> {
+        runs.computeIfAbsent(input.command(), _ -> new AtomicInteger()).incrementAndGet();
+        var gate = gates.get(input.command());
+        try {
+            if (gate != null && !gate.await(10, TimeUnit.SECONDS)) {
+                return new ExecutionRuntime.Result(1, "Gate of " + input.command() + " never opened");
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+
+        return new ExecutionRuntime.Result(0, input.command());
+    });
+    private RemoteExecutionHandlerJob handler;
+    // Peer taking jobs of the handler, it answers lent requests with whatever the test scripts
+    private ServerSocket thiefServer;
+    private ClusterNode thief;
+    private final List<DelegationFrame.Request> thiefRequests = new CopyOnWriteArrayList<>();
+    private volatile Function<DelegationFrame.Request, List<DelegationFrame>> thiefAnswers;
+    private RemoteExecutionDelegator delegator;
+    private WorkStealer workStealer;
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        gates.values().forEach(CountDownLatch::countDown);
+        if (handler != null) {
+            handler.close();
+        }
+        if (workStealer != null) {
+            workStealer.close();
+            delegator.close();
+            thiefServer.close();
+        }
+    }
+
+    private void startHandler(int maxInFlightPerConnection, int poolSize) throws IOException {
+        startHandler(maxInFlightPerConnection, poolSize, 1);
+    }
+
+    private void startHandler(int maxInFlightPerConnection, int poolSize, int repeatParallelism) throws IOException {
+        startHandler(executionSettings(maxInFlightPerConnection, poolSize, repeatParallelism), new NodesMeshManager(self, Set.of(), Set.of()), null);
+    }
+
+    private static NodeConfig.ExecutionSettings executionSettings(int maxInFlightPerConnection, int poolSize, int repeatParallelism) {
+        return new NodeConfig.ExecutionSettings(maxInFlightPerConnection, 60_000, poolSize, 16, 16, repeatParallelism, 1024 * 1024, 0);
+    }
+
+    private void startHandler(NodeConfig.ExecutionSettings settings, NodesMeshManager meshManager, WorkStealer workStealer) throws IOException {
+        handler = new RemoteExecutionHandlerJob(
+            0,
+            Set.of(gated),
+            meshManager,
+            settings,
+            new NodeConfig.CompressionSettings(false, 0, 1),
+            metrics,
+            workStealer
+        );
+        Thread.ofVirtual().start(handler);
+    }
+
+    /**
+     * Handler with a single job thread sharing a cluster with the thief, steal requests are sent by the test itself.
+     */
+    private void startHandlerWithThief() throws IOException {
+        thiefServer = new ServerSocket(0);
+        thief = new ClusterNode("127.0.0.1", 7301, thiefServer.getLocalPort(), 7302, ZonedDateTime.now(), -1, Set.of(RUNTIME), new ClusterNodeUtilization());
+        Thread.ofVirtual().start(this::serveThief);
+
+        var settings = executionSettings(8, 1, 1);
+        var meshManager = new NodesMeshManager(self, Set.of(new Cluster("alpha", Set.of(self, thief))), Set.of());
+        delegator = new RemoteExecutionDelegator(
+            NodeConfig.DelegationSettings.defaults(),
+            new NodeConfig.CompressionSettings(false, 0, 1),
+            new CompressionMetrics()
+        );
+        workStealer = new WorkStealer(meshManager, delegator, settings, new NodeConfig.StealingSettings(true, 60_000, 1, 4), metrics, 1000);
+        startHandler(settings, meshManager, workStealer);
+    }
+
+    private void serveThief() {
+        while (!thiefServer.isClosed()) {
+            try {
+                Socket socket = thiefServer.accept();
+                Thread.ofVirtual().start(() -> {
+                    try (socket) {
+                        var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                        var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                        byte version = DelegationFrameCodec.handshakeAsServer(in, out);
+                        DelegationFrameCodec.negotiateCompressionAsServer(in, out, version, false);
+                        var codec = new DelegationFrameCodec(version);
+                        while (true) {
+                            var answers = switch (codec.read(in)) {
+                                case DelegationFrame.Ping ping -> List.<DelegationFrame>of(new DelegationFrame.Pong(ping.requestId()));
+                                case DelegationFrame.Request request -> {
+                                    thiefRequests.add(request);
+                                    yield thiefAnswers.apply(request);
+                                }
+                                default -> List.<DelegationFrame>of();
+                            };
+                            for (var answer: answers) {
+                                codec.write(out, answer);
+                            }
+                            out.flush();
+                        }
+                    } catch (IOException _) {
+                        // Handler went away
+                    }
+                });
+            } catch (IOException _) {
+                return;
+            }
+        }
+    }
+
+    private DelegationFrame.Steal steal(long requestId) {
+        return new DelegationFrame.Steal(requestId, thief.hostname(), thief.communicationPort(), 1);
+    }
+
+    private static List<DelegationFrame> answeredByThief(DelegationFrame.Request request) {
+        return List.of(new DelegationFrame.Response(request.requestId(), new RemoteExecutionSummary(new ExecutionRuntime.Result(0, "thief"))));
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Condition not met in time");
+            Thread.sleep(5);
+        }
+    }
+
+    private CountDownLatch gate(String command) {
+        return gates.computeIfAbsent(command, _ -> new CountDownLatch(1));
+    }
+
+    private int runsOf(String command) {
+        var counter = runs.get(command);
+
+        return counter == null ? 0 : counter.get();
+    }
+
+    private static DelegationFrame.Request request(long requestId, String command) {
+        return new DelegationFrame.Request(requestId, new ExecutionDelegation(RUNTIME, new ExecutionRuntime.Input(command), 0));
+    }
+
+    /**
+     * Speaks the delegation protocol the way a delegating node does, one frame at a time.
+     */
+    private final class Client implements AutoCloseable {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private final DelegationFrameCodec codec;
+
+        private Client() throws IOException {
+            socket = new Socket("127.0.0.1", handler.getCommunicationPort());
+            socket.setSoTimeout(10_000);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            byte version = DelegationFrameCodec.handshakeAsClient(in, out);
+            DelegationFrameCodec.negotiateCompressionAsClient(in, out, version, false);
+            codec = new DelegationFrameCodec(version);
+        }
+
+        private void send(DelegationFrame... frames) throws IOException {
+            for (var frame: frames) {
+                codec.write(out, frame);
+            }
+            out.flush();
+        }
+
+        private DelegationFrame receive() throws IOException {
+            return codec.read(in);
+        }
+
+        /**
+         * Frames of different requests may leave in any order, they are looked up by request id and type.
+         */
+        private List<DelegationFrame> receive(int frames) throws IOException {
+            List<DelegationFrame> received = new ArrayList<>();
+            for (int i = 0; i < frames; i++) {
+                received.add(receive());
+            }
+
+            return received;
+        }
+
+        @Override
+        public void close() throws IOException {
+            codec.close();
+            socket.close();
+        }
+    }
+
+    private static <T extends DelegationFrame> T find(List<DelegationFrame> frames, Class<T> type, long requestId) {
+        return frames.stream()
+            .filter(frame -> type.isInstance(frame) && frame.requestId() == requestId)
+            .map(type::cast)
+            .findFirst()
+            .orElseThrow(() -> new AssertionError("No " + type.getSimpleName() + " for request " + requestId + " in " + frames))
+        ;
+    }
+
+    private static String outputOf(DelegationFrame frame) {
+        var response = assertInstanceOf(DelegationFrame.Response.class, frame);
+
+        return response.summary().result().output();
+    }
+
+    @Test
+    public void pipelinedRequestsAreAnsweredAsTheyFinish() throws Exception {
+        // Arrange
+        startHandler(2, 2);
+        var slowGate = gate("slow");
+
+        try (var client = new Client()) {
+            // Act
+            client.send(request(1, "slow"));
+            client.send(request(2, "fast"));
+            var first = client.receive();
+            slowGate.countDown();
+            var second = client.receive();
+
+            // Assert
+            assertEquals(2, first.requestId());
+            assertEquals("fast", outputOf(first));
+            assertEquals(1, second.requestId());
+            assertEquals("slow", outputOf(second));
+        }
+    }
+
+    @Test
+    public void requestsOverTheLimitWaitInBacklogAndBeyondItAreRefused() throws Exception {
+        // Arrange
+        startHandler(1, 2);
+        var slowGate = gate("slow");
+
+        try (var client = new Client()) {
+            // Act
+            client.send(request(1, "slow"));
+            client.send(request(2, "waiting"));
+            client.send(request(3, "refused"));
+            var refusal = client.receive();
+            slowGate.countDown();
+            var firstAnswer = client.receive();
+            var secondAnswer = client.receive();
+
+            // Assert
+            assertEquals(3, refusal.requestId());
+            assertInstanceOf(DelegationFrame.Failure.class, refusal);
+            assertEquals(1, firstAnswer.requestId());
+            assertEquals(2, secondAnswer.requestId());
+            assertEquals("waiting", outputOf(secondAnswer));
+            assertEquals(0, runsOf("refused"));
+            assertEquals(1, metrics.snapshot().rejectedJobs());
+        }
+    }
+
+    @Test
+    public void backlogOfClosedConnectionNeverStarts() throws Exception {
+        // Arrange
+        startHandler(1, 2);
+        var slowGate = gate("slow");
+        var client = new Client();
+        client.send(request(1, "slow"));
+        client.send(request(2, "waiting"));
+        while (runsOf("slow") == 0) {
+            Thread.sleep(10);
+        }
+
+        // Act
+        client.close();
+        while (handler.getOpenConnections() > 0) {
+            Thread.sleep(10);
+        }
+        slowGate.countDown();
+        Thread.sleep(200);
+
+        // Assert
+        assertEquals(1, runsOf("slow"));
+        assertEquals(0, runsOf("waiting"));
+        assertEquals(1, metrics.snapshot().rejectedJobs());
+    }
+
+    @Test
+    public void jobSharedByLanesIsCountedOnce() throws Exception {
+        // Arrange
+        startHandler(1, 3, 3);
+
+        try (var client = new Client()) {
+            // Act
+            client.send(new DelegationFrame.Request(1, new ExecutionDelegation(RUNTIME, new ExecutionRuntime.Input("repeated"), 5)));
+            var answer = client.receive();
+
+            // Assert
+            assertInstanceOf(DelegationFrame.Response.class, answer);
+            assertEquals(6, runsOf("repeated"));
+            var snapshot = metrics.snapshot();
+            assertEquals(1, snapshot.completedJobs());
+            assertEquals(0, snapshot.failedJobs());
+            assertEquals(1, snapshot.queueWait().samples());
+            assertEquals(1, snapshot.execution().samples());
+        }
+    }
+
+    @Test
+    public void jobStolenWhileAllLanesAreQueuedIsAnsweredByTheThief() throws Exception {
+        // Arrange
+        startHandlerWithThief();
+        thiefAnswers = RemoteExecutionHandlerJobTest::answeredByThief;
+        var blockingGate = gate("blocking");
+
+        try (var client = new Client()) {
+            client.send(request(1, "blocking"));
+            awaitTrue(() -> runsOf("blocking") == 1);
+            client.send(request(2, "queued"));
+
+            // Act
+            client.send(steal(99));
+            var stealing = client.receive(2);
+            blockingGate.countDown();
+            var blocking = client.receive();
+
+            // Assert
+            assertEquals(1, find(stealing, DelegationFrame.Lent.class, 99).jobs());
+            assertEquals("thief", outputOf(find(stealing, DelegationFrame.Response.class, 2)));
+            assertEquals("blocking", outputOf(blocking));
+            assertEquals(1, thiefRequests.size());
+            assertTrue(thiefRequests.getFirst().stolen());
+            // Lanes taken out of the queue complete the local chain of the job, it used to stay pending forever
+            awaitTrue(() -> handler.getPendingJobs() == 0);
+            assertEquals(0, runsOf("queued"));
+        }
+    }
+
+    @Test
+    public void laneLosingTheRaceToAStealLeavesTheAnswerToTheThief() throws Exception {
+        for (int attempt = 0; attempt < 20; attempt++) {
+            // Arrange
+            // The first job of a fresh handler goes straight to a new job thread, never through the queue, so a steal
+            // arriving before that thread runs finds a lane it cannot take back
+            startHandlerWithThief();
+            thiefAnswers = RemoteExecutionHandlerJobTest::answeredByThief;
+            String raced = "raced-" + attempt;
+
+            try (var client = new Client()) {
+                // Act
+                client.send(request(1, raced), steal(99));
+                var answers = client.receive(2);
+
+                // Assert
+                int lent = find(answers, DelegationFrame.Lent.class, 99).jobs();
+                assertEquals(lent == 1 ? "thief" : raced, outputOf(find(answers, DelegationFrame.Response.class, 1)));
+                awaitTrue(() -> handler.getPendingJobs() == 0);
+                assertEquals(lent == 1 ? 0 : 1, runsOf(raced));
+                assertEquals(lent, thiefRequests.size());
+            } finally {
+                tearDown();
+                thiefRequests.clear();
+            }
+        }
+    }
+
+    @Test
+    public void jobOfThiefFailingBeforeForwardingRunsHereAndCannotBeStolenAgain() throws Exception {
+        // Arrange
+        startHandlerWithThief();
+        thiefAnswers = request -> List.of(new DelegationFrame.Failure(request.requestId(), "thief broke"));
+        var blockingGate = gate("blocking");
+
+        try (var client = new Client()) {
+            client.send(request(1, "blocking"));
+            awaitTrue(() -> runsOf("blocking") == 1);
+            client.send(request(2, "queued"));
+
+            // Act
+            client.send(steal(99));
+            var lent = client.receive();
+            awaitTrue(() -> thiefRequests.size() == 1 && handler.getPendingJobs() == 2);
+            client.send(steal(100));
+            var stealAgain = client.receive();
+            blockingGate.countDown();
+            var answers = client.receive(2);
+
+            // Assert
+            assertEquals(new DelegationFrame.Lent(99, 1), lent);
+            assertEquals(new DelegationFrame.Lent(100, 0), stealAgain);
+            assertEquals("blocking", outputOf(find(answers, DelegationFrame.Response.class, 1)));
+            assertEquals("queued", outputOf(find(answers, DelegationFrame.Response.class, 2)));
+            assertEquals(1, runsOf("queued"));
+            assertEquals(1, thiefRequests.size());
+        }
+    }
+
+    @Test
+    public void thiefFailingAfterForwardingFailsTheJob() throws Exception {
+        // Arrange
+        startHandlerWithThief();
+        thiefAnswers = request -> List.of(
+            new DelegationFrame.Partial(request.requestId(), 0, new ExecutionRuntime.Result(0, "first run")),
+            new DelegationFrame.Failure(request.requestId(), "thief broke")
+        );
+        var blockingGate = gate("blocking");
+
+        try (var client = new Client()) {
+            client.send(request(1, "blocking"));
+            awaitTrue(() -> runsOf("blocking") == 1);
+            client.send(new DelegationFrame.Request(2, new ExecutionDelegation(RUNTIME, new ExecutionRuntime.Input("queued"), 1), true));
+
+            // Act
+            client.send(steal(99));
+            var stealing = client.receive(3);
+            blockingGate.countDown();
+            var blocking = client.receive();
+
+            // Assert
+            assertEquals(1, find(stealing, DelegationFrame.Lent.class, 99).jobs());
+            assertEquals("first run", find(stealing, DelegationFrame.Partial.class, 2).result().output());
+            var failure = find(stealing, DelegationFrame.Failure.class, 2);
+            assertEquals("Failed to handle job on 127.0.0.1:" + thief.communicationPort() + ": thief broke", failure.reason());
+            assertEquals("blocking", outputOf(blocking));
+            awaitTrue(() -> handler.getPendingJobs() == 0);
+            assertEquals(0, runsOf("queued"));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+import io.grano22.cluster.remoteexecution.ResultAggregator;
+import io.grano22.cluster.runtime.ExecutionRuntime;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResultAggregatorTest {
+    @Test
+    public void keepsOutputsInRunOrder() {
+        // Arrange
+        var completedAt = Instant.ofEpochMilli(1_700_000_000_000L).atZone(ZoneOffset.UTC);
+        var same = new ExecutionRuntime.Result(0, "same", completedAt);
+
+        // Act
+        ExecutionRuntime.ExecutionResult result;
+        ResultAggregator.Summary summary;
+        try (var aggregator = ResultAggregator.keepingOutputs(1024, Long.MAX_VALUE)) {
+            for (var run = 9; run >= 0; run--) {
+                aggregator.add(run, run == 4 ? new ExecutionRuntime.Result(2, "run 4", completedAt) : same, 1_000);
+            }
+            result = aggregator.toResult();
+            summary = aggregator.summary();
+        }
+
+        // Assert
+        var union = assertInstanceOf(ExecutionRuntime.UnionResult.class, result);
+        assertEquals(10, union.results().size());
+        assertEquals("run 4", union.results().get(4).output());
+        assertEquals(2, union.statusCode());
+        assertEquals(10, summary.runs());
+        assertEquals(1, summary.failed());
+        assertEquals(Map.of(0, 9L, 2, 1L), summary.statusCodes());
+        assertEquals(4, summary.lastFailure().run());
+    }
+
+    @Test
+    public void resultsPastTheMemoryLimitOnlyCountInTheSummary() {
+        // Arrange
+        var completedAt = Instant.ofEpochMilli(1_700_000_000_000L).atZone(ZoneOffset.UTC);
+        var same = new ExecutionRuntime.Result(0, "same", completedAt);
+
+        // Act
+        ExecutionRuntime.ExecutionResult result;
+        ResultAggregator.Summary summary;
+        // Every result takes 72 bytes of the limit, the first two completed runs fit
+        try (var aggregator = ResultAggregator.keepingOutputs(200, Long.MAX_VALUE)) {
+            for (var run = 9; run >= 0; run--) {
+                aggregator.add(run, run == 4 ? new ExecutionRuntime.Result(2, "run 4", completedAt) : same, 1_000);
+            }
+            result = aggregator.toResult();
+            summary = aggregator.summary();
+        }
+
+        // Assert
+        var union = assertInstanceOf(ExecutionRuntime.UnionResult.class, result);
+        assertEquals(2, union.results().size());
+        assertEquals("same\nsame\n[8 more outputs not kept, past 200 bytes]", union.output());
+        assertEquals(2, union.statusCode());
+        assertEquals(10, summary.runs());
+        assertEquals(1, summary.failed());
+    }
+
+    @Test
+    public void keptOutputsAreCutOffAtTheOutputLimit() {
+        // Arrange
+        var output = new ExecutionRuntime.Result(0, "0123456789");
+
+        // Act
+        ExecutionRuntime.ExecutionResult result;
+        try (var aggregator = ResultAggregator.keepingOutputs(1024, 25)) {
+            for (var run = 0; run < 4; run++) {
+                aggregator.add(run, output, 1_000);
+            }
+            result = aggregator.toResult();
+        }
+
+        // Assert
+        var union = assertInstanceOf(ExecutionRuntime.UnionResult.class, result);
+        assertEquals("0123456789", union.results().get(1).output());
+        assertEquals("01234\n[output truncated at 25 bytes]", union.results().get(2).output());
+        assertEquals("", union.results().get(3).output());
+    }
+
+    @Test
+    public void equalResultsAreNotLostWhenCombined() {
+        // Arrange
+        var result = new ExecutionRuntime.Result(0, "x", Instant.EPOCH.atZone(ZoneOffset.UTC));
+
+        // Act
+        var combined = result.withNextResult(result).withNextResult(result);
+
+        // Assert
+        assertEquals(3, combined.results().size());
+        assertEquals("x\nx\nx", combined.output());
+    }
+}
@@ -0,0 +1,136 @@
+import io.grano22.cluster.clustermanagement.Cluster;
+import io.grano22.cluster.clustermanagement.ClusterNode;
+import io.grano22.cluster.clustermanagement.ClusterNodeUtilization;
+import io.grano22.cluster.clustermanagement.NodeConfig;
+import io.grano22.cluster.clustermanagement.NodesMeshManager;
+import io.grano22.cluster.heartbeat.HeartbeatMessage;
+import io.grano22.cluster.heartbeat.HeartbeatMessage.MemberStatus;
+import io.grano22.cluster.heartbeat.HeartbeatMessage.MembershipUpdate;
+import io.grano22.cluster.heartbeat.SwimMembershipProtocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SwimMembershipProtocolTest {
+    private final ClusterNode self = node(7001);
+    private final ClusterNode peer = node(7002);
+    private final NodesMeshManager meshManager = new NodesMeshManager(self, Set.of(new Cluster("alpha", Set.of(self))), Set.of());
+    private final List<HeartbeatMessage> sent = new ArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final SwimMembershipProtocol protocol = new SwimMembershipProtocol(
+        meshManager,
+        (message, _) -> sent.add(message),
+        scheduler,
+        NodeConfig.HeartbeatSettings.defaults()
+    );
+
+    private static ClusterNode node(int port) {
+        return new ClusterNode("127.0.0.1", port, port + 100, port + 200, ZonedDateTime.now(), -1, Set.of(), new ClusterNodeUtilization());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private HeartbeatMessage.Ping pingWith(MembershipUpdate... updates) {
+        return new HeartbeatMessage.Ping(peer, System.currentTimeMillis(), 1, Map.of(), List.of(updates));
+    }
+
+    private MembershipUpdate lastUpdateAbout(ClusterNode node) {
+        var ack = (HeartbeatMessage.Ack) sent.getLast();
+
+        return ack.updates().stream().filter(update -> update.node().equals(node)).findFirst().orElseThrow();
+    }
+
+    @Test
+    public void suspicionAboutSelfWithStaleIncarnationIsRefuted() {
+        // Arrange
+        long bootIncarnation = protocol.getSelfIncarnation();
+
+        // Act
+        protocol.onPing(pingWith(new MembershipUpdate(self, MemberStatus.SUSPECT, 0, Set.of("alpha"))));
+
+        // Assert
+        var refutation = lastUpdateAbout(self);
+        assertEquals(MemberStatus.ALIVE, refutation.status());
+        assertEquals(bootIncarnation, refutation.incarnation());
+        assertEquals(bootIncarnation, protocol.getSelfIncarnation());
+    }
+
+    @Test
+    public void deathOfSelfAtHigherIncarnationIsRefutedAboveIt() {
+        // Arrange
+        long declaredAt = protocol.getSelfIncarnation() + 5;
+
+        // Act
+        protocol.onPing(pingWith(new MembershipUpdate(self, MemberStatus.DEAD, declaredAt, Set.of("alpha"))));
+
+        // Assert
+        assertEquals(declaredAt + 1, protocol.getSelfIncarnation());
+        assertEquals(new MembershipUpdate(self, MemberStatus.ALIVE, declaredAt + 1, Set.of("alpha")), lastUpdateAbout(self));
+    }
+
+    @Test
+    public void acksAnnounceSelfIncarnationWithoutAnySuspicion() {
+        // Act
+        protocol.onPing(pingWith());
+
+        // Assert
+        assertEquals(protocol.getSelfIncarnation(), lastUpdateAbout(self).incarnation());
+    }
+
+    @Test
+    public void suspicionNeedsAtLeastTheKnownIncarnationAndOnlyAHigherOneClearsIt() {
+        // Arrange
+        protocol.onPing(pingWith(new MembershipUpdate(peer, MemberStatus.ALIVE, 5, Set.of("alpha"))));
+
+        // Act
+        protocol.onPing(pingWith(new MembershipUpdate(peer, MemberStatus.SUSPECT, 4, Set.of("alpha"))));
+        var afterStaleSuspicion = protocol.getMemberStatus(peer);
+        protocol.onPing(pingWith(new MembershipUpdate(peer, MemberStatus.SUSPECT, 5, Set.of("alpha"))));
+        var afterSuspicion = protocol.getMemberStatus(peer);
+        protocol.onPing(pingWith(new MembershipUpdate(peer, MemberStatus.ALIVE, 5, Set.of("alpha"))));
+        var afterSameIncarnation = protocol.getMemberStatus(peer);
+        protocol.onPing(pingWith(new MembershipUpdate(peer, MemberStatus.ALIVE, 6, Set.of("alpha"))));
+
+        // Assert
+        assertEquals(Optional.of(MemberStatus.ALIVE), afterStaleSuspicion);
+        assertEquals(Optional.of(MemberStatus.SUSPECT), afterSuspicion);
+        assertEquals(Optional.of(MemberStatus.SUSPECT), afterSameIncarnation);
+        assertEquals(Optional.of(MemberStatus.ALIVE), protocol.getMemberStatus(peer));
+    }
+
+    @Test
+    public void deadMemberIsTombstonedUntilItSpeaksWithAHigherIncarnation() {
+        // Arrange
+        var alpha = meshManager.findCluster("alpha").orElseThrow();
+        protocol.onPing(pingWith(new MembershipUpdate(peer, MemberStatus.ALIVE, 5, Set.of("alpha"))));
+
+        // Act
+        protocol.onPing(pingWith(new MembershipUpdate(peer, MemberStatus.DEAD, 5, Set.of("alpha"))));
+        boolean memberAfterDeath = meshManager.hasInCluster(alpha, peer);
+        protocol.onPing(pingWith(new MembershipUpdate(peer, MemberStatus.ALIVE, 5, Set.of("alpha"))));
+        var afterStaleGossip = protocol.getMemberStatus(peer);
+        var tombstoned = protocol.getDeclaredDead("alpha");
+        protocol.onPing(pingWith(new MembershipUpdate(peer, MemberStatus.ALIVE, 6, Set.of("alpha"))));
+
+        // Assert
+        assertFalse(memberAfterDeath);
+        assertEquals(Optional.of(MemberStatus.DEAD), afterStaleGossip);
+        assertEquals(Set.of(peer), tombstoned);
+        assertEquals(Optional.of(MemberStatus.ALIVE), protocol.getMemberStatus(peer));
+        assertFalse(protocol.isDeclaredDead(peer));
+        assertTrue(meshManager.hasInCluster(alpha, peer));
+    }
+}